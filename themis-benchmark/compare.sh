@@ -0,0 +1,39 @@
+#!/bin/bash
+# Compare two JMH result files written by '-rf csv -rff <file>'. Benchmarks are matched by name,
+# mode, threads and params, and the change of score is printed in percent. For AverageTime mode,
+# a positive change means slower.
+# Usage: compare.sh <baseline.csv> <current.csv>
+
+if [ $# -ne 2 ]; then
+  echo "Usage: $0 <baseline.csv> <current.csv>"
+  exit 1
+fi
+
+awk -F',' '
+  function key(   k, i) {
+    # skip Samples, Score and Score Error columns
+    k = $1 "," $2 "," $3
+    for (i = 7; i <= NF; ++i) {
+      k = k "," $i
+    }
+    return k
+  }
+  FNR == 1 {
+    next
+  }
+  NR == FNR {
+    baseline[key()] = $5
+    next
+  }
+  {
+    k = key()
+    gsub(/"/, "", k)
+    if ((key()) in baseline) {
+      base = baseline[key()]
+      change = base == 0 ? 0 : ($5 - base) * 100 / base
+      printf "%-100s %12.3f %12.3f %+8.1f%%\n", k, base, $5, change
+    } else {
+      printf "%-100s %12s %12.3f %9s\n", k, "-", $5, "new"
+    }
+  }
+' "$1" "$2"
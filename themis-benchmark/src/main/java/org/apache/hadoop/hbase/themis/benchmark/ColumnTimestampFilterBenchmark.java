@@ -0,0 +1,136 @@
+package org.apache.hadoop.hbase.themis.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.themis.columns.Column;
+import org.apache.hadoop.hbase.themis.cp.ColumnTimestampFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Compare ColumnTimestampFilter with the legacy implementation on a row with columnCount columns.
+// Each column has a newer version which is not required and the required version, and every other
+// column is required, so that the filter returns SKIP, INCLUDE_AND_NEXT_COL and
+// SEEK_NEXT_USING_HINT for the cells. The cells are fed as the scanner does: the remaining versions
+// of the column are skipped after NEXT_COL or INCLUDE_AND_NEXT_COL, and the scanner seeks to the
+// next column for SEEK_NEXT_USING_HINT. filterRow reuses the filter as a scan over rows with the
+// same columns; buildAndFilterRow creates the filter for the row as the themis read does. Run by:
+// mvn package -Pbenchmark -DskipTests
+// java -jar themis-benchmark/target/benchmarks.jar ColumnTimestampFilterBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnTimestampFilterBenchmark {
+  private static final byte[] ROW = Bytes.toBytes("row");
+  private static final byte[] FAMILY = Bytes.toBytes("ThemisCF");
+  private static final byte[] VALUE = Bytes.toBytes("value");
+  private static final long TIMESTAMP = 1000;
+
+  @Param({ "10", "100", "1000", "10000" })
+  public int columnCount;
+
+  @Param({ "current", "legacy" })
+  public String implementation;
+
+  private KeyValue[] cells;
+  // index of the first cell of the next column for each cell
+  private int[] nextColumnIndexes;
+  // required columns in the order of put kvs, which is not sorted
+  private List<Column> requiredColumns;
+  private Filter filter;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    List<Integer> nextColumns = new ArrayList<Integer>();
+    requiredColumns = new ArrayList<Column>();
+    for (int i = 0; i < columnCount; ++i) {
+      byte[] qualifier = Bytes.toBytes(String.format("Qualifier%06d", i));
+      kvs.add(new KeyValue(ROW, FAMILY, qualifier, TIMESTAMP + 1, Type.Put, VALUE));
+      kvs.add(new KeyValue(ROW, FAMILY, qualifier, TIMESTAMP, Type.Put, VALUE));
+      nextColumns.add(kvs.size());
+      nextColumns.add(kvs.size());
+      if (i % 2 == 0) {
+        requiredColumns.add(new Column(FAMILY, qualifier));
+      }
+    }
+    Collections.shuffle(requiredColumns, new Random(0));
+    cells = kvs.toArray(new KeyValue[kvs.size()]);
+    nextColumnIndexes = new int[nextColumns.size()];
+    for (int i = 0; i < nextColumnIndexes.length; ++i) {
+      nextColumnIndexes[i] = nextColumns.get(i);
+    }
+    filter = buildFilter();
+    // the columns are sorted when the first cell is filtered
+    filter.filterKeyValue(cells[0]);
+  }
+
+  private Filter buildFilter() {
+    if ("legacy".equals(implementation)) {
+      LegacyColumnTimestampFilter legacyFilter = new LegacyColumnTimestampFilter();
+      for (Column column : requiredColumns) {
+        legacyFilter.addColumnTimestamp(column, TIMESTAMP);
+      }
+      return legacyFilter;
+    }
+    ColumnTimestampFilter currentFilter = new ColumnTimestampFilter();
+    for (Column column : requiredColumns) {
+      currentFilter.addColumnTimestamp(column, TIMESTAMP);
+    }
+    return currentFilter;
+  }
+
+  private int filterRow(Filter filter, Blackhole blackhole) throws IOException {
+    int included = 0;
+    int i = 0;
+    while (i < cells.length) {
+      ReturnCode code = filter.filterKeyValue(cells[i]);
+      blackhole.consume(code);
+      if (code == ReturnCode.NEXT_ROW) {
+        break;
+      } else if (code == ReturnCode.SKIP) {
+        ++i;
+      } else {
+        if (code == ReturnCode.INCLUDE_AND_NEXT_COL) {
+          ++included;
+        }
+        i = nextColumnIndexes[i];
+      }
+    }
+    return included;
+  }
+
+  @Benchmark
+  public int filterRow(Blackhole blackhole) throws IOException {
+    filter.reset();
+    return filterRow(filter, blackhole);
+  }
+
+  @Benchmark
+  public int buildAndFilterRow(Blackhole blackhole) throws IOException {
+    return filterRow(buildFilter(), blackhole);
+  }
+}
@@ -0,0 +1,85 @@
+package org.apache.hadoop.hbase.themis.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.themis.columns.Column;
+import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
+import org.apache.hadoop.hbase.themis.columns.ColumnUtil.CommitFamily;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Measure the column transfer and judgement of ColumnUtil applied to each column of a row. Each
+// operation processes all the columns of the row. Run by:
+// mvn package -Pbenchmark -DskipTests
+// java -jar themis-benchmark/target/benchmarks.jar ColumnUtilBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnUtilBenchmark {
+  @Param({ "DIFFERNT_FAMILY", "SAME_WITH_DATA_FAMILY" })
+  public CommitFamily commitFamily;
+
+  @Param({ "NARROW", "WIDE", "MANY_VERSIONS" })
+  public RowShape rowShape;
+
+  private Column[] dataColumns;
+  // lock and write columns of the row
+  private Column[] lockAndWriteColumns;
+  private KeyValue[] writeKvs;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    RowShape.useCommitFamily(commitFamily);
+    List<Column> columns = rowShape.getDataColumns();
+    dataColumns = columns.toArray(new Column[columns.size()]);
+    List<KeyValue> kvs = rowShape.getLockKvs();
+    kvs.addAll(rowShape.getWriteKvs());
+    List<Column> lockAndWrite = new ArrayList<Column>();
+    for (KeyValue kv : kvs) {
+      lockAndWrite.add(new Column(kv.getFamily(), kv.getQualifier()));
+    }
+    lockAndWriteColumns = lockAndWrite.toArray(new Column[lockAndWrite.size()]);
+    kvs = rowShape.getWriteKvs();
+    writeKvs = kvs.toArray(new KeyValue[kvs.size()]);
+  }
+
+  @Benchmark
+  public void getLockColumn(Blackhole blackhole) {
+    for (Column column : dataColumns) {
+      blackhole.consume(ColumnUtil.getLockColumn(column));
+    }
+  }
+
+  @Benchmark
+  public void getDataColumn(Blackhole blackhole) {
+    for (Column column : lockAndWriteColumns) {
+      blackhole.consume(ColumnUtil.getDataColumn(column));
+    }
+  }
+
+  // judge the write kvs as read from region
+  @Benchmark
+  public void isPutColumn(Blackhole blackhole) {
+    for (KeyValue kv : writeKvs) {
+      blackhole.consume(ColumnUtil.isPutColumn(kv.getFamily(), kv.getQualifier()));
+    }
+  }
+}
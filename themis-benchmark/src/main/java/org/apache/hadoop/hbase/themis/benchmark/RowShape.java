@@ -0,0 +1,121 @@
+package org.apache.hadoop.hbase.themis.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.themis.columns.Column;
+import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
+import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
+import org.apache.hadoop.hbase.themis.columns.ColumnUtil.CommitFamily;
+import org.apache.hadoop.hbase.themis.lock.SecondaryLock;
+import org.apache.hadoop.hbase.themis.lock.ThemisLock;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// The shapes of the row read by themis used in the micro benchmarks. Each column is written
+// versionCount times and some of the writes are deletes; every eighth column is locked by an
+// ongoing transaction. The lock and write columns are constructed by ColumnUtil, so that
+// ColumnUtil must be initialized by useCommitFamily before the kvs are created
+public enum RowShape {
+  // a few columns of one family, each column is written once
+  NARROW(1, 4, 1),
+  // many columns in several families, each column is written once
+  WIDE(4, 256, 1),
+  // a few columns of one family, each column is written many times
+  MANY_VERSIONS(1, 8, 32);
+
+  public static final byte[] TABLE = Bytes.toBytes("ThemisTable");
+  public static final byte[] ROW = Bytes.toBytes("row");
+  public static final byte[] VALUE = Bytes.toBytes("value");
+  public static final long FIRST_PREWRITE_TS = 1000;
+  public static final String CLIENT_ADDRESS = "127.0.0.1:12345";
+
+  private final int familyCount;
+  private final int qualifierCount;
+  private final int versionCount;
+
+  private RowShape(int familyCount, int qualifierCount, int versionCount) {
+    this.familyCount = familyCount;
+    this.qualifierCount = qualifierCount;
+    this.versionCount = versionCount;
+  }
+
+  public static void useCommitFamily(CommitFamily commitFamily) {
+    Configuration conf = new Configuration(false);
+    conf.set(ColumnUtil.THEMIS_COMMIT_FAMILY_TYPE, commitFamily.toString());
+    ColumnUtil.init(conf);
+  }
+
+  public static byte[] getFamily(int index) {
+    return Bytes.toBytes("ThemisCF" + index);
+  }
+
+  public static byte[] getQualifier(int index) {
+    return Bytes.toBytes(String.format("Qualifier%04d", index));
+  }
+
+  public int getFamilyCount() {
+    return familyCount;
+  }
+
+  public List<Column> getDataColumns() {
+    List<Column> columns = new ArrayList<Column>();
+    for (int i = 0; i < familyCount; ++i) {
+      for (int j = 0; j < qualifierCount; ++j) {
+        columns.add(new Column(getFamily(i), getQualifier(j)));
+      }
+    }
+    return columns;
+  }
+
+  // put and delete kvs of all versions sorted as read from region
+  public List<KeyValue> getWriteKvs() {
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    List<Column> dataColumns = getDataColumns();
+    for (int i = 0; i < dataColumns.size(); ++i) {
+      for (int j = 0; j < versionCount; ++j) {
+        long prewriteTs = FIRST_PREWRITE_TS + j * 10;
+        Column writeColumn = (i + j) % 4 == 3 ? ColumnUtil.getDeleteColumn(dataColumns.get(i))
+            : ColumnUtil.getPutColumn(dataColumns.get(i));
+        kvs.add(new KeyValue(ROW, writeColumn.getFamily(), writeColumn.getQualifier(),
+            prewriteTs + 1, Type.Put, Bytes.toBytes(prewriteTs)));
+      }
+    }
+    Collections.sort(kvs, KeyValue.COMPARATOR);
+    return kvs;
+  }
+
+  public List<KeyValue> getLockKvs() throws IOException {
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    List<Column> dataColumns = getDataColumns();
+    long prewriteTs = FIRST_PREWRITE_TS + versionCount * 10;
+    for (int i = 0; i < dataColumns.size(); i += 8) {
+      SecondaryLock lock = new SecondaryLock(Type.Put);
+      lock.setTimestamp(prewriteTs);
+      lock.setClientAddress(CLIENT_ADDRESS);
+      lock.setPrimaryColumn(new ColumnCoordinate(TABLE, Bytes.toBytes("primaryRow"), getFamily(0),
+          getQualifier(0)));
+      Column lockColumn = ColumnUtil.getLockColumn(dataColumns.get(i));
+      kvs.add(new KeyValue(ROW, lockColumn.getFamily(), lockColumn.getQualifier(), prewriteTs,
+          Type.Put, ThemisLock.toByte(lock)));
+    }
+    Collections.sort(kvs, KeyValue.COMPARATOR);
+    return kvs;
+  }
+
+  // the latest version of data columns
+  public List<KeyValue> getDataKvs() {
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    long prewriteTs = FIRST_PREWRITE_TS + (versionCount - 1) * 10;
+    for (Column column : getDataColumns()) {
+      kvs.add(new KeyValue(ROW, column.getFamily(), column.getQualifier(), prewriteTs, Type.Put,
+          VALUE));
+    }
+    Collections.sort(kvs, KeyValue.COMPARATOR);
+    return kvs;
+  }
+}
@@ -0,0 +1,101 @@
+package org.apache.hadoop.hbase.themis.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
+import org.apache.hadoop.hbase.themis.lock.PrimaryLock;
+import org.apache.hadoop.hbase.themis.lock.SecondaryLock;
+import org.apache.hadoop.hbase.themis.lock.ThemisLock;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Measure the serialization of locks. The primary lock has secondaryCount secondaries, four columns
+// in each secondary row of the same table. parsePrimary only parses the fixed fields as reading
+// the lock type or timestamp does, while parsePrimaryWithSecondaries also parses the secondaries as
+// committing or cleaning the lock does. Run by:
+// mvn package -Pbenchmark -DskipTests
+// java -jar themis-benchmark/target/benchmarks.jar ThemisLockBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThemisLockBenchmark {
+  @Param({ "1", "10", "100", "1000" })
+  public int secondaryCount;
+
+  private PrimaryLock primaryLock;
+  private SecondaryLock secondaryLock;
+  private byte[] primaryLockBytes;
+  private byte[] secondaryLockBytes;
+  private DataOutputBuffer out = new DataOutputBuffer();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    primaryLock = new PrimaryLock(Type.Put);
+    setLockFields(primaryLock);
+    for (int i = 0; i < secondaryCount; ++i) {
+      primaryLock.addSecondaryColumn(new ColumnCoordinate(RowShape.TABLE, Bytes.toBytes(String
+          .format("secondaryRow%08d", i / 4)), RowShape.getFamily(0), RowShape.getQualifier(i % 4)),
+        i % 4 == 3 ? Type.DeleteColumn : Type.Put);
+    }
+    secondaryLock = new SecondaryLock(Type.Put);
+    setLockFields(secondaryLock);
+    secondaryLock.setPrimaryColumn(new ColumnCoordinate(RowShape.TABLE, RowShape.ROW, RowShape
+        .getFamily(0), RowShape.getQualifier(0)));
+    primaryLockBytes = ThemisLock.toByte(primaryLock);
+    secondaryLockBytes = ThemisLock.toByte(secondaryLock);
+  }
+
+  private static void setLockFields(ThemisLock lock) {
+    lock.setTimestamp(RowShape.FIRST_PREWRITE_TS);
+    lock.setClientAddress(RowShape.CLIENT_ADDRESS);
+  }
+
+  @Benchmark
+  public byte[] primaryToByte() throws IOException {
+    return ThemisLock.toByte(primaryLock);
+  }
+
+  @Benchmark
+  public ThemisLock parsePrimary() throws IOException {
+    return ThemisLock.parseFromByte(primaryLockBytes);
+  }
+
+  @Benchmark
+  public Object parsePrimaryWithSecondaries() throws IOException {
+    return ((PrimaryLock) ThemisLock.parseFromByte(primaryLockBytes)).getSecondaryColumns();
+  }
+
+  @Benchmark
+  public int writePrimary() throws IOException {
+    out.reset();
+    primaryLock.write(out);
+    return out.getLength();
+  }
+
+  @Benchmark
+  public byte[] secondaryToByte() throws IOException {
+    return ThemisLock.toByte(secondaryLock);
+  }
+
+  @Benchmark
+  public ThemisLock parseSecondary() throws IOException {
+    return ThemisLock.parseFromByte(secondaryLockBytes);
+  }
+}
@@ -0,0 +1,80 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.themis.benchmark.RowShape;
+import org.apache.hadoop.hbase.themis.columns.ColumnUtil.CommitFamily;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Measure the per-row processing of ThemisCpUtil on the lock and write kvs read by themis get.
+// Placed in the package of ThemisCpUtil to access getPutKvs. removeNotRequiredLockColumns reads
+// the first family as a whole and one column of the other families. Run by:
+// mvn package -Pbenchmark -DskipTests
+// java -jar themis-benchmark/target/benchmarks.jar ThemisCpUtilBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThemisCpUtilBenchmark {
+  @Param({ "DIFFERNT_FAMILY", "SAME_WITH_DATA_FAMILY" })
+  public CommitFamily commitFamily;
+
+  @Param({ "NARROW", "WIDE", "MANY_VERSIONS" })
+  public RowShape rowShape;
+
+  private List<KeyValue> writeKvs;
+  // lock kvs followed by write kvs as read by the lock and write get
+  private List<KeyValue> lockAndWriteKvs;
+  private Get userGet;
+  private Result lockAndWriteResult;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    RowShape.useCommitFamily(commitFamily);
+    writeKvs = rowShape.getWriteKvs();
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    kvs.addAll(rowShape.getLockKvs());
+    kvs.addAll(writeKvs);
+    lockAndWriteKvs = kvs;
+    userGet = new Get(RowShape.ROW);
+    userGet.addFamily(RowShape.getFamily(0));
+    for (int i = 1; i < rowShape.getFamilyCount(); ++i) {
+      userGet.addColumn(RowShape.getFamily(i), RowShape.getQualifier(0));
+    }
+    lockAndWriteResult = new Result(lockAndWriteKvs);
+  }
+
+  @Benchmark
+  public List<KeyValue> getPutKvs() {
+    return ThemisCpUtil.getPutKvs(writeKvs);
+  }
+
+  @Benchmark
+  public Object seperateLockAndWriteKvs() {
+    return ThemisCpUtil.seperateLockAndWriteKvs(lockAndWriteKvs);
+  }
+
+  @Benchmark
+  public Result removeNotRequiredLockColumns() {
+    return ThemisCpUtil.removeNotRequiredLockColumns(userGet.getFamilyMap(), lockAndWriteResult);
+  }
+}
@@ -1,8 +1,15 @@
 package org.apache.hadoop.hbase.master;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -14,6 +21,7 @@ import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HConnection;
 import org.apache.hadoop.hbase.client.HConnectionManager;
@@ -33,6 +41,7 @@ import org.apache.hadoop.hbase.themis.cp.ServerLockCleaner;
 import org.apache.hadoop.hbase.themis.cp.ThemisEndpointClient;
 import org.apache.hadoop.hbase.themis.cp.ThemisCpStatistics;
 import org.apache.hadoop.hbase.themis.cp.TransactionTTL;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisCleanExpiredLocksResponse;
 import org.apache.hadoop.hbase.themis.lock.ThemisLock;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Threads;
@@ -47,6 +56,12 @@ public class ThemisMasterObserver extends BaseMasterObserver {
   public static final String THEMIS_EXPIRED_TIMESTAMP_CALCULATE_PERIOD_KEY = "themis.expired.timestamp.calculator.period";
   public static final String THEMIS_EXPIRED_DATA_CLEAN_ENABLE_KEY = "themis.expired.data.clean.enable";
   public static final String THEMIS_EXPIRED_TIMESTAMP_ZNODE_NAME = "themis-expired-ts";
+  public static final String THEMIS_EXPIRED_LOCK_CLEAN_CONCURRENCY_KEY = "themis.expired.lock.clean.concurrency";
+  public static final int DEFAULT_THEMIS_EXPIRED_LOCK_CLEAN_CONCURRENCY = 10;
+  public static final String THEMIS_EXPIRED_LOCK_CLEAN_BATCH_SIZE_KEY = "themis.expired.lock.clean.batch.size";
+  public static final int DEFAULT_THEMIS_EXPIRED_LOCK_CLEAN_BATCH_SIZE = 1000;
+  public static final String THEMIS_EXPIRED_LOCK_CLEAN_RATE_KEY = "themis.expired.lock.clean.rate";
+  public static final int DEFAULT_THEMIS_EXPIRED_LOCK_CLEAN_RATE = 0; // locks per second, 0 means no limit
   
   protected int expiredTsCalculatePeriod;
   protected Chore themisExpiredTsCalculator;
@@ -54,6 +69,10 @@ public class ThemisMasterObserver extends BaseMasterObserver {
   protected String themisExpiredTsZNodePath;
   protected HConnection connection;
   protected ServerLockCleaner lockCleaner;
+  protected int lockCleanConcurrency = DEFAULT_THEMIS_EXPIRED_LOCK_CLEAN_CONCURRENCY;
+  protected int lockCleanBatchSize = DEFAULT_THEMIS_EXPIRED_LOCK_CLEAN_BATCH_SIZE;
+  protected LockCleanRateLimiter lockCleanRateLimiter = new LockCleanRateLimiter(
+      DEFAULT_THEMIS_EXPIRED_LOCK_CLEAN_RATE);
   
   @Override
   public void start(CoprocessorEnvironment ctx) throws IOException {
@@ -183,6 +202,12 @@ public class ThemisMasterObserver extends BaseMasterObserver {
 
     connection = HConnectionManager.createConnection(ctx.getConfiguration());
     lockCleaner = new ServerLockCleaner(connection, new ThemisEndpointClient(connection));
+    lockCleanConcurrency = ctx.getConfiguration().getInt(THEMIS_EXPIRED_LOCK_CLEAN_CONCURRENCY_KEY,
+      DEFAULT_THEMIS_EXPIRED_LOCK_CLEAN_CONCURRENCY);
+    lockCleanBatchSize = ctx.getConfiguration().getInt(THEMIS_EXPIRED_LOCK_CLEAN_BATCH_SIZE_KEY,
+      DEFAULT_THEMIS_EXPIRED_LOCK_CLEAN_BATCH_SIZE);
+    lockCleanRateLimiter = new LockCleanRateLimiter(ctx.getConfiguration().getInt(
+      THEMIS_EXPIRED_LOCK_CLEAN_RATE_KEY, DEFAULT_THEMIS_EXPIRED_LOCK_CLEAN_RATE));
     
     String expiredTsCalculatePeriodStr = ctx.getConfiguration()
         .get(THEMIS_EXPIRED_TIMESTAMP_CALCULATE_PERIOD_KEY);
@@ -268,41 +293,157 @@ public class ThemisMasterObserver extends BaseMasterObserver {
         + ", zkPath=" + themisExpiredTsZNodePath);
   }
   
+  // clean expired locks of all themis tables. Each region scans and cleans its locks locally by
+  // the endpoint, regions are cleaned in parallel and the master only aggregates the counts
   public void cleanLockBeforeTimestamp(long ts) throws IOException {
     List<String> tableNames = getThemisTables(connection);
-    for (String tableName : tableNames) {
-      LOG.info("start to clean expired lock for themis table:" + tableName);
-      byte[] tableNameBytes = Bytes.toBytes(tableName);
-      HTableInterface hTable = null;
-      int cleanedLockCount = 0;
-      try {
-        hTable = new HTable(connection.getConfiguration(), tableName);
-        Scan scan = new Scan();
-        scan.addFamily(ColumnUtil.LOCK_FAMILY_NAME);
-        scan.setTimeRange(0, ts);
-        ResultScanner scanner = hTable.getScanner(scan);
-        Result result;
-        while ((result = scanner.next()) != null) {
-          for (KeyValue kv : result.list()) {
-            ThemisLock lock = ThemisLock.parseFromByte(kv.getValue());
-            Column dataColumn = ColumnUtil.getDataColumnFromConstructedQualifier(new Column(kv.getFamily(),
-                kv.getQualifier()));
-            lock.setColumn(new ColumnCoordinate(tableNameBytes, kv.getRow(),
-                dataColumn.getFamily(), dataColumn.getQualifier()));
-            lockCleaner.cleanLock(lock);
-            ++cleanedLockCount;
-            LOG.info("themis clean expired lock, lockTs=" + kv.getTimestamp() + ", expiredTs=" + ts
-                + ", lock=" + ThemisLock.parseFromByte(kv.getValue()));
-          }
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(lockCleanConcurrency, 1),
+      new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r);
+          t.setName("themis-expired-lock-clean-thread-" + System.currentTimeMillis());
+          t.setDaemon(true);
+          return t;
         }
-        scanner.close();
-      } finally {
-        if (hTable != null) {
+      });
+    try {
+      List<List<Future<long[]>>> tableFutures = new ArrayList<List<Future<long[]>>>();
+      for (String tableName : tableNames) {
+        LOG.info("start to clean expired lock for themis table:" + tableName);
+        List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+        HTable hTable = new HTable(TableName.valueOf(tableName), connection);
+        try {
+          for (HRegionInfo region : hTable.getRegionLocations().keySet()) {
+            futures.add(pool.submit(new RegionLockCleanTask(Bytes.toBytes(tableName), region, ts)));
+          }
+        } finally {
           hTable.close();
         }
+        tableFutures.add(futures);
+      }
+      IOException exception = null;
+      for (int i = 0; i < tableNames.size(); ++i) {
+        long cleanedLockCount = 0;
+        long failedLockCount = 0;
+        for (Future<long[]> future : tableFutures.get(i)) {
+          try {
+            long[] counts = future.get();
+            cleanedLockCount += counts[0];
+            failedLockCount += counts[1];
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted when clean expired lock");
+          } catch (ExecutionException e) {
+            LOG.error("clean expired lock fail for themis table:" + tableNames.get(i), e.getCause());
+            exception = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                : new IOException(e.getCause());
+          }
+        }
+        LOG.info("finish clean expired lock for themis table:" + tableNames.get(i)
+            + ", regionCount=" + tableFutures.get(i).size() + ", cleanedLockCount="
+            + cleanedLockCount + ", failedLockCount=" + failedLockCount);
+      }
+      if (exception != null) {
+        throw exception;
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  // clean expired locks of one region by batches, return the cleaned and failed lock count
+  class RegionLockCleanTask implements Callable<long[]> {
+    private final byte[] tableName;
+    private final HRegionInfo region;
+    private final long ts;
+
+    public RegionLockCleanTask(byte[] tableName, HRegionInfo region, long ts) {
+      this.tableName = tableName;
+      this.region = region;
+      this.ts = ts;
+    }
+
+    public long[] call() throws Exception {
+      ThemisEndpointClient cpClient = new ThemisEndpointClient(connection);
+      long[] counts = new long[2];
+      byte[] startRow = region.getStartKey();
+      // the region might be split when cleaning, continue until the end key of the region
+      while (true) {
+        ThemisCleanExpiredLocksResponse response;
+        try {
+          response = cpClient.cleanExpiredLocks(tableName, startRow, ts, lockCleanBatchSize);
+        } catch (IOException e) {
+          LOG.warn("clean expired lock by endpoint fail, clean by scan, region="
+              + region.getRegionNameAsString() + ", startRow=" + Bytes.toStringBinary(startRow), e);
+          counts[0] += cleanLockBeforeTimestamp(tableName, startRow, region.getEndKey(), ts);
+          return counts;
+        }
+        counts[0] += response.getCleanedLockCount();
+        counts[1] += response.getFailedLockCount();
+        lockCleanRateLimiter.acquire(response.getCleanedLockCount()
+            + response.getFailedLockCount());
+        startRow = response.getNextRow().toByteArray();
+        if (startRow.length == 0
+            || (region.getEndKey().length != 0 && Bytes.compareTo(startRow, region.getEndKey()) >= 0)) {
+          return counts;
+        }
+      }
+    }
+  }
+
+  // keep the average count of cleaned locks per second under the rate, rate <= 0 means no limit
+  static class LockCleanRateLimiter {
+    private final int rate;
+    private long nextFreeMs = 0;
+
+    public LockCleanRateLimiter(int rate) {
+      this.rate = rate;
+    }
+
+    public void acquire(long permits) throws InterruptedException {
+      if (rate <= 0 || permits <= 0) {
+        return;
+      }
+      long waitMs;
+      synchronized (this) {
+        long currentMs = System.currentTimeMillis();
+        nextFreeMs = Math.max(nextFreeMs, currentMs) + permits * 1000 / rate;
+        waitMs = nextFreeMs - currentMs;
+      }
+      Thread.sleep(waitMs);
+    }
+  }
+
+  // clean expired locks of the range by scanning from master
+  protected long cleanLockBeforeTimestamp(byte[] tableName, byte[] startRow, byte[] stopRow,
+      long ts) throws IOException {
+    HTableInterface hTable = null;
+    long cleanedLockCount = 0;
+    try {
+      hTable = connection.getTable(tableName);
+      Scan scan = new Scan(startRow, stopRow);
+      scan.addFamily(ColumnUtil.LOCK_FAMILY_NAME);
+      scan.setTimeRange(0, ts);
+      ResultScanner scanner = hTable.getScanner(scan);
+      Result result;
+      while ((result = scanner.next()) != null) {
+        for (KeyValue kv : result.list()) {
+          ThemisLock lock = ThemisLock.parseFromKeyValue(kv);
+          Column dataColumn = ColumnUtil.getDataColumnFromConstructedQualifier(new Column(kv.getFamily(),
+              kv.getQualifier()));
+          lock.setColumn(new ColumnCoordinate(tableName, kv.getRow(),
+              dataColumn.getFamily(), dataColumn.getQualifier()));
+          lockCleaner.cleanLock(lock);
+          ++cleanedLockCount;
+          LOG.info("themis clean expired lock, lockTs=" + kv.getTimestamp() + ", expiredTs=" + ts
+              + ", lock=" + lock);
+        }
+      }
+      scanner.close();
+    } finally {
+      if (hTable != null) {
+        hTable.close();
       }
-      LOG.info("finish clean expired lock for themis table:" + tableName + ", cleanedLockCount="
-          + cleanedLockCount);
     }
+    return cleanedLockCount;
   }
 }
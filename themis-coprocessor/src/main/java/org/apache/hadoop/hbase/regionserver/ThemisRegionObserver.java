@@ -9,6 +9,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.CoprocessorEnvironment;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Durability;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Scan;
@@ -20,6 +21,7 @@ import org.apache.hadoop.hbase.regionserver.ScanInfo;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
+import org.apache.hadoop.hbase.themis.cp.RegionLockIndex;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
 
@@ -31,6 +33,7 @@ public class ThemisRegionObserver extends BaseRegionObserver {
   
   private boolean expiredDataCleanEnable;
   protected boolean deleteThemisDeletedDataWhenCompact;
+  protected boolean regionLockIndexEnable;
 
   @Override
   public void start(CoprocessorEnvironment e) throws IOException {
@@ -43,6 +46,29 @@ public class ThemisRegionObserver extends BaseRegionObserver {
     if (expiredDataCleanEnable) {
       LOG.info("themis expired data clean enable, deleteThemisDeletedDataWhenCompact=" + deleteThemisDeletedDataWhenCompact);
     }
+    regionLockIndexEnable = e.getConfiguration().getBoolean(
+      RegionLockIndex.THEMIS_REGION_LOCK_INDEX_ENABLE_KEY,
+      RegionLockIndex.DEFAULT_THEMIS_REGION_LOCK_INDEX_ENABLE);
+  }
+
+  @Override
+  public void postOpen(final ObserverContext<RegionCoprocessorEnvironment> c) {
+    HRegion region = c.getEnvironment().getRegion();
+    if (regionLockIndexEnable && region.getTableDesc().hasFamily(ColumnUtil.LOCK_FAMILY_NAME)) {
+      try {
+        RegionLockIndex.buildRegionLockIndex(region);
+      } catch (IOException e) {
+        // expired locks will be located by scanning the lock family without the index
+        LOG.error("build lock index fail, region=" + region.getRegionNameAsString(), e);
+        RegionLockIndex.removeRegionLockIndex(region);
+      }
+    }
+  }
+
+  @Override
+  public void postClose(final ObserverContext<RegionCoprocessorEnvironment> c,
+      final boolean abortRequested) {
+    RegionLockIndex.removeRegionLockIndex(c.getEnvironment().getRegion());
   }
   
   @Override
@@ -101,6 +127,22 @@ public class ThemisRegionObserver extends BaseRegionObserver {
     }
   }
 
+  // the lock index is updated after the mutation has been applied to the region. This also covers
+  // the lock puts of single row transaction which bypass the normal write path in prePut
+  @Override
+  public void postPut(final ObserverContext<RegionCoprocessorEnvironment> c, final Put put,
+      final WALEdit edit, final Durability durability) throws IOException {
+    RegionLockIndex.updateRegionLockIndex(c.getEnvironment().getRegion(),
+      Collections.singletonList(put));
+  }
+
+  @Override
+  public void postDelete(final ObserverContext<RegionCoprocessorEnvironment> c,
+      final Delete delete, final WALEdit edit, final Durability durability) throws IOException {
+    RegionLockIndex.updateRegionLockIndex(c.getEnvironment().getRegion(),
+      Collections.singletonList(delete));
+  }
+
   @Override
   public InternalScanner preFlushScannerOpen(final ObserverContext<RegionCoprocessorEnvironment> c,
       final Store store, final KeyValueScanner memstoreScanner, final InternalScanner s)
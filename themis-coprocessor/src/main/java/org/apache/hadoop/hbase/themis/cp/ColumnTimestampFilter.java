@@ -3,71 +3,156 @@ package org.apache.hadoop.hbase.themis.cp;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.List;
 
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.exceptions.DeserializationException;
 import org.apache.hadoop.hbase.filter.FilterBase;
 import org.apache.hadoop.hbase.themis.columns.Column;
-import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.protobuf.HBaseZeroCopyByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
 
 // Currently, hbase could not set timestamp for each column in Get/Scan. ColumnTimestampFilter
-// is implemented to specify the timestamp for each column. 
+// is implemented to specify the timestamp for each column. The columns are kept sorted in flat
+// arrays and compared with the backing array of each cell, so that no object is allocated when
+// filtering cells. The filter could be serialized, and used by the Get/Scan of client.
 public class ColumnTimestampFilter extends FilterBase {
-  // index timestamp for each column
-  private List<Pair<Column, Long>> columnsTs = new ArrayList<Pair<Column, Long>>();
-  private int curColumnIdx = -1;
-  
+  private static final int INITIAL_CAPACITY = 4;
+  // families, qualifiers and timestamps of columns with the same index
+  private byte[][] families = new byte[INITIAL_CAPACITY][];
+  private byte[][] qualifiers = new byte[INITIAL_CAPACITY][];
+  private long[] timestamps = new long[INITIAL_CAPACITY];
+  private int size = 0;
+  // columns are sorted when the first cell is filtered if not added in order
+  private boolean sorted = true;
+  private int curColumnIdx = 0;
+
   // TODO(cuijianwei) : should check add duplicated column?
   public void addColumnTimestamp(Column column, long timestamp) {
-    columnsTs.add(new Pair<Column, Long>(new Column(column.getFamily(), column
-        .getQualifier()), timestamp));
+    addColumnTimestamp(column.getFamily(), column.getQualifier(), timestamp);
+  }
+
+  public void addColumnTimestamp(byte[] family, byte[] qualifier, long timestamp) {
+    if (size == families.length) {
+      int capacity = size * 2;
+      families = Arrays.copyOf(families, capacity);
+      qualifiers = Arrays.copyOf(qualifiers, capacity);
+      timestamps = Arrays.copyOf(timestamps, capacity);
+    }
+    families[size] = family == null ? HConstants.EMPTY_BYTE_ARRAY : family;
+    qualifiers[size] = qualifier == null ? HConstants.EMPTY_BYTE_ARRAY : qualifier;
+    timestamps[size] = timestamp;
+    if (sorted && size > 0 && compareColumn(size - 1, families[size], qualifiers[size]) > 0) {
+      sorted = false;
+    }
+    ++size;
+  }
+
+  public int getColumnCount() {
+    return size;
+  }
+
+  private int compareColumn(int index, byte[] family, byte[] qualifier) {
+    int ret = Bytes.compareTo(families[index], family);
+    return ret == 0 ? Bytes.compareTo(qualifiers[index], qualifier) : ret;
+  }
+
+  // compare the column at index with the column of cell
+  private int compareColumn(int index, Cell v) {
+    byte[] family = families[index];
+    int ret = Bytes.compareTo(family, 0, family.length, v.getFamilyArray(), v.getFamilyOffset(),
+      v.getFamilyLength());
+    if (ret != 0) {
+      return ret;
+    }
+    byte[] qualifier = qualifiers[index];
+    return Bytes.compareTo(qualifier, 0, qualifier.length, v.getQualifierArray(),
+      v.getQualifierOffset(), v.getQualifierLength());
   }
 
   private void sortColumnsTs() {
-    Collections.sort(columnsTs, new Comparator<Pair<Column, Long>>() {
-      public int compare(Pair<Column, Long> o1, Pair<Column, Long> o2) {
-        return o1.getFirst().compareTo(o2.getFirst());
+    Integer[] indexes = new Integer[size];
+    for (int i = 0; i < size; ++i) {
+      indexes[i] = i;
+    }
+    Arrays.sort(indexes, new Comparator<Integer>() {
+      public int compare(Integer o1, Integer o2) {
+        return compareColumn(o1, families[o2], qualifiers[o2]);
       }
     });
+    byte[][] sortedFamilies = new byte[families.length][];
+    byte[][] sortedQualifiers = new byte[qualifiers.length][];
+    long[] sortedTimestamps = new long[timestamps.length];
+    for (int i = 0; i < size; ++i) {
+      sortedFamilies[i] = families[indexes[i]];
+      sortedQualifiers[i] = qualifiers[indexes[i]];
+      sortedTimestamps[i] = timestamps[indexes[i]];
+    }
+    families = sortedFamilies;
+    qualifiers = sortedQualifiers;
+    timestamps = sortedTimestamps;
+    sorted = true;
+  }
+
+  // find the first column not less than the column of cell in [from, size). Columns of cells come
+  // in order and are often close to each other, so that the range is doubled from the start before
+  // binary search
+  private int seekColumn(int from, Cell v) {
+    int low = from;
+    int high = from;
+    int step = 1;
+    while (high < size && compareColumn(high, v) < 0) {
+      low = high + 1;
+      high += step;
+      step <<= 1;
+    }
+    high = Math.min(high, size);
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (compareColumn(mid, v) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
   }
-  
+
   @Override
   public ReturnCode filterKeyValue(Cell v) {
-    if (curColumnIdx == -1) {
+    if (!sorted) {
       sortColumnsTs();
-      curColumnIdx = 0;
     }
-    
-    if (curColumnIdx >= columnsTs.size()) {
+    if (curColumnIdx >= size) {
       return ReturnCode.NEXT_ROW;
     }
-    
-    Column column = new Column(v.getFamily(), v.getQualifier());
-    Column curColumn = null;
-    Long curTs = null;
-    int cmpRet = 0;
-    do {
-      curColumn = columnsTs.get(curColumnIdx).getFirst();
-      curTs = columnsTs.get(curColumnIdx).getSecond();
-    } while ((cmpRet = curColumn.compareTo(column)) < 0 && ++curColumnIdx < columnsTs.size());
-    
+
+    int cmpRet = compareColumn(curColumnIdx, v);
     if (cmpRet < 0) {
-      return ReturnCode.NEXT_ROW;
-    } else if (cmpRet > 0){
+      curColumnIdx = seekColumn(curColumnIdx + 1, v);
+      if (curColumnIdx >= size) {
+        return ReturnCode.NEXT_ROW;
+      }
+      cmpRet = compareColumn(curColumnIdx, v);
+    }
+
+    if (cmpRet > 0) {
       return ReturnCode.SEEK_NEXT_USING_HINT;
+    }
+    long curTs = timestamps[curColumnIdx];
+    if (curTs == v.getTimestamp()) {
+      ++curColumnIdx;
+      return ReturnCode.INCLUDE_AND_NEXT_COL;
+    } else if (curTs > v.getTimestamp()) {
+      return ReturnCode.NEXT_COL;
     } else {
-      if (curTs.equals(v.getTimestamp())) {
-        ++curColumnIdx;
-        return ReturnCode.INCLUDE_AND_NEXT_COL;
-      } else if (curTs > v.getTimestamp()) {
-        return ReturnCode.NEXT_COL;      
-      } else {
-        return ReturnCode.SKIP;
-      }
+      return ReturnCode.SKIP;
     }
   }
 
@@ -75,24 +160,76 @@ public class ColumnTimestampFilter extends FilterBase {
   public void reset() {
     curColumnIdx = 0;
   }
-  
+
   @Override
   public KeyValue getNextKeyHint(KeyValue kv) {
-    if (curColumnIdx >= columnsTs.size()) {
+    if (curColumnIdx >= size) {
       return null;
     }
-    
-    Column column = columnsTs.get(curColumnIdx).getFirst();
+
+    byte[] family = families[curColumnIdx];
+    byte[] qualifier = qualifiers[curColumnIdx];
     return KeyValue.createFirstOnRow(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength(),
-      column.getFamily(), 0, column.getFamily() == null ? 0 : column.getFamily().length,
-      column.getQualifier(), 0, column.getQualifier() == null ? 0 : column.getQualifier().length);
+      family, 0, family.length, qualifier, 0, qualifier.length);
+  }
+
+  @Override
+  public byte[] toByteArray() {
+    if (!sorted) {
+      sortColumnsTs();
+    }
+    ThemisProtos.ColumnTimestampFilter.Builder builder = ThemisProtos.ColumnTimestampFilter
+        .newBuilder();
+    for (int i = 0; i < size; ++i) {
+      builder.addColumns(ThemisProtos.ColumnTimestamp.newBuilder()
+          .setFamily(HBaseZeroCopyByteString.wrap(families[i]))
+          .setQualifier(HBaseZeroCopyByteString.wrap(qualifiers[i])).setTimestamp(timestamps[i]));
+    }
+    return builder.build().toByteArray();
+  }
+
+  public static ColumnTimestampFilter parseFrom(final byte[] pbBytes)
+      throws DeserializationException {
+    ThemisProtos.ColumnTimestampFilter proto;
+    try {
+      proto = ThemisProtos.ColumnTimestampFilter.parseFrom(pbBytes);
+    } catch (InvalidProtocolBufferException e) {
+      throw new DeserializationException(e);
+    }
+    ColumnTimestampFilter filter = new ColumnTimestampFilter();
+    for (ThemisProtos.ColumnTimestamp column : proto.getColumnsList()) {
+      filter.addColumnTimestamp(column.getFamily().toByteArray(),
+        column.getQualifier().toByteArray(), column.getTimestamp());
+    }
+    return filter;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder(getClass().getSimpleName()).append(" [");
+    for (int i = 0; i < size; ++i) {
+      builder.append(i == 0 ? "" : ", ").append(Bytes.toStringBinary(families[i])).append(':')
+          .append(Bytes.toStringBinary(qualifiers[i])).append('/').append(timestamps[i]);
+    }
+    return builder.append(']').toString();
   }
-  
-  public void readFields(DataInput arg0) throws IOException {
-    throw new IOException("not implemented");
+
+  public void readFields(DataInput in) throws IOException {
+    ColumnTimestampFilter filter;
+    try {
+      filter = parseFrom(Bytes.readByteArray(in));
+    } catch (DeserializationException e) {
+      throw new IOException(e);
+    }
+    families = filter.families;
+    qualifiers = filter.qualifiers;
+    timestamps = filter.timestamps;
+    size = filter.size;
+    sorted = filter.sorted;
+    curColumnIdx = 0;
   }
 
-  public void write(DataOutput arg0) throws IOException {
-    throw new IOException("not implemented");
+  public void write(DataOutput out) throws IOException {
+    Bytes.writeByteArray(out, toByteArray());
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,99 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+// buffer recent committed primary columns in region server. Readers could resolve the secondary
+// locks of committed transactions by this cache without issuing rpc to the primary region
+public class CommittedPrimaryCache {
+  public static final String THEMIS_COMMITTED_PRIMARY_CACHE_SIZE_KEY = "themis.committed.primary.cache.size";
+  public static final long DEFAULT_THEMIS_COMMITTED_PRIMARY_CACHE_SIZE = 100000;
+  public static final String THEMIS_COMMITTED_PRIMARY_CACHE_TTL_KEY = "themis.committed.primary.cache.ttl";
+  public static final long DEFAULT_THEMIS_COMMITTED_PRIMARY_CACHE_TTL = 60; // in second
+
+  private static CommittedPrimaryCache committedPrimaryCache = new CommittedPrimaryCache(
+      DEFAULT_THEMIS_COMMITTED_PRIMARY_CACHE_SIZE, DEFAULT_THEMIS_COMMITTED_PRIMARY_CACHE_TTL);
+  private static boolean inited = false;
+
+  private final long maxSize;
+  private final Cache<CommittedPrimaryKey, Long> cache;
+
+  // the cache is shared by all regions of the region server, so that only be created once
+  public static synchronized void init(Configuration conf) {
+    if (!inited) {
+      committedPrimaryCache = new CommittedPrimaryCache(conf.getLong(
+        THEMIS_COMMITTED_PRIMARY_CACHE_SIZE_KEY, DEFAULT_THEMIS_COMMITTED_PRIMARY_CACHE_SIZE),
+        conf.getLong(THEMIS_COMMITTED_PRIMARY_CACHE_TTL_KEY,
+          DEFAULT_THEMIS_COMMITTED_PRIMARY_CACHE_TTL));
+      inited = true;
+    }
+  }
+
+  public static CommittedPrimaryCache getCommittedPrimaryCache() {
+    return committedPrimaryCache;
+  }
+
+  public CommittedPrimaryCache(long maxSize, long ttlInSecond) {
+    this.maxSize = maxSize;
+    this.cache = CacheBuilder.newBuilder().maximumSize(Math.max(maxSize, 0))
+        .expireAfterWrite(ttlInSecond, TimeUnit.SECONDS).build();
+  }
+
+  public boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  public void put(ColumnCoordinate primaryColumn, long prewriteTs, long commitTs) {
+    if (isEnabled()) {
+      cache.put(new CommittedPrimaryKey(primaryColumn, prewriteTs), commitTs);
+    }
+  }
+
+  // return the commitTs if the primary column of the transaction has been committed; otherwise,
+  // return null
+  public Long getCommitTs(ColumnCoordinate primaryColumn, long prewriteTs) {
+    if (!isEnabled()) {
+      return null;
+    }
+    Long commitTs = cache.getIfPresent(new CommittedPrimaryKey(primaryColumn, prewriteTs));
+    if (commitTs == null) {
+      ThemisCpStatistics.getThemisCpStatistics().committedPrimaryCacheMissCount.incr();
+    } else {
+      ThemisCpStatistics.getThemisCpStatistics().committedPrimaryCacheHitCount.incr();
+    }
+    return commitTs;
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  static class CommittedPrimaryKey {
+    private final ColumnCoordinate primaryColumn;
+    private final long prewriteTs;
+
+    public CommittedPrimaryKey(ColumnCoordinate primaryColumn, long prewriteTs) {
+      this.primaryColumn = primaryColumn;
+      this.prewriteTs = prewriteTs;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * primaryColumn.hashCode() + (int) (prewriteTs ^ (prewriteTs >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof CommittedPrimaryKey)) {
+        return false;
+      }
+      CommittedPrimaryKey key = (CommittedPrimaryKey) other;
+      return prewriteTs == key.prewriteTs && primaryColumn.equals(key.primaryColumn);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// CurrentRowColumnTimestampFilter is used by the data scanner of ThemisServerScanner, which reads
+// the data columns of rows in the order of the lock and write scanner. The cells of current row are
+// filtered by the ColumnTimestampFilter of the row, which will be set before the scanner advances.
+// If the current row has no required cells, only the first cell of the row the scanner passes to
+// will be included, so that the scanner stops there and the caller knows where it is positioned.
+// This filter is only used in the region server and can not be serialized
+public class CurrentRowColumnTimestampFilter extends FilterBase {
+  private byte[] row;
+  private ColumnTimestampFilter rowFilter;
+  private boolean passedRowIncluded = false;
+
+  public void setRow(byte[] row, ColumnTimestampFilter rowFilter) {
+    this.row = row;
+    this.rowFilter = rowFilter;
+    this.passedRowIncluded = false;
+  }
+
+  public byte[] getRow() {
+    return row;
+  }
+
+  private int compareToCurrentRow(Cell v) {
+    return Bytes.compareTo(v.getRowArray(), v.getRowOffset(), v.getRowLength(), row, 0, row.length);
+  }
+
+  @Override
+  public ReturnCode filterKeyValue(Cell v) {
+    int cmp = compareToCurrentRow(v);
+    if (cmp == 0) {
+      return rowFilter.filterKeyValue(v);
+    } else if (cmp < 0) {
+      return ReturnCode.SEEK_NEXT_USING_HINT;
+    } else if (passedRowIncluded) {
+      return ReturnCode.NEXT_ROW;
+    } else {
+      passedRowIncluded = true;
+      return ReturnCode.INCLUDE;
+    }
+  }
+
+  @Override
+  public KeyValue getNextKeyHint(KeyValue kv) {
+    if (compareToCurrentRow(kv) < 0) {
+      return KeyValue.createFirstOnRow(row);
+    }
+    return rowFilter.getNextKeyHint(kv);
+  }
+
+  @Override
+  public void reset() {
+    if (rowFilter != null) {
+      rowFilter.reset();
+    }
+    passedRowIncluded = false;
+  }
+
+  public void readFields(DataInput arg0) throws IOException {
+    throw new IOException("not implemented");
+  }
+
+  public void write(DataOutput arg0) throws IOException {
+    throw new IOException("not implemented");
+  }
+}
@@ -0,0 +1,138 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.lib.Interns;
+
+// lock-free histogram of latencies in us. Each power of two range of values is divided into
+// SUB_BUCKET_COUNT buckets, so that a percentile is reported with relative error less than
+// 1 / SUB_BUCKET_COUNT; recording a latency only increments atomic longs without allocation.
+// The buckets are reset by the periodic snapshot of metrics sinks, so that percentiles are computed
+// for each metrics interval
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  // values less than SUB_BUCKET_COUNT are counted exactly by the first SUB_BUCKET_COUNT buckets,
+  // then a group of SUB_BUCKET_COUNT buckets for each exponent from SUB_BUCKET_BITS to MAX_EXPONENT
+  // Larger values (more than 19 hours in us) are counted by the last bucket, which keeps the
+  // histogram small enough to be kept for each region
+  private static final int MAX_EXPONENT = 35;
+  protected static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+  private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+  protected static final double[] PERCENTILES = { 0.5, 0.95, 0.99, 0.999 };
+  protected static final String[] PERCENTILE_SUFFIXES = { "_p50", "_p95", "_p99", "_p999" };
+
+  private final String name;
+  private final String description;
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  // total count of recorded latencies, which is not reset by snapshot
+  private final AtomicLong totalCount = new AtomicLong(0);
+  private final AtomicLong intervalSum = new AtomicLong(0);
+  private final AtomicLong intervalMax = new AtomicLong(0);
+
+  public LatencyHistogram(String name, String description) {
+    this.name = name;
+    this.description = description;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void add(long latencyInUs) {
+    long value = Math.max(latencyInUs, 0);
+    buckets.incrementAndGet(getBucketIndex(value));
+    totalCount.incrementAndGet();
+    intervalSum.addAndGet(value);
+    long max = intervalMax.get();
+    while (value > max && !intervalMax.compareAndSet(max, value)) {
+      max = intervalMax.get();
+    }
+  }
+
+  public long getTotalCount() {
+    return totalCount.get();
+  }
+
+  // return the percentile of latencies recorded in current interval, 0 if no latency recorded
+  public long getPercentile(double percentile) {
+    return getPercentiles(getBucketCounts(false), intervalMax.get(),
+      new double[] { percentile })[0];
+  }
+
+  // add count, average, max and percentiles of current interval to the builder. The interval is
+  // reset only by the periodic snapshot of sinks; the snapshot with all set, which refreshes the
+  // JMX cache, must not drain the interval reported to the sinks
+  public void snapshot(MetricsRecordBuilder builder, boolean all) {
+    boolean reset = !all;
+    long[] counts = getBucketCounts(reset);
+    long sum = reset ? intervalSum.getAndSet(0) : intervalSum.get();
+    long max = reset ? intervalMax.getAndSet(0) : intervalMax.get();
+    long count = 0;
+    for (long bucketCount : counts) {
+      count += bucketCount;
+    }
+    builder.addCounter(Interns.info(name + "_num_ops", "count of " + description),
+      totalCount.get());
+    builder.addGauge(Interns.info(name + "_avg_time", "average of " + description + " in us"),
+      count == 0 ? 0 : sum / count);
+    builder.addGauge(Interns.info(name + "_max", "max of " + description + " in us"), max);
+    long[] percentiles = getPercentiles(counts, max, PERCENTILES);
+    for (int i = 0; i < PERCENTILES.length; ++i) {
+      builder.addGauge(Interns.info(name + PERCENTILE_SUFFIXES[i], PERCENTILES[i] * 100
+          + "th percentile of " + description + " in us"), percentiles[i]);
+    }
+  }
+
+  protected long[] getBucketCounts(boolean reset) {
+    long[] counts = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; ++i) {
+      counts[i] = reset ? buckets.getAndSet(i, 0) : buckets.get(i);
+    }
+    return counts;
+  }
+
+  // percentiles must be in ascending order. The upper bound of the bucket is reported, which will
+  // not exceed the max latency
+  protected static long[] getPercentiles(long[] counts, long max, double[] percentiles) {
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    long[] results = new long[percentiles.length];
+    if (total == 0) {
+      return results;
+    }
+    int bucketIndex = 0;
+    long accumulated = counts[0];
+    for (int i = 0; i < percentiles.length; ++i) {
+      long rank = Math.max((long) Math.ceil(percentiles[i] * total), 1);
+      while (accumulated < rank && bucketIndex < counts.length - 1) {
+        accumulated += counts[++bucketIndex];
+      }
+      results[i] = Math.min(getBucketUpperBound(bucketIndex), max);
+    }
+    return results;
+  }
+
+  protected static int getBucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    value = Math.min(value, MAX_VALUE);
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  protected static long getBucketUpperBound(int bucketIndex) {
+    if (bucketIndex < SUB_BUCKET_COUNT) {
+      return bucketIndex;
+    }
+    int shift = bucketIndex / SUB_BUCKET_COUNT - 1;
+    long lowerBound = (long) (SUB_BUCKET_COUNT + bucketIndex % SUB_BUCKET_COUNT) << shift;
+    return lowerBound + (1L << shift) - 1;
+  }
+}
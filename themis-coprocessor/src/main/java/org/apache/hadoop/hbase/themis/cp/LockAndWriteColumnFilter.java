@@ -0,0 +1,144 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.themis.columns.Column;
+import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// LockAndWriteColumnFilter is used when the whole lock family (and commit families if commit to
+// different family) is read because the user reads some data family as a whole. The qualifiers of
+// lock and commit columns are '<family>#<qualifier>', so that the filter seeks to the '<family>#'
+// prefix of each requested family and the '<family>#<qualifier>' of each requested column, and
+// skips the columns of other families by seek hints. Data columns are excluded; if the data family
+// is read because of commit to the same family, only the write columns are included. This filter is
+// only used in the region server and can not be serialized
+public class LockAndWriteColumnFilter extends FilterBase {
+  // sorted qualifiers of requested lock/commit columns
+  private final byte[][] qualifiers;
+  // whether qualifiers[i] is the '<family>#' prefix of a requested family
+  private final boolean[] prefixes;
+
+  public LockAndWriteColumnFilter(Map<byte[], NavigableSet<byte[]>> familyMap) {
+    // value is true if the key is the prefix of a requested family
+    TreeMap<byte[], Boolean> sortedQualifiers = new TreeMap<byte[], Boolean>(
+        Bytes.BYTES_COMPARATOR);
+    for (Entry<byte[], NavigableSet<byte[]>> entry : familyMap.entrySet()) {
+      // for scan, after serialization, the null qualifiers will be set to empty set
+      if (entry.getValue() == null || entry.getValue().size() == 0) {
+        sortedQualifiers.put(Bytes.add(entry.getKey(), ColumnUtil.PRESERVED_COLUMN_CHARACTER_BYTES),
+          true);
+      } else {
+        for (byte[] qualifier : entry.getValue()) {
+          sortedQualifiers.put(ColumnUtil.getLockColumn(new Column(entry.getKey(), qualifier))
+              .getQualifier(), false);
+        }
+      }
+    }
+    qualifiers = new byte[sortedQualifiers.size()][];
+    prefixes = new boolean[sortedQualifiers.size()];
+    int index = 0;
+    for (Entry<byte[], Boolean> entry : sortedQualifiers.entrySet()) {
+      qualifiers[index] = entry.getKey();
+      prefixes[index] = entry.getValue();
+      ++index;
+    }
+  }
+
+  @Override
+  public ReturnCode filterKeyValue(Cell v) {
+    if (isLockOrCommitFamily(v)) {
+      int index = seekQualifier(v);
+      if (isRequiredQualifier(index, v)) {
+        return ReturnCode.INCLUDE_AND_NEXT_COL;
+      }
+      // the matcher of each store works separately, NEXT_ROW only skips the remaining columns
+      // of current family in this row
+      return index < qualifiers.length ? ReturnCode.SEEK_NEXT_USING_HINT : ReturnCode.NEXT_ROW;
+    }
+    if (ColumnUtil.isCommitToSameFamily()) {
+      return SinglePassGetFilter.isLockOrWriteCell(v) ? ReturnCode.INCLUDE_AND_NEXT_COL
+          : ReturnCode.NEXT_COL;
+    }
+    // data family won't contain lock and write columns if commit to different family
+    return ReturnCode.NEXT_ROW;
+  }
+
+  @Override
+  public KeyValue getNextKeyHint(KeyValue kv) {
+    int index = seekQualifier(kv);
+    if (index >= qualifiers.length) {
+      return null;
+    }
+    byte[] qualifier = qualifiers[index];
+    return KeyValue.createFirstOnRow(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength(),
+      kv.getBuffer(), kv.getFamilyOffset(), kv.getFamilyLength(), qualifier, 0, qualifier.length);
+  }
+
+  protected static boolean isLockOrCommitFamily(Cell v) {
+    if (isFamily(ColumnUtil.LOCK_FAMILY_NAME, v)) {
+      return true;
+    }
+    return ColumnUtil.isCommitToDifferentFamily()
+        && (isFamily(ColumnUtil.PUT_FAMILY_NAME_BYTES, v) || isFamily(
+          ColumnUtil.DELETE_FAMILY_NAME_BYTES, v));
+  }
+
+  private static boolean isFamily(byte[] family, Cell v) {
+    return Bytes.equals(family, 0, family.length, v.getFamilyArray(), v.getFamilyOffset(),
+      v.getFamilyLength());
+  }
+
+  // find the first qualifier not less than the qualifier of cell
+  private int seekQualifier(Cell v) {
+    int low = 0;
+    int high = qualifiers.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (compareQualifier(mid, v) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int compareQualifier(int index, Cell v) {
+    byte[] qualifier = qualifiers[index];
+    return Bytes.compareTo(qualifier, 0, qualifier.length, v.getQualifierArray(),
+      v.getQualifierOffset(), v.getQualifierLength());
+  }
+
+  // the cell is required if its qualifier equals to qualifiers[index], or starts with the family
+  // prefix before index
+  private boolean isRequiredQualifier(int index, Cell v) {
+    if (index < qualifiers.length && compareQualifier(index, v) == 0) {
+      return true;
+    }
+    if (index > 0 && prefixes[index - 1]) {
+      byte[] prefix = qualifiers[index - 1];
+      return v.getQualifierLength() >= prefix.length
+          && Bytes.equals(prefix, 0, prefix.length, v.getQualifierArray(), v.getQualifierOffset(),
+            prefix.length);
+    }
+    return false;
+  }
+
+  public void readFields(DataInput arg0) throws IOException {
+    throw new IOException("not implemented");
+  }
+
+  public void write(DataOutput arg0) throws IOException {
+    throw new IOException("not implemented");
+  }
+}
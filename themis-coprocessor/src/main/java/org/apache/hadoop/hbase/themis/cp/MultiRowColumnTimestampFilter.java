@@ -0,0 +1,98 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// MultiRowColumnTimestampFilter is used to read a set of rows by one scan. The scanner will seek to
+// the next required row when it reaches a row not required, so that neighboring rows could share
+// the seeks and block reads. The cells of each row could be filtered by the ColumnTimestampFilter
+// of the row, or all the cells will be included if the filter of the row is null. This filter is
+// only used in the region server and can not be serialized
+public class MultiRowColumnTimestampFilter extends FilterBase {
+  private final TreeMap<byte[], ColumnTimestampFilter> rowFilters =
+      new TreeMap<byte[], ColumnTimestampFilter>(Bytes.BYTES_COMPARATOR);
+  // the row of the last filtered cell, and the filter of it if the row is required
+  private byte[] curRow;
+  private Entry<byte[], ColumnTimestampFilter> curRowFilter;
+  // the next required row after curRow if curRow is not required
+  private byte[] nextRow;
+  private boolean done = false;
+
+  public void addRow(byte[] row, ColumnTimestampFilter filter) {
+    rowFilters.put(row, filter);
+  }
+
+  public byte[] getFirstRow() {
+    return rowFilters.firstKey();
+  }
+
+  public byte[] getLastRow() {
+    return rowFilters.lastKey();
+  }
+
+  @Override
+  public ReturnCode filterKeyValue(Cell v) {
+    if (curRow == null
+        || !Bytes.equals(curRow, 0, curRow.length, v.getRowArray(), v.getRowOffset(),
+          v.getRowLength())) {
+      curRow = CellUtil.cloneRow(v);
+      Entry<byte[], ColumnTimestampFilter> entry = rowFilters.ceilingEntry(curRow);
+      if (entry == null) {
+        done = true;
+        curRowFilter = null;
+        return ReturnCode.NEXT_ROW;
+      }
+      if (Bytes.equals(entry.getKey(), curRow)) {
+        curRowFilter = entry;
+        nextRow = null;
+      } else {
+        curRowFilter = null;
+        nextRow = entry.getKey();
+      }
+    }
+    if (curRowFilter == null) {
+      return done ? ReturnCode.NEXT_ROW : ReturnCode.SEEK_NEXT_USING_HINT;
+    }
+    ColumnTimestampFilter filter = curRowFilter.getValue();
+    return filter == null ? ReturnCode.INCLUDE : filter.filterKeyValue(v);
+  }
+
+  @Override
+  public KeyValue getNextKeyHint(KeyValue kv) {
+    if (curRowFilter == null) {
+      return nextRow == null ? null : KeyValue.createFirstOnRow(nextRow);
+    }
+    ColumnTimestampFilter filter = curRowFilter.getValue();
+    return filter == null ? null : filter.getNextKeyHint(kv);
+  }
+
+  @Override
+  public boolean filterAllRemaining() {
+    return done;
+  }
+
+  @Override
+  public void reset() {
+    // each row of the scan will be filtered at most once
+    if (curRowFilter != null && curRowFilter.getValue() != null) {
+      curRowFilter.getValue().reset();
+    }
+  }
+
+  public void readFields(DataInput arg0) throws IOException {
+    throw new IOException("not implemented");
+  }
+
+  public void write(DataOutput arg0) throws IOException {
+    throw new IOException("not implemented");
+  }
+}
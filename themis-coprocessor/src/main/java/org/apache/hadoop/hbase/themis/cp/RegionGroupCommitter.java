@@ -0,0 +1,174 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+// group commit of the mutations written to a region by concurrent themis writes. The callers hold
+// the row locks of their rows, so that the mutations of different callers are for distinct rows.
+// The first caller arriving waits the window for more callers and applies the mutations of at most
+// maxBatchSize callers by one mutateRowsWithLocks, which appends and syncs the WAL once; the other
+// callers wait until their mutations are applied. If the batch fails, the mutations of each caller
+// are applied separately so that the failure is only reported to the caller causing it
+public class RegionGroupCommitter {
+  private static final Log LOG = LogFactory.getLog(RegionGroupCommitter.class);
+  public static final String THEMIS_GROUP_COMMIT_ENABLE_KEY = "themis.group.commit.enable";
+  public static final boolean DEFAULT_THEMIS_GROUP_COMMIT_ENABLE = false;
+  public static final String THEMIS_GROUP_COMMIT_WINDOW_KEY = "themis.group.commit.window";
+  public static final long DEFAULT_THEMIS_GROUP_COMMIT_WINDOW = 200; // in us
+  public static final String THEMIS_GROUP_COMMIT_MAX_BATCH_SIZE_KEY =
+      "themis.group.commit.max.batch.size";
+  public static final int DEFAULT_THEMIS_GROUP_COMMIT_MAX_BATCH_SIZE = 32;
+
+  private final HRegion region;
+  private final long windowNs;
+  private final int maxBatchSize;
+  private final LinkedList<PendingMutations> pendings = new LinkedList<PendingMutations>();
+  // set when a caller is collecting a batch, other callers wait until it finishes collecting
+  private boolean collecting = false;
+
+  static class PendingMutations {
+    private final List<Mutation> mutations;
+    private final CountDownLatch applied = new CountDownLatch(1);
+    // set under the lock of the committer when collected into a batch
+    private boolean collected = false;
+    private IOException exception;
+
+    PendingMutations(List<Mutation> mutations) {
+      this.mutations = mutations;
+    }
+  }
+
+  protected RegionGroupCommitter(HRegion region, long windowUs, int maxBatchSize) {
+    this.region = region;
+    this.windowNs = TimeUnit.MICROSECONDS.toNanos(Math.max(0, windowUs));
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+  }
+
+  // return null if group commit is not enabled
+  public static RegionGroupCommitter create(HRegion region, Configuration conf) {
+    if (!conf.getBoolean(THEMIS_GROUP_COMMIT_ENABLE_KEY, DEFAULT_THEMIS_GROUP_COMMIT_ENABLE)) {
+      return null;
+    }
+    long windowUs = conf.getLong(THEMIS_GROUP_COMMIT_WINDOW_KEY,
+      DEFAULT_THEMIS_GROUP_COMMIT_WINDOW);
+    int maxBatchSize = conf.getInt(THEMIS_GROUP_COMMIT_MAX_BATCH_SIZE_KEY,
+      DEFAULT_THEMIS_GROUP_COMMIT_MAX_BATCH_SIZE);
+    LOG.info("enable group commit, region=" + region.getRegionInfo().getEncodedName()
+        + ", window=" + windowUs + "us, maxBatchSize=" + maxBatchSize);
+    return new RegionGroupCommitter(region, windowUs, maxBatchSize);
+  }
+
+  // the row locks of the mutations must be held by the caller until this method returns
+  public void mutate(List<Mutation> mutations) throws IOException {
+    PendingMutations pending = new PendingMutations(mutations);
+    synchronized (this) {
+      pendings.add(pending);
+      if (pendings.size() >= maxBatchSize) {
+        notifyAll();
+      }
+    }
+    List<PendingMutations> batch;
+    while ((batch = collectBatch(pending)) != null) {
+      applyBatch(batch);
+    }
+    Uninterruptibles.awaitUninterruptibly(pending.applied);
+    if (pending.exception != null) {
+      throw pending.exception;
+    }
+  }
+
+  // return null if the pending mutations have been collected by a batch. The mutations must not be
+  // abandoned once queued because the caller holds the row locks, so interrupts are deferred
+  protected synchronized List<PendingMutations> collectBatch(PendingMutations pending) {
+    boolean interrupted = false;
+    try {
+      while (collecting && !pending.collected) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (pending.collected) {
+        return null;
+      }
+      collecting = true;
+      long deadline = System.nanoTime() + windowNs;
+      long remaining;
+      while (!interrupted && pendings.size() < maxBatchSize
+          && (remaining = deadline - System.nanoTime()) > 0) {
+        try {
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      List<PendingMutations> batch = new ArrayList<PendingMutations>(Math.min(maxBatchSize,
+        pendings.size()));
+      while (batch.size() < maxBatchSize && !pendings.isEmpty()) {
+        PendingMutations collected = pendings.removeFirst();
+        collected.collected = true;
+        batch.add(collected);
+      }
+      collecting = false;
+      notifyAll();
+      return batch;
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  protected void applyBatch(List<PendingMutations> batch) {
+    ThemisCpStatistics.getThemisCpStatistics().groupCommitBatchCount.incr();
+    ThemisCpStatistics.getThemisCpStatistics().groupCommitRequestCount.incr(batch.size());
+    try {
+      if (batch.size() == 1) {
+        applyMutations(batch.get(0));
+        return;
+      }
+      List<Mutation> mutations = new ArrayList<Mutation>();
+      for (PendingMutations pending : batch) {
+        mutations.addAll(pending.mutations);
+      }
+      try {
+        region.mutateRowsWithLocks(mutations, Collections.<byte[]>emptySet());
+      } catch (Exception e) {
+        LOG.warn("group commit fail, apply mutations of each caller separately, region="
+            + region.getRegionInfo().getEncodedName() + ", batchSize=" + batch.size(), e);
+        ThemisCpStatistics.getThemisCpStatistics().groupCommitFallbackCount.incr();
+        for (PendingMutations pending : batch) {
+          applyMutations(pending);
+        }
+      }
+    } finally {
+      for (PendingMutations pending : batch) {
+        pending.applied.countDown();
+      }
+    }
+  }
+
+  protected void applyMutations(PendingMutations pending) {
+    try {
+      region.mutateRowsWithLocks(pending.mutations, Collections.<byte[]>emptySet());
+    } catch (IOException e) {
+      pending.exception = e;
+    } catch (RuntimeException e) {
+      pending.exception = new IOException(e);
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// in-memory index of the outstanding locks of a region ordered by prewriteTs. The index is built
+// from the lock family when the region is opened and maintained by the writes of themis, so that
+// expired locks could be located without scanning and parsing the whole lock family
+public class RegionLockIndex {
+  private static final Log LOG = LogFactory.getLog(RegionLockIndex.class);
+  public static final String THEMIS_REGION_LOCK_INDEX_ENABLE_KEY = "themis.region.lock.index.enable";
+  public static final boolean DEFAULT_THEMIS_REGION_LOCK_INDEX_ENABLE = true;
+
+  // indexes of opened regions, keyed by the encoded region name
+  private static final ConcurrentHashMap<String, RegionLockIndex> regionLockIndexes =
+      new ConcurrentHashMap<String, RegionLockIndex>();
+
+  private final ConcurrentSkipListSet<LockKey> locks = new ConcurrentSkipListSet<LockKey>();
+
+  // return null if the index of the region is not built
+  public static RegionLockIndex getRegionLockIndex(HRegion region) {
+    return regionLockIndexes.get(region.getRegionInfo().getEncodedName());
+  }
+
+  public static RegionLockIndex buildRegionLockIndex(HRegion region) throws IOException {
+    RegionLockIndex index = new RegionLockIndex();
+    Scan scan = new Scan();
+    scan.addFamily(ColumnUtil.LOCK_FAMILY_NAME);
+    scan.setMaxVersions();
+    RegionScanner scanner = region.getScanner(scan);
+    try {
+      List<Cell> cells = new ArrayList<Cell>();
+      boolean hasMore = true;
+      while (hasMore) {
+        cells.clear();
+        hasMore = scanner.next(cells);
+        for (Cell cell : cells) {
+          index.add(CellUtil.cloneRow(cell), CellUtil.cloneQualifier(cell), cell.getTimestamp());
+        }
+      }
+    } finally {
+      scanner.close();
+    }
+    regionLockIndexes.put(region.getRegionInfo().getEncodedName(), index);
+    LOG.info("build lock index for region=" + region.getRegionNameAsString() + ", lockCount="
+        + index.size());
+    return index;
+  }
+
+  public static void removeRegionLockIndex(HRegion region) {
+    regionLockIndexes.remove(region.getRegionInfo().getEncodedName());
+  }
+
+  // update the index of the region by the mutations which have been applied to the region
+  public static void updateRegionLockIndex(HRegion region, List<? extends Mutation> mutations) {
+    RegionLockIndex index = getRegionLockIndex(region);
+    if (index != null) {
+      for (Mutation mutation : mutations) {
+        index.update(mutation);
+      }
+    }
+  }
+
+  public static long getTotalLockCount() {
+    long lockCount = 0;
+    for (RegionLockIndex index : regionLockIndexes.values()) {
+      lockCount += index.size();
+    }
+    return lockCount;
+  }
+
+  public void add(byte[] row, byte[] lockQualifier, long prewriteTs) {
+    locks.add(new LockKey(prewriteTs, row, lockQualifier));
+  }
+
+  public void remove(byte[] row, byte[] lockQualifier, long prewriteTs) {
+    locks.remove(new LockKey(prewriteTs, row, lockQualifier));
+  }
+
+  // themis writes the lock family by puts of lock and deletes of a lock version. Deletes of all the
+  // versions of a column or family are not issued by themis and are rare, so they are applied by
+  // iterating the whole index
+  public void update(Mutation mutation) {
+    List<Cell> cells = mutation.getFamilyCellMap().get(ColumnUtil.LOCK_FAMILY_NAME);
+    if (cells == null) {
+      return;
+    }
+    for (Cell cell : cells) {
+      if (mutation instanceof Put) {
+        add(mutation.getRow(), CellUtil.cloneQualifier(cell), cell.getTimestamp());
+      } else if (mutation instanceof Delete) {
+        if (cell.getTypeByte() == KeyValue.Type.Delete.getCode()) {
+          remove(mutation.getRow(), CellUtil.cloneQualifier(cell), cell.getTimestamp());
+        } else {
+          byte[] qualifier = cell.getTypeByte() == KeyValue.Type.DeleteColumn.getCode() ? CellUtil
+              .cloneQualifier(cell) : null;
+          removeBefore(mutation.getRow(), qualifier, cell.getTimestamp());
+        }
+      }
+    }
+  }
+
+  // remove the locks of the row whose timestamp is not newer than ts. Locks of all columns will be
+  // removed if lockQualifier is null
+  public void removeBefore(byte[] row, byte[] lockQualifier, long ts) {
+    Iterator<LockKey> it = locks.iterator();
+    while (it.hasNext()) {
+      LockKey lock = it.next();
+      if (lock.prewriteTs > ts) {
+        break;
+      }
+      if (Bytes.equals(lock.row, row)
+          && (lockQualifier == null || Bytes.equals(lock.lockQualifier, lockQualifier))) {
+        it.remove();
+      }
+    }
+  }
+
+  // return the sorted rows in [startRow, stopRow) which contain locks older than expiredTs, an
+  // empty stopRow means the end of region
+  public List<byte[]> getRowsWithExpiredLocks(long expiredTs, byte[] startRow, byte[] stopRow) {
+    TreeSet<byte[]> rows = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    for (LockKey lock : locks) {
+      if (lock.prewriteTs >= expiredTs) {
+        break;
+      }
+      if (Bytes.compareTo(lock.row, startRow) >= 0
+          && (stopRow.length == 0 || Bytes.compareTo(lock.row, stopRow) < 0)) {
+        rows.add(lock.row);
+      }
+    }
+    return new ArrayList<byte[]>(rows);
+  }
+
+  public int size() {
+    return locks.size();
+  }
+
+  static class LockKey implements Comparable<LockKey> {
+    private final long prewriteTs;
+    private final byte[] row;
+    private final byte[] lockQualifier;
+
+    public LockKey(long prewriteTs, byte[] row, byte[] lockQualifier) {
+      this.prewriteTs = prewriteTs;
+      this.row = row;
+      this.lockQualifier = lockQualifier;
+    }
+
+    public int compareTo(LockKey other) {
+      if (prewriteTs != other.prewriteTs) {
+        return prewriteTs < other.prewriteTs ? -1 : 1;
+      }
+      int ret = Bytes.compareTo(row, other.row);
+      return ret != 0 ? ret : Bytes.compareTo(lockQualifier, other.lockQualifier);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof LockKey && compareTo((LockKey) other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * Bytes.hashCode(row) + Bytes.hashCode(lockQualifier))
+          + (int) (prewriteTs ^ (prewriteTs >>> 32));
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.regionserver.HRegion;
+
+// tracks the max startTs of themis reads served by a region and the one-phase commits being applied
+// to the region. A one-phase commit writes data and commit columns without locks, it must be
+// rejected if a read with startTs not less than its commitTs has been served, otherwise the read
+// has missed a commit which should be visible to it. A read waits for the one-phase commits being
+// applied with smaller commitTs before opening region scanners, so that the check of a commit and
+// a read could not interleave. Prewrites of async-commit transactions are tracked in the same way,
+// the minCommitTs of their locks is raised above the max read ts
+public class RegionReadTsTracker {
+  // trackers of opened regions, keyed by the encoded region name
+  private static final ConcurrentHashMap<String, RegionReadTsTracker> trackers =
+      new ConcurrentHashMap<String, RegionReadTsTracker>();
+
+  private final AtomicLong maxReadTs;
+  // whether maxReadTs bounds the reads served before the tracker is created, one-phase commits are
+  // rejected if not
+  private final boolean bounded;
+  private final Set<PendingCommit> pendingCommits = Collections
+      .newSetFromMap(new ConcurrentHashMap<PendingCommit, Boolean>());
+
+  public static class PendingCommit {
+    // 0 until decided, reads wait for the pending commits whose commitTs is not decided
+    private volatile long commitTs;
+    private final CountDownLatch applied = new CountDownLatch(1);
+
+    protected PendingCommit(long commitTs) {
+      this.commitTs = commitTs;
+    }
+
+    public long getCommitTs() {
+      return commitTs;
+    }
+  }
+
+  protected RegionReadTsTracker(long initialMaxReadTs) {
+    this(initialMaxReadTs, true);
+  }
+
+  protected RegionReadTsTracker(long initialMaxReadTs, boolean bounded) {
+    this.maxReadTs = new AtomicLong(initialMaxReadTs);
+    this.bounded = bounded;
+  }
+
+  // return null if the tracker of the region is not registered
+  public static RegionReadTsTracker getTracker(HRegion region) {
+    return trackers.get(region.getRegionInfo().getEncodedName());
+  }
+
+  // reads served by the region before it is opened on this server are not tracked. If timestamps
+  // are related to the physical time (transaction ttl is enabled), they could not exceed the time
+  // of opening plus the clock error, so that the max read ts starts from there; otherwise they are
+  // not bounded and the tracker rejects all the one-phase commits
+  public static RegionReadTsTracker registerRegion(HRegion region) {
+    RegionReadTsTracker tracker;
+    if (TransactionTTL.transactionTTLEnable) {
+      tracker = new RegionReadTsTracker(TransactionTTL.toTimestamp(System.currentTimeMillis()
+          + TransactionTTL.transactionTTLTimeError));
+    } else {
+      tracker = new RegionReadTsTracker(0, false);
+    }
+    trackers.put(region.getRegionInfo().getEncodedName(), tracker);
+    return tracker;
+  }
+
+  public static void removeRegion(HRegion region) {
+    trackers.remove(region.getRegionInfo().getEncodedName());
+  }
+
+  public long getMaxReadTs() {
+    return maxReadTs.get();
+  }
+
+  public boolean isBounded() {
+    return bounded;
+  }
+
+  // must be invoked before the read with startTs opens region scanners
+  public void beforeRead(long startTs) throws InterruptedIOException {
+    long current = maxReadTs.get();
+    while (startTs > current && !maxReadTs.compareAndSet(current, startTs)) {
+      current = maxReadTs.get();
+    }
+    for (PendingCommit commit : pendingCommits) {
+      if (commit.commitTs < startTs) {
+        try {
+          commit.applied.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted when waiting one-phase commit, commitTs="
+              + commit.commitTs + ", startTs=" + startTs);
+        }
+      }
+    }
+  }
+
+  // return null if a read with startTs not less than commitTs may have been served, otherwise the
+  // commit must be finished by finishCommit after applied
+  public PendingCommit beginCommit(long commitTs) {
+    if (!bounded) {
+      return null;
+    }
+    PendingCommit commit = new PendingCommit(commitTs);
+    pendingCommits.add(commit);
+    if (maxReadTs.get() >= commitTs) {
+      finishCommit(commit);
+      return null;
+    }
+    return commit;
+  }
+
+  // decide the minCommitTs of the async-commit locks being prewritten as larger than the startTs of
+  // all the served reads, the prewrite must be finished by finishCommit after the locks are written
+  public PendingCommit beginPrewrite(long minCommitTs) {
+    PendingCommit prewrite = new PendingCommit(0);
+    pendingCommits.add(prewrite);
+    prewrite.commitTs = Math.max(minCommitTs, maxReadTs.get() + 1);
+    return prewrite;
+  }
+
+  public void finishCommit(PendingCommit commit) {
+    pendingCommits.remove(commit);
+    commit.applied.countDown();
+  }
+
+  protected int getPendingCommitCount() {
+    return pendingCommits.size();
+  }
+}
@@ -0,0 +1,151 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.themis.lock.PrimaryLock;
+import org.apache.hadoop.hbase.themis.lock.ThemisLock;
+
+// commits the secondaries of transactions in background of region server after their primaries are
+// committed by commitRowAndSecondaries, so that the client is acknowledged once the primary is
+// committed. The secondaries of each region are committed by one batchCommitSecondaryRows through
+// ServerLockCleaner. The transaction is durable once the primary is committed, secondaries left
+// after retries or lost with the queue when the server aborts are committed when they are resolved
+// by readers or the expired lock cleaner. Async-commit transactions are resolved by the same threads
+// after their columns are prewritten
+public class SecondaryCommitter {
+  private static final Log LOG = LogFactory.getLog(SecondaryCommitter.class);
+  public static final String THEMIS_SECONDARY_COMMIT_THREAD_COUNT_KEY =
+      "themis.secondary.commit.thread.count";
+  public static final int DEFAULT_THEMIS_SECONDARY_COMMIT_THREAD_COUNT = 10;
+  public static final String THEMIS_SECONDARY_COMMIT_QUEUE_SIZE_KEY =
+      "themis.secondary.commit.queue.size";
+  public static final int DEFAULT_THEMIS_SECONDARY_COMMIT_QUEUE_SIZE = 10000;
+  public static final String THEMIS_SECONDARY_COMMIT_RETRY_COUNT_KEY =
+      "themis.secondary.commit.retry.count";
+  public static final int DEFAULT_THEMIS_SECONDARY_COMMIT_RETRY_COUNT = 3;
+  public static final String THEMIS_SECONDARY_COMMIT_RETRY_PAUSE_KEY =
+      "themis.secondary.commit.retry.pause";
+  public static final int DEFAULT_THEMIS_SECONDARY_COMMIT_RETRY_PAUSE = 100; // in ms
+  public static final String THEMIS_ASYNC_COMMIT_RESOLVE_AFTER_PREWRITE_KEY =
+      "themis.async.commit.resolve.after.prewrite";
+  public static final boolean DEFAULT_THEMIS_ASYNC_COMMIT_RESOLVE_AFTER_PREWRITE = true;
+
+  // count of transactions queued or being committed by the committers of this process
+  private static final AtomicLong totalPendingCount = new AtomicLong(0);
+
+  private final ServerLockCleaner lockCleaner;
+  private final ThreadPoolExecutor commitThreadPool;
+  private final int retryCount;
+  private final long retryPause;
+
+  public SecondaryCommitter(ServerLockCleaner lockCleaner, Configuration conf) {
+    this.lockCleaner = lockCleaner;
+    int threadCount = conf.getInt(THEMIS_SECONDARY_COMMIT_THREAD_COUNT_KEY,
+      DEFAULT_THEMIS_SECONDARY_COMMIT_THREAD_COUNT);
+    int queueSize = conf.getInt(THEMIS_SECONDARY_COMMIT_QUEUE_SIZE_KEY,
+      DEFAULT_THEMIS_SECONDARY_COMMIT_QUEUE_SIZE);
+    this.retryCount = Math.max(0, conf.getInt(THEMIS_SECONDARY_COMMIT_RETRY_COUNT_KEY,
+      DEFAULT_THEMIS_SECONDARY_COMMIT_RETRY_COUNT));
+    this.retryPause = conf.getInt(THEMIS_SECONDARY_COMMIT_RETRY_PAUSE_KEY,
+      DEFAULT_THEMIS_SECONDARY_COMMIT_RETRY_PAUSE);
+    this.commitThreadPool = new ThreadPoolExecutor(threadCount, threadCount, 10,
+        TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r);
+        t.setName("themis-secondary-commit-thread-" + System.currentTimeMillis());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    this.commitThreadPool.allowCoreThreadTimeOut(true);
+    LOG.info("init secondary committer, threadCount=" + threadCount + ", queueSize=" + queueSize
+        + ", retryCount=" + retryCount + ", retryPause=" + retryPause);
+  }
+
+  public static long getTotalPendingCount() {
+    return totalPendingCount.get();
+  }
+
+  // the primary lock must contain its column. Return false if the queue is full, the caller should
+  // commit the secondaries by itself
+  public boolean commitSecondaries(final PrimaryLock primaryLock, final long commitTs) {
+    if (primaryLock.getSecondaryColumns().size() == 0) {
+      return true;
+    }
+    totalPendingCount.incrementAndGet();
+    try {
+      commitThreadPool.execute(new Runnable() {
+        public void run() {
+          try {
+            doCommitSecondaries(primaryLock, commitTs);
+          } finally {
+            totalPendingCount.decrementAndGet();
+          }
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      totalPendingCount.decrementAndGet();
+      ThemisCpStatistics.getThemisCpStatistics().secondaryCommitRejectedCount.incr();
+      return false;
+    }
+  }
+
+  // the lock must contain its column. Return false if the queue is full, the transaction will be
+  // resolved by readers or the expired lock cleaner
+  public boolean resolveAsyncCommit(final ThemisLock lock) {
+    totalPendingCount.incrementAndGet();
+    try {
+      commitThreadPool.execute(new Runnable() {
+        public void run() {
+          try {
+            lockCleaner.resolveAsyncCommitLock(lock);
+          } catch (Throwable e) {
+            LOG.warn("resolve async-commit lock fail, lock=" + lock, e);
+          } finally {
+            totalPendingCount.decrementAndGet();
+          }
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      totalPendingCount.decrementAndGet();
+      ThemisCpStatistics.getThemisCpStatistics().asyncCommitResolveRejectedCount.incr();
+      return false;
+    }
+  }
+
+  protected void doCommitSecondaries(PrimaryLock primaryLock, long commitTs) {
+    long beginTs = System.nanoTime();
+    for (int i = 0; i <= retryCount; ++i) {
+      try {
+        lockCleaner.cleanSecondaryLocks(primaryLock, commitTs);
+        ThemisCpStatistics.getThemisCpStatistics().secondaryCommitSuccessCount.incr();
+        ThemisCpStatistics.updateLatency(
+          ThemisCpStatistics.getThemisCpStatistics().secondaryCommitLatency, beginTs);
+        return;
+      } catch (Throwable e) {
+        LOG.warn("commit secondaries fail, primaryLock=" + primaryLock + ", commitTs=" + commitTs
+            + ", retry=" + i, e);
+      }
+      if (i < retryCount) {
+        try {
+          Thread.sleep(retryPause * (i + 1));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+    // the secondaries will be committed when resolved because the primary has been committed
+    ThemisCpStatistics.getThemisCpStatistics().secondaryCommitFailCount.incr();
+  }
+}
@@ -1,11 +1,28 @@
 package org.apache.hadoop.hbase.themis.cp;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HConnection;
@@ -15,6 +32,8 @@ import org.apache.hadoop.hbase.themis.columns.Column;
 import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
 import org.apache.hadoop.hbase.themis.columns.ColumnMutation;
 import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
+import org.apache.hadoop.hbase.themis.columns.RowMutation;
+import org.apache.hadoop.hbase.themis.exception.LockCleanedException;
 import org.apache.hadoop.hbase.themis.exception.ThemisFatalException;
 import org.apache.hadoop.hbase.themis.lock.PrimaryLock;
 import org.apache.hadoop.hbase.themis.lock.SecondaryLock;
@@ -25,6 +44,25 @@ import org.apache.hadoop.hbase.util.Pair;
 import com.google.common.collect.Lists;
 
 public class ServerLockCleaner {
+  private static final Log LOG = LogFactory.getLog(ServerLockCleaner.class);
+  private static final int DEFAULT_CLEAN_SECONDARY_THREAD_COUNT = Runtime.getRuntime()
+      .availableProcessors() * 5;
+
+  private static ThreadPoolExecutor cleanSecondaryThreadPool = new ThreadPoolExecutor(
+      DEFAULT_CLEAN_SECONDARY_THREAD_COUNT, DEFAULT_CLEAN_SECONDARY_THREAD_COUNT, 10,
+      TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r);
+      t.setName("themis-clean-secondary-thread-" + System.currentTimeMillis());
+      t.setDaemon(true);
+      return t;
+    }
+  });
+
+  static {
+    cleanSecondaryThreadPool.allowCoreThreadTimeOut(true);
+  }
+
   protected ThemisEndpointClient cpClient;
   protected final HConnection conn;
   
@@ -47,10 +85,19 @@ public class ServerLockCleaner {
   }
   
   // TODO : add lock clean metrics in server side?
-  // clean the lock either by erase the lock or commit the transaction
-  public void cleanLock(ThemisLock lock) throws IOException {
+  // clean the lock either by erase the lock or commit the transaction. return the commitTs if the
+  // transaction is committed; otherwise, return null
+  public Long cleanLock(ThemisLock lock) throws IOException {
     long beginTs = System.nanoTime();
     try {
+      if (lock.isAsyncCommit()) {
+        Pair<Boolean, Long> resolveResult = resolveAsyncCommitLock(lock);
+        if (!resolveResult.getFirst()) {
+          throw new IOException("async-commit transaction is in progress, lock=" + lock);
+        }
+        ThemisCpStatistics.getThemisCpStatistics().cleanLockSuccessCount.incr();
+        return resolveResult.getSecond();
+      }
       PrimaryLock primary = getPrimaryLockWithColumn(lock);
       // judge whether the transaction committed by clean the primary lock
       Pair<Long, PrimaryLock> cleanResult = cleanPrimaryLock(primary.getColumn(), primary.getTimestamp());
@@ -58,13 +105,14 @@ public class ServerLockCleaner {
       primary = cleanResult.getSecond() == null ? primary : cleanResult.getSecond();
       // clean secondary locks
       cleanSecondaryLocks(primary, cleanResult.getFirst());
-      ThemisCpStatistics.getThemisCpStatistics().cleanLockSuccessCount.inc();
+      ThemisCpStatistics.getThemisCpStatistics().cleanLockSuccessCount.incr();
+      return cleanResult.getFirst();
     } catch (IOException e) {
-      ThemisCpStatistics.getThemisCpStatistics().cleanLockFailCount.inc();
+      ThemisCpStatistics.getThemisCpStatistics().cleanLockFailCount.incr();
       throw e;
     } finally {
       ThemisCpStatistics.updateLatency(ThemisCpStatistics.getThemisCpStatistics().cleanLockLatency,
-        beginTs, "lock=" + lock);
+        beginTs, "lock=", lock);
     }
   }
   
@@ -85,13 +133,151 @@ public class ServerLockCleaner {
     // commitTs = null indicates the conflicted transaction has been erased by other client; otherwise
     // the conflicted must be committed by other client.
     if (commitTs == null) {
-      ThemisCpStatistics.getThemisCpStatistics().cleanLockByEraseCount.inc();
+      ThemisCpStatistics.getThemisCpStatistics().cleanLockByEraseCount.incr();
     } else {
-      ThemisCpStatistics.getThemisCpStatistics().cleanLockByCommitCount.inc();
+      ThemisCpStatistics.getThemisCpStatistics().cleanLockByCommitCount.incr();
+      CommittedPrimaryCache.getCommittedPrimaryCache().put(columnCoordinate, prewriteTs, commitTs);
     }
     return new Pair<Long, PrimaryLock>(commitTs, primaryLock);
   }
   
+  // An async-commit transaction is committed once all its columns are prewritten, with the max
+  // minCommitTs of its locks as commitTs; it fails if some column is not prewritten before the
+  // transaction expires, prewrites after expired are rejected by the write ttl. Resolve the
+  // transaction of the lock from its locks, return whether the transaction is resolved and the
+  // commitTs, which is null if the transaction is erased
+  public Pair<Boolean, Long> resolveAsyncCommitLock(ThemisLock lock) throws IOException {
+    long prewriteTs = lock.getTimestamp();
+    PrimaryLock primary = getPrimaryLockWithColumn(lock);
+    ColumnCoordinate primaryColumn = primary.getColumn();
+    // the primary lock read from region records all the secondaries and the raised minCommitTs
+    ThemisLock primaryLock = readLocks(Lists.newArrayList(primaryColumn), prewriteTs).get(
+      primaryColumn);
+    if (primaryLock == null) {
+      // the primary has been committed or erased
+      Long commitTs = getTimestampOfWriteIndexingPrewriteTs(primaryColumn, prewriteTs);
+      cleanSecondaryLocks(primary, commitTs);
+      ThemisCpStatistics.getThemisCpStatistics().asyncCommitResolvedCount.incr();
+      return new Pair<Boolean, Long>(true, commitTs);
+    }
+    if (!(primaryLock instanceof PrimaryLock)) {
+      throw new ThemisFatalException("encounter no-primary lock when resolve async-commit lock, "
+          + "column=" + primaryColumn + ", prewriteTs=" + prewriteTs + ", lock=" + primaryLock);
+    }
+    primary = (PrimaryLock) primaryLock;
+    primary.setColumn(primaryColumn);
+    // decide whether expired before reading the secondaries. A column not prewritten when read
+    // after expired could never be prewritten, so that a transaction erased by one resolver could
+    // not be found all prewritten and committed by another
+    boolean expired = isAsyncCommitExpired(prewriteTs);
+    Pair<Boolean, Long> prewriteResult = getAsyncCommitTs(primary);
+    if (prewriteResult.getFirst()) {
+      Long commitTs = prewriteResult.getSecond();
+      // commit the primary firstly, the transaction is resolved by the commit column of primary
+      // once the primary lock is erased. The commit checks the primary lock, if the lock has gone,
+      // the transaction has been resolved by others and the commitTs is read from the primary
+      try {
+        cpClient.commitRow(primaryColumn.getTableName(), primaryColumn.getRow(),
+          Lists.newArrayList(new ColumnMutation(primaryColumn, primary.getType(), null)),
+          prewriteTs, commitTs, 0);
+        CommittedPrimaryCache.getCommittedPrimaryCache().put(primaryColumn, prewriteTs, commitTs);
+      } catch (LockCleanedException e) {
+        commitTs = getTimestampOfWriteIndexingPrewriteTs(primaryColumn, prewriteTs);
+        LOG.warn("primary lock resolved by others when commit async-commit transaction, column="
+            + primaryColumn + ", prewriteTs=" + prewriteTs + ", commitTs=" + commitTs);
+      }
+      cleanSecondaryLocks(primary, commitTs);
+      ThemisCpStatistics.getThemisCpStatistics().asyncCommitResolvedCount.incr();
+      return new Pair<Boolean, Long>(true, commitTs);
+    }
+    if (!expired) {
+      ThemisCpStatistics.getThemisCpStatistics().asyncCommitInProgressCount.incr();
+      return new Pair<Boolean, Long>(false, null);
+    }
+    Pair<Long, PrimaryLock> cleanResult = cleanPrimaryLock(primaryColumn, prewriteTs);
+    cleanSecondaryLocks(cleanResult.getSecond() == null ? primary : cleanResult.getSecond(),
+      cleanResult.getFirst());
+    ThemisCpStatistics.getThemisCpStatistics().asyncCommitResolvedCount.incr();
+    return new Pair<Boolean, Long>(true, cleanResult.getFirst());
+  }
+
+  // return whether all the secondaries of the async-commit transaction have been prewritten, and
+  // the commitTs decided by the locks if prewritten. A secondary without lock has been prewritten
+  // if it has been committed, whose commitTs is the commitTs of the transaction
+  protected Pair<Boolean, Long> getAsyncCommitTs(PrimaryLock primary) throws IOException {
+    long prewriteTs = primary.getTimestamp();
+    long commitTs = primary.getMinCommitTs();
+    Map<ColumnCoordinate, ThemisLock> locks = readLocks(primary.getSecondaryColumns().keySet(),
+      prewriteTs);
+    for (Entry<ColumnCoordinate, ThemisLock> columnAndLock : locks.entrySet()) {
+      if (columnAndLock.getValue() != null) {
+        commitTs = Math.max(commitTs, columnAndLock.getValue().getMinCommitTs());
+        continue;
+      }
+      Long secondaryCommitTs = getTimestampOfWriteIndexingPrewriteTs(columnAndLock.getKey(),
+        prewriteTs);
+      if (secondaryCommitTs == null) {
+        return new Pair<Boolean, Long>(false, null);
+      }
+      return new Pair<Boolean, Long>(true, secondaryCommitTs);
+    }
+    return new Pair<Boolean, Long>(true, commitTs);
+  }
+
+  // columns not prewritten could not be prewritten after the transaction expires on all the servers.
+  // Late prewrites are only rejected by the write ttl, the transaction never expires without it
+  public static boolean isAsyncCommitExpired(long prewriteTs) {
+    if (!TransactionTTL.transactionTTLEnable) {
+      return false;
+    }
+    long currentMs = System.currentTimeMillis() - TransactionTTL.transactionTTLTimeError;
+    return prewriteTs < TransactionTTL.getExpiredTimestampForWrite(currentMs);
+  }
+
+  // read the locks of columns with the prewriteTs from the tables, the lock of a column is null if
+  // not exist
+  protected Map<ColumnCoordinate, ThemisLock> readLocks(Collection<ColumnCoordinate> columns,
+      long prewriteTs) throws IOException {
+    Map<byte[], List<ColumnCoordinate>> tableColumns = new TreeMap<byte[], List<ColumnCoordinate>>(
+        Bytes.BYTES_COMPARATOR);
+    for (ColumnCoordinate column : columns) {
+      List<ColumnCoordinate> list = tableColumns.get(column.getTableName());
+      if (list == null) {
+        list = new ArrayList<ColumnCoordinate>();
+        tableColumns.put(column.getTableName(), list);
+      }
+      list.add(column);
+    }
+    Map<ColumnCoordinate, ThemisLock> locks = new HashMap<ColumnCoordinate, ThemisLock>();
+    for (Entry<byte[], List<ColumnCoordinate>> entry : tableColumns.entrySet()) {
+      List<Get> gets = new ArrayList<Get>(entry.getValue().size());
+      for (ColumnCoordinate column : entry.getValue()) {
+        Column lockColumn = ColumnUtil.getLockColumn(column);
+        Get get = new Get(column.getRow()).addColumn(lockColumn.getFamily(),
+          lockColumn.getQualifier());
+        get.setTimeStamp(prewriteTs);
+        gets.add(get);
+      }
+      HTableInterface table = null;
+      try {
+        table = conn.getTable(entry.getKey());
+        Result[] results = table.get(gets);
+        for (int i = 0; i < results.length; ++i) {
+          ColumnCoordinate column = entry.getValue().get(i);
+          ThemisLock lock = null;
+          if (results[i] != null && !results[i].isEmpty()) {
+            lock = ThemisLock.parseFromKeyValue(results[i].list().get(0));
+            lock.setColumn(column);
+          }
+          locks.put(column, lock);
+        }
+      } finally {
+        closeTable(table);
+      }
+    }
+    return locks;
+  }
+
   // get the timestamp of write-column kv which has value equal to 'timestamp'
   public Long getTimestampOfWriteIndexingPrewriteTs(ColumnCoordinate columnCoordinate, long timestamp)
       throws IOException {
@@ -123,21 +309,116 @@ public class ServerLockCleaner {
     return get;
   }
   
-  // erase lock and data if commitTs is null; otherwise, commit it.
-  public void cleanSecondaryLocks(PrimaryLock primaryLock, Long commitTs)
+  // erase lock and data if commitTs is null; otherwise, commit it. The secondaries are grouped by
+  // region, each region is cleaned by one batch rpc and the regions are cleaned in parallel
+  public void cleanSecondaryLocks(PrimaryLock primaryLock, final Long commitTs)
       throws IOException {
+    final long prewriteTs = primaryLock.getTimestamp();
+    Collection<RegionSecondaries> regions = groupSecondariesByRegion(primaryLock);
+    if (regions.size() == 1) {
+      cleanSecondaryLocks(regions.iterator().next(), prewriteTs, commitTs);
+      return;
+    }
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(regions.size());
+    for (final RegionSecondaries region : regions) {
+      futures.add(cleanSecondaryThreadPool.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          cleanSecondaryLocks(region, prewriteTs, commitTs);
+          return null;
+        }
+      }));
+    }
+    // wait for all the regions, so that the caller could retry the whole transaction if fail
+    IOException exception = null;
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("interrupted when clean secondary locks, primaryLock="
+            + primaryLock);
+      } catch (ExecutionException e) {
+        exception = e.getCause() instanceof IOException ? (IOException) e.getCause()
+            : new IOException(e.getCause());
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  protected Collection<RegionSecondaries> groupSecondariesByRegion(PrimaryLock primaryLock)
+      throws IOException {
+    Map<String, RegionSecondaries> regions = new HashMap<String, RegionSecondaries>();
     for (Entry<ColumnCoordinate, Type> secondary : primaryLock.getSecondaryColumns().entrySet()) {
+      ColumnCoordinate column = secondary.getKey();
+      HRegionLocation location = conn.getRegionLocation(TableName.valueOf(column.getTableName()),
+        column.getRow(), false);
+      String regionName = location.getRegionInfo().getRegionNameAsString();
+      RegionSecondaries region = regions.get(regionName);
+      if (region == null) {
+        region = new RegionSecondaries(column.getTableName());
+        regions.put(regionName, region);
+      }
+      region.addSecondary(column, secondary.getValue());
+    }
+    return regions.values();
+  }
+
+  protected void cleanSecondaryLocks(RegionSecondaries region, long prewriteTs, Long commitTs)
+      throws IOException {
+    try {
       if (commitTs == null) {
-        eraseLockAndData(secondary.getKey(), primaryLock.getTimestamp());
+        List<byte[]> rowsNotInRegion = cpClient.batchEraseSecondaryRows(region.tableName,
+          region.getRowMutations(), prewriteTs);
+        for (byte[] row : rowsNotInRegion) {
+          eraseLockAndData(region.tableName, row, region.rows.get(row).getColumns(), prewriteTs);
+        }
       } else {
-        ColumnCoordinate column = secondary.getKey();
-        ColumnMutation columnMutation = new ColumnMutation(column, secondary.getValue(), null);
-        cpClient.commitSecondaryRow(column.getTableName(), column.getRow(),
-          Lists.newArrayList(columnMutation), primaryLock.getTimestamp(), commitTs);
+        cpClient.batchCommitSecondaryRows(region.tableName, region.getRowMutations(), prewriteTs,
+          commitTs);
+      }
+    } catch (IOException e) {
+      // the region might be split or moved, clean the secondaries row by row
+      LOG.warn("batch clean secondary locks fail, tableName=" + Bytes.toString(region.tableName)
+          + ", rowCount=" + region.rows.size() + ", prewriteTs=" + prewriteTs + ", commitTs="
+          + commitTs, e);
+      for (RowMutation rowMutation : region.getRowMutations()) {
+        if (commitTs == null) {
+          eraseLockAndData(region.tableName, rowMutation.getRow(), rowMutation.getColumns(),
+            prewriteTs);
+        } else {
+          cpClient.commitSecondaryRow(region.tableName, rowMutation.getRow(),
+            rowMutation.mutationListWithoutValue(), prewriteTs, commitTs);
+        }
       }
     }
   }
 
+  // secondaries of a transaction located in the same region
+  static class RegionSecondaries {
+    private final byte[] tableName;
+    private final Map<byte[], RowMutation> rows = new TreeMap<byte[], RowMutation>(
+        Bytes.BYTES_COMPARATOR);
+
+    public RegionSecondaries(byte[] tableName) {
+      this.tableName = tableName;
+    }
+
+    public void addSecondary(ColumnCoordinate column, Type type) {
+      RowMutation rowMutation = rows.get(column.getRow());
+      if (rowMutation == null) {
+        rowMutation = new RowMutation(column.getRow());
+        rows.put(column.getRow(), rowMutation);
+      }
+      rowMutation.addMutation(new Column(column.getFamily(), column.getQualifier()), type, null,
+        false);
+    }
+
+    public List<RowMutation> getRowMutations() {
+      return new ArrayList<RowMutation>(rows.values());
+    }
+  }
+
   public void eraseLockAndData(ColumnCoordinate column, long timestamp) throws IOException {
     eraseLockAndData(column.getTableName(), column.getRow(), Lists.<Column>newArrayList(column), timestamp);
   }
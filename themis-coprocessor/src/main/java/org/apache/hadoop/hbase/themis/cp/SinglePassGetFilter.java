@@ -0,0 +1,54 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// SinglePassGetFilter is used when the lock, write and data columns of a row are read by one get.
+// Only the latest version of lock and write columns is included as the lock and write get does,
+// while the versions of data columns are limited by the max versions of the get. This filter is only
+// used in the region server and can not be serialized
+public class SinglePassGetFilter extends FilterBase {
+  @Override
+  public ReturnCode filterKeyValue(Cell v) {
+    return isLockOrWriteCell(v) ? ReturnCode.INCLUDE_AND_NEXT_COL : ReturnCode.INCLUDE;
+  }
+
+  // compare in the backing array of cell to avoid copying family and qualifier of each cell
+  protected static boolean isLockOrWriteCell(Cell v) {
+    if (Bytes.equals(ColumnUtil.LOCK_FAMILY_NAME, 0, ColumnUtil.LOCK_FAMILY_NAME.length,
+      v.getFamilyArray(), v.getFamilyOffset(), v.getFamilyLength())) {
+      return true;
+    }
+    if (ColumnUtil.isCommitToSameFamily()) {
+      return endsWith(v, ColumnUtil.PUT_QUALIFIER_SUFFIX_BYTES)
+          || endsWith(v, ColumnUtil.DELETE_QUALIFIER_SUFFIX_BYTES);
+    }
+    return Bytes.equals(ColumnUtil.PUT_FAMILY_NAME_BYTES, 0,
+      ColumnUtil.PUT_FAMILY_NAME_BYTES.length, v.getFamilyArray(), v.getFamilyOffset(),
+      v.getFamilyLength())
+        || Bytes.equals(ColumnUtil.DELETE_FAMILY_NAME_BYTES, 0,
+          ColumnUtil.DELETE_FAMILY_NAME_BYTES.length, v.getFamilyArray(), v.getFamilyOffset(),
+          v.getFamilyLength());
+  }
+
+  private static boolean endsWith(Cell v, byte[] suffix) {
+    int length = v.getQualifierLength();
+    return length >= suffix.length
+        && Bytes.equals(suffix, 0, suffix.length, v.getQualifierArray(), v.getQualifierOffset()
+            + length - suffix.length, suffix.length);
+  }
+
+  public void readFields(DataInput arg0) throws IOException {
+    throw new IOException("not implemented");
+  }
+
+  public void write(DataOutput arg0) throws IOException {
+    throw new IOException("not implemented");
+  }
+}
@@ -1,64 +1,140 @@
 package org.apache.hadoop.hbase.themis.cp;
 
-import org.apache.hadoop.metrics.MetricsContext;
-import org.apache.hadoop.metrics.MetricsRecord;
-import org.apache.hadoop.metrics.MetricsUtil;
-import org.apache.hadoop.metrics.util.MetricsRegistry;
-import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
-import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
+import java.util.ArrayList;
+import java.util.List;
 
-// latency statistics for key steps of themis coprocessor
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeLong;
+
+// latency statistics for key steps of themis coprocessor. Latencies are reported as count, average,
+// max and p50/p95/p99/p999 of each metrics interval through the metrics2 source "ThemisCoprocessor",
+// followed by the records of ThemisRegionMetrics for each table and region
 public class ThemisCpStatistics extends ThemisStatisticsBase {
+  public static final String METRICS_SOURCE_NAME = "ThemisCoprocessor";
+  public static final String METRICS_CONTEXT = "themis";
   private static final ThemisCpStatistics statistcs = new ThemisCpStatistics();
-  private final MetricsRegistry registry = new MetricsRegistry();
-  private final MetricsContext context;
-  private final MetricsRecord metricsRecord;
-  public final MetricsTimeVaryingRate getLockAndWriteLatency = new MetricsTimeVaryingRate("getLockAndWriteLatency", registry);
-  public final MetricsTimeVaryingRate getDataLatency = new MetricsTimeVaryingRate("getDataLatency", registry);
-  public final MetricsTimeVaryingRate prewriteReadLockLatency = new MetricsTimeVaryingRate("prewriteReadLockLatency", registry);
-  public final MetricsTimeVaryingRate prewriteReadWriteLatency = new MetricsTimeVaryingRate("prewriteReadWriteLatency", registry);
-  public final MetricsTimeVaryingRate prewriteCheckConflictRowLatency = new MetricsTimeVaryingRate(
-      "prewriteCheckConflictRowLatency", registry);
-  public final MetricsTimeVaryingRate prewriteWriteLatency = new MetricsTimeVaryingRate("prewriteWriteLatency", registry);
-  public final MetricsTimeVaryingRate prewriteTotalLatency = new MetricsTimeVaryingRate("prewriteTotalLatency", registry); 
-  public final MetricsTimeVaryingRate commitPrimaryReadLatency = new MetricsTimeVaryingRate("commitPrimaryReadLatency", registry);
-  public final MetricsTimeVaryingRate commitWriteLatency = new MetricsTimeVaryingRate("commitWriteLatency", registry);
-  public final MetricsTimeVaryingRate commitTotalLatency = new MetricsTimeVaryingRate("commitTotalLatency", registry);
-  public final MetricsTimeVaryingRate getLockAndEraseReadLatency = new MetricsTimeVaryingRate("getLockAndEraseReadLatency", registry);
-  public final MetricsTimeVaryingRate getLockAndEraseDeleteLatency = new MetricsTimeVaryingRate("getLockAndEraseDeleteLatency", registry);
+  private final MetricsRegistry registry = new MetricsRegistry(METRICS_SOURCE_NAME)
+      .setContext(METRICS_CONTEXT);
+  private final List<LatencyHistogram> latencies = new ArrayList<LatencyHistogram>();
+  // latencies of reading lock and write columns, then data columns by themisGet
+  public final LatencyHistogram getLockAndWriteLatency = newLatency("getLockAndWriteLatency");
+  public final LatencyHistogram getDataLatency = newLatency("getDataLatency");
+  // latencies of prewrite: conflict check read, conflict check, region write and total
+  public final LatencyHistogram prewriteReadLockAndWriteLatency = newLatency(
+    "prewriteReadLockAndWriteLatency");
+  public final LatencyHistogram prewriteCheckConflictRowLatency = newLatency(
+    "prewriteCheckConflictRowLatency");
+  public final LatencyHistogram prewriteWriteLatency = newLatency("prewriteWriteLatency");
+  public final LatencyHistogram prewriteTotalLatency = newLatency("prewriteTotalLatency");
+  // latencies of commit: primary lock read, region write and total
+  public final LatencyHistogram commitPrimaryReadLatency = newLatency("commitPrimaryReadLatency");
+  public final LatencyHistogram commitWriteLatency = newLatency("commitWriteLatency");
+  public final LatencyHistogram commitTotalLatency = newLatency("commitTotalLatency");
+  // metrics of one-phase commit, which falls back to prewrite and commit if not committed
+  public final LatencyHistogram onePhaseCommitLatency = newLatency("onePhaseCommitLatency");
+  public final MutableCounterLong onePhaseCommitSuccessCount = newCounter(
+    "onePhaseCommitSuccessCount");
+  public final MutableCounterLong onePhaseCommitFallbackCount = newCounter(
+    "onePhaseCommitFallbackCount");
+  public final MutableCounterLong onePhaseCommitRejectedByReadCount = newCounter(
+    "onePhaseCommitRejectedByReadCount");
+  // metrics of group commit, the batching factor is groupCommitRequestCount divided by
+  // groupCommitBatchCount
+  public final MutableCounterLong groupCommitBatchCount = newCounter("groupCommitBatchCount");
+  public final MutableCounterLong groupCommitRequestCount = newCounter("groupCommitRequestCount");
+  public final MutableCounterLong groupCommitFallbackCount = newCounter(
+    "groupCommitFallbackCount");
+  // latencies of erasing lock
+  public final LatencyHistogram getLockAndEraseReadLatency = newLatency(
+    "getLockAndEraseReadLatency");
+  public final LatencyHistogram getLockAndEraseDeleteLatency = newLatency(
+    "getLockAndEraseDeleteLatency");
   
   // metrics for lock clean
-  public final MetricsTimeVaryingRate cleanLockLatency = new MetricsTimeVaryingRate("cleanLockLatency", registry);
-  public final MetricsTimeVaryingLong cleanLockSuccessCount = new MetricsTimeVaryingLong("cleanLockSuccessCount", registry);
-  public final MetricsTimeVaryingLong cleanLockFailCount = new MetricsTimeVaryingLong("cleanLockFailCount", registry);
-  public final MetricsTimeVaryingLong cleanLockByEraseCount = new MetricsTimeVaryingLong("cleanLockWithEraseCount", registry);
-  public final MetricsTimeVaryingLong cleanLockByCommitCount = new MetricsTimeVaryingLong("cleanLockWithCommitCount", registry);
+  public final LatencyHistogram cleanLockLatency = newLatency("cleanLockLatency");
+  public final MutableCounterLong cleanLockSuccessCount = newCounter("cleanLockSuccessCount");
+  public final MutableCounterLong cleanLockFailCount = newCounter("cleanLockFailCount");
+  public final MutableCounterLong cleanLockByEraseCount = newCounter("cleanLockWithEraseCount");
+  public final MutableCounterLong cleanLockByCommitCount = newCounter("cleanLockWithCommitCount");
+  // count of async-commit transactions resolved from their locks, the ones left in progress, and
+  // the background resolutions after prewrite rejected because the queue is full
+  public final MutableCounterLong asyncCommitResolvedCount = newCounter("asyncCommitResolvedCount");
+  public final MutableCounterLong asyncCommitInProgressCount = newCounter(
+    "asyncCommitInProgressCount");
+  public final MutableCounterLong asyncCommitResolveRejectedCount = newCounter(
+    "asyncCommitResolveRejectedCount");
+  // metrics of committing secondaries in background after the primary is committed, the rejected
+  // ones are committed by the rpc handler when the queue is full
+  public final LatencyHistogram secondaryCommitLatency = newLatency("secondaryCommitLatency");
+  public final MutableCounterLong secondaryCommitSuccessCount = newCounter(
+    "secondaryCommitSuccessCount");
+  public final MutableCounterLong secondaryCommitFailCount = newCounter("secondaryCommitFailCount");
+  public final MutableCounterLong secondaryCommitRejectedCount = newCounter(
+    "secondaryCommitRejectedCount");
+  
+  // metrics for committed primary cache
+  public final MutableCounterLong committedPrimaryCacheHitCount = newCounter(
+    "committedPrimaryCacheHitCount");
+  public final MutableCounterLong committedPrimaryCacheMissCount = newCounter(
+    "committedPrimaryCacheMissCount");
+  
+  // metrics for lock resolved when reading
+  public final MutableCounterLong getResolveLockSuccessCount = newCounter(
+    "getResolveLockSuccessCount");
+  public final MutableCounterLong getResolveLockFailCount = newCounter("getResolveLockFailCount");
+  
+  // metrics for themisGet which reads lock, write and data columns by single pass
+  public final LatencyHistogram singlePassGetLatency = newLatency("singlePassGetLatency");
+  public final MutableCounterLong singlePassGetFallbackCount = newCounter(
+    "singlePassGetFallbackCount");
+  
+  // latency of the scans of batch get by row group
+  public final LatencyHistogram batchGetLockAndWriteLatency = newLatency(
+    "batchGetLockAndWriteLatency");
+  public final LatencyHistogram batchGetDataLatency = newLatency("batchGetDataLatency");
+  // count of batch get responses returned before all the gets executed because of the size limit
+  public final MutableCounterLong batchGetPartialResponseCount = newCounter(
+    "batchGetPartialResponseCount");
+  
+  // count of rows whose data columns are read by get instead of the data scanner in themis scan
+  public final MutableCounterLong scanReadDataByGetCount = newCounter("scanReadDataByGetCount");
+  
+  // count of outstanding locks in the lock indexes of opened regions
+  public final MutableGaugeLong lockIndexLockCount = registry.newGauge("lockIndexLockCount",
+    "count of outstanding locks in the lock indexes of opened regions", 0L);
+  // count of transactions whose secondaries are queued or being committed in background
+  public final MutableGaugeLong secondaryCommitQueueSize = registry.newGauge(
+    "secondaryCommitQueueSize",
+    "count of transactions whose secondaries are queued or being committed in background", 0L);
   
   public ThemisCpStatistics() {
-    context = MetricsUtil.getContext("themis");
-    metricsRecord = MetricsUtil.createRecord(context, "coprocessor");
-    context.registerUpdater(this);
+    DefaultMetricsSystem.instance().register(METRICS_SOURCE_NAME,
+      "latency statistics of themis coprocessor", this);
+  }
+  
+  private LatencyHistogram newLatency(String name) {
+    LatencyHistogram latency = new LatencyHistogram(name, name);
+    latencies.add(latency);
+    return latency;
+  }
+  
+  private MutableCounterLong newCounter(String name) {
+    return registry.newCounter(name, name, 0L);
   }
   
-  public void doUpdates(MetricsContext context) {
-    getLockAndWriteLatency.pushMetric(metricsRecord);
-    getDataLatency.pushMetric(metricsRecord);
-    prewriteReadLockLatency.pushMetric(metricsRecord);
-    prewriteReadWriteLatency.pushMetric(metricsRecord);
-    prewriteCheckConflictRowLatency.pushMetric(metricsRecord);
-    prewriteWriteLatency.pushMetric(metricsRecord);
-    prewriteTotalLatency.pushMetric(metricsRecord);
-    commitPrimaryReadLatency.pushMetric(metricsRecord);
-    commitWriteLatency.pushMetric(metricsRecord);
-    commitTotalLatency.pushMetric(metricsRecord);
-    getLockAndEraseReadLatency.pushMetric(metricsRecord);
-    getLockAndEraseDeleteLatency.pushMetric(metricsRecord);
-    cleanLockLatency.pushMetric(metricsRecord);
-    cleanLockSuccessCount.pushMetric(metricsRecord);
-    cleanLockFailCount.pushMetric(metricsRecord);
-    cleanLockByEraseCount.pushMetric(metricsRecord);
-    cleanLockByCommitCount.pushMetric(metricsRecord);
-    metricsRecord.update();
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder builder = collector.addRecord(registry.info()).setContext(METRICS_CONTEXT);
+    for (LatencyHistogram latency : latencies) {
+      latency.snapshot(builder, all);
+    }
+    lockIndexLockCount.set(RegionLockIndex.getTotalLockCount());
+    secondaryCommitQueueSize.set(SecondaryCommitter.getTotalPendingCount());
+    registry.snapshot(builder, all);
+    ThemisRegionMetrics.snapshotAll(collector, all);
   }
 
   public static ThemisCpStatistics getThemisCpStatistics() {
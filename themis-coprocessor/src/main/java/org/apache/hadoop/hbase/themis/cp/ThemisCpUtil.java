@@ -3,6 +3,7 @@ package org.apache.hadoop.hbase.themis.cp;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -14,6 +15,7 @@ import java.util.TreeMap;
 
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.Type;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
@@ -30,7 +32,10 @@ import org.apache.hadoop.hbase.filter.RowFilter;
 import org.apache.hadoop.hbase.filter.SkipFilter;
 import org.apache.hadoop.hbase.filter.WhileMatchFilter;
 import org.apache.hadoop.hbase.themis.columns.Column;
+import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
 import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
+import org.apache.hadoop.hbase.themis.lock.SecondaryLock;
+import org.apache.hadoop.hbase.themis.lock.ThemisLock;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.yarn.webapp.hamlet.HamletSpec._;
@@ -185,7 +190,7 @@ public class ThemisCpUtil {
           addWriteColumnToGet(dataColumn, internalGet);
         }
       } else {
-        // TODO : use filter to read out lock columns corresponding to needed data column
+        // lock and write columns of the family will be selected by LockAndWriteColumnFilter
         internalGet.addFamily(ColumnUtil.LOCK_FAMILY_NAME);
         if (ColumnUtil.isCommitToSameFamily()) {
           internalGet.addFamily(entry.getKey());
@@ -197,7 +202,7 @@ public class ThemisCpUtil {
       }
     }
     if (excludeDataColumn) {
-      internalGet.setFilter(new ExcludeDataColumnFilter());
+      internalGet.setFilter(new LockAndWriteColumnFilter(userGet.getFamilyMap()));
     }
     internalGet.setTimeRange(0, startTs);
   }
@@ -237,6 +242,44 @@ public class ThemisCpUtil {
     return putGet;
   }
 
+  // construct the get which reads the lock, write and data columns of the user get in one pass. The
+  // get must read columns without filter, and maxVersions of data columns will be read
+  public static Get constructSinglePassGet(Get userGet, long startTs, int maxVersions)
+      throws IOException {
+    Get get = new Get(userGet.getRow());
+    addLockAndWriteColumnToGet(userGet, get, startTs);
+    for (Entry<byte[], NavigableSet<byte[]>> entry : userGet.getFamilyMap().entrySet()) {
+      for (byte[] qualifier : entry.getValue()) {
+        get.addColumn(entry.getKey(), qualifier);
+      }
+    }
+    get.setMaxVersions(maxVersions);
+    get.setFilter(new SinglePassGetFilter());
+    get.setCacheBlocks(userGet.getCacheBlocks());
+    return get;
+  }
+
+  // select the data kvs indexed by put kvs from the kvs read by single pass get, return null if
+  // any data kv is not read
+  public static List<KeyValue> selectDataKvsByPutKvs(List<KeyValue> putKvs, List<KeyValue> kvs) {
+    Map<Column, Long> prewriteTsMap = new HashMap<Column, Long>();
+    for (KeyValue putKv : putKvs) {
+      prewriteTsMap.put(ColumnUtil.getDataColumn(new Column(putKv.getFamily(),
+        putKv.getQualifier())), Bytes.toLong(putKv.getValue()));
+    }
+    List<KeyValue> dataKvs = new ArrayList<KeyValue>();
+    if (kvs != null) {
+      for (KeyValue kv : kvs) {
+        Long prewriteTs = prewriteTsMap.get(new Column(kv.getFamily(), kv.getQualifier()));
+        if (prewriteTs != null && prewriteTs == kv.getTimestamp()
+            && !ColumnUtil.isLockColumn(kv.getFamily(), kv.getQualifier())) {
+          dataKvs.add(kv);
+        }
+      }
+    }
+    return dataKvs.size() == putKvs.size() ? dataKvs : null;
+  }
+
   public static void prepareGet(Get get, Collection<HColumnDescriptor> families) {
     if (!get.hasFamilies()) {
       for (HColumnDescriptor family : families) {
@@ -281,10 +324,12 @@ public class ThemisCpUtil {
           addLockAndWriteColumnToScan(dataColumn, internalScan);
         }
       } else {
-        // TODO : use filter to read out lock columns corresponding to needed data column
+        // lock and write columns of the family will be selected by LockAndWriteColumnFilter, the
+        // data family needn't be read if commit to different family
         internalScan.addFamily(ColumnUtil.LOCK_FAMILY_NAME);
-        internalScan.addFamily(entry.getKey());
-        if (!ColumnUtil.isCommitToSameFamily()) {
+        if (ColumnUtil.isCommitToSameFamily()) {
+          internalScan.addFamily(entry.getKey());
+        } else {
           internalScan.addFamily(ColumnUtil.PUT_FAMILY_NAME_BYTES);
           internalScan.addFamily(ColumnUtil.DELETE_FAMILY_NAME_BYTES);
         }
@@ -292,7 +337,7 @@ public class ThemisCpUtil {
       }
     }
     if (excludeDataColumn) {
-      internalScan.setFilter(new ExcludeDataColumnFilter());
+      internalScan.setFilter(new LockAndWriteColumnFilter(userScan.getFamilyMap()));
     }
     internalScan.setTimeRange(0, startTs);
     moveRowkeyFiltersForWriteScan(userScan, internalScan);
@@ -353,6 +398,38 @@ public class ThemisCpUtil {
     return get;
   }
 
+  public static ColumnTimestampFilter constructColumnTimestampFilterByPutKvs(
+      List<KeyValue> putKvs) {
+    ColumnTimestampFilter timestampFilter = new ColumnTimestampFilter();
+    for (KeyValue putKv : putKvs) {
+      Column dataColumn = ColumnUtil.getDataColumn(new Column(putKv.getFamily(),
+          putKv.getQualifier()));
+      timestampFilter.addColumnTimestamp(dataColumn, Bytes.toLong(putKv.getValue()));
+    }
+    return timestampFilter;
+  }
+
+  // construct the scan which reads the data columns of userScan from startRow, the timestamps of
+  // data columns in each row are specified by dataFilter
+  public static Scan constructDataScan(Scan userScan, byte[] startRow, long startTs,
+      Filter dataFilter) throws IOException {
+    Scan scan = new Scan(startRow, userScan.getStopRow());
+    for (Entry<byte[], NavigableSet<byte[]>> entry : userScan.getFamilyMap().entrySet()) {
+      if (entry.getValue() == null || entry.getValue().size() == 0) {
+        scan.addFamily(entry.getKey());
+      } else {
+        for (byte[] qualifier : entry.getValue()) {
+          scan.addColumn(entry.getKey(), qualifier);
+        }
+      }
+    }
+    // prewriteTs of data columns committed before startTs must be less than startTs
+    scan.setTimeRange(0, startTs);
+    scan.setCacheBlocks(userScan.getCacheBlocks());
+    scan.setFilter(dataFilter);
+    return scan;
+  }
+
   // get put kv which has greater timestamp than delete kv under the same family
   protected static List<KeyValue> getPutKvs(List<KeyValue> writeKvs) {
     if (ColumnUtil.isCommitToSameFamily()) {
@@ -404,6 +481,26 @@ public class ThemisCpUtil {
     return result;
   }
 
+  // construct the scan which reads the columns of the get from the rows of rowFilter
+  public static Scan constructScanByRowFilter(Get get, MultiRowColumnTimestampFilter rowFilter)
+      throws IOException {
+    Scan scan = new Scan(rowFilter.getFirstRow(), Bytes.add(rowFilter.getLastRow(),
+      new byte[] { 0 }));
+    for (Entry<byte[], NavigableSet<byte[]>> entry : get.getFamilyMap().entrySet()) {
+      if (entry.getValue() == null) {
+        scan.addFamily(entry.getKey());
+      } else {
+        for (byte[] qualifier : entry.getValue()) {
+          scan.addColumn(entry.getKey(), qualifier);
+        }
+      }
+    }
+    scan.setTimeRange(get.getTimeRange().getMin(), get.getTimeRange().getMax());
+    scan.setCacheBlocks(get.getCacheBlocks());
+    scan.setFilter(rowFilter);
+    return scan;
+  }
+
   public static void addWriteColumnToGet(Column column, Get get) {
     Column putColumn = ColumnUtil.getPutColumn(column);
     if (ColumnUtil.isCommitToSameFamily()
@@ -420,6 +517,80 @@ public class ThemisCpUtil {
     }
   }
 
+  // read the lock, put and delete columns of all the given columns of the row by one get. Only the
+  // latest version of each column is read, which is enough for prewrite conflict checking because
+  // a newer write exists if and only if the latest write column is not older than prewriteTs
+  public static Get constructPrewriteConflictGet(byte[] row, List<? extends Column> columns) {
+    Get get = new Get(row);
+    for (Column column : columns) {
+      Column lockColumn = ColumnUtil.getLockColumn(column);
+      get.addColumn(lockColumn.getFamily(), lockColumn.getQualifier());
+      addWriteColumnToGet(column, get);
+    }
+    return get;
+  }
+
+  // resolve lock kvs by CommittedPrimaryCache. If the transaction of the lock has been committed
+  // before startTs, the write kv of the committed column will be added to writeKvs; if committed
+  // after startTs, the lock could be ignored. Locks of async-commit transactions with minCommitTs
+  // larger than startTs are also ignored, the transaction must be committed after startTs. Return
+  // the lock kvs which could not be resolved
+  public static List<KeyValue> resolveLockKvsByCommittedPrimary(byte[] tableName,
+      List<KeyValue> lockKvs, List<KeyValue> writeKvs, long startTs) throws IOException {
+    CommittedPrimaryCache cache = CommittedPrimaryCache.getCommittedPrimaryCache();
+    List<KeyValue> unresolvedLockKvs = new ArrayList<KeyValue>();
+    boolean writeKvAdded = false;
+    for (KeyValue lockKv : lockKvs) {
+      if (ThemisLock.getMinCommitTs(lockKv.getValueArray(), lockKv.getValueOffset()) > startTs) {
+        continue;
+      }
+      if (!cache.isEnabled()) {
+        unresolvedLockKvs.add(lockKv);
+        continue;
+      }
+      // only the secondary lock needs to be parsed to get the primary column
+      boolean isPrimary = ThemisLock.isPrimary(lockKv.getValueArray(), lockKv.getValueOffset());
+      Type lockType = ThemisLock.getType(lockKv.getValueArray(), lockKv.getValueOffset());
+      Column dataColumn = ColumnUtil.getDataColumn(new Column(lockKv.getFamily(),
+          lockKv.getQualifier()));
+      ColumnCoordinate primaryColumn = isPrimary ? new ColumnCoordinate(tableName,
+          lockKv.getRow(), dataColumn) : ((SecondaryLock) ThemisLock.parseFromKeyValue(lockKv))
+          .getPrimaryColumn();
+      Long commitTs = cache.getCommitTs(primaryColumn, lockKv.getTimestamp());
+      if (commitTs == null) {
+        unresolvedLockKvs.add(lockKv);
+      } else if (commitTs < startTs) {
+        Column writeColumn = null;
+        if (lockType == Type.Put) {
+          writeColumn = ColumnUtil.getPutColumn(dataColumn);
+        } else if (lockType == Type.DeleteColumn) {
+          writeColumn = ColumnUtil.getDeleteColumn(dataColumn);
+        }
+        // lock of lockRow has no write column
+        if (writeColumn != null) {
+          writeKvs.add(new KeyValue(lockKv.getRow(), writeColumn.getFamily(), writeColumn
+              .getQualifier(), commitTs, Bytes.toBytes(lockKv.getTimestamp())));
+          writeKvAdded = true;
+        }
+      }
+    }
+    if (writeKvAdded) {
+      // getPutKvs requires write kvs are sorted by column
+      Collections.sort(writeKvs, KeyValue.COMPARATOR);
+    }
+    return unresolvedLockKvs;
+  }
+
+  // parse the lock from lock kv and set the data column of the lock
+  public static ThemisLock constructLockFromKeyValue(byte[] tableName, KeyValue lockKv)
+      throws IOException {
+    ThemisLock lock = ThemisLock.parseFromKeyValue(lockKv);
+    Column dataColumn = ColumnUtil.getDataColumn(new Column(lockKv.getFamily(),
+        lockKv.getQualifier()));
+    lock.setColumn(new ColumnCoordinate(tableName, lockKv.getRow(), dataColumn));
+    return lock;
+  }
+
   public static boolean isLockResult(Result result) {
     if (result.isEmpty()) {
       return false;
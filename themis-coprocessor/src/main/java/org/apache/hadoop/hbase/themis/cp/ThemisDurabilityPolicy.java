@@ -0,0 +1,106 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Mutation;
+
+// durability of the writes of themis by operation. The durability of an operation is set by the
+// value of its key in the table descriptor, or in the configuration of region server for all tables,
+// otherwise it is the durability of the table. Only the operations whose writes could be recovered
+// from the primary after lost may be weaker than the table: a secondary whose commit is lost is
+// locked again and committed when resolved by the primary commit column, a secondary lock whose
+// erasure is lost is erased again when resolved by the erased primary lock. The prewrites and the
+// commit or erasure of the primary decide the transaction, they are always durable as the table
+public class ThemisDurabilityPolicy {
+  private static final Log LOG = LogFactory.getLog(ThemisDurabilityPolicy.class);
+
+  public static enum Operation {
+    PRIMARY_PREWRITE("themis.durability.primary.prewrite", false),
+    SECONDARY_PREWRITE("themis.durability.secondary.prewrite", false),
+    // including the erasure of the primary lock, which aborts the transaction
+    PRIMARY_COMMIT("themis.durability.primary.commit", false),
+    SECONDARY_COMMIT("themis.durability.secondary.commit", true),
+    // erasure of secondary locks
+    LOCK_ERASE("themis.durability.lock.erase", true);
+
+    private final String key;
+    private final boolean recoverable;
+
+    private Operation(String key, boolean recoverable) {
+      this.key = key;
+      this.recoverable = recoverable;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public boolean isRecoverable() {
+      return recoverable;
+    }
+  }
+
+  private final Durability[] durabilities = new Durability[Operation.values().length];
+
+  public ThemisDurabilityPolicy(HTableDescriptor tableDesc, Configuration conf) {
+    // mutations with default durability would follow the weakest mutation applied with them by
+    // one region mutation, so that the durability of table is set explicitly
+    Durability tableDurability = tableDesc.getDurability();
+    if (tableDurability == Durability.USE_DEFAULT) {
+      tableDurability = Durability.SYNC_WAL;
+    }
+    for (Operation operation : Operation.values()) {
+      Durability durability = tableDurability;
+      String value = tableDesc.getValue(operation.getKey());
+      if (value == null) {
+        value = conf.get(operation.getKey());
+      }
+      if (value != null) {
+        try {
+          durability = Durability.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+          LOG.error("invalid durability for " + operation + ", tableName="
+              + tableDesc.getNameAsString() + ", value=" + value + ", use the durability of table="
+              + tableDurability);
+          durability = Durability.USE_DEFAULT;
+        }
+        if (durability == Durability.USE_DEFAULT) {
+          durability = tableDurability;
+        } else if (!operation.isRecoverable()
+            && durability.ordinal() < tableDurability.ordinal()) {
+          LOG.error("can not set durability weaker than the table for " + operation
+              + ", tableName=" + tableDesc.getNameAsString() + ", durability=" + durability
+              + ", tableDurability=" + tableDurability);
+          durability = tableDurability;
+        }
+      }
+      durabilities[operation.ordinal()] = durability;
+    }
+  }
+
+  public Durability getDurability(Operation operation) {
+    return durabilities[operation.ordinal()];
+  }
+
+  public void setDurability(Operation operation, List<? extends Mutation> mutations) {
+    Durability durability = getDurability(operation);
+    for (Mutation mutation : mutations) {
+      mutation.setDurability(durability);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (Operation operation : Operation.values()) {
+      builder.append(builder.length() == 0 ? "" : ", ").append(operation).append("=")
+          .append(durabilities[operation.ordinal()]);
+    }
+    return builder.toString();
+  }
+}
@@ -3,23 +3,33 @@ package org.apache.hadoop.hbase.themis.cp;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.*;
 import org.apache.hadoop.hbase.KeyValue.Type;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HConnectionManager;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.coprocessor.CoprocessorException;
 import org.apache.hadoop.hbase.coprocessor.CoprocessorService;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
@@ -29,11 +39,15 @@ import org.apache.hadoop.hbase.protobuf.ResponseConverter;
 import org.apache.hadoop.hbase.protobuf.generated.ClientProtos;
 import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.HRegion.RowLock;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.regionserver.RegionServerServices;
 import org.apache.hadoop.hbase.regionserver.Store;
 import org.apache.hadoop.hbase.regionserver.ThemisRegionObserver;
 import org.apache.hadoop.hbase.themis.columns.Column;
+import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
 import org.apache.hadoop.hbase.themis.columns.ColumnMutation;
 import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
+import org.apache.hadoop.hbase.themis.cp.ThemisDurabilityPolicy.Operation;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisBatchGetResponse;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.EraseLockRequest;
@@ -42,22 +56,31 @@ import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.LockExpiredReque
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.LockExpiredResponse;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisBatchCommitSecondaryRequest;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisBatchCommitSecondaryResponse;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisBatchCommitSecondaryResult;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisBatchEraseSecondaryRequest;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisBatchEraseSecondaryResponse;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisBatchPrewriteSecondaryRequest;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisBatchPrewriteSecondaryResponse;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisCleanExpiredLocksRequest;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisCleanExpiredLocksResponse;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisCommit;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisCommitRequest;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisCommitResponse;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisErase;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisGetRequest;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisGetResponse;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisPrewrite;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisPrewriteRequest;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisPrewriteResponse;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisPrewriteResult;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisResolvedLock;
 import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisService;
 import org.apache.hadoop.hbase.themis.exception.TransactionExpiredException;
+import org.apache.hadoop.hbase.themis.lock.PrimaryLock;
+import org.apache.hadoop.hbase.themis.lock.SecondaryLock;
 import org.apache.hadoop.hbase.themis.lock.ThemisLock;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
-import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 
 import com.google.common.collect.Lists;
 import com.google.protobuf.HBaseZeroCopyByteString;
@@ -72,21 +95,82 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
   private static final int DEFAULT_THEMIS_BATCH_GET_THREAD_COUNT = DEFAULT_THREAD_COUNT;
 
   private RegionCoprocessorEnvironment env;
+  // shared by all regions of the region server, created when the first lock is resolved in themisGet
+  // lock cleaners keyed by the region server, so that region servers in the same process (such as
+  // the mini cluster) won't share the connection
+  private static Map<ServerName, ServerLockCleaner> lockCleaners = new HashMap<ServerName, ServerLockCleaner>();
+  // committers of secondaries in background, keyed by the region server as the lock cleaners
+  private static final Map<ServerName, SecondaryCommitter> secondaryCommitters =
+      new HashMap<ServerName, SecondaryCommitter>();
 
-  private static ThreadPoolExecutor batchGetThreadPool = new ThreadPoolExecutor(
-          DEFAULT_THEMIS_BATCH_GET_THREAD_COUNT, DEFAULT_THEMIS_BATCH_GET_THREAD_COUNT, 10,
-          TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
-    public Thread newThread(Runnable r) {
-      Thread t = new Thread(r);
-      t.setName("themis-batch-get-thread-" + System.currentTimeMillis());
-      return t;
-    }
-  });
+  public static final String THEMIS_BATCH_GET_THREAD_COUNT_KEY = "themis.batch.get.thread.count";
+  public static final String THEMIS_BATCH_GET_QUEUE_SIZE_KEY = "themis.batch.get.queue.size";
+  public static final int DEFAULT_THEMIS_BATCH_GET_QUEUE_SIZE = 1000;
+  public static final String THEMIS_BATCH_GET_CONCURRENCY_PER_REQUEST_KEY = "themis.batch.get.concurrency.per.request";
+  public static final int DEFAULT_THEMIS_BATCH_GET_CONCURRENCY_PER_REQUEST = 10;
+  public static final String THEMIS_BATCH_GET_MAX_RESULT_SIZE_KEY = "themis.batch.get.max.result.size";
+  public static final long DEFAULT_THEMIS_BATCH_GET_MAX_RESULT_SIZE = 4 * 1024 * 1024;
+  public static final String THEMIS_BATCH_GET_ROW_GROUP_SIZE_KEY = "themis.batch.get.row.group.size";
+  public static final int DEFAULT_THEMIS_BATCH_GET_ROW_GROUP_SIZE = 100;
+  public static final String THEMIS_SINGLE_PASS_GET_MAX_COLUMNS_KEY = "themis.single.pass.get.max.columns";
+  public static final int DEFAULT_THEMIS_SINGLE_PASS_GET_MAX_COLUMNS = 8;
+  public static final String THEMIS_SINGLE_PASS_GET_MAX_VERSIONS_KEY = "themis.single.pass.get.max.versions";
+  public static final int DEFAULT_THEMIS_SINGLE_PASS_GET_MAX_VERSIONS = 1;
+
+  // shared by all regions of the region server. The queue is bounded, the rpc handler will execute
+  // the get by itself when the queue is full, so that the batch gets are slowed down instead of
+  // queueing without limit
+  private static ThreadPoolExecutor batchGetThreadPool = createBatchGetThreadPool(
+    DEFAULT_THEMIS_BATCH_GET_THREAD_COUNT, DEFAULT_THEMIS_BATCH_GET_QUEUE_SIZE);
+  private static boolean batchGetThreadPoolInited = false;
+
+  int batchGetConcurrencyPerRequest = DEFAULT_THEMIS_BATCH_GET_CONCURRENCY_PER_REQUEST;
+  long batchGetMaxResultSize = DEFAULT_THEMIS_BATCH_GET_MAX_RESULT_SIZE;
+  int batchGetRowGroupSize = DEFAULT_THEMIS_BATCH_GET_ROW_GROUP_SIZE;
+  int singlePassGetMaxColumns = DEFAULT_THEMIS_SINGLE_PASS_GET_MAX_COLUMNS;
+  int singlePassGetMaxVersions = DEFAULT_THEMIS_SINGLE_PASS_GET_MAX_VERSIONS;
+  // metrics of the region, registered when the endpoint starts
+  ThemisRegionMetrics regionMetrics = ThemisRegionMetrics.DISABLED;
+  // max startTs of the reads served by the region, registered when the endpoint starts
+  RegionReadTsTracker readTsTracker;
+  // group commit of the writes to the region, null if not enabled
+  RegionGroupCommitter groupCommitter;
+  // durability of the writes by operation, created when the endpoint starts
+  ThemisDurabilityPolicy durabilityPolicy;
+  // whether to resolve async-commit transactions in background after their columns are prewritten
+  boolean asyncCommitResolveAfterPrewrite =
+      SecondaryCommitter.DEFAULT_THEMIS_ASYNC_COMMIT_RESOLVE_AFTER_PREWRITE;
 
-  static {
-    batchGetThreadPool.allowCoreThreadTimeOut(true);
+  protected static ThreadPoolExecutor createBatchGetThreadPool(int threadCount, int queueSize) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threadCount, threadCount, 10,
+        TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r);
+        t.setName("themis-batch-get-thread-" + System.currentTimeMillis());
+        return t;
+      }
+    }, new ThreadPoolExecutor.CallerRunsPolicy());
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
   }
-  
+
+  protected static synchronized void initBatchGetThreadPool(Configuration conf) {
+    if (!batchGetThreadPoolInited) {
+      int threadCount = conf.getInt(THEMIS_BATCH_GET_THREAD_COUNT_KEY,
+        DEFAULT_THEMIS_BATCH_GET_THREAD_COUNT);
+      int queueSize = conf.getInt(THEMIS_BATCH_GET_QUEUE_SIZE_KEY,
+        DEFAULT_THEMIS_BATCH_GET_QUEUE_SIZE);
+      if (threadCount != DEFAULT_THEMIS_BATCH_GET_THREAD_COUNT
+          || queueSize != DEFAULT_THEMIS_BATCH_GET_QUEUE_SIZE) {
+        ThreadPoolExecutor oldPool = batchGetThreadPool;
+        batchGetThreadPool = createBatchGetThreadPool(threadCount, queueSize);
+        oldPool.shutdown();
+      }
+      LOG.info("init batch get thread pool, threadCount=" + threadCount + ", queueSize=" + queueSize);
+      batchGetThreadPoolInited = true;
+    }
+  }
+
   public void start(CoprocessorEnvironment env) throws IOException {
     // super.start(env);
     if (!(env instanceof RegionCoprocessorEnvironment)) {
@@ -96,9 +180,38 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
     this.env = (RegionCoprocessorEnvironment) env;
     ColumnUtil.init(env.getConfiguration());
     TransactionTTL.init(env.getConfiguration());
+    CommittedPrimaryCache.init(env.getConfiguration());
+    initBatchGetThreadPool(env.getConfiguration());
+    batchGetConcurrencyPerRequest = Math.max(1, env.getConfiguration().getInt(
+      THEMIS_BATCH_GET_CONCURRENCY_PER_REQUEST_KEY, DEFAULT_THEMIS_BATCH_GET_CONCURRENCY_PER_REQUEST));
+    batchGetMaxResultSize = env.getConfiguration().getLong(THEMIS_BATCH_GET_MAX_RESULT_SIZE_KEY,
+      DEFAULT_THEMIS_BATCH_GET_MAX_RESULT_SIZE);
+    batchGetRowGroupSize = env.getConfiguration().getInt(THEMIS_BATCH_GET_ROW_GROUP_SIZE_KEY,
+      DEFAULT_THEMIS_BATCH_GET_ROW_GROUP_SIZE);
+    singlePassGetMaxColumns = env.getConfiguration().getInt(
+      THEMIS_SINGLE_PASS_GET_MAX_COLUMNS_KEY, DEFAULT_THEMIS_SINGLE_PASS_GET_MAX_COLUMNS);
+    singlePassGetMaxVersions = Math.max(1, env.getConfiguration().getInt(
+      THEMIS_SINGLE_PASS_GET_MAX_VERSIONS_KEY, DEFAULT_THEMIS_SINGLE_PASS_GET_MAX_VERSIONS));
+    ThemisRegionMetrics.init(env.getConfiguration());
+    HRegion region = this.env.getRegion();
+    regionMetrics = ThemisRegionMetrics.registerRegion(region.getTableDesc().getNameAsString(),
+      region.getRegionInfo().getEncodedName());
+    readTsTracker = RegionReadTsTracker.registerRegion(region);
+    groupCommitter = RegionGroupCommitter.create(region, env.getConfiguration());
+    durabilityPolicy = new ThemisDurabilityPolicy(region.getTableDesc(), env.getConfiguration());
+    asyncCommitResolveAfterPrewrite = env.getConfiguration().getBoolean(
+      SecondaryCommitter.THEMIS_ASYNC_COMMIT_RESOLVE_AFTER_PREWRITE_KEY,
+      SecondaryCommitter.DEFAULT_THEMIS_ASYNC_COMMIT_RESOLVE_AFTER_PREWRITE);
   }
 
   public void stop(CoprocessorEnvironment env) throws IOException {
+    if (this.env != null) {
+      HRegion region = this.env.getRegion();
+      ThemisRegionMetrics.removeRegion(region.getTableDesc().getNameAsString(),
+        region.getRegionInfo().getEncodedName());
+      regionMetrics = ThemisRegionMetrics.DISABLED;
+      RegionReadTsTracker.removeRegion(region);
+    }
   }
 
   public Service getService() {
@@ -110,6 +223,10 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
     ThemisCpUtil.prepareGet(get, region.getTableDesc().getFamilies());
     checkFamily(get);
     checkReadTTL(System.currentTimeMillis(), startTs, get.getRow());
+    trackRead(startTs);
+    if (canGetBySinglePass(get)) {
+      return themisGetBySinglePass(region, get, startTs, ignoreLock);
+    }
     Get lockAndWriteGet = ThemisCpUtil.constructLockAndWriteGet(get, startTs);
     Result result = ThemisCpUtil.removeNotRequiredLockColumns(
             get.getFamilyMap(),
@@ -118,11 +235,17 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
     Pair<List<KeyValue>, List<KeyValue>> lockAndWriteKvs = ThemisCpUtil
             .seperateLockAndWriteKvs(result.list());
     List<KeyValue> lockKvs = lockAndWriteKvs.getFirst();
+    List<KeyValue> writeKvs = lockAndWriteKvs.getSecond();
     if (!ignoreLock && lockKvs.size() != 0) {
-      // return lock columns when encounter conflict lock
-      return new Result(lockKvs);
+      // locks of transactions whose primary has been committed could be resolved in server side
+      lockKvs = ThemisCpUtil.resolveLockKvsByCommittedPrimary(region.getTableDesc().getName(),
+        lockKvs, writeKvs, startTs);
+      if (lockKvs.size() != 0) {
+        // return lock columns when encounter conflict lock
+        return new Result(lockKvs);
+      }
     }
-    List<KeyValue> putKvs = ThemisCpUtil.getPutKvs(lockAndWriteKvs.getSecond());
+    List<KeyValue> putKvs = ThemisCpUtil.getPutKvs(writeKvs);
     if (putKvs.size() != 0) {
       Get dataGet = ThemisCpUtil.constructDataGetByPutKvs(putKvs, get.getFilter());
       return getFromRegion(region, dataGet,
@@ -132,14 +255,165 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
     return null;
   }
 
+  // must be invoked before reading the region for startTs, see RegionReadTsTracker
+  protected void trackRead(long startTs) throws IOException {
+    if (readTsTracker != null) {
+      readTsTracker.beforeRead(startTs);
+    }
+  }
+
+  // gets of a few columns without filter are read by single pass, the second read for data columns
+  // costs more than reading a few data versions along with lock and write columns for such gets
+  protected boolean canGetBySinglePass(Get get) {
+    if (singlePassGetMaxColumns <= 0 || get.getFilter() != null) {
+      return false;
+    }
+    int columnCount = 0;
+    for (NavigableSet<byte[]> qualifiers : get.getFamilyMap().values()) {
+      if (qualifiers == null || qualifiers.size() == 0) {
+        return false;
+      }
+      columnCount += qualifiers.size();
+    }
+    return columnCount <= singlePassGetMaxColumns;
+  }
+
+  // read the lock, write and data columns by one get. The data columns will be read again if the
+  // versions indexed by put columns are not in the latest singlePassGetMaxVersions versions
+  protected Result themisGetBySinglePass(HRegion region, Get get, long startTs,
+      boolean ignoreLock) throws IOException {
+    Get singlePassGet = ThemisCpUtil.constructSinglePassGet(get, startTs, singlePassGetMaxVersions);
+    Result result = getFromRegion(region, singlePassGet,
+      ThemisCpStatistics.getThemisCpStatistics().singlePassGetLatency);
+    Pair<List<KeyValue>, List<KeyValue>> lockAndWriteKvs = ThemisCpUtil
+        .seperateLockAndWriteKvs(result.list());
+    List<KeyValue> lockKvs = lockAndWriteKvs.getFirst();
+    List<KeyValue> writeKvs = lockAndWriteKvs.getSecond();
+    if (!ignoreLock && lockKvs.size() != 0) {
+      lockKvs = ThemisCpUtil.resolveLockKvsByCommittedPrimary(region.getTableDesc().getName(),
+        lockKvs, writeKvs, startTs);
+      if (lockKvs.size() != 0) {
+        return new Result(lockKvs);
+      }
+    }
+    List<KeyValue> putKvs = ThemisCpUtil.getPutKvs(writeKvs);
+    if (putKvs.size() != 0) {
+      List<KeyValue> dataKvs = ThemisCpUtil.selectDataKvsByPutKvs(putKvs, result.list());
+      if (dataKvs != null) {
+        return new Result(dataKvs);
+      }
+      ThemisCpStatistics.getThemisCpStatistics().singlePassGetFallbackCount.incr();
+      return getFromRegion(region, ThemisCpUtil.constructDataGetByPutKvs(putKvs, null),
+        ThemisCpStatistics.getThemisCpStatistics().getDataLatency);
+    }
+    return null;
+  }
+
+  // if resolveLock is set, conflict locks will be resolved in server side and the row will be read
+  // again if any lock is resolved, the resolved locks will be added into resolvedLocks
+  public Result themisGet(ClientProtos.Get get, long startTs, boolean ignoreLock,
+      boolean resolveLock, List<ThemisResolvedLock> resolvedLocks) throws IOException {
+    Result result = themisGet(ProtobufUtil.toGet(get), startTs, ignoreLock);
+    if (ignoreLock || !resolveLock || result == null || !ThemisCpUtil.isLockResult(result)) {
+      return result;
+    }
+    List<ThemisResolvedLock> locks = resolveLocks(result.list());
+    if (locks.size() == 0) {
+      return result;
+    }
+    resolvedLocks.addAll(locks);
+    // themisGet will change the get, so that create the get from request again
+    return themisGet(ProtobufUtil.toGet(get), startTs, ignoreLock);
+  }
+
+  // try to resolve the conflict locks read by themisGet. Expired locks will be cleaned as the
+  // client does; a secondary lock which is not expired will be committed if its primary has been
+  // committed; locks of async-commit transactions are resolved from the locks of the transaction
+  // without waiting for expired. return the resolved locks, locks fail to be resolved will be left
+  // to the client
+  protected List<ThemisResolvedLock> resolveLocks(List<KeyValue> lockKvs) {
+    byte[] tableName = env.getRegion().getTableDesc().getName();
+    List<ThemisResolvedLock> resolvedLocks = new ArrayList<ThemisResolvedLock>();
+    for (KeyValue lockKv : lockKvs) {
+      try {
+        ThemisLock lock = ThemisCpUtil.constructLockFromKeyValue(tableName, lockKv);
+        Long commitTs = null;
+        if (lock.isAsyncCommit()) {
+          Pair<Boolean, Long> resolveResult = getLockCleaner().resolveAsyncCommitLock(lock);
+          if (!resolveResult.getFirst()) {
+            // some columns of the transaction are being prewritten
+            continue;
+          }
+          commitTs = resolveResult.getSecond();
+        } else if (isLockExpired(lockKv.getTimestamp())) {
+          commitTs = getLockCleaner().cleanLock(lock);
+        } else if (!lock.isPrimary()) {
+          ColumnCoordinate primaryColumn = ((SecondaryLock) lock).getPrimaryColumn();
+          commitTs = getLockCleaner().getTimestampOfWriteIndexingPrewriteTs(
+            primaryColumn, lockKv.getTimestamp());
+          if (commitTs == null) {
+            // the transaction is still in progress
+            continue;
+          }
+          CommittedPrimaryCache.getCommittedPrimaryCache().put(primaryColumn,
+            lockKv.getTimestamp(), commitTs);
+          commitRow(lockKv.getRow(), Lists.newArrayList(new ColumnMutation(lock.getColumn(),
+            lock.getType(), null)), lockKv.getTimestamp(), commitTs, -1, false);
+        } else {
+          continue;
+        }
+        resolvedLocks.add(toResolvedLock(lock, lockKv, commitTs));
+        ThemisCpStatistics.getThemisCpStatistics().getResolveLockSuccessCount.incr();
+        regionMetrics.updateCleanLock(1, 0);
+      } catch (IOException e) {
+        ThemisCpStatistics.getThemisCpStatistics().getResolveLockFailCount.incr();
+        regionMetrics.updateCleanLock(0, 1);
+        LOG.warn("resolve lock fail in themisGet, tableName=" + Bytes.toString(tableName)
+            + ", lockKv=" + lockKv, e);
+      }
+    }
+    return resolvedLocks;
+  }
+
+  protected static ThemisResolvedLock toResolvedLock(ThemisLock lock, KeyValue lockKv,
+      Long commitTs) {
+    ThemisResolvedLock.Builder builder = ThemisResolvedLock.newBuilder();
+    builder.setRow(HBaseZeroCopyByteString.wrap(lock.getColumn().getRow()));
+    builder.setFamily(HBaseZeroCopyByteString.wrap(lock.getColumn().getFamily()));
+    builder.setQualifier(HBaseZeroCopyByteString.wrap(lock.getColumn().getQualifier()));
+    builder.setLock(HBaseZeroCopyByteString.wrap(lockKv.getValue()));
+    if (commitTs != null) {
+      builder.setCommitTs(commitTs);
+    }
+    return builder.build();
+  }
+
+  protected ServerLockCleaner getLockCleaner() throws IOException {
+    // the configuration of region does not contain the zookeeper settings of the cluster
+    RegionServerServices rsServices = env.getRegionServerServices();
+    return getLockCleaner(rsServices.getServerName(), rsServices.getConfiguration());
+  }
+
+  protected static synchronized ServerLockCleaner getLockCleaner(ServerName serverName,
+      Configuration conf) throws IOException {
+    ServerLockCleaner lockCleaner = lockCleaners.get(serverName);
+    if (lockCleaner == null) {
+      HConnection connection = HConnectionManager.createConnection(conf);
+      lockCleaner = new ServerLockCleaner(connection, new ThemisEndpointClient(connection));
+      lockCleaners.put(serverName, lockCleaner);
+    }
+    return lockCleaner;
+  }
+
   @Override
   public void themisGet(RpcController controller, ThemisGetRequest request,
       RpcCallback<org.apache.hadoop.hbase.protobuf.generated.ClientProtos.Result> callback) {
     // first get lock and write columns to check conflicted lock and get commitTs
+    long beginTs = System.nanoTime();
     ClientProtos.Result clientResult = ProtobufUtil.toResult(new Result());
     try {
-      Get clientGet = ProtobufUtil.toGet(request.getGet());
-      Result result = themisGet(clientGet, request.getStartTs(), request.getIgnoreLock());
+      Result result = themisGet(request.getGet(), request.getStartTs(), request.getIgnoreLock(),
+        request.getResolveLock(), new ArrayList<ThemisResolvedLock>());
       if (result != null) {
         clientResult = ProtobufUtil.toResult(result);
       }
@@ -148,8 +422,30 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
       // Call ServerRpcController#getFailedOn() to retrieve this IOException at client side.
       ResponseConverter.setControllerException(controller, e);
     }
+    regionMetrics.updateGet(beginTs);
     callback.run(clientResult);
   }
+
+  @Override
+  public void themisGetWithResolvedLocks(RpcController controller, ThemisGetRequest request,
+      RpcCallback<ThemisGetResponse> callback) {
+    long beginTs = System.nanoTime();
+    ThemisGetResponse.Builder builder = ThemisGetResponse.newBuilder();
+    try {
+      List<ThemisResolvedLock> resolvedLocks = new ArrayList<ThemisResolvedLock>();
+      Result result = themisGet(request.getGet(), request.getStartTs(), request.getIgnoreLock(),
+        request.getResolveLock(), resolvedLocks);
+      if (result != null) {
+        builder.setResult(ProtobufUtil.toResult(result));
+      }
+      builder.addAllResolvedLocks(resolvedLocks);
+    } catch (IOException e) {
+      LOG.error("themisGetWithResolvedLocks fail", e);
+      ResponseConverter.setControllerException(controller, e);
+    }
+    regionMetrics.updateGet(beginTs);
+    callback.run(builder.build());
+  }
   
   public static void checkReadTTL(long currentMs, long startTs, byte[] row)
       throws TransactionExpiredException {
@@ -177,14 +473,13 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
     }
   }
   
-  protected Result getFromRegion(HRegion region, Get get, MetricsTimeVaryingRate latency)
+  protected Result getFromRegion(HRegion region, Get get, LatencyHistogram latency)
       throws IOException {
     long beginTs = System.nanoTime();
     try {
       return region.get(get);
     } finally {
-      ThemisCpStatistics.updateLatency(latency, beginTs,
-        "row=" + Bytes.toStringBinary(get.getRow()));
+      ThemisCpStatistics.updateLatency(latency, beginTs, "row=", get.getRow());
     }
   }
 
@@ -217,6 +512,64 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
     callback.run(builder.build());
   }
 
+  @Override
+  public void commitRowAndSecondaries(RpcController controller, ThemisCommitRequest request,
+      RpcCallback<ThemisCommitResponse> callback) {
+    boolean result = false;
+    try {
+      ThemisCommit commit = request.getThemisCommit();
+      result = commitRowAndSecondaries(commit.getRow().toByteArray(),
+        ColumnMutation.toColumnMutations(commit.getMutationsList()), commit.getPrewriteTs(),
+        commit.getCommitTs(), commit.getPrimaryIndex());
+    } catch(IOException e) {
+      LOG.error("commitRowAndSecondaries fail", e);
+      ResponseConverter.setControllerException(controller, e);
+    }
+    ThemisCommitResponse.Builder builder = ThemisCommitResponse.newBuilder();
+    builder.setResult(result);
+    callback.run(builder.build());
+  }
+
+  // commit the primary row, then hand the secondaries recorded by the primary lock to the secondary
+  // committer of the region server. The secondaries are committed by the rpc handler if the queue
+  // of the committer is full
+  public boolean commitRowAndSecondaries(byte[] row, List<ColumnMutation> mutations,
+      long prewriteTs, long commitTs, int primaryIndex) throws IOException {
+    if (primaryIndex < 0 || primaryIndex >= mutations.size()) {
+      throw new DoNotRetryIOException("commitRowAndSecondaries must commit the primary row, row="
+          + Bytes.toString(row) + ", primaryIndex=" + primaryIndex);
+    }
+    byte[] lockBytes = commitRowAndGetPrimaryLock(row, mutations, prewriteTs, commitTs,
+      primaryIndex, false);
+    if (lockBytes == null) {
+      return false;
+    }
+    ThemisLock lock = ThemisLock.parseFromByte(lockBytes);
+    if (!(lock instanceof PrimaryLock)) {
+      throw new IOException("lock of primaryIndex is not primary, row=" + Bytes.toString(row)
+          + ", primaryIndex=" + primaryIndex + ", lock=" + lock);
+    }
+    lock.setColumn(new ColumnCoordinate(env.getRegion().getTableDesc().getName(), row,
+        mutations.get(primaryIndex)));
+    if (!getSecondaryCommitter().commitSecondaries((PrimaryLock) lock, commitTs)) {
+      getLockCleaner().cleanSecondaryLocks((PrimaryLock) lock, commitTs);
+    }
+    return true;
+  }
+
+  protected SecondaryCommitter getSecondaryCommitter() throws IOException {
+    RegionServerServices rsServices = env.getRegionServerServices();
+    ServerLockCleaner lockCleaner = getLockCleaner();
+    synchronized (secondaryCommitters) {
+      SecondaryCommitter committer = secondaryCommitters.get(rsServices.getServerName());
+      if (committer == null) {
+        committer = new SecondaryCommitter(lockCleaner, rsServices.getConfiguration());
+        secondaryCommitters.put(rsServices.getServerName(), committer);
+      }
+      return committer;
+    }
+  }
+
   @Override
   public void getLockAndErase(RpcController controller, EraseLockRequest request,
       RpcCallback<EraseLockResponse> callback) {
@@ -251,13 +604,16 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
   public void batchPrewriteSecondaryRows(RpcController controller, ThemisBatchPrewriteSecondaryRequest request,
       RpcCallback<ThemisBatchPrewriteSecondaryResponse> callback) {
 
+    long beginTs = System.nanoTime();
     ThemisBatchPrewriteSecondaryResponse.Builder builder = ThemisBatchPrewriteSecondaryResponse.newBuilder();
     List<ThemisPrewriteResult> results = null;
     try {
-      results = batchPrewriteSecondaryRows(request);
+      results = batchPrewriteSecondaryRows(request, builder);
     } catch (IOException e) {
       ResponseConverter.setControllerException(controller, new IOException(e));
     }
+    regionMetrics.updateBatchPrewriteSecondary(beginTs, request.getThemisPrewriteCount(),
+      results != null && results.size() > 0);
     if (results != null && results.size() > 0) {
       for (ThemisPrewriteResult r : results) {
         builder.addThemisPrewriteResult(r);
@@ -280,58 +636,75 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
     callback.run(builder.build());
   }
 
-  private List<ThemisPrewriteResult> batchPrewriteSecondaryRows(ThemisBatchPrewriteSecondaryRequest request) throws IOException {
+  // rows which are not in the region are added to rowsNotInRegion of the response, the client will
+  // prewrite them again after locating their regions
+  private List<ThemisPrewriteResult> batchPrewriteSecondaryRows(
+      ThemisBatchPrewriteSecondaryRequest request,
+      ThemisBatchPrewriteSecondaryResponse.Builder builder) throws IOException {
     HRegion region = env.getRegion();
     List<ThemisPrewriteResult> results = new ArrayList<>();
     List<Mutation> puts = new ArrayList<>();
     List<RowLock> rowLocks = new ArrayList<>();
+    List<ThemisPrewrite> prewrites = new ArrayList<ThemisPrewrite>();
     byte[] lockBytes = request.getSecondaryLock().toByteArray();
+    RegionReadTsTracker.PendingCommit asyncCommitPrewrite = null;
     try {
       for (ThemisPrewrite prewrite : request.getThemisPrewriteList()) {
+        if (!HRegion.rowIsInRange(region.getRegionInfo(), prewrite.getRow().toByteArray())) {
+          builder.addRowsNotInRegion(prewrite.getRow());
+          continue;
+        }
+        prewrites.add(prewrite);
         rowLocks.add(region.getRowLock(prewrite.getRow().toByteArray()));
       }
       // check themis lock and put
-      for (ThemisPrewrite prewrite : request.getThemisPrewriteList()) {
+      for (ThemisPrewrite prewrite : prewrites) {
         // check mutations
         List<ColumnMutation> mutations = ColumnMutation.toColumnMutations(prewrite.getMutationsList());
-        for (ColumnMutation mutation : mutations) {
-          // TODO : make sure, won't encounter a lock with the same timestamp
-          ThemisPrewriteResult conflict = checkPrewriteConflict(region, prewrite.getRow().toByteArray(),
-              mutation, request.getPrewriteTs());
-          if (conflict != null) {
-            results.add(conflict);
-          }
-        }
+        // TODO : make sure, won't encounter a lock with the same timestamp
+        results.addAll(checkPrewriteConflict(region, prewrite.getRow().toByteArray(), mutations,
+          request.getPrewriteTs(), false));
         if (results.size() > 0) {
           return results;
         }
+      }
+      asyncCommitPrewrite = stampMinCommitTs(null, lockBytes);
+      for (ThemisPrewrite prewrite : prewrites) {
+        List<ColumnMutation> mutations = ColumnMutation.toColumnMutations(prewrite.getMutationsList());
         Put prewritePut = new Put(prewrite.getRow().toByteArray());
         for (int i = 0; i < mutations.size(); ++i) {
           ColumnMutation m = mutations.get(i);
-          // get lock and set lock Type
-          ThemisLock lock;
-          lock = ThemisLock.parseFromByte(lockBytes);
-          lock.setType(m.getType());
-          if (lock.getType().equals(Type.Put)) {
+          // stamp the lock with the type of column in place, Put.add will copy the lock bytes
+          ThemisLock.setType(lockBytes, m.getType());
+          if (m.getType().equals(Type.Put)) {
             prewritePut.add(m.getFamily(), m.getQualifier(), request.getPrewriteTs(),
                 m.getValue());
           }
           Column lockColumn = ColumnUtil.getLockColumn(m);
           prewritePut.add(lockColumn.getFamily(), lockColumn.getQualifier(), request.getPrewriteTs(),
-              ThemisLock.toByte(lock));
+              lockBytes);
         }
+        prewritePut.setDurability(durabilityPolicy.getDurability(Operation.SECONDARY_PREWRITE));
         puts.add(prewritePut);
       }
       // batch put
-      region.mutateRowsWithLocks(puts, Collections.<byte[]>emptySet());
+      if (puts.size() != 0) {
+        region.mutateRowsWithLocks(puts, Collections.<byte[]>emptySet());
+      }
     } catch (IOException e) {
       throw e;
     } finally {
+      finishAsyncCommitPrewrite(asyncCommitPrewrite);
       // release all locks
       for (RowLock lock : rowLocks) {
         lock.release();
       }
     }
+    if (asyncCommitPrewrite != null && prewrites.size() != 0) {
+      ThemisPrewrite prewrite = prewrites.get(0);
+      resolveAsyncCommitAfterPrewrite(lockBytes, prewrite.getRow().toByteArray(),
+        ColumnMutation.toColumnMutations(prewrite.getMutationsList()).get(0));
+    }
     return null;
   }
 
@@ -422,98 +795,191 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
       final int primaryIndex, final boolean singleRow) throws IOException {
     // TODO : use ms enough?
     final long beginTs = System.nanoTime();
+    ThemisPrewriteResult conflict = null;
+    final boolean[] asyncCommit = new boolean[] { false };
     try {
       checkFamily(mutations);
       checkWriteTTL(System.currentTimeMillis(), prewriteTs, row);
       checkPrimaryLockAndIndex(primaryLock, primaryIndex);
-      return new MutationCallable<ThemisPrewriteResult>(row) {
+      conflict = new MutationCallable<ThemisPrewriteResult>(row) {
         public ThemisPrewriteResult doMutation(HRegion region, RowLock rowLock) throws IOException {
-          // firstly, check conflict for each column
-          // TODO : check one row one time to improve efficiency?
-          for (ColumnMutation mutation : mutations) {
-            // TODO : make sure, won't encounter a lock with the same timestamp
-            ThemisPrewriteResult conflict = checkPrewriteConflict(region, row, mutation, prewriteTs);
-            if (conflict != null) {
-              return conflict;
-            }
+          // firstly, check conflict for all columns of the row
+          // TODO : make sure, won't encounter a lock with the same timestamp
+          List<ThemisPrewriteResult> conflicts = checkPrewriteConflict(region, row, mutations,
+            prewriteTs, true);
+          if (conflicts.size() != 0) {
+            return conflicts.get(0);
           }
           ThemisCpStatistics.updateLatency(
-            ThemisCpStatistics.getThemisCpStatistics().prewriteCheckConflictRowLatency, beginTs,
-            false);
-
-          Put prewritePut = new Put(row);
-          byte[] primaryQualifier = null;
-          for (int i = 0; i < mutations.size(); ++i) {
-            boolean isPrimary = false;
-            ColumnMutation mutation = mutations.get(i);
-            // get lock and set lock Type
-            byte[] lockBytes = secondaryLock;
-            if (primaryLock != null && i == primaryIndex) {
-              lockBytes = primaryLock;
-              isPrimary = true;
-            }
-            ThemisLock lock = ThemisLock.parseFromByte(lockBytes);
-            lock.setType(mutation.getType());
+            ThemisCpStatistics.getThemisCpStatistics().prewriteCheckConflictRowLatency, beginTs);
 
-            if (!singleRow && lock.getType().equals(Type.Put)) {
-              prewritePut.add(mutation.getFamily(), mutation.getQualifier(), prewriteTs,
-                mutation.getValue());
-            }
-            Column lockColumn = ColumnUtil.getLockColumn(mutation);
-            prewritePut.add(lockColumn.getFamily(), lockColumn.getQualifier(), prewriteTs,
-              ThemisLock.toByte(lock));
+          // reads must not be served between deciding minCommitTs and writing the locks
+          RegionReadTsTracker.PendingCommit asyncCommitPrewrite = stampMinCommitTs(primaryLock,
+            secondaryLock);
+          asyncCommit[0] = asyncCommitPrewrite != null;
+          try {
+            Put prewritePut = new Put(row);
+            byte[] primaryQualifier = null;
+            for (int i = 0; i < mutations.size(); ++i) {
+              boolean isPrimary = false;
+              ColumnMutation mutation = mutations.get(i);
+              // get lock and set lock Type
+              byte[] lockBytes = secondaryLock;
+              if (primaryLock != null && i == primaryIndex) {
+                lockBytes = primaryLock;
+                isPrimary = true;
+              }
+              // the lock bytes are copied by Put.add, so that could be stamped with the type of
+              // each column in place
+              ThemisLock.setType(lockBytes, mutation.getType());
+
+              if (!singleRow && mutation.getType().equals(Type.Put)) {
+                prewritePut.add(mutation.getFamily(), mutation.getQualifier(), prewriteTs,
+                  mutation.getValue());
+              }
+              Column lockColumn = ColumnUtil.getLockColumn(mutation);
+              prewritePut.add(lockColumn.getFamily(), lockColumn.getQualifier(), prewriteTs,
+                lockBytes);
             
-            if (isPrimary) {
-              primaryQualifier = lockColumn.getQualifier();
+              if (isPrimary) {
+                primaryQualifier = lockColumn.getQualifier();
+              }
             }
+            if (singleRow) {
+              prewritePut.setAttribute(ThemisRegionObserver.SINGLE_ROW_PRIMARY_QUALIFIER,
+                primaryQualifier);
+            }
+            prewritePut.setDurability(durabilityPolicy.getDurability(primaryIndex >= 0
+                ? Operation.PRIMARY_PREWRITE : Operation.SECONDARY_PREWRITE));
+            mutateToRegion(region, row, Lists.<Mutation> newArrayList(prewritePut),
+              ThemisCpStatistics.getThemisCpStatistics().prewriteWriteLatency);
+          } finally {
+            finishAsyncCommitPrewrite(asyncCommitPrewrite);
           }
-          if (singleRow) {
-            prewritePut.setAttribute(ThemisRegionObserver.SINGLE_ROW_PRIMARY_QUALIFIER,
-              primaryQualifier);
-          }
-          mutateToRegion(region, row, Lists.<Mutation> newArrayList(prewritePut),
-            ThemisCpStatistics.getThemisCpStatistics().prewriteWriteLatency);
           return null;
         }
       }.run();
+      if (conflict == null && asyncCommit[0]) {
+        boolean isPrimary = primaryLock != null && primaryIndex >= 0;
+        resolveAsyncCommitAfterPrewrite(isPrimary ? primaryLock : secondaryLock, row,
+          mutations.get(isPrimary ? primaryIndex : 0));
+      }
+      return conflict;
     } finally {
       ThemisCpStatistics.updateLatency(
-        ThemisCpStatistics.getThemisCpStatistics().prewriteTotalLatency, beginTs, false);
+        ThemisCpStatistics.getThemisCpStatistics().prewriteTotalLatency, beginTs);
+      regionMetrics.updatePrewrite(beginTs, conflict != null);
     }
   }
   
+  // raise the minCommitTs of async-commit locks above the max read ts of the region in place, so
+  // that reads which have not seen the locks could not see the transaction. Return null if the
+  // locks are not async-commit, otherwise the returned prewrite must be finished after written.
+  // Async-commit prewrites are rejected if the reads served before the region is opened are not
+  // bounded, or the prewrites after the transaction expires could not be rejected by the write ttl
+  protected RegionReadTsTracker.PendingCommit stampMinCommitTs(byte[] primaryLock,
+      byte[] secondaryLock) throws IOException {
+    long minCommitTs = Math.max(getMinCommitTs(primaryLock), getMinCommitTs(secondaryLock));
+    if (minCommitTs == 0) {
+      return null;
+    }
+    if (readTsTracker == null || !readTsTracker.isBounded()
+        || !TransactionTTL.transactionTTLEnable) {
+      throw new DoNotRetryIOException("async-commit prewrite is rejected because transaction ttl "
+          + "is not enabled when the region is opened, region="
+          + env.getRegion().getRegionInfo().getEncodedName());
+    }
+    RegionReadTsTracker.PendingCommit prewrite = readTsTracker.beginPrewrite(minCommitTs);
+    for (byte[] lockBytes : new byte[][] { primaryLock, secondaryLock }) {
+      if (getMinCommitTs(lockBytes) != 0) {
+        ThemisLock.setMinCommitTs(lockBytes, prewrite.getCommitTs());
+      }
+    }
+    return prewrite;
+  }
+
+  private static long getMinCommitTs(byte[] lockBytes) {
+    return lockBytes == null || lockBytes.length == 0 ? 0 : ThemisLock.getMinCommitTs(lockBytes, 0);
+  }
+
+  protected void finishAsyncCommitPrewrite(RegionReadTsTracker.PendingCommit prewrite) {
+    if (prewrite != null) {
+      readTsTracker.finishCommit(prewrite);
+    }
+  }
+
+  // the async-commit transaction is committed in background once the last of its columns is
+  // prewritten, the resolvers of the columns prewritten earlier find the transaction in progress
+  protected void resolveAsyncCommitAfterPrewrite(byte[] lockBytes, byte[] row,
+      ColumnMutation mutation) throws IOException {
+    if (!asyncCommitResolveAfterPrewrite) {
+      return;
+    }
+    ThemisLock lock = ThemisLock.parseFromByte(lockBytes);
+    lock.setColumn(new ColumnCoordinate(env.getRegion().getTableDesc().getName(), row, mutation));
+    getSecondaryCommitter().resolveAsyncCommit(lock);
+  }
+
   protected void mutateToRegion(HRegion region, byte[] row, List<Mutation> mutations,
-      MetricsTimeVaryingRate latency) throws IOException {
+      LatencyHistogram latency) throws IOException {
     long beginTs = System.nanoTime();
     try {
       // we have obtained lock, do not need to require lock in mutateRowsWithLocks
-      region.mutateRowsWithLocks(mutations, Collections.<byte[]>emptySet());
+      if (groupCommitter != null) {
+        groupCommitter.mutate(mutations);
+      } else {
+        region.mutateRowsWithLocks(mutations, Collections.<byte[]>emptySet());
+      }
     } finally {
-      ThemisCpStatistics.updateLatency(latency, beginTs, "row=" + Bytes.toStringBinary(row)
-          + ", mutationCount=" + mutations.size());
+      ThemisCpStatistics.updateLatency(latency, beginTs, "row=", row, ", mutationCount=",
+        mutations.size());
     }
   }
   
-  // check lock conflict and new write conflict. return null if no conflicts encountered; otherwise,
-  // the first byte[] return the bytes of timestamp which is newer than prewriteTs, the secondary
-  // byte[] will return the conflict lock if encounters lock conflict
-  protected ThemisPrewriteResult checkPrewriteConflict(HRegion region, byte[] row, Column column,
-      long prewriteTs) throws IOException {
-    Column lockColumn = ColumnUtil.getLockColumn(column);
-    // check no lock exist
-    Get get = new Get(row).addColumn(lockColumn.getFamily(), lockColumn.getQualifier());
+  // check lock conflict and new write conflict for all the columns of the row. The lock and write
+  // columns are read out by one region get, then conflicts are judged in memory. Return conflicts
+  // in the order of columns, which will be empty if no conflicts encountered. If returnFirstConflict
+  // is set, at most one conflict will be returned
+  protected List<ThemisPrewriteResult> checkPrewriteConflict(HRegion region, byte[] row,
+      List<? extends Column> columns, long prewriteTs, boolean returnFirstConflict)
+      throws IOException {
+    Get get = ThemisCpUtil.constructPrewriteConflictGet(row, columns);
     Result result = getFromRegion(region, get,
-      ThemisCpStatistics.getThemisCpStatistics().prewriteReadLockLatency);
-    byte[] existLockBytes = result.isEmpty() ? null : result.list().get(0).getValue();
-    boolean lockExpired = existLockBytes == null ? false : isLockExpired(result.list().get(0)
-        .getTimestamp());
-    // check no newer write exist
-    get = new Get(row);
-    ThemisCpUtil.addWriteColumnToGet(column, get);
-    get.setTimeRange(prewriteTs, Long.MAX_VALUE);
-    result = getFromRegion(region, get,
-      ThemisCpStatistics.getThemisCpStatistics().prewriteReadWriteLatency);
-    Long newerWriteTs = result.isEmpty() ? null : result.list().get(0).getTimestamp();
+      ThemisCpStatistics.getThemisCpStatistics().prewriteReadLockAndWriteLatency);
+    List<ThemisPrewriteResult> conflicts = new ArrayList<ThemisPrewriteResult>();
+    for (Column column : columns) {
+      ThemisPrewriteResult conflict = checkPrewriteConflict(region, row, column, prewriteTs, result);
+      if (conflict != null) {
+        conflicts.add(conflict);
+        if (returnFirstConflict) {
+          break;
+        }
+      }
+    }
+    return conflicts;
+  }
+
+  // judge lock conflict and new write conflict of the column from the result read out by
+  // checkPrewriteConflict. return null if no conflicts encountered
+  protected ThemisPrewriteResult checkPrewriteConflict(HRegion region, byte[] row, Column column,
+      long prewriteTs, Result result) throws IOException {
+    byte[] existLockBytes = null;
+    boolean lockExpired = false;
+    Long newerWriteTs = null;
+    if (!result.isEmpty()) {
+      // check no lock exist
+      Column lockColumn = ColumnUtil.getLockColumn(column);
+      KeyValue lockKv = result.getColumnLatest(lockColumn.getFamily(), lockColumn.getQualifier());
+      if (lockKv != null) {
+        existLockBytes = lockKv.getValue();
+        lockExpired = isLockExpired(lockKv.getTimestamp());
+      }
+      // check no newer write exist
+      newerWriteTs = getNewerWriteTs(result, ColumnUtil.getPutColumn(column), prewriteTs,
+        newerWriteTs);
+      newerWriteTs = getNewerWriteTs(result, ColumnUtil.getDeleteColumn(column), prewriteTs,
+        newerWriteTs);
+    }
     ThemisPrewriteResult conflict = judgePrewriteConflict(row, column, existLockBytes, newerWriteTs, lockExpired);
     if (conflict != null) {
       LOG.warn("encounter conflict when prewrite, tableName="
@@ -522,6 +988,16 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
     }
     return conflict;
   }
+
+  private static Long getNewerWriteTs(Result result, Column writeColumn, long prewriteTs,
+      Long newerWriteTs) {
+    KeyValue writeKv = result.getColumnLatest(writeColumn.getFamily(), writeColumn.getQualifier());
+    if (writeKv != null && writeKv.getTimestamp() >= prewriteTs
+        && (newerWriteTs == null || writeKv.getTimestamp() > newerWriteTs)) {
+      return writeKv.getTimestamp();
+    }
+    return newerWriteTs;
+  }
   
   protected ThemisPrewriteResult judgePrewriteConflict(byte[] row, Column column, byte[] existLockBytes, Long newerWriteTs,
       boolean lockExpired) {
@@ -552,45 +1028,83 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
   public boolean commitRow(final byte[] row, final List<ColumnMutation> mutations,
       final long prewriteTs, final long commitTs, final int primaryIndex, final boolean singleRow)
       throws IOException {
+    return commitRowAndGetPrimaryLock(row, mutations, prewriteTs, commitTs, primaryIndex,
+      singleRow) != null;
+  }
+
+  // return the primary lock read before committing, or EMPTY_BYTES if the row does not contain the
+  // primary; return null if the primary lock has been erased
+  protected byte[] commitRowAndGetPrimaryLock(final byte[] row,
+      final List<ColumnMutation> mutations, final long prewriteTs, final long commitTs,
+      final int primaryIndex, final boolean singleRow) throws IOException {
     long beginTs = System.nanoTime();
     try {
       checkFamily(mutations);
-      if (primaryIndex != -1) {
-        checkWriteTTL(System.currentTimeMillis(), prewriteTs, row);
-      }
-      return new MutationCallable<Boolean>(row) {
-        public Boolean doMutation(HRegion region, RowLock rowLock) throws IOException {
+      return new MutationCallable<byte[]>(row) {
+        public byte[] doMutation(HRegion region, RowLock rowLock) throws IOException {
+          byte[] lockBytes = EMPTY_BYTES;
           if (primaryIndex >= 0) {
             // can't commit the transaction if the primary lock has been erased
             ColumnMutation mutation = mutations.get(primaryIndex);
-            byte[] lockBytes = readLockBytes(region, row, mutation, prewriteTs,
+            lockBytes = readLockBytes(region, row, mutation, prewriteTs,
               ThemisCpStatistics.getThemisCpStatistics().commitPrimaryReadLatency);
+            // an async-commit transaction is decided once all its columns are prewritten before
+            // expired, so that its primary could be committed by resolvers after the write ttl
+            if (lockBytes == null || !ThemisLock.isAsyncCommit(lockBytes, 0)) {
+              checkWriteTTL(System.currentTimeMillis(), prewriteTs, row);
+            }
             if (lockBytes == null) {
               LOG.warn("primary lock erased, tableName="
                   + Bytes.toString(region.getTableDesc().getName()) + ", row="
                   + Bytes.toString(row) + ", column=" + mutation + ", prewriteTs=" + prewriteTs);
-              return false;
+              return null;
+            }
+            // readers skip the locks whose minCommitTs is larger than their startTs, they could
+            // not see the transaction committed with a smaller commitTs
+            long minCommitTs = ThemisLock.getMinCommitTs(lockBytes, 0);
+            if (commitTs < minCommitTs) {
+              throw new DoNotRetryIOException("commitTs of async-commit transaction is less than "
+                  + "minCommitTs of primary lock, row=" + Bytes.toString(row) + ", column="
+                  + mutation + ", prewriteTs=" + prewriteTs + ", commitTs=" + commitTs
+                  + ", minCommitTs=" + minCommitTs);
             }
             // TODO : for single-row, sanity check secondary lock must hold
+          } else if (primaryIndex != -1) {
+            checkWriteTTL(System.currentTimeMillis(), prewriteTs, row);
           }
-          doCommitMutations(region, row, mutations, prewriteTs, commitTs, singleRow);
-          return true;
+          doCommitMutations(region, row, mutations, prewriteTs, commitTs, singleRow,
+            primaryIndex >= 0 ? Operation.PRIMARY_COMMIT : Operation.SECONDARY_COMMIT);
+          if (primaryIndex >= 0) {
+            CommittedPrimaryCache.getCommittedPrimaryCache().put(
+              new ColumnCoordinate(region.getTableDesc().getName(), row,
+                  mutations.get(primaryIndex)), prewriteTs, commitTs);
+          }
+          return lockBytes;
         }
       }.run();
     } finally {
       ThemisCpStatistics.updateLatency(
-              ThemisCpStatistics.getThemisCpStatistics().commitTotalLatency, beginTs, false);
+              ThemisCpStatistics.getThemisCpStatistics().commitTotalLatency, beginTs);
+      regionMetrics.updateCommit(beginTs);
     }
   }
 
   protected void doCommitMutations(HRegion region, byte[] row, List<ColumnMutation> mutations,
-      long prewriteTs, long commitTs, boolean singleRow)
+      long prewriteTs, long commitTs, boolean singleRow, Operation operation)
       throws IOException {
     List<Mutation> rowMutations = getCommitMutations(row, mutations, prewriteTs, commitTs, singleRow);
+    durabilityPolicy.setDurability(operation, rowMutations);
     mutateToRegion(region, row, rowMutations, ThemisCpStatistics.getThemisCpStatistics().commitWriteLatency);
   }
 
   private List<Mutation> getCommitMutations(byte[] row, List<ColumnMutation> mutations, long prewriteTs, long commitTs, boolean singleRow) {
+    return getCommitMutations(row, mutations, prewriteTs, commitTs, singleRow, true);
+  }
+
+  // data columns are written with the commit columns if writeData is set, and the locks are not
+  // erased if eraseLock is not set, which are the mutations of one-phase commit
+  private List<Mutation> getCommitMutations(byte[] row, List<ColumnMutation> mutations,
+      long prewriteTs, long commitTs, boolean writeData, boolean eraseLock) {
     List<Mutation> rowMutations = new ArrayList<>();
     for (ColumnMutation mutation : mutations) {
       Put writePut = new Put(row);
@@ -598,7 +1112,7 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
       if (mutation.getType() == Type.Put) {
         writeColumn = ColumnUtil.getPutColumn(mutation);
         // we do not write data in prewrite-phase for single-row
-        if (singleRow) {
+        if (writeData) {
           writePut.add(mutation.getFamily(), mutation.getQualifier(), prewriteTs,
             mutation.getValue());
         }
@@ -613,17 +1127,19 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
         rowMutations.add(writePut);
       }
 
-      Column lockColumn = ColumnUtil.getLockColumn(mutation);
-      Delete lockDelete = new Delete(row).deleteColumn(lockColumn.getFamily(),
-        lockColumn.getQualifier(), prewriteTs);
-      setLockFamilyDelete(lockDelete);
-      rowMutations.add(lockDelete);
+      if (eraseLock) {
+        Column lockColumn = ColumnUtil.getLockColumn(mutation);
+        Delete lockDelete = new Delete(row).deleteColumn(lockColumn.getFamily(),
+          lockColumn.getQualifier(), prewriteTs);
+        setLockFamilyDelete(lockDelete);
+        rowMutations.add(lockDelete);
+      }
     }
     return rowMutations;
   }
 
   protected byte[] readLockBytes(HRegion region, byte[] row, Column column, long prewriteTs,
-      MetricsTimeVaryingRate latency) throws IOException {
+      LatencyHistogram latency) throws IOException {
     Column lockColumn = ColumnUtil.getLockColumn(column);
     Get get = new Get(row).addColumn(lockColumn.getFamily(), lockColumn.getQualifier());
     get.setTimeStamp(prewriteTs);
@@ -645,8 +1161,11 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
         Delete delete = new Delete(row);
         setLockFamilyDelete(delete);
         delete.deleteColumn(lockColumn.getFamily(), lockColumn.getQualifier(), prewriteTs);
+        // erasing the primary lock aborts the transaction
+        delete.setDurability(durabilityPolicy.getDurability(ThemisLock.isPrimary(lockBytes, 0)
+            ? Operation.PRIMARY_COMMIT : Operation.LOCK_ERASE));
         mutateToRegion(region, row, Lists.<Mutation> newArrayList(delete),
-        ThemisCpStatistics.getThemisCpStatistics().getLockAndEraseReadLatency);
+          ThemisCpStatistics.getThemisCpStatistics().getLockAndEraseDeleteLatency);
         return lockBytes;
       }
     }.run();
@@ -676,9 +1195,101 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
     return lockTimestamp < TransactionTTL.getExpiredTimestampForWrite(currentMs);
   }
 
+  @Override
+  public void cleanExpiredLocks(RpcController controller, ThemisCleanExpiredLocksRequest request,
+      RpcCallback<ThemisCleanExpiredLocksResponse> callback) {
+    ThemisCleanExpiredLocksResponse.Builder builder = ThemisCleanExpiredLocksResponse.newBuilder();
+    try {
+      cleanExpiredLocks(request.getExpiredTs(), request.getStartRow().toByteArray(),
+        request.getLimit(), builder);
+    } catch (IOException e) {
+      LOG.error("cleanExpiredLocks fail", e);
+      ResponseConverter.setControllerException(controller, e);
+    }
+    callback.run(builder.build());
+  }
+
+  // clean the locks of the region from startRow whose timestamp is older than expiredTs. If more
+  // than limit locks have been cleaned, stop after the current row and the row to continue will be
+  // set as nextRow; otherwise, nextRow is the end key of region. The rows containing expired locks
+  // are located by the lock index of region if it has been built; otherwise, by scanning the lock
+  // family
+  protected void cleanExpiredLocks(long expiredTs, byte[] startRow, int limit,
+      ThemisCleanExpiredLocksResponse.Builder builder) throws IOException {
+    HRegion region = env.getRegion();
+    long[] lockCounts = new long[2]; // cleaned and failed lock count
+    byte[] nextRow = region.getEndKey();
+    RegionLockIndex lockIndex = RegionLockIndex.getRegionLockIndex(region);
+    if (lockIndex != null) {
+      for (byte[] row : lockIndex.getRowsWithExpiredLocks(expiredTs, startRow, region.getEndKey())) {
+        Get get = new Get(row).addFamily(ColumnUtil.LOCK_FAMILY_NAME);
+        get.setTimeRange(0, expiredTs);
+        get.setMaxVersions();
+        List<Cell> cells = region.get(get).listCells();
+        if (cells != null) {
+          cleanExpiredLocks(region, cells, expiredTs, lockCounts);
+        } else {
+          // the locks have been removed by writes not seen by the index
+          lockIndex.removeBefore(row, null, expiredTs - 1);
+        }
+        if (limit > 0 && lockCounts[0] + lockCounts[1] >= limit) {
+          nextRow = Bytes.add(row, new byte[] { 0 });
+          break;
+        }
+      }
+    } else {
+      Scan scan = new Scan();
+      scan.setStartRow(startRow);
+      scan.addFamily(ColumnUtil.LOCK_FAMILY_NAME);
+      scan.setTimeRange(0, expiredTs);
+      RegionScanner scanner = region.getScanner(scan);
+      try {
+        List<Cell> cells = new ArrayList<Cell>();
+        boolean hasMore = true;
+        while (hasMore) {
+          cells.clear();
+          hasMore = scanner.next(cells);
+          cleanExpiredLocks(region, cells, expiredTs, lockCounts);
+          if (hasMore && cells.size() != 0 && limit > 0
+              && lockCounts[0] + lockCounts[1] >= limit) {
+            nextRow = Bytes.add(CellUtil.cloneRow(cells.get(cells.size() - 1)), new byte[] { 0 });
+            break;
+          }
+        }
+      } finally {
+        scanner.close();
+      }
+    }
+    LOG.info("clean expired lock in region=" + region.getRegionNameAsString() + ", expiredTs="
+        + expiredTs + ", startRow=" + Bytes.toStringBinary(startRow) + ", byLockIndex="
+        + (lockIndex != null) + ", cleanedLockCount=" + lockCounts[0] + ", failedLockCount="
+        + lockCounts[1]);
+    regionMetrics.updateCleanLock(lockCounts[0], lockCounts[1]);
+    builder.setCleanedLockCount(lockCounts[0]);
+    builder.setFailedLockCount(lockCounts[1]);
+    builder.setNextRow(HBaseZeroCopyByteString.wrap(nextRow));
+  }
+
+  protected void cleanExpiredLocks(HRegion region, List<Cell> lockCells, long expiredTs,
+      long[] lockCounts) {
+    byte[] tableName = region.getTableDesc().getName();
+    for (Cell cell : lockCells) {
+      KeyValue lockKv = KeyValueUtil.ensureKeyValue(cell);
+      try {
+        getLockCleaner().cleanLock(ThemisCpUtil.constructLockFromKeyValue(tableName, lockKv));
+        ++lockCounts[0];
+      } catch (IOException e) {
+        ++lockCounts[1];
+        LOG.warn("clean expired lock fail, tableName=" + Bytes.toString(tableName) + ", lockKv="
+            + lockKv + ", expiredTs=" + expiredTs, e);
+      }
+    }
+  }
+
   @Override
   public void batchCommitSecondaryRows(RpcController controller, ThemisBatchCommitSecondaryRequest request,
       RpcCallback<ThemisBatchCommitSecondaryResponse> callback) {
+    long beginTs = System.nanoTime();
     ThemisBatchCommitSecondaryResponse.Builder builder = ThemisBatchCommitSecondaryResponse.newBuilder();
     try {
       List<ThemisCommit> commits = request.getThemisCommitList();
@@ -691,12 +1302,24 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
       List<byte[]> rows = new ArrayList<>();
       List<Mutation> allMutations = new ArrayList<>();
       for (ThemisCommit commit : commits) {
-        rows.add(commit.getRow().toByteArray());
-         List<Mutation> mutations = getCommitMutations(commit.getRow().toByteArray(),
+        byte[] row = commit.getRow().toByteArray();
+        // rows not in the region are returned as unsuccessful results, the client will commit them
+        // again after locating their regions
+        if (!HRegion.rowIsInRange(region.getRegionInfo(), row)) {
+          builder.addBatchCommitSecondaryResult(ThemisBatchCommitSecondaryResult.newBuilder()
+              .setRow(commit.getRow()).setSuccess(false));
+          continue;
+        }
+        rows.add(row);
+        List<Mutation> mutations = getCommitMutations(row,
           ColumnMutation.toColumnMutations(commit.getMutationsList()), commit.getPrewriteTs(), commit.getCommitTs(), false);
+        durabilityPolicy.setDurability(Operation.SECONDARY_COMMIT, mutations);
         allMutations.addAll(mutations);
       }
-      region.mutateRowsWithLocks(allMutations, rows);
+      if (allMutations.size() != 0) {
+        region.mutateRowsWithLocks(allMutations, rows);
+      }
+      regionMetrics.updateBatchCommitSecondary(beginTs, commits.size());
     } catch (Exception e) {
       LOG.error("batch commit secondary rows fail", e);
       ResponseConverter.setControllerException(controller, new IOException(e));
@@ -705,7 +1328,160 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
   }
 
   @Override
+  public void commitRowsInOnePhase(RpcController controller,
+      ThemisBatchCommitSecondaryRequest request,
+      RpcCallback<ThemisBatchCommitSecondaryResponse> callback) {
+    ThemisBatchCommitSecondaryResponse.Builder builder = ThemisBatchCommitSecondaryResponse
+        .newBuilder();
+    try {
+      boolean committed = commitRowsInOnePhase(request.getThemisCommitList());
+      for (ThemisCommit commit : request.getThemisCommitList()) {
+        builder.addBatchCommitSecondaryResult(ThemisBatchCommitSecondaryResult.newBuilder()
+            .setRow(commit.getRow()).setSuccess(committed));
+      }
+    } catch (IOException e) {
+      LOG.error("commit rows in one phase fail", e);
+      ResponseConverter.setControllerException(controller, e);
+    }
+    callback.run(builder.build());
+  }
+
+  // commit the rows of a transaction located in this region by writing data and commit columns
+  // directly, no lock will be written. Return false without writing anything if any row is not in
+  // the region, any column conflicts with other transactions or a read with startTs not less than
+  // commitTs may have been served, which is always assumed if transaction ttl is not enabled when the
+  // region is opened; the client should commit the transaction by prewrite and commit then
+  public boolean commitRowsInOnePhase(List<ThemisCommit> commits) throws IOException {
+    long beginTs = System.nanoTime();
+    HRegion region = env.getRegion();
+    boolean committed = false;
+    // rows are locked in order to avoid dead lock with other one-phase commits
+    TreeMap<byte[], List<ColumnMutation>> rows = new TreeMap<byte[], List<ColumnMutation>>(
+        Bytes.BYTES_COMPARATOR);
+    List<RowLock> rowLocks = new ArrayList<RowLock>();
+    try {
+      if (commits.size() == 0) {
+        return false;
+      }
+      // the reads served by the region must be bounded by the tracker, otherwise a served read
+      // which should see the commit could not be ruled out
+      if (readTsTracker == null || !readTsTracker.isBounded()) {
+        ThemisCpStatistics.getThemisCpStatistics().onePhaseCommitRejectedByReadCount.incr();
+        return false;
+      }
+      long startTs = commits.get(0).getPrewriteTs();
+      long commitTs = commits.get(0).getCommitTs();
+      for (ThemisCommit commit : commits) {
+        byte[] row = commit.getRow().toByteArray();
+        if (!HRegion.rowIsInRange(region.getRegionInfo(), row)) {
+          return false;
+        }
+        if (commit.getPrewriteTs() != startTs || commit.getCommitTs() != commitTs) {
+          throw new DoNotRetryIOException("rows of one-phase commit must have the same timestamps"
+              + ", row=" + Bytes.toStringBinary(row) + ", prewriteTs=" + commit.getPrewriteTs()
+              + ", commitTs=" + commit.getCommitTs());
+        }
+        List<ColumnMutation> mutations = ColumnMutation.toColumnMutations(commit
+            .getMutationsList());
+        checkFamily(mutations);
+        rows.put(row, mutations);
+      }
+      checkWriteTTL(System.currentTimeMillis(), startTs, rows.firstKey());
+      for (byte[] row : rows.keySet()) {
+        rowLocks.add(region.getRowLock(row));
+      }
+      List<Mutation> mutations = new ArrayList<Mutation>();
+      for (Entry<byte[], List<ColumnMutation>> row : rows.entrySet()) {
+        if (checkPrewriteConflict(region, row.getKey(), row.getValue(), startTs, true).size() != 0) {
+          return false;
+        }
+        mutations.addAll(getCommitMutations(row.getKey(), row.getValue(), startTs, commitTs,
+          true, false));
+      }
+      RegionReadTsTracker.PendingCommit pendingCommit = readTsTracker.beginCommit(commitTs);
+      if (pendingCommit == null) {
+        ThemisCpStatistics.getThemisCpStatistics().onePhaseCommitRejectedByReadCount.incr();
+        return false;
+      }
+      durabilityPolicy.setDurability(Operation.PRIMARY_COMMIT, mutations);
+      try {
+        if (mutations.size() != 0) {
+          mutateToRegion(region, rows.firstKey(), mutations,
+            ThemisCpStatistics.getThemisCpStatistics().commitWriteLatency);
+        }
+      } finally {
+        readTsTracker.finishCommit(pendingCommit);
+      }
+      committed = true;
+      return true;
+    } finally {
+      for (RowLock rowLock : rowLocks) {
+        rowLock.release();
+      }
+      ThemisCpStatistics.updateLatency(
+        ThemisCpStatistics.getThemisCpStatistics().onePhaseCommitLatency, beginTs);
+      if (committed) {
+        ThemisCpStatistics.getThemisCpStatistics().onePhaseCommitSuccessCount.incr();
+        regionMetrics.updateCommit(beginTs);
+      } else {
+        ThemisCpStatistics.getThemisCpStatistics().onePhaseCommitFallbackCount.incr();
+      }
+    }
+  }
+
+  @Override
+  public void batchEraseSecondaryRows(RpcController controller,
+      ThemisBatchEraseSecondaryRequest request,
+      RpcCallback<ThemisBatchEraseSecondaryResponse> callback) {
+    ThemisBatchEraseSecondaryResponse.Builder builder = ThemisBatchEraseSecondaryResponse
+        .newBuilder();
+    try {
+      HRegion region = env.getRegion();
+      List<byte[]> rows = new ArrayList<byte[]>();
+      List<Mutation> deletes = new ArrayList<Mutation>();
+      for (ThemisErase erase : request.getThemisEraseList()) {
+        byte[] row = erase.getRow().toByteArray();
+        // the region may have been split after the client located it, these rows will be erased
+        // by the client one by one
+        if (!HRegion.rowIsInRange(region.getRegionInfo(), row)) {
+          builder.addRowsNotInRegion(erase.getRow());
+          continue;
+        }
+        rows.add(row);
+        deletes.add(getEraseMutation(row,
+          ColumnMutation.toColumnMutations(erase.getMutationsList()), request.getPrewriteTs()));
+      }
+      durabilityPolicy.setDurability(Operation.LOCK_ERASE, deletes);
+      if (deletes.size() != 0) {
+        region.mutateRowsWithLocks(deletes, rows);
+      }
+    } catch (Exception e) {
+      LOG.error("batch erase secondary rows fail", e);
+      ResponseConverter.setControllerException(controller, new IOException(e));
+    }
+    callback.run(builder.build());
+  }
+
+  // erase the data and lock of the columns with prewriteTs
+  protected static Delete getEraseMutation(byte[] row, List<? extends Column> columns,
+      long prewriteTs) {
+    Delete delete = new Delete(row);
+    for (Column column : columns) {
+      Column lockColumn = ColumnUtil.getLockColumn(column);
+      delete.deleteColumn(column.getFamily(), column.getQualifier(), prewriteTs);
+      delete.deleteColumn(lockColumn.getFamily(), lockColumn.getQualifier(), prewriteTs);
+    }
+    setLockFamilyDelete(delete);
+    return delete;
+  }
+
+  @Override
+  // Gets are executed in order with at most maxConcurrency tasks in flight, so that a large batch
+  // won't occupy the whole thread pool. The response is returned once the size of results reaches
+  // batchGetMaxResultSize, with nextIndex set for the client to continue the batch. If the gets
+  // could be read by row group, each task reads batchGetRowGroupSize gets by scanning the region
   public void themisBatchGet(RpcController controller, ThemisProtos.ThemisBatchGetRequest request, RpcCallback<ThemisProtos.ThemisBatchGetResponse> callback) {
+    long beginTs = System.nanoTime();
     ThemisBatchGetResponse.Builder builder = ThemisBatchGetResponse.newBuilder();
     try {
       List<ClientProtos.Get> getList = request.getGetsList();
@@ -713,45 +1489,234 @@ public class ThemisEndpoint extends ThemisService implements CoprocessorService,
         callback.run(builder.build());
         return;
       }
-      List<Future<Result>> list = new ArrayList<>();
-      for (ClientProtos.Get g : getList) {
-        Get clientGet = ProtobufUtil.toGet(g);
-        // send to thread pool
-        Future<Result> f = batchGetThreadPool.submit(new BatchGetTask(clientGet, request.getStartTs(), request.getIgnoreLock()));
-        list.add(f);
+      int maxConcurrency = batchGetConcurrencyPerRequest;
+      if (request.hasMaxConcurrency() && request.getMaxConcurrency() > 0) {
+        maxConcurrency = Math.min(maxConcurrency, request.getMaxConcurrency());
       }
-
-      for (Future<Result> future : list ) {
-        try {
-          Result r = future.get();
-          // only return exists kvs
-          if (r != null) {
-            builder.addRs(ProtobufUtil.toResult(r));
+      int groupSize = canReadByRowGroup(getList) ? batchGetRowGroupSize : 1;
+      List<ThemisResolvedLock> resolvedLocks = Collections
+          .synchronizedList(new ArrayList<ThemisResolvedLock>());
+      LinkedList<Future<Result[]>> inflight = new LinkedList<Future<Result[]>>();
+      int submitted = 0;
+      int completed = 0;
+      long resultSize = 0;
+      try {
+        while (completed < submitted || submitted < getList.size()) {
+          // stop submitting when the response is large enough, the in-flight gets are still returned
+          while (resultSize < batchGetMaxResultSize && submitted < getList.size()
+              && inflight.size() < maxConcurrency) {
+            int end = Math.min(submitted + groupSize, getList.size());
+            // send to thread pool
+            inflight.add(batchGetThreadPool.submit(new BatchGetTask(getList.subList(submitted, end),
+                request.getStartTs(), request.getIgnoreLock(), request.getResolveLock(),
+                resolvedLocks)));
+            submitted = end;
+          }
+          if (inflight.isEmpty()) {
+            break;
+          }
+          for (Result r : inflight.removeFirst().get()) {
+            // only return exists kvs
+            if (r != null) {
+              builder.addRs(ProtobufUtil.toResult(r));
+              builder.addGetIndexes(request.getStartIndex() + completed);
+              resultSize += getResultSize(r);
+            }
+            ++completed;
           }
-        } catch (Exception e) {
-          LOG.error("batch get error", e);
-          ResponseConverter.setControllerException(controller, new IOException(e));
         }
+      } catch (Exception e) {
+        for (Future<Result[]> future : inflight) {
+          future.cancel(false);
+        }
+        throw e;
       }
-    } catch (IOException e) {
-      ResponseConverter.setControllerException(controller, e);
+      if (completed < getList.size()) {
+        builder.setNextIndex(request.getStartIndex() + completed);
+        ThemisCpStatistics.getThemisCpStatistics().batchGetPartialResponseCount.incr();
+      }
+      builder.addAllResolvedLocks(resolvedLocks);
+      regionMetrics.updateBatchGet(beginTs, getList.size());
+    } catch (Exception e) {
+      LOG.error("batch get error", e);
+      ResponseConverter.setControllerException(controller, new IOException(e));
     }
     callback.run(builder.build());
   }
 
-  class BatchGetTask implements Callable<Result> {
-    private Get get;
+  protected static long getResultSize(Result result) {
+    long size = 0;
+    for (Cell cell : result.rawCells()) {
+      size += KeyValueUtil.length(cell);
+    }
+    return size;
+  }
+
+  // gets could be read by row group if they read the same columns without filter from this region
+  protected boolean canReadByRowGroup(List<ClientProtos.Get> gets) {
+    if (batchGetRowGroupSize <= 1 || gets.size() <= 1) {
+      return false;
+    }
+    List<ClientProtos.Column> columns = gets.get(0).getColumnList();
+    if (columns.size() == 0) {
+      return false;
+    }
+    for (ClientProtos.Column column : columns) {
+      if (column.getQualifierCount() == 0) {
+        return false;
+      }
+    }
+    for (ClientProtos.Get get : gets) {
+      if (get.hasFilter() || get.getClosestRowBefore() || get.getExistenceOnly()
+          || !columns.equals(get.getColumnList())
+          || !HRegion.rowIsInRange(env.getRegion().getRegionInfo(), get.getRow().toByteArray())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // read the gets which could be read by row group. The rows are sorted and read by one scan of
+  // lock and write columns, then the data columns selected by the put columns are read by another
+  // scan with ColumnTimestampFilter for each row. Return the result of each get in order
+  protected Result[] themisGetByRowGroup(List<ClientProtos.Get> gets, long startTs,
+      boolean ignoreLock, boolean resolveLock, List<ThemisResolvedLock> resolvedLocks)
+      throws IOException {
+    HRegion region = env.getRegion();
+    long currentMs = System.currentTimeMillis();
+    TreeMap<byte[], List<Integer>> rowIndexes = new TreeMap<byte[], List<Integer>>(
+        Bytes.BYTES_COMPARATOR);
+    MultiRowColumnTimestampFilter lockAndWriteFilter = new MultiRowColumnTimestampFilter();
+    Get userGet = null;
+    for (int i = 0; i < gets.size(); ++i) {
+      userGet = ProtobufUtil.toGet(gets.get(i));
+      checkFamily(userGet);
+      checkReadTTL(currentMs, startTs, userGet.getRow());
+      List<Integer> indexes = rowIndexes.get(userGet.getRow());
+      if (indexes == null) {
+        indexes = new ArrayList<Integer>();
+        rowIndexes.put(userGet.getRow(), indexes);
+        lockAndWriteFilter.addRow(userGet.getRow(), null);
+      }
+      indexes.add(i);
+    }
+    trackRead(startTs);
+    // all the gets read the same columns
+    Get lockAndWriteGet = ThemisCpUtil.constructLockAndWriteGet(userGet, startTs);
+    Map<byte[], List<Cell>> lockAndWriteRows = scanRows(region,
+      ThemisCpUtil.constructScanByRowFilter(lockAndWriteGet, lockAndWriteFilter),
+      ThemisCpStatistics.getThemisCpStatistics().batchGetLockAndWriteLatency);
+
+    Result[] results = new Result[gets.size()];
+    MultiRowColumnTimestampFilter dataFilter = new MultiRowColumnTimestampFilter();
+    // the union of data columns of the rows, only used to construct the scan
+    Get dataColumnsGet = new Get(rowIndexes.firstKey());
+    long minTs = Long.MAX_VALUE;
+    long maxTs = 0;
+    for (Entry<byte[], List<Integer>> rowIndex : rowIndexes.entrySet()) {
+      List<Cell> cells = lockAndWriteRows.get(rowIndex.getKey());
+      if (cells == null) {
+        // no such row
+        continue;
+      }
+      Result rowResult = ThemisCpUtil.removeNotRequiredLockColumns(userGet.getFamilyMap(),
+        Result.create(cells));
+      Pair<List<KeyValue>, List<KeyValue>> lockAndWriteKvs = ThemisCpUtil
+          .seperateLockAndWriteKvs(rowResult.list());
+      List<KeyValue> lockKvs = lockAndWriteKvs.getFirst();
+      List<KeyValue> writeKvs = lockAndWriteKvs.getSecond();
+      if (!ignoreLock && lockKvs.size() != 0) {
+        lockKvs = ThemisCpUtil.resolveLockKvsByCommittedPrimary(region.getTableDesc().getName(),
+          lockKvs, writeKvs, startTs);
+        if (lockKvs.size() != 0) {
+          Result lockResult = new Result(lockKvs);
+          if (resolveLock) {
+            // rows with conflict locks are rare, resolve and read them again one by one
+            lockResult = themisGet(gets.get(rowIndex.getValue().get(0)), startTs, ignoreLock,
+              resolveLock, resolvedLocks);
+          }
+          setResults(results, rowIndex.getValue(), lockResult);
+          continue;
+        }
+      }
+      List<KeyValue> putKvs = ThemisCpUtil.getPutKvs(writeKvs);
+      if (putKvs.size() != 0) {
+        Get dataGet = ThemisCpUtil.constructDataGetByPutKvs(putKvs, null);
+        dataFilter.addRow(rowIndex.getKey(), (ColumnTimestampFilter) dataGet.getFilter());
+        for (Entry<byte[], NavigableSet<byte[]>> family : dataGet.getFamilyMap().entrySet()) {
+          for (byte[] qualifier : family.getValue()) {
+            dataColumnsGet.addColumn(family.getKey(), qualifier);
+          }
+        }
+        minTs = Math.min(minTs, dataGet.getTimeRange().getMin());
+        maxTs = Math.max(maxTs, dataGet.getTimeRange().getMax());
+        // the row exists though the data columns might be not found
+        setResults(results, rowIndex.getValue(), Result.create(new ArrayList<Cell>()));
+      }
+    }
+    if (minTs <= maxTs) {
+      dataColumnsGet.setTimeRange(minTs, maxTs);
+      Map<byte[], List<Cell>> dataRows = scanRows(region,
+        ThemisCpUtil.constructScanByRowFilter(dataColumnsGet, dataFilter),
+        ThemisCpStatistics.getThemisCpStatistics().batchGetDataLatency);
+      for (Entry<byte[], List<Cell>> dataRow : dataRows.entrySet()) {
+        setResults(results, rowIndexes.get(dataRow.getKey()), Result.create(dataRow.getValue()));
+      }
+    }
+    return results;
+  }
+
+  protected static void setResults(Result[] results, List<Integer> indexes, Result result) {
+    for (Integer index : indexes) {
+      results[index] = result;
+    }
+  }
+
+  // return the cells of each row read by the scan
+  protected Map<byte[], List<Cell>> scanRows(HRegion region, Scan scan,
+      LatencyHistogram latency) throws IOException {
+    Map<byte[], List<Cell>> rows = new TreeMap<byte[], List<Cell>>(Bytes.BYTES_COMPARATOR);
+    long beginTs = System.nanoTime();
+    RegionScanner scanner = region.getScanner(scan);
+    try {
+      boolean hasMore = true;
+      while (hasMore) {
+        List<Cell> cells = new ArrayList<Cell>();
+        hasMore = scanner.next(cells);
+        if (cells.size() != 0) {
+          rows.put(CellUtil.cloneRow(cells.get(0)), cells);
+        }
+      }
+    } finally {
+      scanner.close();
+      ThemisCpStatistics.updateLatency(latency, beginTs, "startRow=", scan.getStartRow(),
+        ", rowCount=", rows.size());
+    }
+    return rows;
+  }
+
+  class BatchGetTask implements Callable<Result[]> {
+    private List<ClientProtos.Get> gets;
     private long startTs;
     private boolean ignoreLock;
+    private boolean resolveLock;
+    private List<ThemisResolvedLock> resolvedLocks;
 
-    public BatchGetTask(Get get, long startTs, boolean ignoreLock) {
-      this.get = get;
+    public BatchGetTask(List<ClientProtos.Get> gets, long startTs, boolean ignoreLock,
+        boolean resolveLock, List<ThemisResolvedLock> resolvedLocks) {
+      this.gets = gets;
       this.startTs = startTs;
       this.ignoreLock = ignoreLock;
+      this.resolveLock = resolveLock;
+      this.resolvedLocks = resolvedLocks;
     }
 
-    public Result call() throws Exception {
-      return themisGet(get, startTs, ignoreLock);
+    public Result[] call() throws Exception {
+      if (gets.size() == 1) {
+        return new Result[] { themisGet(gets.get(0), startTs, ignoreLock, resolveLock,
+          resolvedLocks) };
+      }
+      return themisGetByRowGroup(gets, startTs, ignoreLock, resolveLock, resolvedLocks);
     }
   }
 
@@ -0,0 +1,357 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
+import org.apache.hadoop.hbase.themis.columns.ColumnMutation;
+import org.apache.hadoop.hbase.themis.columns.RowMutation;
+import org.apache.hadoop.hbase.themis.lock.ThemisLock;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+// asynchronous client for ThemisProtocol. The coprocessor rpc of hbase client blocks the calling
+// thread, so that each operation is executed by ThemisEndpointClient in a shared thread pool and
+// returned as a ListenableFuture without blocking the caller; callbacks could be added by
+// Futures.addCallback. Operations sent to the same region server are executed at most
+// maxConcurrencyPerServer at a time, the others are queued by the server until one completes
+public class ThemisEndpointAsyncClient implements Closeable {
+  private static final Log LOG = LogFactory.getLog(ThemisEndpointAsyncClient.class);
+  public static final String THEMIS_ASYNC_CLIENT_THREAD_COUNT_KEY = "themis.async.client.thread.count";
+  public static final int DEFAULT_THEMIS_ASYNC_CLIENT_THREAD_COUNT = 32;
+  public static final String THEMIS_ASYNC_CLIENT_MAX_CONCURRENCY_PER_SERVER_KEY = "themis.async.client.max.concurrency.per.server";
+  public static final int DEFAULT_THEMIS_ASYNC_CLIENT_MAX_CONCURRENCY_PER_SERVER = 8;
+
+  private final HConnection conn;
+  private final ThemisEndpointClient client;
+  private final ExecutorService executor;
+  private final boolean ownExecutor;
+  private final int maxConcurrencyPerServer;
+  private final ConcurrentHashMap<ServerName, ServerQueue> serverQueues =
+      new ConcurrentHashMap<ServerName, ServerQueue>();
+
+  public ThemisEndpointAsyncClient(HConnection connection, Configuration conf) {
+    this(connection, new ThemisEndpointClient(connection), createThreadPool(conf.getInt(
+      THEMIS_ASYNC_CLIENT_THREAD_COUNT_KEY, DEFAULT_THEMIS_ASYNC_CLIENT_THREAD_COUNT)), true,
+        conf.getInt(THEMIS_ASYNC_CLIENT_MAX_CONCURRENCY_PER_SERVER_KEY,
+          DEFAULT_THEMIS_ASYNC_CLIENT_MAX_CONCURRENCY_PER_SERVER));
+  }
+
+  // the executor is shared with the caller, which won't be shutdown when the client is closed
+  public ThemisEndpointAsyncClient(HConnection connection, ExecutorService executor,
+      int maxConcurrencyPerServer) {
+    this(connection, new ThemisEndpointClient(connection), executor, false,
+        maxConcurrencyPerServer);
+  }
+
+  protected ThemisEndpointAsyncClient(HConnection connection, ThemisEndpointClient client,
+      ExecutorService executor, boolean ownExecutor, int maxConcurrencyPerServer) {
+    this.conn = connection;
+    this.client = client;
+    this.executor = executor;
+    this.ownExecutor = ownExecutor;
+    this.maxConcurrencyPerServer = Math.max(1, maxConcurrencyPerServer);
+  }
+
+  protected static ExecutorService createThreadPool(int threadCount) {
+    final AtomicInteger threadIndex = new AtomicInteger(0);
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threadCount, threadCount, 60,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r);
+        t.setName("themis-async-client-thread-" + threadIndex.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  public void close() {
+    if (ownExecutor) {
+      executor.shutdown();
+    }
+  }
+
+  // operations of a region server are queued here when maxConcurrencyPerServer operations of the
+  // server are running, and started in order as the running operations complete
+  class ServerQueue {
+    private int running = 0;
+    private final LinkedList<ListenableFutureTask<?>> pending =
+        new LinkedList<ListenableFutureTask<?>>();
+
+    public void submit(ListenableFutureTask<?> task) {
+      synchronized (this) {
+        if (running >= maxConcurrencyPerServer) {
+          pending.add(task);
+          return;
+        }
+        ++running;
+      }
+      execute(task);
+    }
+
+    protected void complete() {
+      ListenableFutureTask<?> next = null;
+      synchronized (this) {
+        next = pending.poll();
+        if (next == null) {
+          --running;
+          return;
+        }
+      }
+      execute(next);
+    }
+
+    protected void execute(final ListenableFutureTask<?> task) {
+      try {
+        executor.execute(new Runnable() {
+          public void run() {
+            try {
+              task.run();
+            } finally {
+              complete();
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        LOG.warn("async themis operation rejected, the client might have been closed", e);
+        task.cancel(false);
+        complete();
+      }
+    }
+  }
+
+  // submit the operation to the queue of the region server which serves the row. The region is
+  // located in the thread pool because locating might look up the meta table when the region is
+  // not cached; if locating fails, the operation is executed without queueing and fails by itself
+  protected <R> ListenableFuture<R> submit(final byte[] tableName, final byte[] row,
+      Callable<R> operation) {
+    final ListenableFutureTask<R> task = ListenableFutureTask.create(operation);
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          ServerName serverName;
+          try {
+            serverName = conn.getRegionLocation(TableName.valueOf(tableName), row, false)
+                .getServerName();
+          } catch (IOException e) {
+            LOG.warn("locate region fail, tableName=" + Bytes.toString(tableName) + ", row="
+                + Bytes.toStringBinary(row), e);
+            task.run();
+            return;
+          }
+          getServerQueue(serverName).submit(task);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      LOG.warn("async themis operation rejected, the client might have been closed", e);
+      task.cancel(false);
+    }
+    return task;
+  }
+
+  protected ServerQueue getServerQueue(ServerName serverName) {
+    ServerQueue queue = serverQueues.get(serverName);
+    if (queue == null) {
+      queue = new ServerQueue();
+      ServerQueue exist = serverQueues.putIfAbsent(serverName, queue);
+      queue = exist == null ? queue : exist;
+    }
+    return queue;
+  }
+
+  public ListenableFuture<Result> themisGet(final byte[] tableName, final Get get,
+      final long startTs, final boolean ignoreLock) {
+    return submit(tableName, get.getRow(), new Callable<Result>() {
+      public Result call() throws IOException {
+        return client.themisGet(tableName, get, startTs, ignoreLock);
+      }
+    });
+  }
+
+  public ListenableFuture<Pair<Result, List<ThemisLock>>> themisGetWithResolvedLocks(
+      final byte[] tableName, final Get get, final long startTs) {
+    return submit(tableName, get.getRow(), new Callable<Pair<Result, List<ThemisLock>>>() {
+      public Pair<Result, List<ThemisLock>> call() throws IOException {
+        return client.themisGetWithResolvedLocks(tableName, get, startTs);
+      }
+    });
+  }
+
+  // the gets should be located in the same region, as ThemisEndpointClient.themisBatchGet requires
+  public ListenableFuture<List<Result>> themisBatchGet(final byte[] tableName,
+      final List<Get> gets, final long startTs, final boolean ignoreLock) {
+    if (gets.size() == 0) {
+      return Futures.immediateFuture(null);
+    }
+    return submit(tableName, gets.get(0).getRow(), new Callable<List<Result>>() {
+      public List<Result> call() throws IOException {
+        return client.themisBatchGet(tableName, gets, startTs, ignoreLock);
+      }
+    });
+  }
+
+  public ListenableFuture<Pair<List<Result>, List<ThemisLock>>> themisBatchGetWithResolvedLocks(
+      final byte[] tableName, final List<Get> gets, final long startTs) {
+    if (gets.size() == 0) {
+      return Futures.immediateFuture(null);
+    }
+    return submit(tableName, gets.get(0).getRow(),
+      new Callable<Pair<List<Result>, List<ThemisLock>>>() {
+        public Pair<List<Result>, List<ThemisLock>> call() throws IOException {
+          return client.themisBatchGetWithResolvedLocks(tableName, gets, startTs);
+        }
+      });
+  }
+
+  // the future returns the conflict lock, or null if prewrite successfully
+  public ListenableFuture<ThemisLock> prewriteRow(final byte[] tableName, final byte[] row,
+      final List<ColumnMutation> mutations, final long prewriteTs, final byte[] primaryLock,
+      final byte[] secondaryLock, final int primaryIndex) {
+    return submit(tableName, row, new Callable<ThemisLock>() {
+      public ThemisLock call() throws IOException {
+        return client.prewriteRow(tableName, row, mutations, prewriteTs, primaryLock,
+          secondaryLock, primaryIndex);
+      }
+    });
+  }
+
+  public ListenableFuture<ThemisLock> prewriteSecondaryRow(final byte[] tableName,
+      final byte[] row, final List<ColumnMutation> mutations, final long prewriteTs,
+      final byte[] secondaryLock) {
+    return prewriteRow(tableName, row, mutations, prewriteTs, null, secondaryLock, -1);
+  }
+
+  public ListenableFuture<ThemisLock> prewriteSingleRow(final byte[] tableName, final byte[] row,
+      final List<ColumnMutation> mutations, final long prewriteTs, final byte[] primaryLock,
+      final byte[] secondaryLock, final int primaryIndex) {
+    return submit(tableName, row, new Callable<ThemisLock>() {
+      public ThemisLock call() throws IOException {
+        return client.prewriteSingleRow(tableName, row, mutations, prewriteTs, primaryLock,
+          secondaryLock, primaryIndex);
+      }
+    });
+  }
+
+  public ListenableFuture<Map<byte[], ThemisLock>> batchPrewriteSecondaryRows(
+      final byte[] tableName, final List<RowMutation> rows, final long prewriteTs,
+      final byte[] secondaryLock) {
+    return submit(tableName, rows.get(0).getRow(), new Callable<Map<byte[], ThemisLock>>() {
+      public Map<byte[], ThemisLock> call() throws IOException {
+        return client.batchPrewriteSecondaryRows(tableName, rows, prewriteTs, secondaryLock);
+      }
+    });
+  }
+
+  public ListenableFuture<Void> commitRow(final byte[] tableName, final byte[] row,
+      final List<ColumnMutation> mutations, final long prewriteTs, final long commitTs,
+      final int primaryIndex) {
+    return submit(tableName, row, new Callable<Void>() {
+      public Void call() throws IOException {
+        client.commitRow(tableName, row, mutations, prewriteTs, commitTs, primaryIndex);
+        return null;
+      }
+    });
+  }
+
+  public ListenableFuture<Void> commitRowAndSecondaries(final byte[] tableName, final byte[] row,
+      final List<ColumnMutation> mutations, final long prewriteTs, final long commitTs,
+      final int primaryIndex) {
+    return submit(tableName, row, new Callable<Void>() {
+      public Void call() throws IOException {
+        client.commitRowAndSecondaries(tableName, row, mutations, prewriteTs, commitTs,
+          primaryIndex);
+        return null;
+      }
+    });
+  }
+
+  public ListenableFuture<Void> commitSecondaryRow(final byte[] tableName, final byte[] row,
+      final List<ColumnMutation> mutations, final long prewriteTs, final long commitTs) {
+    return commitRow(tableName, row, mutations, prewriteTs, commitTs, -1);
+  }
+
+  public ListenableFuture<Void> commitSingleRow(final byte[] tableName, final byte[] row,
+      final List<ColumnMutation> mutations, final long prewriteTs, final long commitTs,
+      final int primaryIndex) {
+    return submit(tableName, row, new Callable<Void>() {
+      public Void call() throws IOException {
+        client.commitSingleRow(tableName, row, mutations, prewriteTs, commitTs, primaryIndex);
+        return null;
+      }
+    });
+  }
+
+  public ListenableFuture<Void> batchCommitSecondaryRows(final byte[] tableName,
+      final List<RowMutation> rows, final long prewriteTs, final long commitTs) {
+    return submit(tableName, rows.get(0).getRow(), new Callable<Void>() {
+      public Void call() throws IOException {
+        client.batchCommitSecondaryRows(tableName, rows, prewriteTs, commitTs);
+        return null;
+      }
+    });
+  }
+
+  public ListenableFuture<Boolean> commitRowsInOnePhase(final byte[] tableName,
+      final List<RowMutation> rows, final long startTs, final long commitTs) {
+    return submit(tableName, rows.get(0).getRow(), new Callable<Boolean>() {
+      public Boolean call() throws IOException {
+        return client.commitRowsInOnePhase(tableName, rows, startTs, commitTs);
+      }
+    });
+  }
+
+  public ListenableFuture<List<byte[]>> batchEraseSecondaryRows(final byte[] tableName,
+      final List<RowMutation> rows, final long prewriteTs) {
+    return submit(tableName, rows.get(0).getRow(), new Callable<List<byte[]>>() {
+      public List<byte[]> call() throws IOException {
+        return client.batchEraseSecondaryRows(tableName, rows, prewriteTs);
+      }
+    });
+  }
+
+  public ListenableFuture<ThemisLock> getLockAndErase(final ColumnCoordinate columnCoordinate,
+      final long prewriteTs) {
+    return submit(columnCoordinate.getTableName(), columnCoordinate.getRow(),
+      new Callable<ThemisLock>() {
+        public ThemisLock call() throws IOException {
+          return client.getLockAndErase(columnCoordinate, prewriteTs);
+        }
+      });
+  }
+
+  public ListenableFuture<Boolean> isLockExpired(final byte[] tableName, final byte[] row,
+      final long timestamp) {
+    return submit(tableName, row, new Callable<Boolean>() {
+      public Boolean call() throws IOException {
+        return client.isLockExpired(tableName, row, timestamp);
+      }
+    });
+  }
+}
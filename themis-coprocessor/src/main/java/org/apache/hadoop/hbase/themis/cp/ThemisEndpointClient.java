@@ -1,14 +1,26 @@
 package org.apache.hadoop.hbase.themis.cp;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.ConnectionUtils;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HConnection;
 import org.apache.hadoop.hbase.client.HTableInterface;
@@ -44,6 +56,7 @@ import org.apache.hadoop.hbase.themis.exception.LockCleanedException;
 import org.apache.hadoop.hbase.themis.exception.WriteConflictException;
 import org.apache.hadoop.hbase.themis.lock.ThemisLock;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.HBaseZeroCopyByteString;
@@ -54,6 +67,24 @@ import static org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.*;
 public class ThemisEndpointClient {
   private final HConnection conn;
   private static final Log LOG = LogFactory.getLog(ThemisEndpointClient.class);
+  private static final int DEFAULT_REGION_BATCH_THREAD_COUNT = Runtime.getRuntime()
+      .availableProcessors() * 5;
+
+  // sends the batch rpcs of different regions in parallel, shared by all the clients of the process
+  private static ThreadPoolExecutor regionBatchThreadPool = new ThreadPoolExecutor(
+      DEFAULT_REGION_BATCH_THREAD_COUNT, DEFAULT_REGION_BATCH_THREAD_COUNT, 10, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r);
+      t.setName("themis-region-batch-thread-" + System.currentTimeMillis());
+      t.setDaemon(true);
+      return t;
+    }
+  });
+
+  static {
+    regionBatchThreadPool.allowCoreThreadTimeOut(true);
+  }
 
   public ThemisEndpointClient(HConnection connection) {
     this.conn = connection;
@@ -118,20 +149,118 @@ public class ThemisEndpointClient {
     }.run();
   }
 
+  // conflict locks will be resolved in server side, return the result and the resolved locks. The
+  // result will still contain lock kvs if there are locks could not be resolved in server side
+  public Pair<Result, List<ThemisLock>> themisGetWithResolvedLocks(final byte[] tableName,
+      final Get get, final long startTs) throws IOException {
+    ThemisGetResponse getResponse = new CoprocessorCallable<ThemisGetResponse>(conn, tableName,
+        get.getRow()) {
+      @Override
+      public ThemisGetResponse invokeCoprocessor(Stub instance) throws Throwable {
+        Builder builder = ThemisGetRequest.newBuilder();
+        builder.setGet(ProtobufUtil.toGet(get));
+        builder.setStartTs(startTs);
+        builder.setIgnoreLock(false);
+        builder.setResolveLock(true);
+        ServerRpcController controller = new ServerRpcController();
+        BlockingRpcCallback<ThemisGetResponse> rpcCallback = new BlockingRpcCallback<ThemisGetResponse>();
+        instance.themisGetWithResolvedLocks(controller, builder.build(), rpcCallback);
+        checkRpcException(controller);
+        return rpcCallback.get();
+      }
+    }.run();
+    Result result = getResponse.hasResult() ? ProtobufUtil.toResult(getResponse.getResult())
+        : new Result();
+    return new Pair<Result, List<ThemisLock>>(result,
+        toResolvedLocks(tableName, getResponse.getResolvedLocksList()));
+  }
+
+  protected static List<ThemisLock> toResolvedLocks(byte[] tableName,
+      List<ThemisResolvedLock> resolvedLocks) throws IOException {
+    List<ThemisLock> locks = new ArrayList<ThemisLock>(resolvedLocks.size());
+    for (ThemisResolvedLock resolvedLock : resolvedLocks) {
+      ThemisLock lock = ThemisLock.parseFromByte(resolvedLock.getLock().toByteArray());
+      lock.setColumn(new ColumnCoordinate(tableName, resolvedLock.getRow().toByteArray(),
+          resolvedLock.getFamily().toByteArray(), resolvedLock.getQualifier().toByteArray()));
+      locks.add(lock);
+    }
+    return locks;
+  }
+
   public List<Result> themisBatchGet(final byte[] tableName, final List<Get> gets, final long startTs,
                                      final boolean ignoreLock) throws IOException {
     if (gets.size() == 0) {
       return null;
     }
-    ThemisBatchGetResponse batchGetResponse = new CoprocessorCallable<ThemisBatchGetResponse>(conn, tableName, gets.get(0).getRow()){
+    ThemisBatchGetResponse batchGetResponse = themisBatchGet(tableName, gets, startTs, ignoreLock,
+      false);
+    return toResults(batchGetResponse);
+  }
+
+  // conflict locks will be resolved in server side, return the results and the resolved locks
+  public Pair<List<Result>, List<ThemisLock>> themisBatchGetWithResolvedLocks(
+      final byte[] tableName, final List<Get> gets, final long startTs) throws IOException {
+    if (gets.size() == 0) {
+      return null;
+    }
+    ThemisBatchGetResponse batchGetResponse = themisBatchGet(tableName, gets, startTs, false, true);
+    return new Pair<List<Result>, List<ThemisLock>>(toResults(batchGetResponse),
+        toResolvedLocks(tableName, batchGetResponse.getResolvedLocksList()));
+  }
+
+  // return the result of each get at the same position of gets, null if the row is not found
+  public Result[] themisBatchGetInOrder(final byte[] tableName, final List<Get> gets,
+      final long startTs, final boolean ignoreLock) throws IOException {
+    Result[] results = new Result[gets.size()];
+    if (gets.size() == 0) {
+      return results;
+    }
+    ThemisBatchGetResponse batchGetResponse = themisBatchGet(tableName, gets, startTs, ignoreLock,
+      false);
+    for (int i = 0; i < batchGetResponse.getRsCount(); ++i) {
+      results[batchGetResponse.getGetIndexes(i)] = ProtobufUtil.toResult(batchGetResponse.getRs(i));
+    }
+    return results;
+  }
+
+  // the server might return the results of a part of the gets for a large batch, then the remaining
+  // gets will be sent from nextIndex. Return the response merged from all the responses
+  protected ThemisBatchGetResponse themisBatchGet(final byte[] tableName, final List<Get> gets,
+      final long startTs, final boolean ignoreLock, final boolean resolveLock) throws IOException {
+    ThemisBatchGetResponse.Builder merged = ThemisBatchGetResponse.newBuilder();
+    int startIndex = 0;
+    while (true) {
+      ThemisBatchGetResponse response = themisBatchGet(tableName, gets, startIndex, startTs,
+        ignoreLock, resolveLock);
+      merged.addAllRs(response.getRsList());
+      merged.addAllGetIndexes(response.getGetIndexesList());
+      merged.addAllResolvedLocks(response.getResolvedLocksList());
+      if (!response.hasNextIndex()) {
+        return merged.build();
+      }
+      if (response.getNextIndex() <= startIndex || response.getNextIndex() >= gets.size()) {
+        throw new IOException("invalid nextIndex of batch get, nextIndex=" + response.getNextIndex()
+            + ", startIndex=" + startIndex + ", getCount=" + gets.size());
+      }
+      startIndex = response.getNextIndex();
+    }
+  }
+
+  protected ThemisBatchGetResponse themisBatchGet(final byte[] tableName, final List<Get> gets,
+      final int startIndex, final long startTs, final boolean ignoreLock, final boolean resolveLock)
+      throws IOException {
+    return new CoprocessorCallable<ThemisBatchGetResponse>(conn, tableName, gets.get(startIndex)
+        .getRow()) {
       @Override
       public ThemisBatchGetResponse invokeCoprocessor(Stub instance) throws Throwable {
         ThemisBatchGetRequest.Builder builder = ThemisBatchGetRequest.newBuilder();
-        for (Get g : gets) {
+        for (Get g : gets.subList(startIndex, gets.size())) {
           builder.addGets(ProtobufUtil.toGet(g));
         }
         builder.setStartTs(startTs);
         builder.setIgnoreLock(ignoreLock);
+        builder.setResolveLock(resolveLock);
+        builder.setStartIndex(startIndex);
         ServerRpcController controller = new ServerRpcController();
         BlockingRpcCallback<ThemisBatchGetResponse> rpcCallback = new BlockingRpcCallback<ThemisBatchGetResponse>();
         instance.themisBatchGet(controller, builder.build(), rpcCallback);
@@ -139,6 +268,9 @@ public class ThemisEndpointClient {
         return rpcCallback.get();
       }
     }.run();
+  }
+
+  protected static List<Result> toResults(ThemisBatchGetResponse batchGetResponse) {
     // if contain results
     if (batchGetResponse.getRsCount() > 0) {
       List<Result> results = new ArrayList<Result>();
@@ -156,13 +288,40 @@ public class ThemisEndpointClient {
     return prewriteRow(tableName, row, mutations, prewriteTs, null, secondaryLock, -1);
   }
 
+  // the rows are grouped by their regions and prewritten by one rpc for each region, the rpcs of
+  // different regions are sent in parallel. Return the conflict locks by rows
   public Map<byte[], ThemisLock> batchPrewriteSecondaryRows(final byte[] tblName, final List<RowMutation> rows,
       final long prewriteTs, final byte[] secondaryLock) throws IOException {
-    final Map<byte[], ThemisLock> lockMap = new HashMap<byte[], ThemisLock>();
-    CoprocessorCallable<List<ThemisPrewriteResult>> callable = new CoprocessorCallable<List<ThemisPrewriteResult>>(conn,
-        tblName, rows.get(0).getRow()) {
+    final Map<byte[], ThemisLock> lockMap = new TreeMap<byte[], ThemisLock>(Bytes.BYTES_COMPARATOR);
+    List<ThemisBatchPrewriteSecondaryResponse> responses = batchByRegion(tblName, rows,
+      new RegionBatchCall<ThemisBatchPrewriteSecondaryResponse>() {
+        @Override
+        public ThemisBatchPrewriteSecondaryResponse call(List<RowMutation> regionRows)
+            throws IOException {
+          return batchPrewriteSecondaryRowsInRegion(tblName, regionRows, prewriteTs, secondaryLock);
+        }
+
+        @Override
+        public List<ByteString> getRowsNotInRegion(ThemisBatchPrewriteSecondaryResponse response) {
+          return response.getRowsNotInRegionList();
+        }
+      });
+    for (ThemisBatchPrewriteSecondaryResponse response : responses) {
+      batchJudgePerwriteResultRow(lockMap, tblName, rows, response.getThemisPrewriteResultList(),
+        prewriteTs);
+    }
+    return lockMap;
+  }
+
+  // prewrite the rows by one rpc to the region of the first row, the rows not in the region are
+  // returned by rowsNotInRegion of the response
+  protected ThemisBatchPrewriteSecondaryResponse batchPrewriteSecondaryRowsInRegion(
+      final byte[] tblName, final List<RowMutation> rows, final long prewriteTs,
+      final byte[] secondaryLock) throws IOException {
+    return new CoprocessorCallable<ThemisBatchPrewriteSecondaryResponse>(conn, tblName, rows.get(0)
+        .getRow()) {
       @Override
-      public List<ThemisPrewriteResult> invokeCoprocessor(Stub instance) throws Throwable {
+      public ThemisBatchPrewriteSecondaryResponse invokeCoprocessor(Stub instance) throws Throwable {
         ThemisBatchPrewriteSecondaryRequest.Builder builder = ThemisBatchPrewriteSecondaryRequest.newBuilder();
         ThemisPrewrite.Builder b = null;
 
@@ -182,33 +341,130 @@ public class ThemisEndpointClient {
         BlockingRpcCallback<ThemisBatchPrewriteSecondaryResponse> rpcCallback = new BlockingRpcCallback<ThemisBatchPrewriteSecondaryResponse>();
         instance.batchPrewriteSecondaryRows(controller, builder.build(), rpcCallback);
         checkRpcException(controller);
-        // Perhaps, part row has not in a region, sample : when region split,
-        // then need try
-        List<ByteString> rowsNotInRegion = rpcCallback.get().getRowsNotInRegionList();
-        if (rowsNotInRegion != null && rowsNotInRegion.size() > 0) {
-          Map<byte[], List<ColumnMutation>> rowMap = list2Map4Batch(rows);
-          for (ByteString rowkey : rowsNotInRegion) {
-            ThemisLock l = prewriteRow(tblName, rowkey.toByteArray(), rowMap.get(rowkey.toByteArray()), prewriteTs,
-                null, secondaryLock, -1);
-            if (l != null) {
-              lockMap.put(rowkey.toByteArray(), l);
-            }
+        return rpcCallback.get();
+      }
+    }.run();
+  }
+
+  static abstract class RegionBatchCall<R> {
+    // send the rows located in the same region by one rpc
+    public abstract R call(List<RowMutation> regionRows) throws IOException;
+
+    // rows of the request which are not in the region when the rpc arrives
+    public abstract List<ByteString> getRowsNotInRegion(R response);
+  }
+
+  // group the rows by the located regions and send the rows of each region by one rpc, the rpcs of
+  // different regions are sent in parallel. The region might be split or moved after located, then
+  // the rows not in the region will be located again with reloaded region locations and sent again
+  protected <R> List<R> batchByRegion(byte[] tableName, List<RowMutation> rows,
+      RegionBatchCall<R> call) throws IOException {
+    List<R> responses = new ArrayList<R>();
+    List<RowMutation> remainingRows = rows;
+    int retries = conn.getConfiguration().getInt(HConstants.HBASE_CLIENT_RETRIES_NUMBER,
+      HConstants.DEFAULT_HBASE_CLIENT_RETRIES_NUMBER);
+    long pause = conn.getConfiguration().getLong(HConstants.HBASE_CLIENT_PAUSE,
+      HConstants.DEFAULT_HBASE_CLIENT_PAUSE);
+    for (int tries = 0; remainingRows.size() != 0; ++tries) {
+      if (tries > 0) {
+        if (tries > retries) {
+          throw new IOException("rows are still not in the located regions after " + tries
+              + " tries, tableName=" + Bytes.toString(tableName) + ", rowCount="
+              + remainingRows.size() + ", firstRow="
+              + Bytes.toStringBinary(remainingRows.get(0).getRow()));
+        }
+        try {
+          Thread.sleep(ConnectionUtils.getPauseTime(pause, tries - 1));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted when retrying rows not in region");
+        }
+      }
+      List<R> regionResponses = callInParallel(groupByRegion(tableName, remainingRows, tries > 0),
+        call);
+      Map<byte[], RowMutation> rowMap = null;
+      List<RowMutation> rowsNotInRegion = new ArrayList<RowMutation>();
+      for (R response : regionResponses) {
+        responses.add(response);
+        for (ByteString row : call.getRowsNotInRegion(response)) {
+          if (rowMap == null) {
+            rowMap = toRowMap(remainingRows);
           }
+          rowsNotInRegion.add(rowMap.get(row.toByteArray()));
         }
-        return rpcCallback.get().getThemisPrewriteResultList();
       }
-    };
+      if (rowsNotInRegion.size() != 0) {
+        LOG.info("rows not in region when batch, will be located again, tableName="
+            + Bytes.toString(tableName) + ", rowCount=" + rowsNotInRegion.size() + ", tries="
+            + tries);
+      }
+      remainingRows = rowsNotInRegion;
+    }
+    return responses;
+  }
 
-    batchJudgePerwriteResultRow(lockMap, tblName, rows, callable.run(), prewriteTs);
-    return lockMap;
+  protected List<List<RowMutation>> groupByRegion(byte[] tableName, List<RowMutation> rows,
+      boolean reload) throws IOException {
+    Map<String, List<RowMutation>> regionRows = new LinkedHashMap<String, List<RowMutation>>();
+    TableName table = TableName.valueOf(tableName);
+    for (RowMutation row : rows) {
+      HRegionLocation location = conn.getRegionLocation(table, row.getRow(), reload);
+      String regionName = location.getRegionInfo().getEncodedName();
+      List<RowMutation> group = regionRows.get(regionName);
+      if (group == null) {
+        group = new ArrayList<RowMutation>();
+        regionRows.put(regionName, group);
+      }
+      group.add(row);
+    }
+    return new ArrayList<List<RowMutation>>(regionRows.values());
   }
 
-  private Map<byte[], List<ColumnMutation>> list2Map4Batch(List<RowMutation> rows) {
-    Map<byte[], List<ColumnMutation>> rowMap = new HashMap<>();
-    for (RowMutation rowM : rows) {
-      rowMap.put(rowM.getRow(), rowM.mutationList());
+  // the first group is sent by the calling thread, so that no thread switch for the rows located
+  // in one region
+  protected static <R> List<R> callInParallel(List<List<RowMutation>> groups,
+      final RegionBatchCall<R> call) throws IOException {
+    List<Future<R>> futures = new ArrayList<Future<R>>(groups.size() - 1);
+    for (final List<RowMutation> group : groups.subList(1, groups.size())) {
+      futures.add(regionBatchThreadPool.submit(new Callable<R>() {
+        @Override
+        public R call() throws Exception {
+          return call.call(group);
+        }
+      }));
+    }
+    List<R> responses = new ArrayList<R>(groups.size());
+    IOException exception = null;
+    try {
+      responses.add(call.call(groups.get(0)));
+    } catch (IOException e) {
+      exception = e;
     }
+    // wait all the rpcs even if some fail, so that no rpc of the batch is running after return
+    for (Future<R> future : futures) {
+      try {
+        responses.add(future.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        exception = new InterruptedIOException("interrupted when waiting region batch");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (exception == null) {
+          exception = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+    return responses;
+  }
 
+  private Map<byte[], RowMutation> toRowMap(List<RowMutation> rows) {
+    Map<byte[], RowMutation> rowMap = new TreeMap<byte[], RowMutation>(Bytes.BYTES_COMPARATOR);
+    for (RowMutation rowM : rows) {
+      rowMap.put(rowM.getRow(), rowM);
+    }
     return rowMap;
   }
 
@@ -300,9 +556,37 @@ public class ThemisEndpointClient {
     commitRow(tableName, row, mutations, prewriteTs, commitTs, -1);
   }
 
+  // the rows are grouped by their regions and committed by one rpc for each region, the rpcs of
+  // different regions are sent in parallel
   public void batchCommitSecondaryRows(final byte[] tableName, final List<RowMutation> rows, final long prewriteTs,
       final long commitTs) throws IOException {
-    CoprocessorCallable<List<ThemisBatchCommitSecondaryResult>> callable = new CoprocessorCallable<List<ThemisBatchCommitSecondaryResult>>(
+    batchByRegion(tableName, rows, new RegionBatchCall<List<ThemisBatchCommitSecondaryResult>>() {
+      @Override
+      public List<ThemisBatchCommitSecondaryResult> call(List<RowMutation> regionRows)
+          throws IOException {
+        return batchCommitSecondaryRowsInRegion(tableName, regionRows, prewriteTs, commitTs);
+      }
+
+      // the commit of secondary rows won't fail except the rows are not in the region
+      @Override
+      public List<ByteString> getRowsNotInRegion(List<ThemisBatchCommitSecondaryResult> results) {
+        List<ByteString> rowsNotInRegion = new ArrayList<ByteString>();
+        for (ThemisBatchCommitSecondaryResult r : results) {
+          if (!r.getSuccess()) {
+            rowsNotInRegion.add(r.getRow());
+          }
+        }
+        return rowsNotInRegion;
+      }
+    });
+  }
+
+  // commit the rows by one rpc to the region of the first row, the rows not in the region are
+  // returned as unsuccessful results
+  protected List<ThemisBatchCommitSecondaryResult> batchCommitSecondaryRowsInRegion(
+      final byte[] tableName, final List<RowMutation> rows, final long prewriteTs,
+      final long commitTs) throws IOException {
+    return new CoprocessorCallable<List<ThemisBatchCommitSecondaryResult>>(
         conn, tableName, rows.get(0).getRow()) {
       @Override
       public List<ThemisBatchCommitSecondaryResult> invokeCoprocessor(Stub instance) throws Throwable {
@@ -327,21 +611,97 @@ public class ThemisEndpointClient {
         checkRpcException(controller);
         return rpcCallback.get().getBatchCommitSecondaryResultList();
       }
-    };
+    }.run();
+  }
 
-    List<ThemisBatchCommitSecondaryResult> results = callable.run();
-    StringBuilder failRows = new StringBuilder();
-    if (results != null && results.size() > 0) {
-      for (ThemisBatchCommitSecondaryResult r : results) {
-        if (!r.getSuccess()) {
-          failRows.append(Bytes.toString(r.getRow().toByteArray()) + ",");
+  // commit the rows of a transaction located in one region by one rpc without writing locks, the
+  // data and commit columns are written with startTs and commitTs. Return false if the rows could
+  // not be committed in one phase because of conflicts, region split or reads with larger startTs,
+  // nothing is written then and the transaction should be committed by prewrite and commit
+  public boolean commitRowsInOnePhase(final byte[] tableName, final List<RowMutation> rows,
+      final long startTs, final long commitTs) throws IOException {
+    List<ThemisBatchCommitSecondaryResult> results = new CoprocessorCallable<List<ThemisBatchCommitSecondaryResult>>(
+        conn, tableName, rows.get(0).getRow()) {
+      @Override
+      public List<ThemisBatchCommitSecondaryResult> invokeCoprocessor(Stub instance) throws Throwable {
+        ThemisBatchCommitSecondaryRequest.Builder builder = ThemisBatchCommitSecondaryRequest.newBuilder();
+        for (RowMutation rowMutation : rows) {
+          ThemisCommit.Builder cb = ThemisCommit.newBuilder();
+          cb.setRow(HBaseZeroCopyByteString.wrap(rowMutation.getRow()));
+          for (ColumnMutation mutation : rowMutation.mutationList()) {
+            cb.addMutations(ColumnMutation.toCell(mutation));
+          }
+          cb.setPrewriteTs(startTs);
+          cb.setCommitTs(commitTs);
+          cb.setPrimaryIndex(-1);
+          builder.addThemisCommit(cb);
         }
+        ServerRpcController controller = new ServerRpcController();
+        BlockingRpcCallback<ThemisBatchCommitSecondaryResponse> rpcCallback = new BlockingRpcCallback<ThemisBatchCommitSecondaryResponse>();
+        instance.commitRowsInOnePhase(controller, builder.build(), rpcCallback);
+        checkRpcException(controller);
+        return rpcCallback.get().getBatchCommitSecondaryResultList();
+      }
+    }.run();
+    for (ThemisBatchCommitSecondaryResult r : results) {
+      if (!r.getSuccess()) {
+        return false;
       }
     }
+    return results.size() != 0;
+  }
 
-    if (failRows.length() > 0) {
-      throw new IOException("secondary row commit fail, should not happend!, fail rows:" + failRows);
-    }
+  // erase data and lock of secondary rows located in the same region, return the rows which are not
+  // in the region when erasing
+  public List<byte[]> batchEraseSecondaryRows(final byte[] tableName, final List<RowMutation> rows,
+      final long prewriteTs) throws IOException {
+    return new CoprocessorCallable<List<byte[]>>(conn, tableName, rows.get(0).getRow()) {
+      @Override
+      public List<byte[]> invokeCoprocessor(Stub instance) throws Throwable {
+        ThemisBatchEraseSecondaryRequest.Builder builder = ThemisBatchEraseSecondaryRequest
+            .newBuilder();
+        for (RowMutation rowMutation : rows) {
+          ThemisErase.Builder eb = ThemisErase.newBuilder();
+          eb.setRow(HBaseZeroCopyByteString.wrap(rowMutation.getRow()));
+          for (ColumnMutation mutation : rowMutation.mutationList()) {
+            eb.addMutations(ColumnMutation.toCell(mutation));
+          }
+          builder.addThemisErase(eb);
+        }
+        builder.setPrewriteTs(prewriteTs);
+
+        ServerRpcController controller = new ServerRpcController();
+        BlockingRpcCallback<ThemisBatchEraseSecondaryResponse> rpcCallback = new BlockingRpcCallback<ThemisBatchEraseSecondaryResponse>();
+        instance.batchEraseSecondaryRows(controller, builder.build(), rpcCallback);
+        checkRpcException(controller);
+        List<byte[]> rowsNotInRegion = new ArrayList<byte[]>();
+        for (ByteString row : rpcCallback.get().getRowsNotInRegionList()) {
+          rowsNotInRegion.add(row.toByteArray());
+        }
+        return rowsNotInRegion;
+      }
+    }.run();
+  }
+
+  // clean expired locks of the region which contains startRow, the scan of lock family will start
+  // from startRow and stop after limit locks have been cleaned
+  public ThemisCleanExpiredLocksResponse cleanExpiredLocks(final byte[] tableName,
+      final byte[] startRow, final long expiredTs, final int limit) throws IOException {
+    return new CoprocessorCallable<ThemisCleanExpiredLocksResponse>(conn, tableName, startRow) {
+      @Override
+      public ThemisCleanExpiredLocksResponse invokeCoprocessor(Stub instance) throws Throwable {
+        ThemisCleanExpiredLocksRequest.Builder builder = ThemisCleanExpiredLocksRequest
+            .newBuilder();
+        builder.setExpiredTs(expiredTs);
+        builder.setStartRow(HBaseZeroCopyByteString.wrap(startRow));
+        builder.setLimit(limit);
+        ServerRpcController controller = new ServerRpcController();
+        BlockingRpcCallback<ThemisCleanExpiredLocksResponse> rpcCallback = new BlockingRpcCallback<ThemisCleanExpiredLocksResponse>();
+        instance.cleanExpiredLocks(controller, builder.build(), rpcCallback);
+        checkRpcException(controller);
+        return rpcCallback.get();
+      }
+    }.run();
   }
 
   public void commitRow(final byte[] tableName, final byte[] row, final List<ColumnMutation> mutations,
@@ -415,6 +775,40 @@ public class ThemisEndpointClient {
     }
   }
 
+  // commit the primary row, the secondaries recorded by the primary lock are committed in background
+  // of the region server after this method returns
+  public void commitRowAndSecondaries(final byte[] tableName, final byte[] row,
+      final List<ColumnMutation> mutations, final long prewriteTs, final long commitTs,
+      final int primaryIndex) throws IOException {
+    CoprocessorCallable<Boolean> callable = new CoprocessorCallable<Boolean>(conn, tableName, row) {
+      @Override
+      public Boolean invokeCoprocessor(Stub instance) throws Throwable {
+        ThemisCommitRequest.Builder builder = ThemisCommitRequest.newBuilder();
+        ThemisCommit.Builder cb = ThemisCommit.newBuilder();
+        cb.setRow(HBaseZeroCopyByteString.wrap(row));
+        for (ColumnMutation mutation : mutations) {
+          cb.addMutations(ColumnMutation.toCell(mutation));
+        }
+        cb.setPrewriteTs(prewriteTs);
+        cb.setCommitTs(commitTs);
+        cb.setPrimaryIndex(primaryIndex);
+        builder.setThemisCommit(cb);
+
+        ServerRpcController controller = new ServerRpcController();
+        BlockingRpcCallback<ThemisCommitResponse> rpcCallback = new BlockingRpcCallback<ThemisCommitResponse>();
+        instance.commitRowAndSecondaries(controller, builder.build(), rpcCallback);
+        checkRpcException(controller);
+        return rpcCallback.get().getResult();
+      }
+    };
+    if (!callable.run()) {
+      ColumnMutation primaryMutation = mutations.get(primaryIndex);
+      throw new LockCleanedException("lock has been cleaned, column="
+          + new ColumnCoordinate(tableName, row, primaryMutation.getFamily(),
+              primaryMutation.getQualifier()) + ", prewriteTs=" + prewriteTs);
+    }
+  }
+
   public ThemisLock getLockAndErase(final ColumnCoordinate columnCoordinate, final long prewriteTs)
       throws IOException {
     CoprocessorCallable<byte[]> callable = new CoprocessorCallable<byte[]>(conn,
@@ -0,0 +1,277 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+
+// metrics of themis coprocessor for a table or a region, reported as records of the metrics source
+// of ThemisCpStatistics tagged by table and region. The metrics of a region are registered when the
+// endpoint of the region starts, and removed when it stops; the metrics of a table are kept while
+// any region of the table is registered. Regions beyond the max region count are only counted in
+// their tables, and tables beyond the max table count are counted together as OTHER_TABLES
+public class ThemisRegionMetrics {
+  private static final Log LOG = LogFactory.getLog(ThemisRegionMetrics.class);
+  public static final String THEMIS_REGION_METRICS_ENABLE_KEY = "themis.region.metrics.enable";
+  public static final boolean DEFAULT_THEMIS_REGION_METRICS_ENABLE = true;
+  public static final String THEMIS_REGION_METRICS_MAX_REGIONS_KEY = "themis.region.metrics.max.regions";
+  public static final int DEFAULT_THEMIS_REGION_METRICS_MAX_REGIONS = 500;
+  public static final String THEMIS_REGION_METRICS_MAX_TABLES_KEY = "themis.region.metrics.max.tables";
+  public static final int DEFAULT_THEMIS_REGION_METRICS_MAX_TABLES = 100;
+  public static final String OTHER_TABLES = "__other_tables__";
+  public static final String TABLE_RECORD_NAME = "ThemisTable";
+  public static final String REGION_RECORD_NAME = "ThemisRegion";
+  private static final MetricsInfo TABLE_TAG = Interns.info("table", "table name");
+  private static final MetricsInfo REGION_TAG = Interns.info("region", "encoded region name");
+  // returned when region metrics are disabled, recording to it does nothing
+  public static final ThemisRegionMetrics DISABLED = new ThemisRegionMetrics(null, null, null);
+
+  private static boolean enable = DEFAULT_THEMIS_REGION_METRICS_ENABLE;
+  static int maxRegions = DEFAULT_THEMIS_REGION_METRICS_MAX_REGIONS;
+  static int maxTables = DEFAULT_THEMIS_REGION_METRICS_MAX_TABLES;
+  private static boolean inited = false;
+  // metrics of registered regions keyed by the encoded region name, and metrics of tables keyed by
+  // the table name. Both are only changed under the class lock
+  private static final ConcurrentHashMap<String, ThemisRegionMetrics> regionMetrics =
+      new ConcurrentHashMap<String, ThemisRegionMetrics>();
+  private static final ConcurrentHashMap<String, ThemisRegionMetrics> tableMetrics =
+      new ConcurrentHashMap<String, ThemisRegionMetrics>();
+  // count of registered regions of each table, including regions beyond the max region count
+  private static final Map<String, Integer> tableRegionCounts = new HashMap<String, Integer>();
+
+  private final String tableName;
+  private final String regionName; // null for metrics of table
+  private final ThemisRegionMetrics tableMetric; // metrics of the table the region belongs to
+  private final MetricsRegistry registry = new MetricsRegistry(REGION_RECORD_NAME);
+  public final LatencyHistogram getLatency = new LatencyHistogram("getLatency",
+      "themisGet and themisBatchGet");
+  public final LatencyHistogram prewriteLatency = new LatencyHistogram("prewriteLatency",
+      "prewriteRow and batchPrewriteSecondaryRows");
+  public final LatencyHistogram commitLatency = new LatencyHistogram("commitLatency",
+      "commitRow and batchCommitSecondaryRows");
+  public final MutableCounterLong prewriteConflictCount = newCounter("prewriteConflictCount",
+    "count of prewrites returning conflict");
+  public final MutableCounterLong cleanLockSuccessCount = newCounter("cleanLockSuccessCount",
+    "count of locks resolved or cleaned by the region");
+  public final MutableCounterLong cleanLockFailCount = newCounter("cleanLockFailCount",
+    "count of locks failed to be resolved or cleaned by the region");
+  // row counts of the batch requests, the batch size is rowCount divided by the request count
+  public final MutableCounterLong batchPrewriteSecondaryCount = newCounter(
+    "batchPrewriteSecondaryCount", "count of batchPrewriteSecondaryRows requests");
+  public final MutableCounterLong batchPrewriteSecondaryRowCount = newCounter(
+    "batchPrewriteSecondaryRowCount", "count of rows prewritten by batchPrewriteSecondaryRows");
+  public final MutableCounterLong batchCommitSecondaryCount = newCounter(
+    "batchCommitSecondaryCount", "count of batchCommitSecondaryRows requests");
+  public final MutableCounterLong batchCommitSecondaryRowCount = newCounter(
+    "batchCommitSecondaryRowCount", "count of rows committed by batchCommitSecondaryRows");
+  public final MutableCounterLong batchGetCount = newCounter("batchGetCount",
+    "count of themisBatchGet requests");
+  public final MutableCounterLong batchGetRowCount = newCounter("batchGetRowCount",
+    "count of gets requested by themisBatchGet");
+
+  public static synchronized void init(Configuration conf) {
+    if (!inited) {
+      enable = conf.getBoolean(THEMIS_REGION_METRICS_ENABLE_KEY,
+        DEFAULT_THEMIS_REGION_METRICS_ENABLE);
+      maxRegions = conf.getInt(THEMIS_REGION_METRICS_MAX_REGIONS_KEY,
+        DEFAULT_THEMIS_REGION_METRICS_MAX_REGIONS);
+      maxTables = conf.getInt(THEMIS_REGION_METRICS_MAX_TABLES_KEY,
+        DEFAULT_THEMIS_REGION_METRICS_MAX_TABLES);
+      inited = true;
+    }
+  }
+
+  // return the metrics to record for the region, which will be the metrics of the table if the
+  // count of registered regions reaches maxRegions
+  public static synchronized ThemisRegionMetrics registerRegion(String tableName,
+      String regionName) {
+    if (!enable) {
+      return DISABLED;
+    }
+    ThemisRegionMetrics regionMetric = regionMetrics.get(regionName);
+    if (regionMetric != null) {
+      return regionMetric;
+    }
+    Integer regionCount = tableRegionCounts.get(tableName);
+    tableRegionCounts.put(tableName, regionCount == null ? 1 : regionCount + 1);
+    ThemisRegionMetrics tableMetric = getOrCreateTableMetrics(tableName);
+    if (regionMetrics.size() >= maxRegions) {
+      LOG.debug("region metrics reach max count, only record metrics of table, table="
+          + tableName + ", region=" + regionName);
+      return tableMetric;
+    }
+    regionMetric = new ThemisRegionMetrics(tableName, regionName, tableMetric);
+    regionMetrics.put(regionName, regionMetric);
+    return regionMetric;
+  }
+
+  public static synchronized void removeRegion(String tableName, String regionName) {
+    if (!enable) {
+      return;
+    }
+    regionMetrics.remove(regionName);
+    Integer regionCount = tableRegionCounts.get(tableName);
+    if (regionCount == null) {
+      return;
+    }
+    if (regionCount > 1) {
+      tableRegionCounts.put(tableName, regionCount - 1);
+      return;
+    }
+    tableRegionCounts.remove(tableName);
+    if (tableMetrics.remove(tableName) == null) {
+      // counted as OTHER_TABLES, which is removed after all such tables removed
+      boolean hasOtherTable = false;
+      for (String table : tableRegionCounts.keySet()) {
+        hasOtherTable |= !tableMetrics.containsKey(table);
+      }
+      if (!hasOtherTable) {
+        tableMetrics.remove(OTHER_TABLES);
+      }
+    }
+  }
+
+  private static ThemisRegionMetrics getOrCreateTableMetrics(String tableName) {
+    ThemisRegionMetrics tableMetric = tableMetrics.get(tableName);
+    if (tableMetric == null) {
+      String name = tableMetrics.size() >= maxTables ? OTHER_TABLES : tableName;
+      tableMetric = tableMetrics.get(name);
+      if (tableMetric == null) {
+        tableMetric = new ThemisRegionMetrics(name, null, null);
+        tableMetrics.put(name, tableMetric);
+      }
+    }
+    return tableMetric;
+  }
+
+  protected static ThemisRegionMetrics getRegionMetrics(String regionName) {
+    return regionMetrics.get(regionName);
+  }
+
+  protected static ThemisRegionMetrics getTableMetrics(String tableName) {
+    return tableMetrics.get(tableName);
+  }
+
+  // add a record for each table and each registered region
+  public static void snapshotAll(MetricsCollector collector, boolean all) {
+    for (ThemisRegionMetrics tableMetric : tableMetrics.values()) {
+      tableMetric.snapshot(collector, all);
+    }
+    for (ThemisRegionMetrics regionMetric : regionMetrics.values()) {
+      regionMetric.snapshot(collector, all);
+    }
+  }
+
+  protected ThemisRegionMetrics(String tableName, String regionName,
+      ThemisRegionMetrics tableMetric) {
+    this.tableName = tableName;
+    this.regionName = regionName;
+    this.tableMetric = tableMetric;
+  }
+
+  private MutableCounterLong newCounter(String name, String description) {
+    return registry.newCounter(name, description, 0L);
+  }
+
+  public boolean isEnabled() {
+    return this != DISABLED;
+  }
+
+  public void updateGet(long beginTs) {
+    if (isEnabled()) {
+      getLatency.add((System.nanoTime() - beginTs) / 1000);
+      if (tableMetric != null) {
+        tableMetric.updateGet(beginTs);
+      }
+    }
+  }
+
+  public void updatePrewrite(long beginTs, boolean conflict) {
+    if (isEnabled()) {
+      prewriteLatency.add((System.nanoTime() - beginTs) / 1000);
+      if (conflict) {
+        prewriteConflictCount.incr();
+      }
+      if (tableMetric != null) {
+        tableMetric.updatePrewrite(beginTs, conflict);
+      }
+    }
+  }
+
+  public void updateCommit(long beginTs) {
+    if (isEnabled()) {
+      commitLatency.add((System.nanoTime() - beginTs) / 1000);
+      if (tableMetric != null) {
+        tableMetric.updateCommit(beginTs);
+      }
+    }
+  }
+
+  public void updateBatchPrewriteSecondary(long beginTs, int rowCount, boolean conflict) {
+    if (isEnabled()) {
+      batchPrewriteSecondaryCount.incr();
+      batchPrewriteSecondaryRowCount.incr(rowCount);
+      prewriteLatency.add((System.nanoTime() - beginTs) / 1000);
+      if (conflict) {
+        prewriteConflictCount.incr();
+      }
+      if (tableMetric != null) {
+        tableMetric.updateBatchPrewriteSecondary(beginTs, rowCount, conflict);
+      }
+    }
+  }
+
+  public void updateBatchCommitSecondary(long beginTs, int rowCount) {
+    if (isEnabled()) {
+      batchCommitSecondaryCount.incr();
+      batchCommitSecondaryRowCount.incr(rowCount);
+      commitLatency.add((System.nanoTime() - beginTs) / 1000);
+      if (tableMetric != null) {
+        tableMetric.updateBatchCommitSecondary(beginTs, rowCount);
+      }
+    }
+  }
+
+  public void updateBatchGet(long beginTs, int getCount) {
+    if (isEnabled()) {
+      batchGetCount.incr();
+      batchGetRowCount.incr(getCount);
+      getLatency.add((System.nanoTime() - beginTs) / 1000);
+      if (tableMetric != null) {
+        tableMetric.updateBatchGet(beginTs, getCount);
+      }
+    }
+  }
+
+  public void updateCleanLock(long successCount, long failCount) {
+    if (isEnabled()) {
+      cleanLockSuccessCount.incr(successCount);
+      cleanLockFailCount.incr(failCount);
+      if (tableMetric != null) {
+        tableMetric.updateCleanLock(successCount, failCount);
+      }
+    }
+  }
+
+  protected void snapshot(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder builder = collector.addRecord(
+      regionName == null ? TABLE_RECORD_NAME : REGION_RECORD_NAME)
+        .setContext(ThemisCpStatistics.METRICS_CONTEXT).tag(TABLE_TAG, tableName);
+    if (regionName != null) {
+      builder.tag(REGION_TAG, regionName);
+    }
+    getLatency.snapshot(builder, all);
+    prewriteLatency.snapshot(builder, all);
+    commitLatency.snapshot(builder, all);
+    registry.snapshot(builder, all);
+  }
+}
@@ -10,12 +10,13 @@ import org.apache.hadoop.hbase.CoprocessorEnvironment;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.KeyValue;
-import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
 import org.apache.hadoop.hbase.coprocessor.ObserverContext;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.InternalScanner;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
@@ -25,13 +26,18 @@ import org.apache.hadoop.hbase.util.Pair;
 
 public class ThemisScanObserver extends BaseRegionObserver {
   public static final String TRANSACTION_START_TS = "_themisTransationStartTs_";
+  public static final String THEMIS_SCAN_READ_DATA_BY_SCANNER_KEY =
+      "themis.scan.read.data.by.scanner";
   private static final byte[] PRE_SCANNER_OPEN_FEEK_ROW = Bytes.toBytes("preScannerOpen");
   private static final byte[] PRE_SCANNER_NEXT_FEEK_ROW = Bytes.toBytes("preScannerNext");
  private static final Log LOG = LogFactory.getLog(ThemisScanObserver.class);
+  boolean readDataByScanner = true;
   
   @Override
   public void start(CoprocessorEnvironment e) throws IOException {
     TransactionTTL.init(e.getConfiguration());
+    CommittedPrimaryCache.init(e.getConfiguration());
+    readDataByScanner = e.getConfiguration().getBoolean(THEMIS_SCAN_READ_DATA_BY_SCANNER_KEY, true);
   }
 
   protected static byte[] currentRow(List<Cell> values) {
@@ -52,12 +58,16 @@ public class ThemisScanObserver extends BaseRegionObserver {
           Pair<List<KeyValue>, List<KeyValue>> pResult = ThemisCpUtil
               .seperateLockAndWriteKvs(result.list());
           List<KeyValue> lockKvs = pResult.getFirst();
+          if (lockKvs.size() != 0) {
+            // locks of transactions whose primary has been committed could be resolved
+            lockKvs = ThemisCpUtil.resolveLockKvsByCommittedPrimary(region.getTableDesc()
+                .getName(), lockKvs, pResult.getSecond(), s.getStartTs());
+          }
           if (lockKvs.size() == 0) {
             List<KeyValue> putKvs = ThemisCpUtil.getPutKvs(pResult.getSecond());
             // should ignore rows which only contain delete columns
             if (putKvs.size() > 0) {
-              Get dataGet = ThemisCpUtil.constructDataGetByPutKvs(putKvs, s.getDataColumnFilter());
-              Result dataResult = region.get(dataGet);
+              Result dataResult = s.readData(region, putKvs);
               if (!dataResult.isEmpty()) {
                 results.add(dataResult);
                 ++i;
@@ -112,9 +122,15 @@ public class ThemisScanObserver extends BaseRegionObserver {
         checkFamily(e.getEnvironment().getRegion(), scan);
         ThemisEndpoint.checkReadTTL(System.currentTimeMillis(), themisStartTs,
           PRE_SCANNER_OPEN_FEEK_ROW);
+        RegionReadTsTracker readTsTracker = RegionReadTsTracker.getTracker(e.getEnvironment()
+            .getRegion());
+        if (readTsTracker != null) {
+          readTsTracker.beforeRead(themisStartTs);
+        }
         Scan internalScan = ThemisCpUtil.constructLockAndWriteScan(scan, themisStartTs);
         ThemisServerScanner pScanner = new ThemisServerScanner(e.getEnvironment().getRegion()
-            .getScanner(internalScan), internalScan, themisStartTs, scan);
+            .getScanner(internalScan), internalScan, themisStartTs, scan,
+            canReadDataByScanner(scan));
         e.bypass();
         return pScanner;
       }
@@ -124,6 +140,17 @@ public class ThemisScanObserver extends BaseRegionObserver {
     }
   }
   
+  // the data scanner only moves forward and filters data columns by the timestamps of each row,
+  // so that reversed scan or scan with filters on data columns reads data columns by get
+  protected boolean canReadDataByScanner(Scan scan) {
+    if (!readDataByScanner || scan.isReversed()) {
+      return false;
+    }
+    Filter filter = scan.getFilter();
+    return filter == null
+        || (filter instanceof FilterList && ((FilterList) filter).getFilters().size() == 0);
+  }
+  
   protected void checkFamily(final HRegion region, final Scan scan) throws IOException {
     ThemisEndpoint.checkFamily(region, scan.getFamilies());
   }
@@ -1,13 +1,19 @@
 package org.apache.hadoop.hbase.themis.cp;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
 
 // themis scanner wrapper for RegionScanner which will be created by ThemisScanObserver
 public class ThemisServerScanner implements RegionScanner {
@@ -15,20 +21,34 @@ public class ThemisServerScanner implements RegionScanner {
   private final Scan dataScan;
   private final RegionScanner scanner;
   private final long startTs;
+  // read data columns by a forward-only scanner merged with the lock and write scanner, otherwise,
+  // read data columns of each row by a get
+  private final boolean readDataByScanner;
+  private RegionScanner dataScanner;
+  private CurrentRowColumnTimestampFilter dataScannerFilter;
+  // the data scanner is positioned after this row, there is no data after the row if done
+  private byte[] dataScannerRow;
+  private boolean dataScannerDone = false;
   
   public Filter getDataColumnFilter() {
     return dataScan.getFilter();
   }
 
   public ThemisServerScanner(RegionScanner scanner, long startTs) {
-    this(scanner, null, startTs, null);
+    this(scanner, null, startTs, null, false);
   }
   
   public ThemisServerScanner(RegionScanner scanner, Scan scan, long startTs, Scan dataScan) {
+    this(scanner, scan, startTs, dataScan, false);
+  }
+
+  public ThemisServerScanner(RegionScanner scanner, Scan scan, long startTs, Scan dataScan,
+      boolean readDataByScanner) {
     this.scan = scan;
     this.scanner = scanner;
     this.startTs = startTs;
     this.dataScan = dataScan;
+    this.readDataByScanner = readDataByScanner;
   }
 
   public Scan getScan() {
@@ -39,6 +59,54 @@ public class ThemisServerScanner implements RegionScanner {
     return this.dataScan;
   }
   
+  public boolean isReadDataByScanner() {
+    return readDataByScanner;
+  }
+
+  // read the data columns of the row which the put kvs belong to. The data scanner is opened at the
+  // first row read and reseeks forward to each following row, so that data columns are read by a
+  // sequential merge instead of a random get for each row
+  public Result readData(HRegion region, List<KeyValue> putKvs) throws IOException {
+    byte[] row = putKvs.get(0).getRow();
+    int cmp = dataScannerRow == null ? 1 : Bytes.compareTo(row, dataScannerRow);
+    if (readDataByScanner && (cmp < 0 || (cmp > 0 && dataScannerDone))) {
+      // the data scanner has passed the row, so that the row has no data
+      return Result.create(new ArrayList<Cell>());
+    }
+    if (!readDataByScanner || cmp == 0) {
+      // the data scanner could stop at the row only when the data columns of previous row are
+      // missing, the row must be read again because only the first cell of it is read
+      ThemisCpStatistics.getThemisCpStatistics().scanReadDataByGetCount.incr();
+      return region.get(ThemisCpUtil.constructDataGetByPutKvs(putKvs, getDataColumnFilter()));
+    }
+    ColumnTimestampFilter timestampFilter = ThemisCpUtil
+        .constructColumnTimestampFilterByPutKvs(putKvs);
+    if (dataScanner == null) {
+      dataScannerFilter = new CurrentRowColumnTimestampFilter();
+      dataScannerFilter.setRow(row, timestampFilter);
+      dataScanner = region.getScanner(ThemisCpUtil.constructDataScan(dataScan, row, startTs,
+        dataScannerFilter));
+    } else {
+      dataScannerFilter.setRow(row, timestampFilter);
+      dataScanner.reseek(row);
+    }
+    List<Cell> values = new ArrayList<Cell>();
+    dataScannerDone = !dataScanner.next(values);
+    if (values.isEmpty()) {
+      dataScannerRow = row;
+      return Result.create(values);
+    }
+    Cell cell = values.get(0);
+    if (Bytes.equals(row, 0, row.length, cell.getRowArray(), cell.getRowOffset(),
+      cell.getRowLength())) {
+      dataScannerRow = row;
+      return Result.create(values);
+    }
+    // the row has no required data columns, the scanner stops at the next row which has data
+    dataScannerRow = CellUtil.cloneRow(cell);
+    return Result.create(new ArrayList<Cell>());
+  }
+
   public boolean next(List<Cell> results) throws IOException {
     return scanner.next(results);
   }
@@ -52,7 +120,13 @@ public class ThemisServerScanner implements RegionScanner {
   }
   
   public void close() throws IOException {
-    scanner.close();
+    try {
+      scanner.close();
+    } finally {
+      if (dataScanner != null) {
+        dataScanner.close();
+      }
+    }
   }
 
   public HRegionInfo getRegionInfo() {
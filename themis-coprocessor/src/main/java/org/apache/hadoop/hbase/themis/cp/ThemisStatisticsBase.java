@@ -3,46 +3,50 @@ package org.apache.hadoop.hbase.themis.cp;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.metrics.Updater;
-import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.metrics2.MetricsSource;
 
-public abstract class ThemisStatisticsBase implements Updater {
+public abstract class ThemisStatisticsBase implements MetricsSource {
   private static final Log LOG = LogFactory.getLog(ThemisStatisticsBase.class);
   public static final String THEMIS_SLOW_OPERATION_CUTOFF_KEY = "themis.slow.operation.cutoff";
   public static final long DEFAULT_THEMIS_SLOW_OPERATION_CUTOFF = 100;
   protected static long slowCutoff = DEFAULT_THEMIS_SLOW_OPERATION_CUTOFF * 1000; // in us
-  private static final String EmptySlowOperationMsg = "";
   
   public static void init(Configuration conf) {
     slowCutoff = conf.getLong(ThemisCpStatistics.THEMIS_SLOW_OPERATION_CUTOFF_KEY,
       ThemisCpStatistics.DEFAULT_THEMIS_SLOW_OPERATION_CUTOFF) * 1000;
   }
   
-  public static void updateLatency(MetricsTimeVaryingRate metric, long beginTs, String message) {
-    updateLatency(metric, beginTs, true, message);
-  }
-  
-  public static void updateLatency(MetricsTimeVaryingRate metric, long beginTs, boolean logSlowOp) {
-    updateLatency(metric, beginTs, logSlowOp, EmptySlowOperationMsg);
+  // record the latency without logging slow operation
+  public static long updateLatency(LatencyHistogram metric, long beginTs) {
+    long consumeInUs = (System.nanoTime() - beginTs) / 1000;
+    metric.add(consumeInUs);
+    return consumeInUs;
   }
   
-  public static void updateLatency(MetricsTimeVaryingRate metric, long beginTs, boolean logSlowOp,
-      String message) {
-    long consumeInUs = (System.nanoTime() - beginTs) / 1000;
-    metric.inc(consumeInUs);
-    if (logSlowOp) {
-      logSlowOperationInternal(metric.getName(), consumeInUs, message);
-    }
+  // the slow operation message is concatenated from messageParts only when the operation is slow,
+  // byte[] parts are converted by Bytes.toStringBinary
+  public static void updateLatency(LatencyHistogram metric, long beginTs, Object... messageParts) {
+    logSlowOperationInternal(metric.getName(), updateLatency(metric, beginTs), messageParts);
   }
   
-  public static void logSlowOperation(String operation, long beginTs, String message) {
-    logSlowOperationInternal(operation, (System.nanoTime() - beginTs) / 1000, message);
+  public static void logSlowOperation(String operation, long beginTs, Object... messageParts) {
+    logSlowOperationInternal(operation, (System.nanoTime() - beginTs) / 1000, messageParts);
   }
   
-  public static void logSlowOperationInternal(String operation, long consumeInUs, String message) {
+  public static void logSlowOperationInternal(String operation, long consumeInUs,
+      Object... messageParts) {
     if (consumeInUs > slowCutoff) {
       LOG.warn("themis slow operation " + operation + ", latency(ms)="
-          + (consumeInUs / 1000) + ", " + message);
+          + (consumeInUs / 1000) + ", " + toMessage(messageParts));
+    }
+  }
+  
+  protected static String toMessage(Object... messageParts) {
+    StringBuilder message = new StringBuilder();
+    for (Object part : messageParts) {
+      message.append(part instanceof byte[] ? Bytes.toStringBinary((byte[]) part) : part);
     }
+    return message.toString();
   }
 }
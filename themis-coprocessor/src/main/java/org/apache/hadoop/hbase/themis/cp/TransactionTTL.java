@@ -51,6 +51,10 @@ public class TransactionTTL {
     return ms << 18;
   }
   
+  public static long toTimestamp(long ms) {
+    return timestampType == TimestampType.CHRONOS ? toChronsTs(ms) : ms;
+  }
+
   public static long getExpiredTimestampForReadByCommitColumn(long currentMs) {
     if (timestampType == TimestampType.CHRONOS) {
       return getExpiredChronosForReadByCommitColumn(currentMs);
@@ -27,8 +27,17 @@ public class PrimaryLock extends ThemisLock {
     }
   }
   private static final ColumnCoordinateComparator COLUMN_COORDINATE_COMPARATOR = new ColumnCoordinateComparator();
+  // flags of each encoded secondary, tell which parts differ from the previous secondary
+  private static final byte NEW_TABLE_FLAG = 0x01;
+  private static final byte NEW_ROW_FLAG = 0x02;
+  private static final byte NEW_FAMILY_FLAG = 0x04;
+  // parsed lazily from the encoded secondaries when first accessed
   protected Map<ColumnCoordinate, Type> secondaryColumns = new TreeMap<ColumnCoordinate, Type>(
       COLUMN_COORDINATE_COMPARATOR);
+  // the encoded secondaries read from serialized lock, valid until secondaryColumns is modified
+  private byte[] encodedSecondaries;
+  private int encodedOffset;
+  private int encodedLength;
 
   public PrimaryLock() {}
   
@@ -37,22 +46,37 @@ public class PrimaryLock extends ThemisLock {
   }
   
   public Type getSecondaryColumn(ColumnCoordinate columnCoordinate) {
-    return secondaryColumns.get(columnCoordinate);
+    return getParsedSecondaryColumns().get(columnCoordinate);
   }
   
   public Map<ColumnCoordinate, Type> getSecondaryColumns() {
-    return secondaryColumns;
+    // the returned map might be modified by the caller
+    Map<ColumnCoordinate, Type> columns = getParsedSecondaryColumns();
+    encodedSecondaries = null;
+    return columns;
   }
   
   public void addSecondaryColumn(ColumnCoordinate columnCoordinate, Type put) {
-    this.secondaryColumns.put(columnCoordinate, put);
+    getSecondaryColumns().put(columnCoordinate, put);
+  }
+  
+  boolean isSecondaryColumnsParsed() {
+    return secondaryColumns != null;
+  }
+  
+  private Map<ColumnCoordinate, Type> getParsedSecondaryColumns() {
+    if (secondaryColumns == null) {
+      secondaryColumns = decodeSecondaries(encodedSecondaries, encodedOffset, encodedLength);
+    }
+    return secondaryColumns;
   }
   
   @Override
   public void write(DataOutput out) throws IOException {
     super.write(out);
-    out.writeInt(secondaryColumns.size());
-    for (Entry<ColumnCoordinate, Type> columnAndType : secondaryColumns.entrySet()) {
+    Map<ColumnCoordinate, Type> columns = getParsedSecondaryColumns();
+    out.writeInt(columns.size());
+    for (Entry<ColumnCoordinate, Type> columnAndType : columns.entrySet()) {
       columnAndType.getKey().write(out);
       out.writeByte(columnAndType.getValue().getCode());
     }
@@ -63,6 +87,7 @@ public class PrimaryLock extends ThemisLock {
     super.readFields(in);
     int secondarySize = in.readInt();
     secondaryColumns = new TreeMap<ColumnCoordinate, Type>(COLUMN_COORDINATE_COMPARATOR);
+    encodedSecondaries = null;
     for (int i = 0; i < secondarySize; ++i) {
       ColumnCoordinate columnCoordinate = new ColumnCoordinate();
       columnCoordinate.readFields(in);
@@ -71,6 +96,123 @@ public class PrimaryLock extends ThemisLock {
     }
   }
   
+  @Override
+  protected int getFieldsSize() {
+    int length = encodedSecondaries != null ? encodedLength : encodeSecondaries(null, 0);
+    return getVIntSize(length) + length;
+  }
+
+  @Override
+  protected int writeFields(byte[] buffer, int offset) {
+    if (encodedSecondaries != null) {
+      offset = putVInt(buffer, offset, encodedLength);
+      System.arraycopy(encodedSecondaries, encodedOffset, buffer, offset, encodedLength);
+      return offset + encodedLength;
+    }
+    offset = putVInt(buffer, offset, encodeSecondaries(null, 0));
+    return encodeSecondaries(buffer, offset);
+  }
+
+  // keep the reference of encoded secondaries, which will be parsed when accessed. The buffer must
+  // not be modified while the lock is in use
+  @Override
+  protected int readFields(byte[] buffer, int offset) {
+    encodedLength = readVInt(buffer, offset);
+    encodedOffset = offset + getVIntSize(encodedLength);
+    encodedSecondaries = buffer;
+    secondaryColumns = null;
+    return encodedOffset + encodedLength;
+  }
+  
+  // Encode the secondaries sorted by table, row and column, begins with the count of secondaries.
+  // Each secondary is encoded as a flag byte, the table name if differs from the previous one, the
+  // row as the length of common prefix with the previous row and the remaining suffix if differs,
+  // the family if differs, the qualifier and the type. Return the offset after encoded; only the
+  // size will be computed if buffer is null
+  private int encodeSecondaries(byte[] buffer, int offset) {
+    offset = putVInt(buffer, offset, secondaryColumns.size());
+    ColumnCoordinate prev = null;
+    for (Entry<ColumnCoordinate, Type> columnAndType : secondaryColumns.entrySet()) {
+      ColumnCoordinate column = columnAndType.getKey();
+      boolean newTable = prev == null || !Bytes.equals(prev.getTableName(), column.getTableName());
+      boolean newRow = newTable || !Bytes.equals(prev.getRow(), column.getRow());
+      boolean newFamily = newRow || !Bytes.equals(prev.getFamily(), column.getFamily());
+      byte flag = (byte) ((newTable ? NEW_TABLE_FLAG : 0) | (newRow ? NEW_ROW_FLAG : 0)
+          | (newFamily ? NEW_FAMILY_FLAG : 0));
+      offset = putByte(buffer, offset, flag);
+      if (newTable) {
+        offset = putBytes(buffer, offset, column.getTableName());
+      }
+      if (newRow) {
+        byte[] row = column.getRow();
+        int prefixLength = newTable ? 0 : getCommonPrefixLength(prev.getRow(), row);
+        offset = putVInt(buffer, offset, prefixLength);
+        offset = putBytes(buffer, offset, row, prefixLength, row.length - prefixLength);
+      }
+      if (newFamily) {
+        offset = putBytes(buffer, offset, column.getFamily());
+      }
+      offset = putBytes(buffer, offset, column.getQualifier());
+      offset = putByte(buffer, offset, columnAndType.getValue().getCode());
+      prev = column;
+    }
+    return offset;
+  }
+  
+  private static Map<ColumnCoordinate, Type> decodeSecondaries(byte[] buffer, int offset,
+      int length) {
+    Map<ColumnCoordinate, Type> columns = new TreeMap<ColumnCoordinate, Type>(
+        COLUMN_COORDINATE_COMPARATOR);
+    int end = offset + length;
+    int count = readVInt(buffer, offset);
+    offset += getVIntSize(count);
+    byte[] tableName = null;
+    byte[] row = null;
+    byte[] family = null;
+    for (int i = 0; i < count; ++i) {
+      byte flag = buffer[offset++];
+      if ((flag & NEW_TABLE_FLAG) != 0) {
+        tableName = readBytes(buffer, offset);
+        offset += getBytesSize(tableName);
+      }
+      if ((flag & NEW_ROW_FLAG) != 0) {
+        int prefixLength = readVInt(buffer, offset);
+        offset += getVIntSize(prefixLength);
+        int suffixLength = readVInt(buffer, offset);
+        offset += getVIntSize(suffixLength);
+        byte[] newRow = new byte[prefixLength + suffixLength];
+        if (prefixLength > 0) {
+          System.arraycopy(row, 0, newRow, 0, prefixLength);
+        }
+        System.arraycopy(buffer, offset, newRow, prefixLength, suffixLength);
+        offset += suffixLength;
+        row = newRow;
+      }
+      if ((flag & NEW_FAMILY_FLAG) != 0) {
+        family = readBytes(buffer, offset);
+        offset += getBytesSize(family);
+      }
+      byte[] qualifier = readBytes(buffer, offset);
+      offset += getBytesSize(qualifier);
+      columns.put(new ColumnCoordinate(tableName, row, family, qualifier),
+        Type.codeToType(buffer[offset++]));
+    }
+    if (offset != end) {
+      throw new IllegalStateException("encoded secondaries size mismatch, expect=" + length
+          + ", actual=" + (offset - end + length));
+    }
+    return columns;
+  }
+  
+  private static int getCommonPrefixLength(byte[] left, byte[] right) {
+    int length = Math.min(left.length, right.length);
+    int i = 0;
+    while (i < length && left[i] == right[i]) {
+      ++i;
+    }
+    return i;
+  }
+  
   @Override
   public boolean equals(Object object) {
     if (!(object instanceof PrimaryLock)) {
@@ -83,11 +225,13 @@ public class PrimaryLock extends ThemisLock {
     if (!lock.isPrimary()) {
       return false;
     }
-    if (this.secondaryColumns.size() != lock.secondaryColumns.size()) {
+    Map<ColumnCoordinate, Type> columns = getParsedSecondaryColumns();
+    Map<ColumnCoordinate, Type> otherColumns = lock.getParsedSecondaryColumns();
+    if (columns.size() != otherColumns.size()) {
       return false;
     }
-    for (Entry<ColumnCoordinate, Type> columnAndType : secondaryColumns.entrySet()) {
-      Type type = lock.secondaryColumns.get(columnAndType.getKey());
+    for (Entry<ColumnCoordinate, Type> columnAndType : columns.entrySet()) {
+      Type type = otherColumns.get(columnAndType.getKey());
       if (type == null || !columnAndType.getValue().equals(type)) {
         return false;
       }
@@ -97,8 +241,9 @@ public class PrimaryLock extends ThemisLock {
   
   @Override
   public String toString() {
-    String result = super.toString() + "/secondariesSize=" + secondaryColumns.size() + "\n";
-    for (Entry<ColumnCoordinate, Type> columnAndType : secondaryColumns.entrySet()) {
+    Map<ColumnCoordinate, Type> columns = getParsedSecondaryColumns();
+    String result = super.toString() + "/secondariesSize=" + columns.size() + "\n";
+    for (Entry<ColumnCoordinate, Type> columnAndType : columns.entrySet()) {
       result += columnAndType.getKey() + " : " + columnAndType.getValue() + "\n";
     }
     return result;
@@ -37,6 +37,45 @@ public class SecondaryLock extends ThemisLock {
     primaryColumn.readFields(in);
   }
   
+  @Override
+  protected int getFieldsSize() {
+    return getColumnCoordinateSize(primaryColumn);
+  }
+
+  @Override
+  protected int writeFields(byte[] buffer, int offset) {
+    return putColumnCoordinate(buffer, offset, primaryColumn);
+  }
+
+  @Override
+  protected int readFields(byte[] buffer, int offset) {
+    primaryColumn = readColumnCoordinate(buffer, offset);
+    return offset + getColumnCoordinateSize(primaryColumn);
+  }
+
+  // help methods to write and read column coordinate in the current format
+  protected static int getColumnCoordinateSize(ColumnCoordinate column) {
+    return getBytesSize(column.getTableName()) + getBytesSize(column.getRow())
+        + getBytesSize(column.getFamily()) + getBytesSize(column.getQualifier());
+  }
+
+  protected static int putColumnCoordinate(byte[] buffer, int offset, ColumnCoordinate column) {
+    offset = putBytes(buffer, offset, column.getTableName());
+    offset = putBytes(buffer, offset, column.getRow());
+    offset = putBytes(buffer, offset, column.getFamily());
+    return putBytes(buffer, offset, column.getQualifier());
+  }
+
+  protected static ColumnCoordinate readColumnCoordinate(byte[] buffer, int offset) {
+    byte[] tableName = readBytes(buffer, offset);
+    offset += getBytesSize(tableName);
+    byte[] row = readBytes(buffer, offset);
+    offset += getBytesSize(row);
+    byte[] family = readBytes(buffer, offset);
+    offset += getBytesSize(family);
+    return new ColumnCoordinate(tableName, row, family, readBytes(buffer, offset));
+  }
+  
   @Override
   public boolean equals(Object other) {
     if (!(other instanceof SecondaryLock)) {
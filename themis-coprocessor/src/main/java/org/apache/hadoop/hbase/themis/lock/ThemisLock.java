@@ -1,26 +1,44 @@
 package org.apache.hadoop.hbase.themis.lock;
 
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValue.Type;
 import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.Writable;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
+// The serialized lock begins with a header byte, followed by the type byte and the timestamp. The
+// legacy format(version 0) writes isPrimary as the header, and then the Writable fields of the
+// lock. The current format(version 1) sets the version in the high bits of the header and encodes
+// the variable-length fields with vint length prefix. The type and timestamp are at the same
+// offsets in both formats, so that they could be read or rewritten without parsing the lock.
+// Locks of async-commit transactions set the async-commit flag in the header and write minCommitTs
+// after the fixed fields, they could only be serialized in the current format.
 public abstract class ThemisLock implements Writable {
+  public static final int TYPE_OFFSET = 1;
+  public static final int TIMESTAMP_OFFSET = 2;
+  public static final int FIXED_LENGTH = TIMESTAMP_OFFSET + Bytes.SIZEOF_LONG;
+  public static final int CURRENT_VERSION = 1;
+  private static final int VERSION_SHIFT = 4;
+  private static final byte PRIMARY_FLAG = 0x01;
+  private static final byte ASYNC_COMMIT_FLAG = 0x02;
+  public static final int MIN_COMMIT_TS_OFFSET = FIXED_LENGTH;
+
   protected Type type = Type.Minimum; // illegal type should be Type.Put or Type.DeleteColumn
   protected long timestamp;
   protected String clientAddress;
-  protected long wallTime; // TODO : remove this field
+  // the commitTs of async-commit transaction must not be less than minCommitTs of any of its locks,
+  // 0 if the lock is not written by an async-commit transaction
+  protected long minCommitTs = 0;
   protected ColumnCoordinate columnCoordinate; // need not to be serialized
   protected boolean lockExpired = false;
-  
+
   public boolean isLockExpired() {
     return lockExpired;
   }
@@ -38,58 +56,81 @@ public abstract class ThemisLock implements Writable {
   }
 
   protected ThemisLock() {}
-  
+
   public ThemisLock(Type type) {
     this.type = type;
   }
-  
+
   public long getTimestamp() {
     return timestamp;
   }
   public void setTimestamp(long timestamp) {
     this.timestamp = timestamp;
   }
-  
+
   public abstract boolean isPrimary();
-  
+
+  // an async-commit transaction is committed once all its columns are prewritten, the commitTs is
+  // decided as the max minCommitTs of its locks
+  public boolean isAsyncCommit() {
+    return minCommitTs > 0;
+  }
+
+  public long getMinCommitTs() {
+    return minCommitTs;
+  }
+
+  public void setMinCommitTs(long minCommitTs) {
+    this.minCommitTs = minCommitTs;
+  }
+
   public String getClientAddress() {
     return clientAddress;
   }
-  
+
   public void setClientAddress(String clientAddress) {
     this.clientAddress = clientAddress;
   }
 
-  public long getWallTime() throws IOException {
-    throw new IOException("not supportted");
-  }
-  
-  public void setWallTime(long wallTime) throws IOException {
-    throw new IOException("not supportted");
-  }
-  
   public Type getType() {
     return this.type;
   }
-  
+
   public void setType(Type type) {
     this.type = type;
   }
-  
+
+  // write in the legacy format
   public void write(DataOutput out) throws IOException {
     out.writeByte(type.getCode());
     out.writeLong(timestamp);
     Bytes.writeByteArray(out, Bytes.toBytes(clientAddress));
-    out.writeLong(wallTime);
+    out.writeLong(0); // wallTime, not used
   }
 
+  // read in the legacy format
   public void readFields(DataInput in) throws IOException {
     this.type = Type.codeToType(in.readByte());
     this.timestamp = in.readLong();
     this.clientAddress = Bytes.toString(Bytes.readByteArray(in));
-    this.wallTime = in.readLong();
+    in.readLong(); // wallTime, not used
   }
-  
+
+  // size of the fields of subclass in the current format
+  protected int getFieldsSize() {
+    return 0;
+  }
+
+  // write the fields of subclass in the current format, return the offset after written
+  protected int writeFields(byte[] buffer, int offset) {
+    return offset;
+  }
+
+  // read the fields of subclass in the current format, return the offset after read
+  protected int readFields(byte[] buffer, int offset) {
+    return offset;
+  }
+
   @Override
   public boolean equals(Object object) {
     if (!(object instanceof ThemisLock)) {
@@ -97,39 +138,210 @@ public abstract class ThemisLock implements Writable {
     }
     ThemisLock lock = (ThemisLock)object;
     return this.type == lock.type && this.timestamp == lock.timestamp
-        && this.wallTime == lock.wallTime && this.clientAddress.equals(lock.clientAddress);
+        && this.minCommitTs == lock.minCommitTs && this.clientAddress.equals(lock.clientAddress);
   }
-  
+
   @Override
   public String toString() {
-    return "type=" + this.type + "/timestamp=" + this.timestamp + "/wallTime=" + this.wallTime
-        + "/clientAddress=" + this.clientAddress + "/column=" + this.columnCoordinate;
+    return "type=" + this.type + "/timestamp=" + this.timestamp + "/clientAddress="
+        + this.clientAddress + "/column=" + this.columnCoordinate
+        + (isAsyncCommit() ? "/minCommitTs=" + this.minCommitTs : "");
   }
-  
+
   public static byte[] toByte(ThemisLock lock) throws IOException {
-    ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-    DataOutputStream os = new DataOutputStream(byteOut);
-    os.writeBoolean(lock.isPrimary());
-    lock.write(os);
-    return byteOut.toByteArray();
+    byte[] clientAddress = Bytes.toBytes(lock.getClientAddress());
+    int fixedLength = getFixedLength(lock.isAsyncCommit());
+    byte[] buffer = new byte[fixedLength + getBytesSize(clientAddress) + lock.getFieldsSize()];
+    buffer[0] = (byte) (CURRENT_VERSION << VERSION_SHIFT | (lock.isPrimary() ? PRIMARY_FLAG : 0)
+        | (lock.isAsyncCommit() ? ASYNC_COMMIT_FLAG : 0));
+    buffer[TYPE_OFFSET] = lock.getType().getCode();
+    Bytes.putLong(buffer, TIMESTAMP_OFFSET, lock.getTimestamp());
+    if (lock.isAsyncCommit()) {
+      Bytes.putLong(buffer, MIN_COMMIT_TS_OFFSET, lock.getMinCommitTs());
+    }
+    int offset = putBytes(buffer, fixedLength, clientAddress);
+    offset = lock.writeFields(buffer, offset);
+    if (offset != buffer.length) {
+      throw new IOException("serialized lock size mismatch, expect=" + buffer.length + ", actual="
+          + offset + ", lock=" + lock);
+    }
+    return buffer;
   }
-  
+
   public static ThemisLock parseFromByte(byte[] data) throws IOException {
-    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
-    boolean isPrimary = in.readBoolean();
-    ThemisLock lock = null;
-    if (isPrimary) {
-      lock = new PrimaryLock();
-      lock.readFields(in);
-    } else {
-      lock = new SecondaryLock();
-      lock.readFields(in);
+    return parseFromByte(data, 0, data.length);
+  }
+
+  public static ThemisLock parseFromByte(ByteBuffer buffer) throws IOException {
+    if (buffer.hasArray()) {
+      return parseFromByte(buffer.array(), buffer.arrayOffset() + buffer.position(),
+        buffer.remaining());
+    }
+    byte[] data = new byte[buffer.remaining()];
+    buffer.duplicate().get(data);
+    return parseFromByte(data);
+  }
+
+  // parse the lock from the value of lock kv without copying the value
+  public static ThemisLock parseFromKeyValue(KeyValue lockKv) throws IOException {
+    return parseFromByte(lockKv.getValueArray(), lockKv.getValueOffset(),
+      lockKv.getValueLength());
+  }
+
+  public static ThemisLock parseFromByte(byte[] data, int offset, int length) throws IOException {
+    if (length < FIXED_LENGTH) {
+      throw new IOException("lock bytes too short, length=" + length);
+    }
+    int version = getVersion(data, offset);
+    ThemisLock lock = isPrimary(data, offset) ? new PrimaryLock() : new SecondaryLock();
+    if (version == 0) {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+      in.readBoolean();
+      lock.readFields((DataInput) in);
+      return lock;
+    } else if (version != CURRENT_VERSION) {
+      throw new IOException("unsupported lock format version=" + version);
+    }
+    lock.type = getType(data, offset);
+    lock.timestamp = getTimestamp(data, offset);
+    lock.minCommitTs = getMinCommitTs(data, offset);
+    int fixedLength = getFixedLength(isAsyncCommit(data, offset));
+    byte[] clientAddress = readBytes(data, offset + fixedLength);
+    lock.clientAddress = Bytes.toString(clientAddress);
+    int end = lock.readFields(data, offset + fixedLength + getBytesSize(clientAddress));
+    if (end != offset + length) {
+      throw new IOException("serialized lock size mismatch, expect=" + length + ", actual="
+          + (end - offset));
     }
     return lock;
   }
-  
+
+  // help methods to read the fixed fields of serialized lock without parsing
+  public static int getVersion(byte[] data, int offset) {
+    return (data[offset] & 0xff) >>> VERSION_SHIFT;
+  }
+
+  public static boolean isPrimary(byte[] data, int offset) {
+    return (data[offset] & PRIMARY_FLAG) != 0;
+  }
+
+  public static Type getType(byte[] data, int offset) {
+    return Type.codeToType(data[offset + TYPE_OFFSET]);
+  }
+
+  public static long getTimestamp(byte[] data, int offset) {
+    return Bytes.toLong(data, offset + TIMESTAMP_OFFSET);
+  }
+
+  public static boolean isAsyncCommit(byte[] data, int offset) {
+    return (data[offset] & ASYNC_COMMIT_FLAG) != 0;
+  }
+
+  // return 0 if the lock is not written by an async-commit transaction
+  public static long getMinCommitTs(byte[] data, int offset) {
+    return isAsyncCommit(data, offset) ? Bytes.toLong(data, offset + MIN_COMMIT_TS_OFFSET) : 0;
+  }
+
+  private static int getFixedLength(boolean asyncCommit) {
+    return asyncCommit ? MIN_COMMIT_TS_OFFSET + Bytes.SIZEOF_LONG : FIXED_LENGTH;
+  }
+
+  public static boolean isPrimary(ByteBuffer buffer) {
+    return (buffer.get(buffer.position()) & PRIMARY_FLAG) != 0;
+  }
+
+  public static Type getType(ByteBuffer buffer) {
+    return Type.codeToType(buffer.get(buffer.position() + TYPE_OFFSET));
+  }
+
+  public static long getTimestamp(ByteBuffer buffer) {
+    return buffer.getLong(buffer.position() + TIMESTAMP_OFFSET);
+  }
+
+  // rewrite the type of serialized lock in place. Locks of the columns in a row only differ in
+  // type, so that the lock bytes could be stamped for each column without parsing
+  public static void setType(byte[] data, Type type) {
+    data[TYPE_OFFSET] = type.getCode();
+  }
+
+  // rewrite the minCommitTs of serialized async-commit lock in place, which is raised by the region
+  // server when the lock is prewritten
+  public static void setMinCommitTs(byte[] data, long minCommitTs) {
+    if (!isAsyncCommit(data, 0)) {
+      throw new IllegalArgumentException("can not set minCommitTs of lock not in async-commit");
+    }
+    Bytes.putLong(data, MIN_COMMIT_TS_OFFSET, minCommitTs);
+  }
+
+  // help methods to write and read bytes with vint length prefix. The put methods only compute the
+  // offset after written if buffer is null, so that the same code could compute the size
+  protected static int getBytesSize(byte[] bytes) {
+    return getVIntSize(bytes.length) + bytes.length;
+  }
+
+  protected static int putBytes(byte[] buffer, int offset, byte[] bytes) {
+    return putBytes(buffer, offset, bytes, 0, bytes.length);
+  }
+
+  protected static int putBytes(byte[] buffer, int offset, byte[] bytes, int bytesOffset,
+      int length) {
+    offset = putVInt(buffer, offset, length);
+    if (buffer != null) {
+      System.arraycopy(bytes, bytesOffset, buffer, offset, length);
+    }
+    return offset + length;
+  }
+
+  protected static int putByte(byte[] buffer, int offset, byte value) {
+    if (buffer != null) {
+      buffer[offset] = value;
+    }
+    return offset + 1;
+  }
+
+  protected static byte[] readBytes(byte[] buffer, int offset) {
+    int length = readVInt(buffer, offset);
+    offset += getVIntSize(length);
+    byte[] bytes = new byte[length];
+    System.arraycopy(buffer, offset, bytes, 0, length);
+    return bytes;
+  }
+
+  // vint encodes 7 bits in each byte with the high bit set if more bytes follow
+  protected static int getVIntSize(int value) {
+    int size = 1;
+    while ((value >>>= 7) != 0) {
+      ++size;
+    }
+    return size;
+  }
+
+  protected static int putVInt(byte[] buffer, int offset, int value) {
+    if (buffer == null) {
+      return offset + getVIntSize(value);
+    }
+    while ((value & ~0x7f) != 0) {
+      buffer[offset++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    buffer[offset++] = (byte) value;
+    return offset;
+  }
+
+  protected static int readVInt(byte[] buffer, int offset) {
+    int value = 0;
+    for (int shift = 0;; shift += 7) {
+      byte b = buffer[offset++];
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+
   public static void copyThemisLock(ThemisLock source, ThemisLock dest) {
     dest.setTimestamp(source.getTimestamp());
     dest.setClientAddress(source.getClientAddress());
+    dest.setMinCommitTs(source.getMinCommitTs());
   }
-}
\ No newline at end of file
+}
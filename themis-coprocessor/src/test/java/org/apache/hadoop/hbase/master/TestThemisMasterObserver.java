@@ -15,6 +15,7 @@ import org.apache.hadoop.hbase.themis.cp.ThemisEndpointClient;
 import org.apache.hadoop.hbase.themis.cp.TransactionTTL;
 import org.apache.hadoop.hbase.themis.cp.TransactionTestBase;
 import org.apache.hadoop.hbase.themis.cp.TransactionTTL.TimestampType;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisCleanExpiredLocksResponse;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
 import org.junit.After;
@@ -225,4 +226,42 @@ public class TestThemisMasterObserver extends TransactionTestBase {
     
     writeLockAndData(COLUMN, prewriteTs + 100);
   }
+  
+  @Test
+  public void testCleanExpiredLocksByBatch() throws IOException {
+    truncateTable(TABLENAME);
+    ThemisEndpointClient cpClient = new ThemisEndpointClient(connection);
+    writeLockAndData(COLUMN_WITH_ANOTHER_ROW, prewriteTs);
+    writeLockAndData(COLUMN_WITH_ANOTHER_FAMILY, prewriteTs);
+    writeLockAndData(COLUMN_WITH_ZZ_ROW, prewriteTs + 1);
+    // clean one lock by each rpc
+    ThemisCleanExpiredLocksResponse response = cpClient.cleanExpiredLocks(TABLENAME,
+      HConstants.EMPTY_START_ROW, prewriteTs + 1, 1);
+    Assert.assertEquals(1, response.getCleanedLockCount());
+    Assert.assertEquals(0, response.getFailedLockCount());
+    Assert.assertArrayEquals(Bytes.add(COLUMN_WITH_ANOTHER_ROW.getRow(), new byte[] { 0x00 }),
+      response.getNextRow().toByteArray());
+    Assert.assertNull(readLockBytes(COLUMN_WITH_ANOTHER_ROW, prewriteTs));
+    Assert.assertNotNull(readLockBytes(COLUMN_WITH_ANOTHER_FAMILY, prewriteTs));
+    response = cpClient.cleanExpiredLocks(TABLENAME, response.getNextRow().toByteArray(),
+      prewriteTs + 1, 1);
+    Assert.assertEquals(1, response.getCleanedLockCount());
+    Assert.assertNull(readLockBytes(COLUMN_WITH_ANOTHER_FAMILY, prewriteTs));
+    // lock of COLUMN_WITH_ZZ_ROW is not expired
+    response = cpClient.cleanExpiredLocks(TABLENAME, response.getNextRow().toByteArray(),
+      prewriteTs + 1, 1);
+    Assert.assertEquals(0, response.getCleanedLockCount());
+    Assert.assertEquals(0, response.getNextRow().size());
+    Assert.assertNotNull(readLockBytes(COLUMN_WITH_ZZ_ROW, prewriteTs + 1));
+
+    // master cleans all expired locks by batches
+    writeLockAndData(COLUMN_WITH_ANOTHER_ROW, prewriteTs + 1);
+    ThemisMasterObserver masterObserver = new ThemisMasterObserver();
+    masterObserver.connection = connection;
+    masterObserver.lockCleaner = new ServerLockCleaner(masterObserver.connection, cpClient);
+    masterObserver.lockCleanBatchSize = 1;
+    masterObserver.cleanLockBeforeTimestamp(prewriteTs + 2);
+    Assert.assertNull(readLockBytes(COLUMN_WITH_ANOTHER_ROW, prewriteTs + 1));
+    Assert.assertNull(readLockBytes(COLUMN_WITH_ZZ_ROW, prewriteTs + 1));
+  }
 }
@@ -1,9 +1,14 @@
 package org.apache.hadoop.hbase.themis.cp;
 
+import java.io.IOException;
+
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
 import org.apache.hadoop.hbase.themis.TestBase;
+import org.apache.hadoop.hbase.themis.columns.Column;
 import org.apache.hadoop.hbase.themis.cp.ColumnTimestampFilter;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Assert;
@@ -68,4 +73,58 @@ public class TestColumnTimestampFilter extends TestBase {
     Assert.assertEquals(ReturnCode.NEXT_ROW, filter.filterKeyValue(kv));
 
   }
+
+  @Test
+  public void testFilterKeyValueByColumnsNotInOrder() {
+    ColumnTimestampFilter filter = new ColumnTimestampFilter();
+    for (int i = 99; i >= 0; i -= 2) {
+      filter.addColumnTimestamp(FAMILY, Bytes.toBytes(String.format("Q%03d", i)), PREWRITE_TS + i);
+    }
+    Assert.assertEquals(50, filter.getColumnCount());
+    for (int round = 0; round < 2; ++round) {
+      for (int i = 0; i < 100; ++i) {
+        KeyValue kv = new KeyValue(ROW, FAMILY, Bytes.toBytes(String.format("Q%03d", i)),
+            PREWRITE_TS + i, Type.Put, VALUE);
+        if (i % 2 == 0) {
+          Assert.assertEquals(ReturnCode.SEEK_NEXT_USING_HINT, filter.filterKeyValue(kv));
+          Assert.assertArrayEquals(Bytes.toBytes(String.format("Q%03d", i + 1)), filter
+              .getNextKeyHint(kv).getQualifier());
+        } else {
+          Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL, filter.filterKeyValue(kv));
+        }
+      }
+      Assert.assertEquals(ReturnCode.NEXT_ROW,
+        filter.filterKeyValue(new KeyValue(ROW, FAMILY, Bytes.toBytes("Q100"), PREWRITE_TS,
+            Type.Put, VALUE)));
+      filter.reset();
+    }
+
+    // skip the columns before the column of cell
+    KeyValue kv = new KeyValue(ROW, FAMILY, Bytes.toBytes("Q070"), PREWRITE_TS, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.SEEK_NEXT_USING_HINT, filter.filterKeyValue(kv));
+    Assert.assertArrayEquals(Bytes.toBytes("Q071"), filter.getNextKeyHint(kv).getQualifier());
+    kv = new KeyValue(ROW, FAMILY, Bytes.toBytes("Q097"), PREWRITE_TS + 97, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL, filter.filterKeyValue(kv));
+    kv = new KeyValue(ROW, Bytes.toBytes(Bytes.toString(FAMILY) + "#"), QUALIFIER, PREWRITE_TS,
+        Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.NEXT_ROW, filter.filterKeyValue(kv));
+  }
+
+  @Test
+  public void testSerialization() throws IOException {
+    ColumnTimestampFilter filter = new ColumnTimestampFilter();
+    filter.addColumnTimestamp(COLUMN, PREWRITE_TS);
+    filter.addColumnTimestamp(new Column(ANOTHER_FAMILY, QUALIFIER), PREWRITE_TS + 1);
+    filter.addColumnTimestamp(new Column(FAMILY, ANOTHER_QUALIFIER), PREWRITE_TS + 2);
+    // the filter is serialized as the filter of client Get/Scan
+    Filter parsed = ProtobufUtil.toFilter(ProtobufUtil.toFilter(filter));
+    Assert.assertTrue(parsed instanceof ColumnTimestampFilter);
+    Assert.assertEquals(filter.toString(), parsed.toString());
+    Assert.assertEquals(3, ((ColumnTimestampFilter) parsed).getColumnCount());
+    KeyValue kv = new KeyValue(ROW, ANOTHER_FAMILY, QUALIFIER, PREWRITE_TS + 1, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL, parsed.filterKeyValue(kv));
+
+    parsed = ProtobufUtil.toFilter(ProtobufUtil.toFilter(new ColumnTimestampFilter()));
+    Assert.assertEquals(0, ((ColumnTimestampFilter) parsed).getColumnCount());
+  }
 }
@@ -0,0 +1,39 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import org.apache.hadoop.hbase.themis.TestBase;
+import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCommittedPrimaryCache extends TestBase {
+  @Test
+  public void testPutAndGetCommitTs() {
+    CommittedPrimaryCache cache = new CommittedPrimaryCache(10, 60);
+    Assert.assertTrue(cache.isEnabled());
+    Assert.assertNull(cache.getCommitTs(COLUMN, PREWRITE_TS));
+    cache.put(COLUMN, PREWRITE_TS, COMMIT_TS);
+    Assert.assertEquals(COMMIT_TS, cache.getCommitTs(COLUMN, PREWRITE_TS).longValue());
+    // key with equal column
+    Assert.assertEquals(COMMIT_TS, cache.getCommitTs(new ColumnCoordinate(COLUMN), PREWRITE_TS)
+        .longValue());
+    // different prewriteTs or column
+    Assert.assertNull(cache.getCommitTs(COLUMN, PREWRITE_TS + 1));
+    Assert.assertNull(cache.getCommitTs(COLUMN_WITH_ANOTHER_ROW, PREWRITE_TS));
+  }
+
+  @Test
+  public void testEviction() {
+    CommittedPrimaryCache cache = new CommittedPrimaryCache(10, 60);
+    for (int i = 0; i < 100; ++i) {
+      cache.put(COLUMN, PREWRITE_TS + i, COMMIT_TS + i);
+    }
+    Assert.assertTrue(cache.size() <= 10);
+    Assert.assertNotNull(cache.getCommitTs(COLUMN, PREWRITE_TS + 99));
+
+    // disabled cache
+    cache = new CommittedPrimaryCache(0, 60);
+    Assert.assertFalse(cache.isEnabled());
+    cache.put(COLUMN, PREWRITE_TS, COMMIT_TS);
+    Assert.assertNull(cache.getCommitTs(COLUMN, PREWRITE_TS));
+  }
+}
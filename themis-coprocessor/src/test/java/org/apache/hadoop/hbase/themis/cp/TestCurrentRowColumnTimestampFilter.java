@@ -0,0 +1,51 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.themis.TestBase;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCurrentRowColumnTimestampFilter extends TestBase {
+  @Test
+  public void testFilterKeyValue() throws IOException {
+    CurrentRowColumnTimestampFilter filter = new CurrentRowColumnTimestampFilter();
+    ColumnTimestampFilter columnFilter = new ColumnTimestampFilter();
+    columnFilter.addColumnTimestamp(COLUMN, PREWRITE_TS);
+    filter.setRow(ROW, columnFilter);
+    Assert.assertArrayEquals(ROW, filter.getRow());
+
+    // seek to the current row
+    KeyValue kv = new KeyValue(ANOTHER_ROW, FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.SEEK_NEXT_USING_HINT, filter.filterKeyValue(kv));
+    Assert.assertArrayEquals(ROW, filter.getNextKeyHint(kv).getRow());
+    filter.reset();
+
+    // cells of the current row are filtered by the column filter
+    kv = new KeyValue(ROW, FAMILY, QUALIFIER, PREWRITE_TS + 1, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.SKIP, filter.filterKeyValue(kv));
+    kv = new KeyValue(ROW, FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL, filter.filterKeyValue(kv));
+    filter.reset();
+
+    // only the first cell of the row passed to is included
+    kv = new KeyValue(ZZ_ROW, FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(kv));
+    kv = new KeyValue(ZZ_ROW, ANOTHER_FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.NEXT_ROW, filter.filterKeyValue(kv));
+    Assert.assertFalse(filter.filterAllRemaining());
+
+    // set the next row to read
+    columnFilter = new ColumnTimestampFilter();
+    columnFilter.addColumnTimestamp(COLUMN, PREWRITE_TS);
+    filter.setRow(ZZ_ROW, columnFilter);
+    kv = new KeyValue(ZZ_ROW, FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL, filter.filterKeyValue(kv));
+    kv = new KeyValue(Bytes.toBytes("ZZZ"), FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(kv));
+  }
+}
@@ -0,0 +1,114 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestLatencyHistogram {
+  @Test
+  public void testBucketIndex() {
+    for (long value = 0; value < 16; ++value) {
+      Assert.assertEquals(value, LatencyHistogram.getBucketIndex(value));
+      Assert.assertEquals(value, LatencyHistogram.getBucketUpperBound((int) value));
+    }
+    int lastIndex = 15;
+    for (long value = 16; value < 100000; ++value) {
+      int index = LatencyHistogram.getBucketIndex(value);
+      Assert.assertTrue(index == lastIndex || index == lastIndex + 1);
+      long upperBound = LatencyHistogram.getBucketUpperBound(index);
+      // relative error less than 1/16
+      Assert.assertTrue(upperBound >= value && upperBound - value < value / 16.0);
+      if (index == lastIndex + 1) {
+        Assert.assertEquals(value - 1, LatencyHistogram.getBucketUpperBound(lastIndex));
+      }
+      lastIndex = index;
+    }
+    // larger values are counted by the last bucket
+    Assert.assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram
+        .getBucketUpperBound(LatencyHistogram.getBucketIndex(Long.MAX_VALUE)));
+    Assert.assertEquals(LatencyHistogram.getBucketIndex(LatencyHistogram.MAX_VALUE),
+      LatencyHistogram.getBucketIndex(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testPercentile() {
+    LatencyHistogram histogram = new LatencyHistogram("latency", "latency");
+    Assert.assertEquals(0, histogram.getPercentile(0.5));
+    for (int i = 1; i <= 1000; ++i) {
+      histogram.add(i);
+    }
+    Assert.assertEquals(1000, histogram.getTotalCount());
+    assertApproximate(500, histogram.getPercentile(0.5));
+    assertApproximate(950, histogram.getPercentile(0.95));
+    assertApproximate(990, histogram.getPercentile(0.99));
+    assertApproximate(999, histogram.getPercentile(0.999));
+    Assert.assertEquals(1000, histogram.getPercentile(1));
+    // the tail is not hidden by the fast majority
+    histogram = new LatencyHistogram("latency", "latency");
+    for (int i = 0; i < 990; ++i) {
+      histogram.add(10);
+    }
+    for (int i = 0; i < 10; ++i) {
+      histogram.add(100000);
+    }
+    Assert.assertEquals(10, histogram.getPercentile(0.5));
+    Assert.assertEquals(10, histogram.getPercentile(0.99));
+    assertApproximate(100000, histogram.getPercentile(0.999));
+  }
+
+  @Test
+  public void testConcurrentAdd() throws Exception {
+    final LatencyHistogram histogram = new LatencyHistogram("latency", "latency");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (int i = 0; i < 4; ++i) {
+      futures.add(executor.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          for (int j = 1; j <= 10000; ++j) {
+            histogram.add(j);
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    Assert.assertEquals(40000, histogram.getTotalCount());
+    Assert.assertEquals(10000, histogram.getPercentile(1));
+    assertApproximate(5000, histogram.getPercentile(0.5));
+  }
+
+  @Test
+  public void testSnapshot() {
+    LatencyHistogram histogram = new LatencyHistogram("latency", "latency");
+    MetricsRecordBuilder builder = Mockito.mock(MetricsRecordBuilder.class);
+    for (int i = 1; i <= 1000; ++i) {
+      histogram.add(i);
+    }
+    // the snapshot refreshing the JMX cache keeps the interval
+    histogram.snapshot(builder, true);
+    Assert.assertEquals(1000, histogram.getPercentile(1));
+    // the periodic snapshot of sinks resets the interval, the total count is kept
+    histogram.snapshot(builder, false);
+    Assert.assertEquals(0, histogram.getPercentile(1));
+    Assert.assertEquals(1000, histogram.getTotalCount());
+    Mockito.verify(builder, Mockito.times(2)).addGauge(
+      Mockito.eq(Interns.info("latency_max", "max of latency in us")), Mockito.eq(1000L));
+  }
+
+  protected static void assertApproximate(long expect, long actual) {
+    Assert.assertTrue("expect=" + expect + ", actual=" + actual,
+      actual >= expect && actual - expect <= expect / 16);
+  }
+}
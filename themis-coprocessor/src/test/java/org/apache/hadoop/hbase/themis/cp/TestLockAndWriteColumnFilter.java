@@ -0,0 +1,87 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.themis.TestBase;
+import org.apache.hadoop.hbase.themis.columns.Column;
+import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestLockAndWriteColumnFilter extends TestBase {
+  private static KeyValue getKeyValue(Column column) {
+    return new KeyValue(ROW, column.getFamily(), column.getQualifier(), PREWRITE_TS, Type.Put,
+        VALUE);
+  }
+
+  private static void checkSeekHint(LockAndWriteColumnFilter filter, Column column,
+      Column expectHintColumn) {
+    KeyValue kv = getKeyValue(column);
+    Assert.assertEquals(ReturnCode.SEEK_NEXT_USING_HINT, filter.filterKeyValue(kv));
+    KeyValue hint = filter.getNextKeyHint(kv);
+    Assert.assertArrayEquals(ROW, hint.getRow());
+    Assert.assertArrayEquals(expectHintColumn.getFamily(), hint.getFamily());
+    Assert.assertArrayEquals(expectHintColumn.getQualifier(), hint.getQualifier());
+  }
+
+  @Test
+  public void testFilterLockAndCommitFamily() throws IOException {
+    Get get = new Get(ROW);
+    get.addFamily(FAMILY);
+    get.addColumn(ANOTHER_FAMILY, QUALIFIER);
+    LockAndWriteColumnFilter filter = new LockAndWriteColumnFilter(get.getFamilyMap());
+    byte[] familyPrefix = Bytes.add(FAMILY, ColumnUtil.PRESERVED_COLUMN_CHARACTER_BYTES);
+
+    // the required column of family read by column
+    Column lockColumn = ColumnUtil.getLockColumn(ANOTHER_FAMILY, QUALIFIER);
+    Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL,
+      filter.filterKeyValue(getKeyValue(lockColumn)));
+    // seek to the required column of family read by column
+    checkSeekHint(filter, ColumnUtil.getLockColumn(ANOTHER_FAMILY, ANOTHER_QUALIFIER), lockColumn);
+    // seek to the prefix of family read as a whole
+    checkSeekHint(filter, ColumnUtil.getLockColumn(ANOTHER_FAMILY, Bytes.toBytes("R")),
+      new Column(ColumnUtil.LOCK_FAMILY_NAME, familyPrefix));
+    checkSeekHint(filter, ColumnUtil.getLockColumn(Bytes.toBytes("Family"), QUALIFIER),
+      new Column(ColumnUtil.LOCK_FAMILY_NAME, familyPrefix));
+    // all columns of family read as a whole are included
+    Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL,
+      filter.filterKeyValue(getKeyValue(ColumnUtil.getLockColumn(FAMILY, QUALIFIER))));
+    Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL,
+      filter.filterKeyValue(getKeyValue(ColumnUtil.getLockColumn(FAMILY, ANOTHER_QUALIFIER))));
+    // columns after all required columns are skipped
+    lockColumn = ColumnUtil.getLockColumn(Bytes.toBytes("ZFamily"), QUALIFIER);
+    Assert.assertEquals(ReturnCode.NEXT_ROW, filter.filterKeyValue(getKeyValue(lockColumn)));
+    Assert.assertNull(filter.getNextKeyHint(getKeyValue(lockColumn)));
+
+    if (ColumnUtil.isCommitToDifferentFamily()) {
+      Column putColumn = ColumnUtil.getPutColumn(new Column(FAMILY, QUALIFIER));
+      Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL,
+        filter.filterKeyValue(getKeyValue(putColumn)));
+      checkSeekHint(filter, ColumnUtil.getDeleteColumn(new Column(ANOTHER_FAMILY,
+          ANOTHER_QUALIFIER)), ColumnUtil.getDeleteColumn(new Column(ANOTHER_FAMILY, QUALIFIER)));
+    }
+  }
+
+  @Test
+  public void testFilterDataFamily() throws IOException {
+    Get get = new Get(ROW);
+    get.addFamily(FAMILY);
+    LockAndWriteColumnFilter filter = new LockAndWriteColumnFilter(get.getFamilyMap());
+    KeyValue dataKv = getKeyValue(new Column(FAMILY, QUALIFIER));
+    if (ColumnUtil.isCommitToSameFamily()) {
+      Assert.assertEquals(ReturnCode.NEXT_COL, filter.filterKeyValue(dataKv));
+      Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL,
+        filter.filterKeyValue(getKeyValue(ColumnUtil.getPutColumn(new Column(FAMILY, QUALIFIER)))));
+      Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL, filter.filterKeyValue(getKeyValue(
+        ColumnUtil.getDeleteColumn(new Column(FAMILY, QUALIFIER)))));
+    } else {
+      // the whole data family is skipped
+      Assert.assertEquals(ReturnCode.NEXT_ROW, filter.filterKeyValue(dataKv));
+    }
+  }
+}
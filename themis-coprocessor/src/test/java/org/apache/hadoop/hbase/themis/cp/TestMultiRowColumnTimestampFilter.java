@@ -0,0 +1,56 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.themis.TestBase;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMultiRowColumnTimestampFilter extends TestBase {
+  @Test
+  public void testFilterKeyValue() {
+    MultiRowColumnTimestampFilter filter = new MultiRowColumnTimestampFilter();
+    ColumnTimestampFilter columnFilter = new ColumnTimestampFilter();
+    columnFilter.addColumnTimestamp(COLUMN, PREWRITE_TS);
+    filter.addRow(ANOTHER_ROW, null);
+    filter.addRow(ROW, columnFilter);
+    Assert.assertArrayEquals(ANOTHER_ROW, filter.getFirstRow());
+    Assert.assertArrayEquals(ROW, filter.getLastRow());
+
+    // row not required, seek to the next required row
+    KeyValue kv = new KeyValue(Bytes.toBytes("A"), FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.SEEK_NEXT_USING_HINT, filter.filterKeyValue(kv));
+    Assert.assertArrayEquals(ANOTHER_ROW, filter.getNextKeyHint(kv).getRow());
+    kv = new KeyValue(Bytes.toBytes("A"), ANOTHER_FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.SEEK_NEXT_USING_HINT, filter.filterKeyValue(kv));
+    Assert.assertArrayEquals(ANOTHER_ROW, filter.getNextKeyHint(kv).getRow());
+    filter.reset();
+
+    // all the cells are included for row without column filter
+    kv = new KeyValue(ANOTHER_ROW, FAMILY, QUALIFIER, PREWRITE_TS + 1, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(kv));
+    kv = new KeyValue(ANOTHER_ROW, ANOTHER_FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(kv));
+    filter.reset();
+
+    kv = new KeyValue(Bytes.toBytes("B"), FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.SEEK_NEXT_USING_HINT, filter.filterKeyValue(kv));
+    Assert.assertArrayEquals(ROW, filter.getNextKeyHint(kv).getRow());
+    filter.reset();
+
+    // cells of the row are filtered by the column filter of the row
+    kv = new KeyValue(ROW, FAMILY, QUALIFIER, PREWRITE_TS + 1, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.SKIP, filter.filterKeyValue(kv));
+    kv = new KeyValue(ROW, FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL, filter.filterKeyValue(kv));
+    Assert.assertFalse(filter.filterAllRemaining());
+    filter.reset();
+
+    // no more rows required
+    kv = new KeyValue(ZZ_ROW, FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE);
+    Assert.assertEquals(ReturnCode.NEXT_ROW, filter.filterKeyValue(kv));
+    Assert.assertTrue(filter.filterAllRemaining());
+  }
+}
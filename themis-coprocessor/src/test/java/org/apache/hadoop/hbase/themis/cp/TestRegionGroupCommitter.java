@@ -0,0 +1,123 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.Lists;
+
+public class TestRegionGroupCommitter {
+  private static final byte[] FAMILY = Bytes.toBytes("F");
+  private static final byte[] BAD_ROW = Bytes.toBytes("BadRow");
+  private HRegion region;
+  // mutation counts of the mutateRowsWithLocks invoked
+  private final List<Integer> mutateCounts = new ArrayList<Integer>();
+
+  @Before
+  public void setUp() throws IOException {
+    mutateCounts.clear();
+    region = Mockito.mock(HRegion.class);
+    Mockito.when(region.getRegionInfo()).thenReturn(
+      new HRegionInfo(TableName.valueOf("ThemisTable")));
+    Mockito.doAnswer(new Answer<Void>() {
+      @SuppressWarnings("unchecked")
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        Collection<Mutation> mutations = (Collection<Mutation>) invocation.getArguments()[0];
+        synchronized (mutateCounts) {
+          mutateCounts.add(mutations.size());
+        }
+        for (Mutation mutation : mutations) {
+          if (Bytes.equals(BAD_ROW, mutation.getRow())) {
+            throw new IOException("bad row");
+          }
+        }
+        return null;
+      }
+    }).when(region).mutateRowsWithLocks(Mockito.anyCollection(), Mockito.anyCollection());
+  }
+
+  protected List<Future<Void>> mutateConcurrently(final RegionGroupCommitter committer,
+      ExecutorService executor, byte[]... rows) {
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (final byte[] row : rows) {
+      futures.add(executor.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          Put put = new Put(row);
+          put.add(FAMILY, FAMILY, 1, row);
+          committer.mutate(Lists.<Mutation> newArrayList(put));
+          return null;
+        }
+      }));
+    }
+    return futures;
+  }
+
+  @Test
+  public void testGroupCommit() throws Exception {
+    // the window is long enough, the batch is applied once it is full
+    RegionGroupCommitter committer = new RegionGroupCommitter(region,
+        TimeUnit.SECONDS.toMicros(60), 4);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      for (Future<Void> future : mutateConcurrently(committer, executor, Bytes.toBytes("A"),
+        Bytes.toBytes("B"), Bytes.toBytes("C"), Bytes.toBytes("D"))) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+      Assert.assertEquals(Lists.newArrayList(4), mutateCounts);
+
+      // applied after the window if the batch is not full
+      mutateCounts.clear();
+      committer = new RegionGroupCommitter(region, TimeUnit.MILLISECONDS.toMicros(100), 4);
+      for (Future<Void> future : mutateConcurrently(committer, executor, Bytes.toBytes("A"))) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+      Assert.assertEquals(Lists.newArrayList(1), mutateCounts);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testGroupCommitFail() throws Exception {
+    RegionGroupCommitter committer = new RegionGroupCommitter(region,
+        TimeUnit.SECONDS.toMicros(60), 2);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<Void>> futures = mutateConcurrently(committer, executor, Bytes.toBytes("A"),
+        BAD_ROW);
+      // the mutations of each caller are applied separately after the batch fails
+      futures.get(0).get(10, TimeUnit.SECONDS);
+      try {
+        futures.get(1).get(10, TimeUnit.SECONDS);
+        Assert.fail();
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof IOException);
+      }
+      Assert.assertEquals(3, mutateCounts.size());
+      Assert.assertEquals(2, mutateCounts.get(0).intValue());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.themis.columns.Column;
+import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
+import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRegionLockIndex extends TransactionTestBase {
+  @Test
+  public void testUpdateByMutations() {
+    RegionLockIndex index = new RegionLockIndex();
+    Column lockColumn = ColumnUtil.getLockColumn(COLUMN);
+    Column anotherLockColumn = ColumnUtil.getLockColumn(COLUMN_WITH_ANOTHER_QUALIFIER);
+    Put put = new Put(ROW);
+    put.add(lockColumn.getFamily(), lockColumn.getQualifier(), PREWRITE_TS, VALUE);
+    put.add(anotherLockColumn.getFamily(), anotherLockColumn.getQualifier(), PREWRITE_TS + 1, VALUE);
+    // data column won't be indexed
+    put.add(FAMILY, QUALIFIER, PREWRITE_TS, VALUE);
+    index.update(put);
+    Assert.assertEquals(2, index.size());
+    index.update(new Put(ANOTHER_ROW).add(lockColumn.getFamily(), lockColumn.getQualifier(),
+      PREWRITE_TS + 2, VALUE));
+    Assert.assertEquals(3, index.size());
+
+    // rows with expired locks
+    List<byte[]> rows = index.getRowsWithExpiredLocks(PREWRITE_TS + 1,
+      HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+    Assert.assertEquals(1, rows.size());
+    Assert.assertArrayEquals(ROW, rows.get(0));
+    rows = index.getRowsWithExpiredLocks(PREWRITE_TS + 3, HConstants.EMPTY_START_ROW,
+      HConstants.EMPTY_END_ROW);
+    Assert.assertEquals(2, rows.size());
+    Assert.assertArrayEquals(ANOTHER_ROW, rows.get(0));
+    Assert.assertArrayEquals(ROW, rows.get(1));
+    rows = index.getRowsWithExpiredLocks(PREWRITE_TS + 3, ROW, HConstants.EMPTY_END_ROW);
+    Assert.assertEquals(1, rows.size());
+    Assert.assertArrayEquals(ROW, rows.get(0));
+    rows = index.getRowsWithExpiredLocks(PREWRITE_TS + 3, HConstants.EMPTY_START_ROW, ROW);
+    Assert.assertEquals(1, rows.size());
+    Assert.assertArrayEquals(ANOTHER_ROW, rows.get(0));
+
+    // delete lock of one version
+    index.update(new Delete(ROW).deleteColumn(lockColumn.getFamily(), lockColumn.getQualifier(),
+      PREWRITE_TS));
+    Assert.assertEquals(2, index.size());
+    index.update(new Delete(ROW).deleteColumn(anotherLockColumn.getFamily(),
+      anotherLockColumn.getQualifier(), PREWRITE_TS));
+    Assert.assertEquals(2, index.size());
+    // delete lock of all versions
+    index.update(new Delete(ANOTHER_ROW).deleteFamily(ColumnUtil.LOCK_FAMILY_NAME, PREWRITE_TS + 2));
+    Assert.assertEquals(1, index.size());
+    index.update(new Delete(ROW).deleteColumns(anotherLockColumn.getFamily(),
+      anotherLockColumn.getQualifier(), PREWRITE_TS + 1));
+    Assert.assertEquals(0, index.size());
+  }
+
+  @Test
+  public void testLockIndexMaintainedByRegion() throws Exception {
+    truncateTable(TABLENAME);
+    // index is built when region opened
+    RegionLockIndex index = RegionLockIndex.getRegionLockIndex(getRegion(COLUMN));
+    Assert.assertNotNull(index);
+    Assert.assertEquals(0, index.size());
+
+    prewritePrimaryRow();
+    Assert.assertEquals(PRIMARY_ROW.mutationList().size(), index.size());
+    commitPrimaryRow();
+    Assert.assertEquals(0, index.size());
+    nextTransactionTs();
+    prewriteSingleRow();
+    Assert.assertEquals(PRIMARY_ROW.mutationList().size(), index.size());
+    commitSingleRow();
+    Assert.assertEquals(0, index.size());
+    nextTransactionTs();
+    prewritePrimaryRow();
+    cpClient.getLockAndErase(COLUMN, prewriteTs);
+    Assert.assertEquals(PRIMARY_ROW.mutationList().size() - 1, index.size());
+
+    // index is rebuilt from lock family when region reopened
+    HBaseAdmin admin = new HBaseAdmin(connection);
+    admin.disableTable(TABLENAME);
+    admin.enableTable(TABLENAME);
+    admin.close();
+    connection.clearRegionCache(TABLENAME);
+    index = RegionLockIndex.getRegionLockIndex(getRegion(COLUMN));
+    Assert.assertEquals(PRIMARY_ROW.mutationList().size() - 1, index.size());
+    List<byte[]> rows = index.getRowsWithExpiredLocks(prewriteTs + 1, HConstants.EMPTY_START_ROW,
+      HConstants.EMPTY_END_ROW);
+    Assert.assertEquals(1, rows.size());
+    Assert.assertArrayEquals(ROW, rows.get(0));
+    Assert.assertEquals(0,
+      index.getRowsWithExpiredLocks(prewriteTs, HConstants.EMPTY_START_ROW,
+        HConstants.EMPTY_END_ROW).size());
+  }
+
+  protected HRegion getRegion(ColumnCoordinate c) throws IOException {
+    for (HRegion region : TEST_UTIL.getHBaseCluster().getRegions(c.getTableName())) {
+      if (HRegion.rowIsInRange(region.getRegionInfo(), c.getRow())) {
+        return region;
+      }
+    }
+    return null;
+  }
+}
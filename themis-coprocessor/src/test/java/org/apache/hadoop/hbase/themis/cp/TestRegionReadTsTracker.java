@@ -0,0 +1,98 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.hbase.themis.cp.RegionReadTsTracker.PendingCommit;
+import org.junit.Test;
+
+public class TestRegionReadTsTracker {
+  @Test
+  public void testRejectCommitAfterRead() throws Exception {
+    RegionReadTsTracker tracker = new RegionReadTsTracker(0);
+    tracker.beforeRead(10);
+    Assert.assertEquals(10, tracker.getMaxReadTs());
+    tracker.beforeRead(5);
+    Assert.assertEquals(10, tracker.getMaxReadTs());
+    Assert.assertNull(tracker.beginCommit(10));
+    Assert.assertEquals(0, tracker.getPendingCommitCount());
+    PendingCommit commit = tracker.beginCommit(11);
+    Assert.assertNotNull(commit);
+    Assert.assertEquals(1, tracker.getPendingCommitCount());
+    tracker.finishCommit(commit);
+    Assert.assertEquals(0, tracker.getPendingCommitCount());
+
+    // reads served before the tracker is created
+    tracker = new RegionReadTsTracker(100);
+    Assert.assertNull(tracker.beginCommit(100));
+    Assert.assertNotNull(tracker.beginCommit(101));
+
+    // reads served before the tracker is created are not bounded
+    tracker = new RegionReadTsTracker(0, false);
+    Assert.assertFalse(tracker.isBounded());
+    Assert.assertNull(tracker.beginCommit(Long.MAX_VALUE));
+    Assert.assertEquals(0, tracker.getPendingCommitCount());
+  }
+
+  @Test
+  public void testReadWaitPendingCommit() throws Exception {
+    final RegionReadTsTracker tracker = new RegionReadTsTracker(0);
+    PendingCommit commit = tracker.beginCommit(10);
+    // reads with startTs not larger than commitTs won't see the commit, needn't wait
+    tracker.beforeRead(10);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Void> read = executor.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          tracker.beforeRead(11);
+          return null;
+        }
+      });
+      try {
+        read.get(200, TimeUnit.MILLISECONDS);
+        Assert.fail();
+      } catch (TimeoutException e) {}
+      tracker.finishCommit(commit);
+      read.get(10, TimeUnit.SECONDS);
+      Assert.assertEquals(11, tracker.getMaxReadTs());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testPrewriteAfterRead() throws Exception {
+    final RegionReadTsTracker tracker = new RegionReadTsTracker(0);
+    PendingCommit prewrite = tracker.beginPrewrite(10);
+    Assert.assertEquals(10, prewrite.getCommitTs());
+    tracker.finishCommit(prewrite);
+    tracker.beforeRead(20);
+    prewrite = tracker.beginPrewrite(10);
+    Assert.assertEquals(21, prewrite.getCommitTs());
+    // reads with startTs larger than the minCommitTs wait for the locks written
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Void> read = executor.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          tracker.beforeRead(22);
+          return null;
+        }
+      });
+      try {
+        read.get(200, TimeUnit.MILLISECONDS);
+        Assert.fail();
+      } catch (TimeoutException e) {}
+      tracker.finishCommit(prewrite);
+      read.get(10, TimeUnit.SECONDS);
+      Assert.assertEquals(23, tracker.beginPrewrite(10).getCommitTs());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
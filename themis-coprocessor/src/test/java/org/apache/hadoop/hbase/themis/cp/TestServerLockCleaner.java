@@ -1,21 +1,50 @@
 package org.apache.hadoop.hbase.themis.cp;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.Callable;
 
 import junit.framework.Assert;
 
+import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue.Type;
 import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.themis.columns.Column;
 import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
+import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
+import org.apache.hadoop.hbase.themis.columns.RowMutation;
+import org.apache.hadoop.hbase.themis.cp.ServerLockCleaner.RegionSecondaries;
 import org.apache.hadoop.hbase.themis.lock.PrimaryLock;
 import org.apache.hadoop.hbase.themis.lock.SecondaryLock;
 import org.apache.hadoop.hbase.themis.lock.ThemisLock;
 import org.apache.hadoop.hbase.util.Pair;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 public class TestServerLockCleaner extends TransactionTestBase {
   protected ServerLockCleaner lockCleaner;
   
+  @BeforeClass
+  public static void setUpAsyncCommit() throws Exception {
+    // async-commit prewrites are accepted by regions opened with transaction ttl, the transactions
+    // are only resolved by the tests
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      for (byte[] tableName : new byte[][] { TABLENAME, ANOTHER_TABLENAME }) {
+        HTableDescriptor desc = admin.getTableDescriptor(tableName);
+        desc.setValue(TransactionTTL.THEMIS_TRANSACTION_TTL_ENABLE_KEY, "true");
+        desc.setValue(SecondaryCommitter.THEMIS_ASYNC_COMMIT_RESOLVE_AFTER_PREWRITE_KEY, "false");
+        admin.disableTable(tableName);
+        admin.modifyTable(tableName, desc);
+        admin.enableTable(tableName);
+      }
+    } finally {
+      admin.close();
+    }
+  }
+  
   @Override
   public void initEnv() throws IOException {
     super.initEnv();
@@ -127,6 +156,24 @@ public class TestServerLockCleaner extends TransactionTestBase {
     checkSecondariesRollback();
   }
 
+  @Test
+  public void testGroupSecondariesByRegion() throws IOException {
+    Collection<RegionSecondaries> regions = lockCleaner
+        .groupSecondariesByRegion((PrimaryLock) getLock(COLUMN));
+    // secondaries of TABLENAME and ANOTHER_TABLENAME are located in one region respectively
+    Assert.assertEquals(2, regions.size());
+    int rowCount = 0;
+    int columnCount = 0;
+    for (RegionSecondaries region : regions) {
+      for (RowMutation rowMutation : region.getRowMutations()) {
+        ++rowCount;
+        columnCount += rowMutation.size();
+      }
+    }
+    Assert.assertEquals(3, rowCount);
+    Assert.assertEquals(SECONDARY_COLUMNS.length, columnCount);
+  }
+
   @Test
   public void testCleanLockFromPrimary() throws IOException {
     // must set column before cleanLock
@@ -178,4 +225,147 @@ public class TestServerLockCleaner extends TransactionTestBase {
     checkColumnsRallback(new ColumnCoordinate[]{COLUMN, SECONDARY_COLUMNS[0], SECONDARY_COLUMNS[1]});
     checkColumnsPrewriteSuccess(new ColumnCoordinate[]{SECONDARY_COLUMNS[2], SECONDARY_COLUMNS[3]});
   }
-}
\ No newline at end of file
+  
+  protected ThemisLock getAsyncCommitLock(ColumnCoordinate c) throws IOException {
+    ThemisLock lock = getLock(c);
+    lock.setMinCommitTs(prewriteTs + 1);
+    return lock;
+  }
+  
+  protected void prewriteAsyncCommitPrimaryRow() throws IOException {
+    Assert.assertNull(cpClient.prewriteRow(TABLENAME, PRIMARY_ROW.getRow(),
+      PRIMARY_ROW.mutationList(), prewriteTs, ThemisLock.toByte(getAsyncCommitLock(COLUMN)),
+      ThemisLock.toByte(getAsyncCommitLock(COLUMN_WITH_ANOTHER_TABLE)), 2));
+  }
+  
+  @Test
+  public void testResolveAsyncCommitLock() throws IOException {
+    // the read before prewrite raises the minCommitTs of the locks
+    long readTs = prewriteTs + 50;
+    Get get = new Get(ROW).addColumn(FAMILY, QUALIFIER);
+    cpClient.themisGet(TABLENAME, get, readTs);
+    prewriteAsyncCommitPrimaryRow();
+    ThemisLock primaryLock = ThemisLock.parseFromByte(readLockBytes(COLUMN));
+    Assert.assertTrue(primaryLock.getMinCommitTs() > readTs);
+    // reads with startTs less than minCommitTs ignore the locks
+    Assert.assertTrue(cpClient.themisGet(TABLENAME, get, readTs).isEmpty());
+    
+    // the transaction is in progress until all the secondaries are prewritten
+    Assert.assertFalse(lockCleaner.resolveAsyncCommitLock(getLock(COLUMN)).getFirst());
+    byte[] secondaryLockBytes = ThemisLock.toByte(getAsyncCommitLock(COLUMN_WITH_ANOTHER_TABLE));
+    for (Pair<byte[], RowMutation> secondary : SECONDARY_ROWS) {
+      RowMutation row = secondary.getSecond();
+      Assert.assertNull(cpClient.prewriteSecondaryRow(secondary.getFirst(), row.getRow(),
+        row.mutationList(), prewriteTs, secondaryLockBytes));
+    }
+    
+    // committed with the max minCommitTs of the locks, could be resolved from any lock
+    Pair<Boolean, Long> result = lockCleaner.resolveAsyncCommitLock(getLock(
+      COLUMN_WITH_ANOTHER_ROW));
+    Assert.assertTrue(result.getFirst());
+    Assert.assertTrue(result.getSecond() >= primaryLock.getMinCommitTs());
+    commitTs = result.getSecond();
+    checkTransactionCommitSuccess();
+    result = lockCleaner.resolveAsyncCommitLock(getLock(COLUMN_WITH_ANOTHER_TABLE));
+    Assert.assertTrue(result.getFirst());
+    Assert.assertEquals(commitTs, result.getSecond().longValue());
+  }
+  
+  @Test
+  public void testResolveExpiredAsyncCommitLock() throws IOException {
+    // this ut writes with expired timestamp, need delete data by truncating table
+    truncateTable(TABLENAME);
+    prewriteTs = System.currentTimeMillis() - TransactionTTL.writeTransactionTTL - 3
+        * TransactionTTL.transactionTTLTimeError;
+    Assert.assertTrue(ServerLockCleaner.isAsyncCommitExpired(prewriteTs));
+    // late prewrites could not be rejected without transaction ttl, never expired
+    TransactionTTL.transactionTTLEnable = false;
+    try {
+      Assert.assertFalse(ServerLockCleaner.isAsyncCommitExpired(prewriteTs));
+    } finally {
+      TransactionTTL.transactionTTLEnable = true;
+    }
+    // the prewrites are rejected after expired, write the locks of primary row directly
+    for (ColumnCoordinate columnCoordinate : PRIMARY_ROW_COLUMNS) {
+      if (getColumnType(columnCoordinate).equals(Type.Put)) {
+        writeData(columnCoordinate, prewriteTs);
+      }
+      Column lockColumn = ColumnUtil.getLockColumn(columnCoordinate);
+      getTable(columnCoordinate.getTableName()).put(new Put(columnCoordinate.getRow()).add(
+        lockColumn.getFamily(), lockColumn.getQualifier(), prewriteTs,
+        ThemisLock.toByte(getAsyncCommitLock(columnCoordinate))));
+    }
+    // the secondaries are not prewritten before expired, the transaction is erased
+    Pair<Boolean, Long> result = lockCleaner.resolveAsyncCommitLock(getLock(COLUMN));
+    Assert.assertTrue(result.getFirst());
+    Assert.assertNull(result.getSecond());
+    checkTransactionRollback();
+    truncateTable(TABLENAME);
+  }
+  
+  protected void prewriteAsyncCommitSecondaryRows() throws IOException {
+    byte[] secondaryLockBytes = ThemisLock.toByte(getAsyncCommitLock(COLUMN_WITH_ANOTHER_TABLE));
+    for (Pair<byte[], RowMutation> secondary : SECONDARY_ROWS) {
+      RowMutation row = secondary.getSecond();
+      Assert.assertNull(cpClient.prewriteSecondaryRow(secondary.getFirst(), row.getRow(),
+        row.mutationList(), prewriteTs, secondaryLockBytes));
+    }
+  }
+  
+  // run the action of another resolver after the secondaries are read by this resolver
+  protected ServerLockCleaner createInterleavedLockCleaner(final Callable<Void> action)
+      throws IOException {
+    return new ServerLockCleaner(connection, cpClient) {
+      @Override
+      protected Pair<Boolean, Long> getAsyncCommitTs(PrimaryLock primary) throws IOException {
+        Pair<Boolean, Long> result = super.getAsyncCommitTs(primary);
+        try {
+          action.call();
+        } catch (Exception e) {
+          throw new IOException(e);
+        }
+        return result;
+      }
+    };
+  }
+  
+  @Test
+  public void testResolveAsyncCommitLockInterleaved() throws IOException {
+    // the primary lock is erased by another resolver after the secondaries are found prewritten,
+    // the transaction must not be committed
+    prewriteAsyncCommitPrimaryRow();
+    prewriteAsyncCommitSecondaryRows();
+    ServerLockCleaner interleaved = createInterleavedLockCleaner(new Callable<Void>() {
+      public Void call() throws Exception {
+        Assert.assertNotNull(cpClient.getLockAndErase(COLUMN, prewriteTs));
+        return null;
+      }
+    });
+    Pair<Boolean, Long> result = interleaved.resolveAsyncCommitLock(getLock(
+      COLUMN_WITH_ANOTHER_ROW));
+    Assert.assertTrue(result.getFirst());
+    Assert.assertNull(result.getSecond());
+    checkTransactionRollback();
+    
+    // the primary is committed by another resolver after the secondaries are read, the commitTs
+    // is read from the commit column of primary
+    deleteOldDataAndUpdateTs();
+    prewriteAsyncCommitPrimaryRow();
+    prewriteAsyncCommitSecondaryRows();
+    final Pair<Boolean, Long> committed = new Pair<Boolean, Long>();
+    interleaved = createInterleavedLockCleaner(new Callable<Void>() {
+      public Void call() throws Exception {
+        Pair<Boolean, Long> result = lockCleaner.resolveAsyncCommitLock(getLock(COLUMN));
+        committed.setFirst(result.getFirst());
+        committed.setSecond(result.getSecond());
+        return null;
+      }
+    });
+    result = interleaved.resolveAsyncCommitLock(getLock(COLUMN_WITH_ANOTHER_TABLE));
+    Assert.assertTrue(committed.getFirst());
+    Assert.assertTrue(result.getFirst());
+    Assert.assertEquals(committed.getSecond(), result.getSecond());
+    commitTs = result.getSecond();
+    checkTransactionCommitSuccess();
+  }
+}
@@ -1,14 +1,21 @@
 package org.apache.hadoop.hbase.themis.cp;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
 import org.apache.hadoop.hbase.themis.columns.ColumnMutation;
 import org.apache.hadoop.hbase.themis.columns.RowMutation;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisBatchCommitSecondaryResult;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisBatchPrewriteSecondaryResponse;
 import org.apache.hadoop.hbase.themis.lock.ThemisLock;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.hbase.util.Threads;
 import org.junit.Test;
 
 import junit.framework.Assert;
@@ -68,4 +75,71 @@ public class TestThemisCoprocessorBatchWrite extends TransactionTestBase {
     }
   }
 
+  @Test
+  public void testBatchEraseSecondaryRows() throws Exception {
+    batchPrewriteSecondaryRows();
+    Map<byte[], List<RowMutation>> rowMap = groupByTableName(SECONDARY_ROWS);
+    for (byte[] tableName : rowMap.keySet()) {
+      List<byte[]> rowsNotInRegion = cpClient.batchEraseSecondaryRows(tableName,
+        rowMap.get(tableName), prewriteTs);
+      Assert.assertEquals(0, rowsNotInRegion.size());
+    }
+    checkSecondariesRollback();
+    for (ColumnCoordinate columnCoordinate : SECONDARY_COLUMNS) {
+      Assert.assertNull(readDataValue(columnCoordinate, prewriteTs));
+    }
+  }
+
+  @Test
+  public void testBatchWriteRowsInSplitRegions() throws Exception {
+    // only test in MiniCluster
+    if (TEST_UTIL == null) {
+      return;
+    }
+    List<RowMutation> rows = new ArrayList<RowMutation>();
+    for (ColumnCoordinate column : new ColumnCoordinate[] { COLUMN_WITH_ANOTHER_ROW, COLUMN,
+        COLUMN_WITH_ZZ_ROW }) {
+      RowMutation rowMutation = new RowMutation(column.getRow());
+      addToRowMutation(rowMutation, column);
+      rows.add(rowMutation);
+    }
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      admin.split(TABLENAME, ZZ_ROW);
+      while (admin.getTableRegions(TableName.valueOf(TABLENAME)).size() < 2) {
+        Threads.sleep(100);
+      }
+      TEST_UTIL.waitUntilAllRegionsAssigned(TableName.valueOf(TABLENAME));
+      connection.clearRegionCache(TABLENAME);
+
+      // the server returns the rows not in the region of the first row
+      ThemisBatchPrewriteSecondaryResponse response = cpClient.batchPrewriteSecondaryRowsInRegion(
+        TABLENAME, rows, prewriteTs, getSecondaryLockBytes());
+      Assert.assertEquals(1, response.getRowsNotInRegionCount());
+      Assert.assertArrayEquals(ZZ_ROW, response.getRowsNotInRegion(0).toByteArray());
+      List<ThemisBatchCommitSecondaryResult> results = cpClient.batchCommitSecondaryRowsInRegion(
+        TABLENAME, rows, prewriteTs, commitTs);
+      Assert.assertEquals(1, results.size());
+      Assert.assertFalse(results.get(0).getSuccess());
+      Assert.assertArrayEquals(ZZ_ROW, results.get(0).getRow().toByteArray());
+      checkCommitRowSuccess(TABLENAME, rows.get(0));
+      checkCommitRowSuccess(TABLENAME, rows.get(1));
+
+      // rows of both regions are prewritten and committed
+      nextTransactionTs();
+      Map<byte[], ThemisLock> lockMap = cpClient.batchPrewriteSecondaryRows(TABLENAME, rows,
+        prewriteTs, getSecondaryLockBytes());
+      Assert.assertEquals(0, lockMap.size());
+      for (RowMutation rowMutation : rows) {
+        checkPrewriteRowSuccess(TABLENAME, rowMutation);
+      }
+      cpClient.batchCommitSecondaryRows(TABLENAME, rows, prewriteTs, commitTs);
+      for (RowMutation rowMutation : rows) {
+        checkCommitRowSuccess(TABLENAME, rowMutation);
+      }
+    } finally {
+      admin.close();
+      truncateTable(TABLENAME);
+    }
+  }
 }
@@ -12,6 +12,7 @@ import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValue.KVComparator;
 import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTableInterface;
@@ -26,9 +27,13 @@ import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
 import org.apache.hadoop.hbase.filter.PrefixFilter;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.filter.ValueFilter;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos;
+import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
 import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
 import org.apache.hadoop.hbase.themis.columns.RowMutation;
+import org.apache.hadoop.hbase.themis.cp.generated.ThemisProtos.ThemisBatchGetResponse;
 import org.apache.hadoop.hbase.themis.lock.ThemisLock;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
@@ -36,6 +41,8 @@ import org.apache.hadoop.hbase.util.Threads;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
+
 public class TestThemisCoprocessorRead extends TransactionTestBase {
   protected ColumnCoordinate[] columnsWithPutAndDeletePut = new ColumnCoordinate[] { COLUMN,
       COLUMN_WITH_ANOTHER_ROW };
@@ -96,6 +103,299 @@ public class TestThemisCoprocessorRead extends TransactionTestBase {
     Assert.assertNull(results);
   }
 
+  @Test
+  public void testThemisBatchGetByChunks() throws IOException {
+    commitTestTransaction();
+    // put columns of the table, each followed by a row not existed
+    List<ColumnCoordinate> columns = new ArrayList<ColumnCoordinate>();
+    List<Get> gets = new ArrayList<Get>();
+    for (ColumnCoordinate columnCoordinate : TRANSACTION_COLUMNS) {
+      if (Bytes.equals(TABLENAME, columnCoordinate.getTableName())
+          && getColumnType(columnCoordinate).equals(Type.Put)) {
+        columns.add(columnCoordinate);
+        gets.add(new Get(columnCoordinate.getRow()).addColumn(columnCoordinate.getFamily(),
+          columnCoordinate.getQualifier()));
+        gets.add(new Get(Bytes.add(columnCoordinate.getRow(), Bytes.toBytes("no such row")))
+            .addColumn(columnCoordinate.getFamily(), columnCoordinate.getQualifier()));
+      }
+    }
+    Assert.assertTrue(columns.size() > 1);
+
+    List<ThemisEndpoint> endpoints = new ArrayList<ThemisEndpoint>();
+    for (HRegion region : TEST_UTIL.getHBaseCluster().getRegions(TABLENAME)) {
+      endpoints.add((ThemisEndpoint) region.getCoprocessorHost().findCoprocessor(
+        ThemisEndpoint.class.getName()));
+    }
+    try {
+      // each response only contains one result if the size limit is reached by any result
+      for (ThemisEndpoint endpoint : endpoints) {
+        endpoint.batchGetConcurrencyPerRequest = 1;
+        endpoint.batchGetMaxResultSize = 1;
+      }
+      ThemisBatchGetResponse response = cpClient.themisBatchGet(TABLENAME, gets, 0,
+        commitTs + 1, false, false);
+      Assert.assertEquals(1, response.getRsCount());
+      Assert.assertEquals(0, response.getGetIndexes(0));
+      Assert.assertEquals(1, response.getNextIndex());
+      response = cpClient.themisBatchGet(TABLENAME, gets, 1, commitTs + 1, false, false);
+      Assert.assertEquals(1, response.getRsCount());
+      Assert.assertEquals(2, response.getGetIndexes(0));
+      Assert.assertEquals(3, response.getNextIndex());
+      
+      // client continues the batch until all gets executed
+      Result[] results = cpClient.themisBatchGetInOrder(TABLENAME, gets, commitTs + 1, false);
+      Assert.assertEquals(gets.size(), results.length);
+      for (int i = 0; i < columns.size(); ++i) {
+        checkGetOneColumnResult(columns.get(i), results[2 * i]);
+        Assert.assertNull(results[2 * i + 1]);
+      }
+      Assert.assertEquals(columns.size(),
+        cpClient.themisBatchGet(TABLENAME, gets, commitTs + 1, false).size());
+    } finally {
+      for (ThemisEndpoint endpoint : endpoints) {
+        endpoint.batchGetConcurrencyPerRequest = ThemisEndpoint.DEFAULT_THEMIS_BATCH_GET_CONCURRENCY_PER_REQUEST;
+        endpoint.batchGetMaxResultSize = ThemisEndpoint.DEFAULT_THEMIS_BATCH_GET_MAX_RESULT_SIZE;
+      }
+    }
+
+    // all the gets are returned in one response by default
+    ThemisBatchGetResponse response = cpClient.themisBatchGet(TABLENAME, gets, 0, commitTs + 1,
+      false, false);
+    Assert.assertFalse(response.hasNextIndex());
+    Assert.assertEquals(columns.size(), response.getRsCount());
+    for (int i = 0; i < columns.size(); ++i) {
+      Assert.assertEquals(2 * i, response.getGetIndexes(i));
+    }
+  }
+
+  @Test
+  public void testThemisBatchGetByRowGroup() throws IOException {
+    commitTestTransaction();
+    // older version of data won't be read
+    writeData(COLUMN_WITH_ZZ_ROW, prewriteTs - 10, ANOTHER_VALUE);
+    writePutAndData(COLUMN_WITH_ZZ_ROW, prewriteTs, commitTs);
+    List<Get> gets = new ArrayList<Get>();
+    for (byte[] row : new byte[][] { ZZ_ROW, Bytes.toBytes("no such row"), ROW, ANOTHER_ROW, ROW }) {
+      gets.add(new Get(row).addColumn(FAMILY, QUALIFIER).addColumn(ANOTHER_FAMILY, QUALIFIER)
+          .addColumn(FAMILY, ANOTHER_QUALIFIER));
+    }
+    ThemisEndpoint endpoint = getEndpoint(ROW);
+    List<ClientProtos.Get> protoGets = new ArrayList<ClientProtos.Get>();
+    for (Get get : gets) {
+      protoGets.add(ProtobufUtil.toGet(get));
+    }
+    Assert.assertTrue(endpoint.canReadByRowGroup(protoGets));
+    Assert.assertFalse(endpoint.canReadByRowGroup(protoGets.subList(0, 1)));
+    Assert.assertFalse(endpoint.canReadByRowGroup(Lists.newArrayList(protoGets.get(0),
+      ProtobufUtil.toGet(new Get(ROW).addColumn(FAMILY, QUALIFIER)))));
+    Assert.assertFalse(endpoint.canReadByRowGroup(Lists.newArrayList(protoGets.get(0),
+      ProtobufUtil.toGet(new Get(ROW).addFamily(FAMILY)))));
+    Assert.assertFalse(endpoint.canReadByRowGroup(Lists.newArrayList(protoGets.get(0),
+      ProtobufUtil.toGet(new Get(ROW).addColumn(FAMILY, QUALIFIER).addColumn(ANOTHER_FAMILY,
+        QUALIFIER).addColumn(FAMILY, ANOTHER_QUALIFIER).setFilter(new KeyOnlyFilter())))));
+
+    // results are the same as reading by themisGet
+    checkBatchGetByRowGroup(endpoint, gets, protoGets, commitTs + 1, false);
+    Assert.assertArrayEquals(VALUE, endpoint.themisGetByRowGroup(protoGets, commitTs + 1, false,
+      false, null)[0].getValue(FAMILY, QUALIFIER));
+    checkBatchGetByRowGroup(endpoint, gets, protoGets, prewriteTs, false);
+
+    // return the lock if encounter conflict lock
+    nextTransactionTs();
+    prewritePrimaryRow();
+    Result[] results = checkBatchGetByRowGroup(endpoint, gets, protoGets, commitTs, false);
+    Assert.assertTrue(ThemisCpUtil.isLockResult(results[2]));
+    Assert.assertFalse(ThemisCpUtil.isLockResult(results[0]));
+    Assert.assertNull(results[3]);
+    results = checkBatchGetByRowGroup(endpoint, gets, protoGets, commitTs, true);
+    Assert.assertFalse(ThemisCpUtil.isLockResult(results[2]));
+  }
+
+  @Test
+  public void testThemisGetBySinglePass() throws IOException {
+    commitTestTransaction();
+    ThemisEndpoint endpoint = getEndpoint(ROW);
+    Get get = new Get(ROW).addColumn(FAMILY, QUALIFIER).addColumn(ANOTHER_FAMILY, QUALIFIER)
+        .addColumn(FAMILY, ANOTHER_QUALIFIER);
+    Assert.assertTrue(endpoint.canGetBySinglePass(get));
+    Assert.assertFalse(endpoint.canGetBySinglePass(new Get(ROW).addFamily(FAMILY)));
+    Assert.assertFalse(endpoint.canGetBySinglePass(new Get(ROW).addColumn(FAMILY, QUALIFIER)
+        .setFilter(new KeyOnlyFilter())));
+    Get wideGet = new Get(ROW);
+    for (int i = 0; i <= endpoint.singlePassGetMaxColumns; ++i) {
+      wideGet.addColumn(FAMILY, Bytes.toBytes("Qualifier" + i));
+    }
+    Assert.assertFalse(endpoint.canGetBySinglePass(wideGet));
+
+    // newer data versions which are not committed
+    for (int i = 1; i <= endpoint.singlePassGetMaxVersions; ++i) {
+      writeData(COLUMN, prewriteTs + i, ANOTHER_VALUE);
+    }
+    checkThemisGetBySinglePass(endpoint, get, commitTs + 1, false);
+    checkThemisGetBySinglePass(endpoint, get, prewriteTs, false);
+    Assert.assertArrayEquals(VALUE, endpoint.themisGetBySinglePass(getRegion(ROW), get,
+      commitTs + 10, false).getValue(FAMILY, QUALIFIER));
+    // read data column again if the data version is not read by single pass
+    long fallbackCount = ThemisCpStatistics.getThemisCpStatistics().singlePassGetFallbackCount
+        .value();
+    writeData(COLUMN, prewriteTs + endpoint.singlePassGetMaxVersions + 1, ANOTHER_VALUE);
+    checkThemisGetBySinglePass(endpoint, get, commitTs + 10, false);
+    Assert.assertTrue(ThemisCpStatistics.getThemisCpStatistics().singlePassGetFallbackCount
+        .value() > fallbackCount);
+
+    // return the lock if encounter conflict lock
+    nextTransactionTs();
+    prewritePrimaryRow();
+    Assert.assertTrue(ThemisCpUtil.isLockResult(checkThemisGetBySinglePass(endpoint, get,
+      commitTs, false)));
+    Assert.assertFalse(ThemisCpUtil.isLockResult(checkThemisGetBySinglePass(endpoint, get,
+      commitTs, true)));
+  }
+
+  // check the result of single pass is the same as the result of reading by two gets
+  protected Result checkThemisGetBySinglePass(ThemisEndpoint endpoint, Get get, long startTs,
+      boolean ignoreLock) throws IOException {
+    Result result = endpoint.themisGetBySinglePass(getRegion(get.getRow()), get, startTs,
+      ignoreLock);
+    int singlePassGetMaxColumns = endpoint.singlePassGetMaxColumns;
+    endpoint.singlePassGetMaxColumns = 0;
+    try {
+      checkResultEquals(cpClient.themisGet(TABLENAME, get, startTs, ignoreLock), result);
+    } finally {
+      endpoint.singlePassGetMaxColumns = singlePassGetMaxColumns;
+    }
+    checkResultEquals(result, cpClient.themisGet(TABLENAME, get, startTs, ignoreLock));
+    return result;
+  }
+
+  protected HRegion getRegion(byte[] row) throws IOException {
+    for (HRegion region : TEST_UTIL.getHBaseCluster().getRegions(TABLENAME)) {
+      if (HRegion.rowIsInRange(region.getRegionInfo(), row)) {
+        return region;
+      }
+    }
+    return null;
+  }
+
+  protected Result[] checkBatchGetByRowGroup(ThemisEndpoint endpoint, List<Get> gets,
+      List<ClientProtos.Get> protoGets, long startTs, boolean ignoreLock) throws IOException {
+    Result[] results = endpoint.themisGetByRowGroup(protoGets, startTs, ignoreLock, false, null);
+    Result[] clientResults = cpClient.themisBatchGetInOrder(TABLENAME, gets, startTs, ignoreLock);
+    Assert.assertEquals(gets.size(), results.length);
+    for (int i = 0; i < gets.size(); ++i) {
+      Result expect = cpClient.themisGet(TABLENAME, gets.get(i), startTs, ignoreLock);
+      checkResultEquals(expect, results[i]);
+      checkResultEquals(expect, clientResults[i]);
+    }
+    return results;
+  }
+
+  protected static void checkResultEquals(Result expect, Result actual) {
+    if (expect == null || expect.isEmpty()) {
+      Assert.assertTrue(actual == null || actual.isEmpty());
+      return;
+    }
+    Assert.assertEquals(expect.size(), actual.size());
+    for (int i = 0; i < expect.size(); ++i) {
+      KeyValue expectKv = expect.raw()[i];
+      KeyValue actualKv = actual.raw()[i];
+      Assert.assertEquals(expectKv, actualKv);
+      Assert.assertEquals(expectKv.getTimestamp(), actualKv.getTimestamp());
+      Assert.assertArrayEquals(expectKv.getValue(), actualKv.getValue());
+    }
+  }
+
+  @Test
+  public void testThemisScanByDataScanner() throws IOException {
+    commitTestTransaction();
+    List<byte[]> rows = new ArrayList<byte[]>();
+    for (int i = 0; i < 10; ++i) {
+      rows.add(Bytes.toBytes("ScanRow-" + i));
+    }
+    try {
+      for (int i = 0; i < rows.size(); ++i) {
+        for (ColumnCoordinate column : new ColumnCoordinate[] { COLUMN,
+            COLUMN_WITH_ANOTHER_FAMILY, COLUMN_WITH_ANOTHER_QUALIFIER }) {
+          ColumnCoordinate c = new ColumnCoordinate(TABLENAME, rows.get(i), column.getFamily(),
+              column.getQualifier());
+          if (i == 3 || i == 4) {
+            // data columns are missing
+            writePutColumn(c, prewriteTs, commitTs);
+          } else {
+            writeData(c, prewriteTs - 10, ANOTHER_VALUE);
+            writePutAndData(c, prewriteTs, commitTs);
+            writeData(c, commitTs + 10, ANOTHER_VALUE);
+          }
+        }
+      }
+      ThemisScanObserver observer = (ThemisScanObserver) getRegion(ROW).getCoprocessorHost()
+          .findCoprocessor(ThemisScanObserver.class.getName());
+      Assert.assertEquals(0, checkScanByDataScanner(observer, new Scan(rows.get(5)), 5));
+      // the data scanner passes the rows whose data columns are missing and stops at the next row
+      // with data, which will be read by get
+      Assert.assertEquals(1, checkScanByDataScanner(observer, new Scan(), 9));
+      Assert.assertEquals(1, checkScanByDataScanner(observer, new Scan().addFamily(FAMILY), 9));
+      Assert.assertEquals(1, checkScanByDataScanner(observer, new Scan().addColumn(FAMILY,
+        QUALIFIER).addColumn(ANOTHER_FAMILY, QUALIFIER), 9));
+      Assert.assertEquals(1, checkScanByDataScanner(observer, new Scan(rows.get(2), rows.get(8)),
+        4));
+      Assert.assertEquals(0, checkScanByDataScanner(observer, new Scan(rows.get(2), rows.get(5)),
+        1));
+      // read by get if there are filters on data columns
+      Scan scan = new Scan();
+      scan.setFilter(new ValueFilter(CompareOp.EQUAL, new BinaryComparator(VALUE)));
+      Assert.assertEquals(11, checkScanByDataScanner(observer, scan, 9));
+    } finally {
+      for (byte[] row : rows) {
+        getTable(TABLENAME).delete(new Delete(row).deleteFamily(FAMILY, commitTs + 100)
+            .deleteFamily(ANOTHER_FAMILY, commitTs + 100)
+            .deleteFamily(ColumnUtil.PUT_FAMILY_NAME_BYTES, commitTs + 100));
+      }
+    }
+  }
+
+  // check the results of reading data by scanner are the same as reading data by get, return the
+  // count of rows read by get when reading data by scanner
+  protected long checkScanByDataScanner(ThemisScanObserver observer, Scan scan, int expectCount)
+      throws IOException {
+    List<Result> results = new ArrayList<Result>();
+    List<Result> expects = new ArrayList<Result>();
+    long getCount = 0;
+    for (boolean readDataByScanner : new boolean[] { true, false }) {
+      long beginGetCount = ThemisCpStatistics.getThemisCpStatistics().scanReadDataByGetCount
+          .value();
+      observer.readDataByScanner = readDataByScanner;
+      try {
+        Scan themisScan = new Scan(scan);
+        themisScan.setAttribute(ThemisScanObserver.TRANSACTION_START_TS,
+          Bytes.toBytes(commitTs + 1));
+        ResultScanner scanner = getTable(TABLENAME).getScanner(themisScan);
+        Result result = null;
+        while ((result = scanner.next()) != null) {
+          (readDataByScanner ? results : expects).add(result);
+        }
+        scanner.close();
+      } finally {
+        observer.readDataByScanner = true;
+      }
+      if (readDataByScanner) {
+        getCount = ThemisCpStatistics.getThemisCpStatistics().scanReadDataByGetCount
+            .value() - beginGetCount;
+      }
+    }
+    Assert.assertEquals(expectCount, expects.size());
+    Assert.assertEquals(expects.size(), results.size());
+    for (int i = 0; i < expects.size(); ++i) {
+      checkResultEquals(expects.get(i), results.get(i));
+    }
+    return getCount;
+  }
+
+  protected ThemisEndpoint getEndpoint(byte[] row) throws IOException {
+    return (ThemisEndpoint) getRegion(row).getCoprocessorHost().findCoprocessor(
+      ThemisEndpoint.class.getName());
+  }
+
   @Test
   public void testThemisGetSuccess() throws IOException {
     commitTestTransaction();
@@ -239,6 +539,98 @@ public class TestThemisCoprocessorRead extends TransactionTestBase {
     Assert.assertEquals(2, iResult.list().size());
   }
 
+  @Test
+  public void testThemisGetResolveLockByCommittedPrimary() throws IOException {
+    // only commit the primary row, locks of secondary rows will be left
+    prewritePrimaryRow();
+    prewriteSecondaryRows();
+    commitPrimaryRow();
+    for (ColumnCoordinate columnCoordinate : new ColumnCoordinate[] { COLUMN_WITH_ANOTHER_TABLE,
+        COLUMN_WITH_ANOTHER_ROW }) {
+      Assert.assertNotNull(readLockBytes(columnCoordinate));
+      Get get = new Get(columnCoordinate.getRow()).addColumn(columnCoordinate.getFamily(),
+        columnCoordinate.getQualifier());
+      // committed before startTs, should read the committed data
+      Result iResult = cpClient.themisGet(columnCoordinate.getTableName(), get, commitTs + 1);
+      checkGetOneColumnResult(columnCoordinate, iResult);
+      // committed after startTs, should ignore the lock
+      iResult = cpClient.themisGet(columnCoordinate.getTableName(), get, commitTs);
+      Assert.assertFalse(ThemisCpUtil.isLockResult(iResult));
+      Assert.assertTrue(iResult.isEmpty());
+    }
+    // locks will also be resolved when scanning
+    Scan scan = new Scan();
+    scan.setAttribute(ThemisScanObserver.TRANSACTION_START_TS, Bytes.toBytes(commitTs + 1));
+    ResultScanner scanner = getTable(TABLENAME).getScanner(scan);
+    Result result = null;
+    int count = 0;
+    while ((result = scanner.next()) != null) {
+      Assert.assertFalse(ThemisCpUtil.isLockResult(result));
+      ++count;
+    }
+    scanner.close();
+    // the secondary row of TABLENAME only contains a deleted column
+    Assert.assertEquals(1, count);
+  }
+
+  @Test
+  public void testThemisGetWithResolvedLocksOfCommittedPrimary() throws IOException {
+    prewritePrimaryRow();
+    prewriteSecondaryRows();
+    // commit the primary column by writing directly, so that the committed primary cache is missed
+    eraseLock(COLUMN, prewriteTs);
+    writeWriteColumn(COLUMN, prewriteTs, commitTs, getColumnType(COLUMN).equals(Type.Put));
+    ColumnCoordinate columnCoordinate = COLUMN_WITH_ANOTHER_TABLE;
+    Get get = new Get(columnCoordinate.getRow()).addColumn(columnCoordinate.getFamily(),
+      columnCoordinate.getQualifier());
+    Result iResult = cpClient.themisGet(columnCoordinate.getTableName(), get, commitTs + 1);
+    Assert.assertTrue(ThemisCpUtil.isLockResult(iResult));
+    // the secondary will be committed in server side
+    Pair<Result, List<ThemisLock>> resultAndLocks = cpClient.themisGetWithResolvedLocks(
+      columnCoordinate.getTableName(), get, commitTs + 1);
+    checkGetOneColumnResult(columnCoordinate, resultAndLocks.getFirst());
+    Assert.assertEquals(1, resultAndLocks.getSecond().size());
+    Assert.assertEquals(columnCoordinate, resultAndLocks.getSecond().get(0).getColumn());
+    Assert.assertNull(readLockBytes(columnCoordinate));
+    Assert.assertEquals(prewriteTs, readWrite(columnCoordinate).longValue());
+
+    // lock of transaction which is not committed could not be resolved
+    nextTransactionTs();
+    writeLockAndData(COLUMN_WITH_ANOTHER_TABLE);
+    resultAndLocks = cpClient.themisGetWithResolvedLocks(columnCoordinate.getTableName(), get,
+      commitTs + 1);
+    Assert.assertTrue(ThemisCpUtil.isLockResult(resultAndLocks.getFirst()));
+    Assert.assertEquals(0, resultAndLocks.getSecond().size());
+    Assert.assertNotNull(readLockBytes(columnCoordinate));
+  }
+
+  @Test
+  public void testThemisGetWithResolvedLocksOfExpiredLock() throws IOException {
+    if (TEST_UTIL != null) {
+      TransactionTTL.init(conf);
+      truncateTable(TABLENAME);
+      long expiredTs = TransactionTTL.getExpiredTimestampForWrite(System.currentTimeMillis()
+          - TransactionTTL.transactionTTLTimeError);
+      writeLockAndData(COLUMN, expiredTs);
+      Get get = new Get(COLUMN.getRow()).addColumn(COLUMN.getFamily(), COLUMN.getQualifier());
+      Pair<Result, List<ThemisLock>> resultAndLocks = cpClient.themisGetWithResolvedLocks(
+        TABLENAME, get, expiredTs + 1);
+      // the expired transaction will be rolled back in server side
+      Assert.assertTrue(resultAndLocks.getFirst().isEmpty());
+      Assert.assertEquals(1, resultAndLocks.getSecond().size());
+      Assert.assertEquals(getLock(COLUMN, expiredTs), resultAndLocks.getSecond().get(0));
+      Assert.assertNull(readLockBytes(COLUMN, expiredTs));
+
+      // resolve locks by batch get, the lock at expiredTs has been deleted
+      writeLockAndData(COLUMN, expiredTs - 1);
+      Pair<List<Result>, List<ThemisLock>> resultsAndLocks = cpClient
+          .themisBatchGetWithResolvedLocks(TABLENAME, Lists.newArrayList(get), expiredTs + 1);
+      Assert.assertNull(resultsAndLocks.getFirst());
+      Assert.assertEquals(1, resultsAndLocks.getSecond().size());
+      Assert.assertNull(readLockBytes(COLUMN, expiredTs - 1));
+    }
+  }
+
   @Test
   public void testGetOneCellFromMultiColumnsRow() throws IOException {
     commitOneColumn(new ColumnCoordinate(TABLENAME, ROW, ANOTHER_FAMILY, ANOTHER_QUALIFIER), Type.Put);
@@ -282,6 +674,21 @@ public class TestThemisCoprocessorRead extends TransactionTestBase {
     Assert.assertEquals(prewriteTs + 30,
       result.getColumnLatest(COLUMN_WITH_ANOTHER_FAMILY.getFamily(),
         COLUMN_WITH_ANOTHER_FAMILY.getQualifier()).getTimestamp());
+
+    // ColumnTimestampFilter could be used by the get of client
+    ColumnTimestampFilter filter = new ColumnTimestampFilter();
+    filter.addColumnTimestamp(COLUMN_WITH_ANOTHER_FAMILY, prewriteTs + 30);
+    filter.addColumnTimestamp(COLUMN, prewriteTs);
+    get = new Get(ROW).addFamily(COLUMN.getFamily()).addFamily(
+      COLUMN_WITH_ANOTHER_FAMILY.getFamily()).setMaxVersions();
+    get.setFilter(filter);
+    result = getTable(TABLENAME).get(get);
+    Assert.assertEquals(2, result.size());
+    Assert.assertEquals(prewriteTs,
+      result.getColumnLatest(COLUMN.getFamily(), COLUMN.getQualifier()).getTimestamp());
+    Assert.assertEquals(prewriteTs + 30,
+      result.getColumnLatest(COLUMN_WITH_ANOTHER_FAMILY.getFamily(),
+        COLUMN_WITH_ANOTHER_FAMILY.getQualifier()).getTimestamp());
   }
   
   @Test
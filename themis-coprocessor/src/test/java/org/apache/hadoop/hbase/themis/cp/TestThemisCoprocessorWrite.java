@@ -184,6 +184,17 @@ public class TestThemisCoprocessorWrite extends TransactionTestBase {
     }
   }
   
+  @Test
+  public void testPrewriteRowWithLockConflictOfNonFirstColumn() throws IOException {
+    // all columns of the row are checked by one read, the conflict of any column should be found
+    writeLockAndData(COLUMN_WITH_ANOTHER_QUALIFIER);
+    nextTransactionTs();
+    ThemisLock conflict = invokePrewriteRow(PRIMARY_ROW, commitTs, 2);
+    Assert.assertNotNull(conflict);
+    Assert.assertTrue(getLock(COLUMN_WITH_ANOTHER_QUALIFIER, lastTs(prewriteTs)).equals(conflict));
+    Assert.assertNull(readLockBytes(COLUMN));
+  }
+  
   @Test
   public void testPrewriteColumnWithNewWriteConflict() throws IOException {
     // older write, won't cause write conflict
@@ -291,4 +302,179 @@ public class TestThemisCoprocessorWrite extends TransactionTestBase {
       truncateTable(TABLENAME);
     }
   }
+  
+  @Test
+  public void testCommitRowsInOnePhase() throws IOException {
+    List<RowMutation> rows = Lists.newArrayList(PRIMARY_ROW, SECONDARY_ROWS.get(1).getSecond());
+    // the reads served before the region is opened are not bounded without transaction ttl
+    if (!TransactionTTL.transactionTTLEnable) {
+      Assert.assertFalse(cpClient.commitRowsInOnePhase(TABLENAME, rows, prewriteTs, commitTs));
+      Assert.assertNull(readWrite(COLUMN));
+    }
+    reopenTableWithTransactionTTL(TABLENAME, true);
+    try {
+      // the reads served before reopened are bounded by the time of opening plus the clock error,
+      // the commit with older commitTs is rejected
+      Assert.assertFalse(cpClient.commitRowsInOnePhase(TABLENAME, rows, prewriteTs, commitTs));
+      Assert.assertNull(readWrite(COLUMN));
+      timestampBase = TransactionTTL.toTimestamp(System.currentTimeMillis()
+          + TransactionTTL.transactionTTLTimeError);
+      nextTransactionTs();
+      Assert.assertTrue(cpClient.commitRowsInOnePhase(TABLENAME, rows, prewriteTs, commitTs));
+      for (RowMutation row : rows) {
+        checkCommitRowSuccess(TABLENAME, row);
+      }
+      long committedPrewriteTs = prewriteTs;
+
+      // conflict with the lock of another transaction, nothing is written
+      nextTransactionTs();
+      Assert.assertNull(prewritePrimaryRow());
+      long lockTs = prewriteTs;
+      nextTransactionTs();
+      Assert.assertFalse(cpClient.commitRowsInOnePhase(TABLENAME, rows, prewriteTs, commitTs));
+      Assert.assertEquals(committedPrewriteTs, readDelete(COLUMN_WITH_ANOTHER_ROW).longValue());
+      for (ColumnCoordinate columnCoordinate : PRIMARY_ROW_COLUMNS) {
+        eraseLock(columnCoordinate, lockTs);
+      }
+
+      // rejected after a read with startTs larger than commitTs
+      nextTransactionTs();
+      cpClient.themisGet(TABLENAME, new Get(ROW).addColumn(FAMILY, QUALIFIER), commitTs + 1);
+      Assert.assertFalse(cpClient.commitRowsInOnePhase(TABLENAME, rows, prewriteTs, commitTs));
+      Assert.assertEquals(committedPrewriteTs, readDelete(COLUMN_WITH_ANOTHER_ROW).longValue());
+      commitTs = commitTs + 2;
+      Assert.assertTrue(cpClient.commitRowsInOnePhase(TABLENAME, rows, prewriteTs, commitTs));
+      for (RowMutation row : rows) {
+        checkCommitRowSuccess(TABLENAME, row);
+      }
+    } finally {
+      reopenTableWithTransactionTTL(TABLENAME, false);
+      // this ut writes with timestamps after the time of opening, need delete data by truncating
+      truncateTable(TABLENAME);
+    }
+  }
+
+  @Test
+  public void testAsyncCommitPrewrite() throws Exception {
+    ThemisLock primaryLock = getLock(COLUMN);
+    primaryLock.setMinCommitTs(prewriteTs + 1);
+    ThemisLock secondaryLock = getLock(COLUMN_WITH_ANOTHER_TABLE);
+    secondaryLock.setMinCommitTs(prewriteTs + 1);
+    // the reads served before the region is opened are not bounded without transaction ttl
+    if (!TransactionTTL.transactionTTLEnable) {
+      try {
+        cpClient.prewriteRow(TABLENAME, PRIMARY_ROW.getRow(), PRIMARY_ROW.mutationList(),
+          prewriteTs, ThemisLock.toByte(primaryLock), ThemisLock.toByte(secondaryLock), 2);
+        Assert.fail();
+      } catch (IOException e) {
+        Assert.assertTrue(e.getMessage().indexOf("async-commit prewrite is rejected") >= 0);
+      }
+      Assert.assertNull(readLockBytes(COLUMN));
+    }
+    reopenTableWithTransactionTTL(TABLENAME, true);
+    reopenTableWithTransactionTTL(ANOTHER_TABLENAME, true);
+    try {
+      Assert.assertNull(cpClient.prewriteRow(TABLENAME, PRIMARY_ROW.getRow(),
+        PRIMARY_ROW.mutationList(), prewriteTs, ThemisLock.toByte(primaryLock),
+        ThemisLock.toByte(secondaryLock), 2));
+      // raised above the time of opening plus the clock error
+      long minCommitTs = ThemisLock.parseFromByte(readLockBytes(COLUMN)).getMinCommitTs();
+      Assert.assertTrue(minCommitTs > commitTs);
+      // readers skipping the locks could not see the commit with smaller commitTs
+      try {
+        cpClient.commitRow(TABLENAME, PRIMARY_ROW.getRow(), PRIMARY_ROW.mutationListWithoutValue(),
+          prewriteTs, commitTs, 2);
+        Assert.fail();
+      } catch (IOException e) {
+        Assert.assertTrue(e.getMessage().indexOf("less than minCommitTs") >= 0);
+      }
+      Assert.assertNotNull(readLockBytes(COLUMN));
+
+      // committed in background once the secondaries are prewritten
+      byte[] secondaryLockBytes = ThemisLock.toByte(secondaryLock);
+      for (Pair<byte[], RowMutation> secondary : SECONDARY_ROWS) {
+        RowMutation row = secondary.getSecond();
+        Assert.assertNull(cpClient.prewriteSecondaryRow(secondary.getFirst(), row.getRow(),
+          row.mutationList(), prewriteTs, secondaryLockBytes));
+      }
+      long deadline = System.currentTimeMillis() + 10000;
+      while ((readLockBytes(COLUMN) != null || !secondaryLocksErased())
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      ServerLockCleaner lockCleaner = new ServerLockCleaner(connection, cpClient);
+      Long committedTs = lockCleaner.getTimestampOfWriteIndexingPrewriteTs(COLUMN, prewriteTs);
+      Assert.assertNotNull(committedTs);
+      Assert.assertTrue(committedTs >= minCommitTs);
+      for (ColumnCoordinate columnCoordinate : TRANSACTION_COLUMNS) {
+        Assert.assertNull(readLockBytes(columnCoordinate));
+        Assert.assertEquals(committedTs,
+          lockCleaner.getTimestampOfWriteIndexingPrewriteTs(columnCoordinate, prewriteTs));
+      }
+    } finally {
+      reopenTableWithTransactionTTL(TABLENAME, false);
+      reopenTableWithTransactionTTL(ANOTHER_TABLENAME, false);
+      // this ut commits with timestamps after the time of opening, need delete data by truncating
+      truncateTable(TABLENAME);
+      truncateTable(ANOTHER_TABLENAME);
+    }
+  }
+
+  // the transaction ttl of region is set by the value of table descriptor when the region is opened
+  protected void reopenTableWithTransactionTTL(byte[] tableName, boolean enable)
+      throws IOException {
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      HTableDescriptor desc = admin.getTableDescriptor(tableName);
+      if (enable) {
+        desc.setValue(TransactionTTL.THEMIS_TRANSACTION_TTL_ENABLE_KEY, "true");
+      } else {
+        desc.remove(TransactionTTL.THEMIS_TRANSACTION_TTL_ENABLE_KEY);
+      }
+      admin.disableTable(tableName);
+      admin.modifyTable(tableName, desc);
+      admin.enableTable(tableName);
+    } finally {
+      admin.close();
+    }
+    connection.clearRegionCache(tableName);
+  }
+
+  @Test
+  public void testCommitRowAndSecondaries() throws Exception {
+    Assert.assertNull(prewritePrimaryRow());
+    for (ThemisLock lock : prewriteSecondaryRows()) {
+      Assert.assertNull(lock);
+    }
+    cpClient.commitRowAndSecondaries(COLUMN.getTableName(), PRIMARY_ROW.getRow(),
+      PRIMARY_ROW.mutationListWithoutValue(), prewriteTs, commitTs, 2);
+    checkCommitRowSuccess(COLUMN.getTableName(), PRIMARY_ROW);
+    // secondaries are committed in background
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!secondaryLocksErased() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    checkCommitSecondariesSuccess();
+
+    // can't commit if the primary lock has been erased
+    nextTransactionTs();
+    deleteOldDataAndUpdateTs();
+    prewritePrimaryRow();
+    eraseLock(COLUMN, prewriteTs);
+    try {
+      cpClient.commitRowAndSecondaries(COLUMN.getTableName(), PRIMARY_ROW.getRow(),
+        PRIMARY_ROW.mutationListWithoutValue(), prewriteTs, commitTs, 2);
+      Assert.fail();
+    } catch (LockCleanedException e) {}
+    Assert.assertNull(readWrite(COLUMN));
+  }
+
+  protected boolean secondaryLocksErased() throws IOException {
+    for (ColumnCoordinate columnCoordinate : SECONDARY_COLUMNS) {
+      if (readLockBytes(columnCoordinate) != null) {
+        return false;
+      }
+    }
+    return true;
+  }
 }
@@ -37,6 +37,8 @@ import org.apache.hadoop.hbase.util.Pair;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
+
 public class TestThemisCpUtil extends TestBase {
   @Test
   public void testGetAllowedFilterClassNamesString() {
@@ -208,13 +210,13 @@ public class TestThemisCpUtil extends TestBase {
     filters.addFilter(new SingleColumnValueFilter(null, null, null, (byte[])null));
     filters.addFilter(new PrefixFilter(null));
     sourceGet.setFilter(filters);
-    dstGet.setFilter(new ExcludeDataColumnFilter());
+    dstGet.setFilter(new LockAndWriteColumnFilter(sourceGet.getFamilyMap()));
     ThemisCpUtil.moveRowkeyFiltersForWriteGet(sourceGet, dstGet);
     sourceFilter = (FilterList)sourceGet.getFilter();
     dstFilter = (FilterList)dstGet.getFilter();
     Assert.assertEquals(2, dstFilter.getFilters().size());
-    Assert.assertTrue((dstFilter.getFilters().get(0) instanceof ExcludeDataColumnFilter)
-        || (dstFilter.getFilters().get(1) instanceof ExcludeDataColumnFilter));
+    Assert.assertTrue((dstFilter.getFilters().get(0) instanceof LockAndWriteColumnFilter)
+        || (dstFilter.getFilters().get(1) instanceof LockAndWriteColumnFilter));
     dstGet.setFilter(null);
   }
   
@@ -249,6 +251,55 @@ public class TestThemisCpUtil extends TestBase {
     checkConstructedDataGet(putKvs, filter, get);
   }
   
+  @Test
+  public void testConstructSinglePassGet() throws IOException {
+    Get userGet = new Get(ROW).addColumn(FAMILY, QUALIFIER).addColumn(ANOTHER_FAMILY, QUALIFIER);
+    Get get = ThemisCpUtil.constructSinglePassGet(userGet, PREWRITE_TS, 3);
+    Assert.assertArrayEquals(ROW, get.getRow());
+    Assert.assertEquals(3, get.getMaxVersions());
+    Assert.assertEquals(0, get.getTimeRange().getMin());
+    Assert.assertEquals(PREWRITE_TS, get.getTimeRange().getMax());
+    Assert.assertTrue(get.getFilter() instanceof SinglePassGetFilter);
+    for (ColumnCoordinate c : new ColumnCoordinate[] { COLUMN, COLUMN_WITH_ANOTHER_FAMILY }) {
+      for (Column column : new Column[] { c, ColumnUtil.getLockColumn(c),
+          ColumnUtil.getPutColumn(c), ColumnUtil.getDeleteColumn(c) }) {
+        Assert.assertTrue(get.getFamilyMap().get(column.getFamily()).contains(column.getQualifier()));
+      }
+    }
+
+    // only the latest version of lock and write columns is included
+    SinglePassGetFilter filter = new SinglePassGetFilter();
+    Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL, filter.filterKeyValue(getLockKv(KEYVALUE)));
+    Assert.assertEquals(ReturnCode.INCLUDE_AND_NEXT_COL,
+      filter.filterKeyValue(getPutKv(COLUMN, PREWRITE_TS, COMMIT_TS)));
+    Assert.assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(KEYVALUE));
+  }
+
+  @Test
+  public void testSelectDataKvsByPutKvs() {
+    List<KeyValue> putKvs = new ArrayList<KeyValue>();
+    putKvs.add(getPutKv(COLUMN, PREWRITE_TS, COMMIT_TS));
+    putKvs.add(getPutKv(COLUMN_WITH_ANOTHER_FAMILY, PREWRITE_TS + 10, COMMIT_TS + 10));
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    kvs.add(new KeyValue(ROW, ANOTHER_FAMILY, QUALIFIER, PREWRITE_TS + 11, Type.Put, VALUE));
+    kvs.add(new KeyValue(ROW, ANOTHER_FAMILY, QUALIFIER, PREWRITE_TS + 10, Type.Put, VALUE));
+    kvs.add(new KeyValue(ROW, FAMILY, QUALIFIER, PREWRITE_TS + 1, Type.Put, VALUE));
+    kvs.add(new KeyValue(ROW, FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE));
+    kvs.addAll(putKvs);
+    Collections.sort(kvs, KeyValue.COMPARATOR);
+    List<KeyValue> dataKvs = ThemisCpUtil.selectDataKvsByPutKvs(putKvs, kvs);
+    Assert.assertEquals(2, dataKvs.size());
+    Assert.assertEquals(new KeyValue(ROW, ANOTHER_FAMILY, QUALIFIER, PREWRITE_TS + 10, Type.Put,
+        VALUE), dataKvs.get(0));
+    Assert.assertEquals(PREWRITE_TS + 10, dataKvs.get(0).getTimestamp());
+    Assert.assertEquals(KEYVALUE, dataKvs.get(1));
+    Assert.assertEquals(PREWRITE_TS, dataKvs.get(1).getTimestamp());
+
+    // return null if any data version is not read
+    kvs.remove(new KeyValue(ROW, FAMILY, QUALIFIER, PREWRITE_TS, Type.Put, VALUE));
+    Assert.assertNull(ThemisCpUtil.selectDataKvsByPutKvs(putKvs, kvs));
+  }
+
   @Test
   public void testGetPutKvs() {
     List<KeyValue> writeKvs = new ArrayList<KeyValue>();
@@ -301,14 +352,16 @@ public class TestThemisCpUtil extends TestBase {
       Assert.assertEquals(3, createdScan.getFamilies().length);
       checkReadWithWriteColumns(createdScan.getFamilyMap(), new ColumnCoordinate(FAMILY,
         QUALIFIER));
+      Assert.assertTrue(createdScan.getFamilyMap().containsKey(ANOTHER_FAMILY)
+          && createdScan.getFamilyMap().get(ANOTHER_FAMILY) == null);
     } else {
-      Assert.assertEquals(4, createdScan.getFamilies().length);
+      // the data family needn't be read if commit to different family
+      Assert.assertEquals(3, createdScan.getFamilies().length);
+      Assert.assertFalse(createdScan.getFamilyMap().containsKey(ANOTHER_FAMILY));
     }
-    Assert.assertTrue(createdScan.getFamilyMap().containsKey(ANOTHER_FAMILY)
-        && createdScan.getFamilyMap().get(ANOTHER_FAMILY) == null);
     Assert.assertTrue(createdScan.getFamilyMap().containsKey(ColumnUtil.LOCK_FAMILY_NAME)
       && createdScan.getFamilyMap().get(ColumnUtil.LOCK_FAMILY_NAME) == null);
-    Assert.assertTrue(createdScan.getFilter() instanceof ExcludeDataColumnFilter);
+    Assert.assertTrue(createdScan.getFilter() instanceof LockAndWriteColumnFilter);
   }
   
   @Test
@@ -349,7 +402,7 @@ public class TestThemisCpUtil extends TestBase {
       checkAddLockAndDataFamily(internalGet, ColumnUtil.LOCK_FAMILY_NAME,
         ColumnUtil.PUT_FAMILY_NAME_BYTES, ColumnUtil.DELETE_FAMILY_NAME_BYTES);
     }
-    Assert.assertTrue(internalGet.getFilter() instanceof ExcludeDataColumnFilter);
+    Assert.assertTrue(internalGet.getFilter() instanceof LockAndWriteColumnFilter);
     
     // test for combination of family-level and column-level transfer
     userGet = new Get(ROW);
@@ -365,7 +418,7 @@ public class TestThemisCpUtil extends TestBase {
       checkAddLockAndDataFamily(internalGet, ColumnUtil.LOCK_FAMILY_NAME,
         ColumnUtil.PUT_FAMILY_NAME_BYTES, ColumnUtil.DELETE_FAMILY_NAME_BYTES);
     }
-    Assert.assertTrue(internalGet.getFilter() instanceof ExcludeDataColumnFilter);
+    Assert.assertTrue(internalGet.getFilter() instanceof LockAndWriteColumnFilter);
   }
 
   @Test
@@ -394,7 +447,7 @@ public class TestThemisCpUtil extends TestBase {
       Assert.assertTrue(internalGet.getFamilyMap().containsKey(family));
       Assert.assertNull(internalGet.getFamilyMap().get(family));
     }
-    Assert.assertTrue(internalGet.getFilter() instanceof ExcludeDataColumnFilter);
+    Assert.assertTrue(internalGet.getFilter() instanceof LockAndWriteColumnFilter);
     
   }
   
@@ -405,6 +458,17 @@ public class TestThemisCpUtil extends TestBase {
     checkReadWithWriteColumns(get.getFamilyMap(), COLUMN);
   }
   
+  @Test
+  public void testConstructPrewriteConflictGet() {
+    Get get = ThemisCpUtil.constructPrewriteConflictGet(COLUMN.getRow(),
+      Lists.newArrayList(COLUMN, COLUMN_WITH_ANOTHER_FAMILY));
+    Assert.assertArrayEquals(COLUMN.getRow(), get.getRow());
+    checkReadWithLockAndWriteColumns(get.getFamilyMap(), COLUMN);
+    checkReadWithLockAndWriteColumns(get.getFamilyMap(), COLUMN_WITH_ANOTHER_FAMILY);
+    Assert.assertEquals(1, get.getMaxVersions());
+    Assert.assertNull(get.getFilter());
+  }
+  
   public static void checkReadWithLockAndWriteColumns(Map<byte[], NavigableSet<byte[]>> families,
       ColumnCoordinate columnCoordinate) {
     Column lockColumn = ColumnUtil.getLockColumn(columnCoordinate);
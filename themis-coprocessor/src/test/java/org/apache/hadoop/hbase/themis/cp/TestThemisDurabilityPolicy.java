@@ -0,0 +1,133 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.MiniHBaseCluster;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
+import org.apache.hadoop.hbase.themis.cp.ThemisDurabilityPolicy.Operation;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestThemisDurabilityPolicy extends TransactionTestBase {
+  protected ServerLockCleaner lockCleaner;
+
+  @BeforeClass
+  public static void setUpDurabilityPolicy() throws Exception {
+    // the recoverable writes of both tables skip the WAL, which are lost when the server crashes
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      for (byte[] tableName : new byte[][] { TABLENAME, ANOTHER_TABLENAME }) {
+        HTableDescriptor desc = admin.getTableDescriptor(tableName);
+        desc.setValue(Operation.SECONDARY_COMMIT.getKey(), Durability.SKIP_WAL.name());
+        desc.setValue(Operation.LOCK_ERASE.getKey(), Durability.SKIP_WAL.name());
+        admin.disableTable(tableName);
+        admin.modifyTable(tableName, desc);
+        admin.enableTable(tableName);
+      }
+    } finally {
+      admin.close();
+    }
+  }
+
+  @Override
+  public void initEnv() throws IOException {
+    super.initEnv();
+    lockCleaner = new ServerLockCleaner(connection, cpClient);
+  }
+
+  @Test
+  public void testCreateDurabilityPolicy() {
+    Configuration conf = new Configuration(false);
+    conf.set(Operation.SECONDARY_COMMIT.getKey(), "async_wal");
+    conf.set(Operation.PRIMARY_COMMIT.getKey(), "SKIP_WAL");
+    HTableDescriptor desc = new HTableDescriptor(TableName.valueOf(TABLENAME));
+    desc.setValue(Operation.LOCK_ERASE.getKey(), "SKIP_WAL");
+    ThemisDurabilityPolicy policy = new ThemisDurabilityPolicy(desc, conf);
+    Assert.assertEquals(Durability.ASYNC_WAL, policy.getDurability(Operation.SECONDARY_COMMIT));
+    Assert.assertEquals(Durability.SKIP_WAL, policy.getDurability(Operation.LOCK_ERASE));
+    // the durability of the table is set explicitly, and the writes deciding the transaction
+    // could not be weaker than the table
+    Assert.assertEquals(Durability.SYNC_WAL, policy.getDurability(Operation.PRIMARY_COMMIT));
+    Assert.assertEquals(Durability.SYNC_WAL, policy.getDurability(Operation.PRIMARY_PREWRITE));
+
+    // the value of table overrides the configuration
+    desc.setDurability(Durability.FSYNC_WAL);
+    desc.setValue(Operation.SECONDARY_COMMIT.getKey(), "USE_DEFAULT");
+    policy = new ThemisDurabilityPolicy(desc, conf);
+    Assert.assertEquals(Durability.FSYNC_WAL, policy.getDurability(Operation.SECONDARY_COMMIT));
+    Assert.assertEquals(Durability.FSYNC_WAL, policy.getDurability(Operation.SECONDARY_PREWRITE));
+
+    // a misspelled value falls back to the durability of the table
+    desc.setValue(Operation.LOCK_ERASE.getKey(), "SKIP_WALL");
+    conf.set(Operation.SECONDARY_COMMIT.getKey(), "async");
+    desc.remove(Operation.SECONDARY_COMMIT.getKey());
+    policy = new ThemisDurabilityPolicy(desc, conf);
+    Assert.assertEquals(Durability.FSYNC_WAL, policy.getDurability(Operation.LOCK_ERASE));
+    Assert.assertEquals(Durability.FSYNC_WAL, policy.getDurability(Operation.SECONDARY_COMMIT));
+  }
+
+  @Test
+  public void testRecoverSecondaryCommitAfterCrash() throws Exception {
+    prewritePrimaryRow();
+    prewriteSecondaryRows();
+    commitPrimaryRow();
+    commitSecondaryRow();
+    checkTransactionCommitSuccess();
+
+    crashRegionServer();
+    // the primary row is committed durably, the commits of the secondary rows are lost
+    checkCommitRowSuccess(TABLENAME, PRIMARY_ROW);
+    for (ColumnCoordinate columnCoordinate : new ColumnCoordinate[] { COLUMN_WITH_ANOTHER_TABLE,
+        COLUMN_WITH_ANOTHER_ROW }) {
+      Assert.assertNotNull(readLockBytes(columnCoordinate));
+      Assert.assertNull(readWrite(columnCoordinate));
+      // committed again by the commit column of primary
+      Assert.assertEquals(commitTs, lockCleaner.cleanLock(getLock(columnCoordinate)).longValue());
+    }
+    checkTransactionCommitSuccess();
+  }
+
+  @Test
+  public void testRecoverLockEraseAfterCrash() throws Exception {
+    prewritePrimaryRow();
+    prewriteSecondaryRows();
+    for (ColumnCoordinate columnCoordinate : TRANSACTION_COLUMNS) {
+      Assert.assertNotNull(cpClient.getLockAndErase(columnCoordinate, prewriteTs));
+    }
+
+    crashRegionServer();
+    // the erasure of the primary lock is durable, the erasures of the secondary locks are lost
+    Assert.assertNull(readLockBytes(COLUMN));
+    for (ColumnCoordinate columnCoordinate : SECONDARY_COLUMNS) {
+      Assert.assertNotNull(readLockBytes(columnCoordinate));
+      // erased again because the primary lock has been erased without commit
+      Assert.assertNull(lockCleaner.cleanLock(getLock(columnCoordinate)));
+    }
+    checkTransactionRollback();
+  }
+
+  // abort the region server serving the tables without flushing, the regions are recovered from
+  // the WAL by another region server
+  protected void crashRegionServer() throws Exception {
+    MiniHBaseCluster cluster = TEST_UTIL.getMiniHBaseCluster();
+    cluster.startRegionServer();
+    HRegion region = cluster.getRegions(ANOTHER_TABLENAME).get(0);
+    int serverIndex = cluster.getServerWith(region.getRegionName());
+    Assert.assertEquals(serverIndex, cluster.getServerWith(
+      cluster.getRegions(TABLENAME).get(0).getRegionName()));
+    cluster.abortRegionServer(serverIndex);
+    cluster.waitOnRegionServer(serverIndex);
+    for (byte[] tableName : new byte[][] { TABLENAME, ANOTHER_TABLENAME }) {
+      TEST_UTIL.waitUntilAllRegionsAssigned(TableName.valueOf(tableName));
+      connection.clearRegionCache(tableName);
+    }
+  }
+}
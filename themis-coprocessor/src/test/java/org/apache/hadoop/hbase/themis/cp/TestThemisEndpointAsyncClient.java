@@ -0,0 +1,128 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.themis.columns.RowMutation;
+import org.apache.hadoop.hbase.themis.lock.ThemisLock;
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class TestThemisEndpointAsyncClient extends TransactionTestBase {
+  @Test
+  public void testCommitTransaction() throws Exception {
+    ThemisEndpointAsyncClient asyncClient = new ThemisEndpointAsyncClient(connection, conf);
+    try {
+      Assert.assertNull(asyncClient.prewriteRow(COLUMN.getTableName(), PRIMARY_ROW.getRow(),
+        PRIMARY_ROW.mutationList(), prewriteTs, ThemisLock.toByte(getLock(COLUMN)),
+        getSecondaryLockBytes(), 2).get());
+      // prewrite and commit the secondary rows concurrently
+      List<ListenableFuture<ThemisLock>> prewrites = new ArrayList<ListenableFuture<ThemisLock>>();
+      for (Pair<byte[], RowMutation> secondary : SECONDARY_ROWS) {
+        prewrites.add(asyncClient.prewriteSecondaryRow(secondary.getFirst(), secondary
+            .getSecond().getRow(), secondary.getSecond().mutationList(), prewriteTs,
+          getSecondaryLockBytes()));
+      }
+      for (ThemisLock lock : Futures.allAsList(prewrites).get()) {
+        Assert.assertNull(lock);
+      }
+      asyncClient.commitRow(COLUMN.getTableName(), PRIMARY_ROW.getRow(),
+        PRIMARY_ROW.mutationListWithoutValue(), prewriteTs, commitTs, 2).get();
+      List<ListenableFuture<Void>> commits = new ArrayList<ListenableFuture<Void>>();
+      for (Pair<byte[], RowMutation> secondary : SECONDARY_ROWS) {
+        commits.add(asyncClient.commitSecondaryRow(secondary.getFirst(), secondary.getSecond()
+            .getRow(), secondary.getSecond().mutationListWithoutValue(), prewriteTs, commitTs));
+      }
+      Futures.allAsList(commits).get();
+      checkTransactionCommitSuccess();
+
+      Result result = asyncClient.themisGet(TABLENAME,
+        new Get(ROW).addColumn(COLUMN.getFamily(), COLUMN.getQualifier()), commitTs + 1, false)
+          .get();
+      Assert.assertArrayEquals(VALUE, result.getValue(COLUMN.getFamily(), COLUMN.getQualifier()));
+    } finally {
+      asyncClient.close();
+    }
+  }
+
+  @Test
+  public void testMaxConcurrencyPerServer() throws Exception {
+    final AtomicInteger running = new AtomicInteger(0);
+    final AtomicInteger maxRunning = new AtomicInteger(0);
+    ThemisEndpointClient countingClient = new ThemisEndpointClient(connection) {
+      @Override
+      public boolean isLockExpired(byte[] tableName, byte[] row, long timestamp)
+          throws IOException {
+        int current = running.incrementAndGet();
+        try {
+          int max = maxRunning.get();
+          while (current > max && !maxRunning.compareAndSet(max, current)) {
+            max = maxRunning.get();
+          }
+          Thread.sleep(10);
+          return super.isLockExpired(tableName, row, timestamp);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        } finally {
+          running.decrementAndGet();
+        }
+      }
+    };
+    // the tables of mini cluster are served by the same region server
+    ThemisEndpointAsyncClient asyncClient = new ThemisEndpointAsyncClient(connection,
+        countingClient, Executors.newFixedThreadPool(8), true, 2);
+    try {
+      List<ListenableFuture<Boolean>> futures = new ArrayList<ListenableFuture<Boolean>>();
+      for (int i = 0; i < 20; ++i) {
+        futures.add(asyncClient.isLockExpired(i % 2 == 0 ? TABLENAME : ANOTHER_TABLENAME, ROW,
+          prewriteTs));
+      }
+      Assert.assertEquals(20, Futures.allAsList(futures).get().size());
+      Assert.assertTrue(maxRunning.get() >= 1 && maxRunning.get() <= 2);
+    } finally {
+      asyncClient.close();
+    }
+  }
+
+  @Test
+  public void testSubmitWithoutBlocking() throws Exception {
+    // locating the region blocks until the latch is released, like looking up the meta table
+    final CountDownLatch metaLookup = new CountDownLatch(1);
+    HConnection blockingConnection = Mockito.mock(HConnection.class);
+    Mockito.when(blockingConnection.getRegionLocation(Mockito.any(TableName.class),
+      Mockito.any(byte[].class), Mockito.anyBoolean())).thenAnswer(new Answer<HRegionLocation>() {
+      public HRegionLocation answer(InvocationOnMock invocation) throws Throwable {
+        metaLookup.await();
+        Object[] args = invocation.getArguments();
+        return connection.getRegionLocation((TableName) args[0], (byte[]) args[1],
+          (Boolean) args[2]);
+      }
+    });
+    ThemisEndpointAsyncClient asyncClient = new ThemisEndpointAsyncClient(blockingConnection,
+        new ThemisEndpointClient(connection), Executors.newFixedThreadPool(2), true, 2);
+    try {
+      ListenableFuture<Boolean> future = asyncClient.isLockExpired(TABLENAME, ROW, prewriteTs);
+      Assert.assertFalse(future.isDone());
+      metaLookup.countDown();
+      Assert.assertNotNull(future.get());
+    } finally {
+      asyncClient.close();
+    }
+  }
+}
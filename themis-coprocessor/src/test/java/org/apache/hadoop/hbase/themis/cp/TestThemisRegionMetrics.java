@@ -0,0 +1,67 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestThemisRegionMetrics {
+  @Test
+  public void testRegisterAndRemoveRegion() {
+    String table = "TestThemisRegionMetricsTable";
+    ThemisRegionMetrics first = ThemisRegionMetrics.registerRegion(table, "testRegion1");
+    Assert.assertSame(first, ThemisRegionMetrics.registerRegion(table, "testRegion1"));
+    ThemisRegionMetrics second = ThemisRegionMetrics.registerRegion(table, "testRegion2");
+    ThemisRegionMetrics tableMetric = ThemisRegionMetrics.getTableMetrics(table);
+    Assert.assertNotNull(tableMetric);
+
+    // the metrics of region are also counted by the table
+    first.updatePrewrite(System.nanoTime(), true);
+    second.updatePrewrite(System.nanoTime(), false);
+    second.updateBatchCommitSecondary(System.nanoTime(), 10);
+    Assert.assertEquals(1, first.prewriteConflictCount.value());
+    Assert.assertEquals(1, first.prewriteLatency.getTotalCount());
+    Assert.assertEquals(0, second.prewriteConflictCount.value());
+    Assert.assertEquals(1, tableMetric.prewriteConflictCount.value());
+    Assert.assertEquals(2, tableMetric.prewriteLatency.getTotalCount());
+    Assert.assertEquals(1, tableMetric.batchCommitSecondaryCount.value());
+    Assert.assertEquals(10, tableMetric.batchCommitSecondaryRowCount.value());
+
+    // the table is removed with its last region
+    ThemisRegionMetrics.removeRegion(table, "testRegion1");
+    Assert.assertNull(ThemisRegionMetrics.getRegionMetrics("testRegion1"));
+    Assert.assertSame(tableMetric, ThemisRegionMetrics.getTableMetrics(table));
+    ThemisRegionMetrics.removeRegion(table, "testRegion2");
+    Assert.assertNull(ThemisRegionMetrics.getRegionMetrics("testRegion2"));
+    Assert.assertNull(ThemisRegionMetrics.getTableMetrics(table));
+  }
+
+  @Test
+  public void testMaxRegionsAndTables() {
+    int maxRegions = ThemisRegionMetrics.maxRegions;
+    int maxTables = ThemisRegionMetrics.maxTables;
+    ThemisRegionMetrics.maxRegions = 0;
+    ThemisRegionMetrics.maxTables = 0;
+    try {
+      // regions beyond max count are recorded by table, tables beyond max count by OTHER_TABLES
+      ThemisRegionMetrics metric = ThemisRegionMetrics.registerRegion("testTableA", "testRegionA");
+      Assert.assertNull(ThemisRegionMetrics.getRegionMetrics("testRegionA"));
+      Assert.assertNull(ThemisRegionMetrics.getTableMetrics("testTableA"));
+      Assert.assertSame(ThemisRegionMetrics.getTableMetrics(ThemisRegionMetrics.OTHER_TABLES),
+        metric);
+      Assert.assertSame(metric, ThemisRegionMetrics.registerRegion("testTableB", "testRegionB"));
+      ThemisRegionMetrics.removeRegion("testTableA", "testRegionA");
+      Assert.assertNotNull(ThemisRegionMetrics.getTableMetrics(ThemisRegionMetrics.OTHER_TABLES));
+      ThemisRegionMetrics.removeRegion("testTableB", "testRegionB");
+      Assert.assertNull(ThemisRegionMetrics.getTableMetrics(ThemisRegionMetrics.OTHER_TABLES));
+    } finally {
+      ThemisRegionMetrics.maxRegions = maxRegions;
+      ThemisRegionMetrics.maxTables = maxTables;
+    }
+  }
+
+  @Test
+  public void testDisabledMetrics() {
+    ThemisRegionMetrics.DISABLED.updatePrewrite(System.nanoTime(), true);
+    Assert.assertFalse(ThemisRegionMetrics.DISABLED.isEnabled());
+    Assert.assertEquals(0, ThemisRegionMetrics.DISABLED.prewriteConflictCount.value());
+  }
+}
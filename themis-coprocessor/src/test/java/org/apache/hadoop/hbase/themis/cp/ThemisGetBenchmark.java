@@ -0,0 +1,79 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
+import org.apache.hadoop.hbase.util.Bytes;
+
+// Compare the latency of themisGet which reads lock, write and data columns by single pass with
+// themisGet which reads data columns by another get. The rows are written with several committed
+// versions and flushed before reading. Run by:
+// java -cp <test classpath> org.apache.hadoop.hbase.themis.cp.ThemisGetBenchmark rows versions rounds
+public class ThemisGetBenchmark extends TransactionTestBase {
+  private static final ColumnCoordinate[] COLUMNS = new ColumnCoordinate[] { COLUMN,
+      COLUMN_WITH_ANOTHER_FAMILY, COLUMN_WITH_ANOTHER_QUALIFIER };
+
+  public static void main(String args[]) throws Exception {
+    int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int versionCount = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int roundCount = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    setUpBeforeClass();
+    ThemisGetBenchmark benchmark = new ThemisGetBenchmark();
+    try {
+      benchmark.initEnv();
+      benchmark.writeRows(rowCount, versionCount);
+      for (int i = 0; i < roundCount; ++i) {
+        for (boolean singlePass : new boolean[] { false, true }) {
+          long costInNs = benchmark.readRows(rowCount, singlePass);
+          System.out.println("round=" + i + ", singlePass=" + singlePass + ", rowCount=" + rowCount
+              + ", avgLatencyInUs=" + (costInNs / 1000.0 / rowCount));
+        }
+      }
+    } finally {
+      benchmark.tearUp();
+      tearDownAfterClass();
+    }
+  }
+
+  protected static byte[] getRow(int index) {
+    return Bytes.toBytes(String.format("row-%010d", index));
+  }
+
+  protected void writeRows(int rowCount, int versionCount) throws Exception {
+    for (int v = 0; v < versionCount; ++v) {
+      nextTransactionTs();
+      for (int i = 0; i < rowCount; ++i) {
+        for (ColumnCoordinate column : COLUMNS) {
+          writePutAndData(new ColumnCoordinate(TABLENAME, getRow(i), column.getFamily(),
+              column.getQualifier()), prewriteTs, commitTs);
+        }
+      }
+    }
+    TEST_UTIL.getHBaseAdmin().flush(TABLENAME);
+  }
+
+  // invoke themisGet of the endpoint directly, so that the latency is not dominated by rpc
+  protected long readRows(int rowCount, boolean singlePass) throws IOException {
+    List<HRegion> regions = TEST_UTIL.getHBaseCluster().getRegions(TABLENAME);
+    if (regions.size() != 1) {
+      throw new IOException("expect one region of table, but is " + regions.size());
+    }
+    ThemisEndpoint endpoint = (ThemisEndpoint) regions.get(0).getCoprocessorHost()
+        .findCoprocessor(ThemisEndpoint.class.getName());
+    endpoint.singlePassGetMaxColumns = singlePass ? COLUMNS.length : 0;
+    long beginTs = System.nanoTime();
+    for (int i = 0; i < rowCount; ++i) {
+      Get get = new Get(getRow(i));
+      for (ColumnCoordinate column : COLUMNS) {
+        get.addColumn(column.getFamily(), column.getQualifier());
+      }
+      if (endpoint.themisGet(get, commitTs + 1, false).size() != COLUMNS.length) {
+        throw new IOException("unexpected result of row=" + Bytes.toString(getRow(i)));
+      }
+    }
+    return System.nanoTime() - beginTs;
+  }
+}
@@ -0,0 +1,564 @@
+package org.apache.hadoop.hbase.themis.cp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.master.ThemisMasterObserver;
+import org.apache.hadoop.hbase.themis.columns.Column;
+import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
+import org.apache.hadoop.hbase.themis.columns.ColumnMutation;
+import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
+import org.apache.hadoop.hbase.themis.columns.RowMutation;
+import org.apache.hadoop.hbase.themis.exception.WriteConflictException;
+import org.apache.hadoop.hbase.themis.lock.PrimaryLock;
+import org.apache.hadoop.hbase.themis.lock.SecondaryLock;
+import org.apache.hadoop.hbase.themis.lock.ThemisLock;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+// Drive a YCSB-like transactional workload against ThemisEndpoint on the mini cluster. The table
+// is pre-split into regions and loaded with committed rows, then the client threads run a mix of
+// snapshot gets, single-row transactions, multi-row transactions across regions and scans. A part
+// of the transactions write the rows of a small hot set to produce conflicts. The transactions
+// follow the percolator protocol as the themis client does: prewrite the primary row, prewrite the
+// secondary rows, commit the primary row and commit the secondary rows; a transaction aborts and
+// erases its locks when a lock or a newer write is met. Reports throughput, latency percentiles of
+// each endpoint rpc, conflict and abort rates and the count of locks cleaned. Run by:
+// java -cp <test classpath> org.apache.hadoop.hbase.themis.cp.ThemisWorkloadBenchmark [key=value]...
+// keys (default) : threads(16), operations(100000), rows(100000), regions(8), columns(2),
+// readRatio(0.5), singleRowRatio(0.3), multiRowRatio(0.1), scanRatio(0.1), rowsPerTransaction(4),
+// scanLength(100), contentionRatio(0.1), hotRows(100), valueSize(100)
+public class ThemisWorkloadBenchmark extends TransactionTestBase {
+  private static final byte[] WORKLOAD_TABLE = Bytes.toBytes("ThemisWorkloadTable");
+  private static final String CLIENT_ADDRESS = "workload-client";
+  private static final int READ_LOCK_RETRY_COUNT = 5;
+  private static final int READ_LOCK_RETRY_PAUSE = 10;
+
+  private static enum Operation {
+    READ, SINGLE_ROW_TRANSACTION, MULTI_ROW_TRANSACTION, SCAN
+  }
+
+  private final Map<String, String> options;
+  private final int threadCount;
+  private final int operationCount;
+  private final int rowCount;
+  private final int regionCount;
+  private final Column[] columns;
+  private final double[] operationRatios;
+  private final int rowsPerTransaction;
+  private final int scanLength;
+  private final double contentionRatio;
+  private final int hotRowCount;
+  private final int valueSize;
+  private final AtomicLong lastTs = new AtomicLong();
+  private final AtomicInteger nextOperation = new AtomicInteger();
+
+  public ThemisWorkloadBenchmark(Map<String, String> options) {
+    this.options = options;
+    threadCount = getInt("threads", 16);
+    operationCount = getInt("operations", 100000);
+    rowCount = getInt("rows", 100000);
+    regionCount = getInt("regions", 8);
+    int columnCount = getInt("columns", 2);
+    columns = new Column[columnCount];
+    for (int i = 0; i < columnCount; ++i) {
+      columns[i] = new Column(i % 2 == 0 ? FAMILY : ANOTHER_FAMILY,
+          Bytes.toBytes("Qualifier" + i));
+    }
+    operationRatios = new double[] { getDouble("readRatio", 0.5),
+        getDouble("singleRowRatio", 0.3), getDouble("multiRowRatio", 0.1),
+        getDouble("scanRatio", 0.1) };
+    rowsPerTransaction = Math.max(2, getInt("rowsPerTransaction", 4));
+    scanLength = getInt("scanLength", 100);
+    contentionRatio = getDouble("contentionRatio", 0.1);
+    hotRowCount = Math.max(rowsPerTransaction, getInt("hotRows", 100));
+    valueSize = getInt("valueSize", 100);
+  }
+
+  private int getInt(String key, int defaultValue) {
+    return options.containsKey(key) ? Integer.parseInt(options.get(key)) : defaultValue;
+  }
+
+  private double getDouble(String key, double defaultValue) {
+    return options.containsKey(key) ? Double.parseDouble(options.get(key)) : defaultValue;
+  }
+
+  public static void main(String args[]) throws Exception {
+    Map<String, String> options = new TreeMap<String, String>();
+    for (String arg : args) {
+      int index = arg.indexOf('=');
+      if (index <= 0) {
+        throw new IllegalArgumentException("argument must be key=value, but is " + arg);
+      }
+      options.put(arg.substring(0, index), arg.substring(index + 1));
+    }
+    setUpBeforeClass();
+    ThemisWorkloadBenchmark benchmark = new ThemisWorkloadBenchmark(options);
+    try {
+      benchmark.initEnv();
+      benchmark.createWorkloadTable();
+      benchmark.loadRows();
+      benchmark.run();
+    } finally {
+      benchmark.tearUp();
+      tearDownAfterClass();
+    }
+  }
+
+  protected static byte[] getRow(int index) {
+    return Bytes.toBytes(String.format("row-%010d", index));
+  }
+
+  // timestamps of transactions are in ms as the mini cluster uses, and increase strictly
+  protected long nextTs() {
+    while (true) {
+      long last = lastTs.get();
+      long ts = Math.max(System.currentTimeMillis(), last + 1);
+      if (lastTs.compareAndSet(last, ts)) {
+        return ts;
+      }
+    }
+  }
+
+  protected void createWorkloadTable() throws IOException {
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      deleteTable(admin, WORKLOAD_TABLE);
+      HTableDescriptor tableDesc = new HTableDescriptor(WORKLOAD_TABLE);
+      for (byte[] family : new byte[][] { FAMILY, ANOTHER_FAMILY }) {
+        HColumnDescriptor columnDesc = new HColumnDescriptor(family);
+        columnDesc.setValue(ThemisMasterObserver.THEMIS_ENABLE_KEY, "true");
+        tableDesc.addFamily(columnDesc);
+      }
+      if (regionCount <= 1) {
+        admin.createTable(tableDesc);
+        return;
+      }
+      byte[][] splitKeys = new byte[regionCount - 1][];
+      for (int i = 1; i < regionCount; ++i) {
+        splitKeys[i - 1] = getRow((int) ((long) rowCount * i / regionCount));
+      }
+      admin.createTable(tableDesc, splitKeys);
+    } finally {
+      admin.close();
+    }
+  }
+
+  // write the committed data and put columns of all rows directly
+  protected void loadRows() throws IOException {
+    HTableInterface workloadTable = connection.getTable(WORKLOAD_TABLE);
+    try {
+      long prewriteTs = nextTs();
+      long commitTs = nextTs();
+      List<Put> puts = new ArrayList<Put>();
+      for (int i = 0; i < rowCount; ++i) {
+        Put put = new Put(getRow(i));
+        for (Column column : columns) {
+          Column putColumn = ColumnUtil.getPutColumn(column);
+          put.add(column.getFamily(), column.getQualifier(), prewriteTs, new byte[valueSize]);
+          put.add(putColumn.getFamily(), putColumn.getQualifier(), commitTs,
+            Bytes.toBytes(prewriteTs));
+        }
+        puts.add(put);
+        if (puts.size() == 1000 || i == rowCount - 1) {
+          workloadTable.put(puts);
+          puts.clear();
+        }
+      }
+    } finally {
+      workloadTable.close();
+    }
+  }
+
+  protected void run() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    List<Future<WorkloadStatistics>> futures = new ArrayList<Future<WorkloadStatistics>>();
+    long beginTs = System.nanoTime();
+    for (int i = 0; i < threadCount; ++i) {
+      final Random random = new Random(i);
+      futures.add(executor.submit(new Callable<WorkloadStatistics>() {
+        @Override
+        public WorkloadStatistics call() throws Exception {
+          WorkloadStatistics statistics = new WorkloadStatistics();
+          while (nextOperation.getAndIncrement() < operationCount) {
+            runOperation(selectOperation(random), random, statistics);
+          }
+          return statistics;
+        }
+      }));
+    }
+    WorkloadStatistics total = new WorkloadStatistics();
+    for (Future<WorkloadStatistics> future : futures) {
+      total.merge(future.get());
+    }
+    long costInNs = System.nanoTime() - beginTs;
+    executor.shutdown();
+    report(total, costInNs);
+  }
+
+  protected Operation selectOperation(Random random) {
+    double sum = 0;
+    for (double ratio : operationRatios) {
+      sum += ratio;
+    }
+    double value = random.nextDouble() * sum;
+    for (int i = 0; i < operationRatios.length; ++i) {
+      value -= operationRatios[i];
+      if (value < 0) {
+        return Operation.values()[i];
+      }
+    }
+    return Operation.READ;
+  }
+
+  // rows written by the transaction are selected from the hot rows by contentionRatio
+  protected int[] selectRows(Random random, int count, boolean write) {
+    boolean hot = write && random.nextDouble() < contentionRatio;
+    TreeSet<Integer> rows = new TreeSet<Integer>();
+    while (rows.size() < count) {
+      rows.add(hot ? random.nextInt(hotRowCount) * (rowCount / hotRowCount) : random
+          .nextInt(rowCount));
+    }
+    int[] result = new int[count];
+    int i = 0;
+    for (Integer row : rows) {
+      result[i++] = row;
+    }
+    return result;
+  }
+
+  protected void runOperation(Operation operation, Random random, WorkloadStatistics statistics)
+      throws IOException {
+    long beginTs = System.nanoTime();
+    boolean committed = true;
+    switch (operation) {
+    case READ:
+      read(getRow(selectRows(random, 1, false)[0]), nextTs(), statistics);
+      break;
+    case SINGLE_ROW_TRANSACTION:
+      committed = runTransaction(selectRows(random, 1, true), random, statistics);
+      break;
+    case MULTI_ROW_TRANSACTION:
+      committed = runTransaction(selectRows(random, rowsPerTransaction, true), random, statistics);
+      break;
+    case SCAN:
+      scan(selectRows(random, 1, false)[0], statistics);
+      break;
+    }
+    statistics.addLatency("operation." + operation, beginTs);
+    statistics.increment(committed ? "committed." + operation : "aborted." + operation);
+  }
+
+  protected Get createGet(byte[] row) {
+    Get get = new Get(row);
+    for (Column column : columns) {
+      get.addColumn(column.getFamily(), column.getQualifier());
+    }
+    return get;
+  }
+
+  // snapshot read, the read retries when meets locks could not be resolved in server side
+  protected Result read(byte[] row, long startTs, WorkloadStatistics statistics)
+      throws IOException {
+    for (int i = 0; i <= READ_LOCK_RETRY_COUNT; ++i) {
+      long beginTs = System.nanoTime();
+      Pair<Result, List<ThemisLock>> result = cpClient.themisGetWithResolvedLocks(WORKLOAD_TABLE,
+        createGet(row), startTs);
+      statistics.addLatency("rpc.themisGet", beginTs);
+      statistics.add("lock.resolvedByGet", result.getSecond().size());
+      if (!ThemisCpUtil.isLockResult(result.getFirst())) {
+        return result.getFirst();
+      }
+      statistics.increment("read.lockRetry");
+      sleep(READ_LOCK_RETRY_PAUSE);
+    }
+    statistics.increment("read.lockFail");
+    return null;
+  }
+
+  // the latency of the whole scan is recorded, including the scanner rpcs of all regions
+  protected void scan(int startRow, WorkloadStatistics statistics) throws IOException {
+    Scan scan = new Scan(getRow(startRow), getRow(startRow + scanLength));
+    for (Column column : columns) {
+      scan.addColumn(column.getFamily(), column.getQualifier());
+    }
+    scan.setAttribute(ThemisScanObserver.TRANSACTION_START_TS, Bytes.toBytes(nextTs()));
+    scan.setCaching(scanLength);
+    long beginTs = System.nanoTime();
+    HTableInterface workloadTable = connection.getTable(WORKLOAD_TABLE);
+    try {
+      ResultScanner scanner = workloadTable.getScanner(scan);
+      Result result = null;
+      while ((result = scanner.next()) != null) {
+        if (ThemisCpUtil.isLockResult(result)) {
+          statistics.increment("scan.lockRow");
+        }
+      }
+      scanner.close();
+    } finally {
+      workloadTable.close();
+    }
+    statistics.addLatency("rpc.themisScan", beginTs);
+  }
+
+  protected RowMutation createRowMutation(byte[] row, Random random) {
+    RowMutation rowMutation = new RowMutation(row);
+    for (Column column : columns) {
+      byte[] value = new byte[valueSize];
+      random.nextBytes(value);
+      rowMutation.addMutation(column, Type.Put, value, false);
+    }
+    return rowMutation;
+  }
+
+  protected byte[] createPrimaryLock(long startTs, List<RowMutation> rows) throws IOException {
+    PrimaryLock lock = new PrimaryLock(Type.Put);
+    setLockFields(lock, startTs);
+    // the first column of the first row is the primary column
+    for (int i = 0; i < rows.size(); ++i) {
+      List<ColumnMutation> mutations = rows.get(i).mutationList();
+      for (int j = (i == 0 ? 1 : 0); j < mutations.size(); ++j) {
+        lock.addSecondaryColumn(new ColumnCoordinate(WORKLOAD_TABLE, rows.get(i).getRow(),
+            mutations.get(j)), mutations.get(j).getType());
+      }
+    }
+    return ThemisLock.toByte(lock);
+  }
+
+  protected byte[] createSecondaryLock(long startTs, RowMutation primaryRow) throws IOException {
+    SecondaryLock lock = new SecondaryLock(Type.Put);
+    setLockFields(lock, startTs);
+    lock.setPrimaryColumn(new ColumnCoordinate(WORKLOAD_TABLE, primaryRow.getRow(), primaryRow
+        .mutationList().get(0)));
+    return ThemisLock.toByte(lock);
+  }
+
+  private static void setLockFields(ThemisLock lock, long startTs) {
+    lock.setTimestamp(startTs);
+    lock.setClientAddress(CLIENT_ADDRESS);
+  }
+
+  // read the rows and write them back, the first row is the primary. Return false if aborted
+  protected boolean runTransaction(int[] rowIndexes, Random random, WorkloadStatistics statistics)
+      throws IOException {
+    long startTs = nextTs();
+    List<RowMutation> rows = new ArrayList<RowMutation>();
+    for (int rowIndex : rowIndexes) {
+      if (read(getRow(rowIndex), startTs, statistics) == null) {
+        return false;
+      }
+      rows.add(createRowMutation(getRow(rowIndex), random));
+    }
+    RowMutation primary = rows.get(0);
+    byte[] primaryLock = createPrimaryLock(startTs, rows);
+    byte[] secondaryLock = createSecondaryLock(startTs, primary);
+    boolean singleRow = rows.size() == 1;
+    List<RowMutation> prewrittenRows = new ArrayList<RowMutation>();
+    try {
+      long beginTs = System.nanoTime();
+      ThemisLock conflictLock = singleRow ? cpClient.prewriteSingleRow(WORKLOAD_TABLE,
+        primary.getRow(), primary.mutationListWithoutValue(), startTs, primaryLock, secondaryLock,
+        0) : cpClient.prewriteRow(WORKLOAD_TABLE, primary.getRow(), primary.mutationList(),
+        startTs, primaryLock, secondaryLock, 0);
+      statistics.addLatency(singleRow ? "rpc.prewriteSingleRow" : "rpc.prewriteRow", beginTs);
+      if (conflictLock != null) {
+        statistics.increment("conflict.lock");
+        return false;
+      }
+      prewrittenRows.add(primary);
+      for (RowMutation secondary : rows.subList(1, rows.size())) {
+        beginTs = System.nanoTime();
+        conflictLock = cpClient.prewriteSecondaryRow(WORKLOAD_TABLE, secondary.getRow(),
+          secondary.mutationList(), startTs, secondaryLock);
+        statistics.addLatency("rpc.prewriteSecondaryRow", beginTs);
+        if (conflictLock != null) {
+          statistics.increment("conflict.lock");
+          eraseLocks(prewrittenRows, startTs, statistics);
+          return false;
+        }
+        prewrittenRows.add(secondary);
+      }
+    } catch (WriteConflictException e) {
+      statistics.increment("conflict.write");
+      eraseLocks(prewrittenRows, startTs, statistics);
+      return false;
+    }
+
+    long commitTs = nextTs();
+    long beginTs = System.nanoTime();
+    if (singleRow) {
+      cpClient.commitSingleRow(WORKLOAD_TABLE, primary.getRow(), primary.mutationList(), startTs,
+        commitTs, 0);
+      statistics.addLatency("rpc.commitSingleRow", beginTs);
+      return true;
+    }
+    cpClient.commitRow(WORKLOAD_TABLE, primary.getRow(), primary.mutationListWithoutValue(),
+      startTs, commitTs, 0);
+    statistics.addLatency("rpc.commitRow", beginTs);
+    for (RowMutation secondary : rows.subList(1, rows.size())) {
+      beginTs = System.nanoTime();
+      cpClient.commitSecondaryRow(WORKLOAD_TABLE, secondary.getRow(),
+        secondary.mutationListWithoutValue(), startTs, commitTs);
+      statistics.addLatency("rpc.commitSecondaryRow", beginTs);
+    }
+    return true;
+  }
+
+  protected void eraseLocks(List<RowMutation> rows, long startTs, WorkloadStatistics statistics)
+      throws IOException {
+    for (RowMutation row : rows) {
+      for (ColumnMutation mutation : row.mutationList()) {
+        long beginTs = System.nanoTime();
+        ThemisLock lock = cpClient.getLockAndErase(new ColumnCoordinate(WORKLOAD_TABLE,
+            row.getRow(), mutation), startTs);
+        statistics.addLatency("rpc.getLockAndErase", beginTs);
+        if (lock != null) {
+          statistics.increment("lock.erasedByAbort");
+        }
+      }
+    }
+  }
+
+  private static void sleep(long ms) throws IOException {
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+  }
+
+  protected void report(WorkloadStatistics statistics, long costInNs) {
+    double seconds = costInNs / 1000000000.0;
+    System.out.println("options=" + options);
+    System.out.println(String.format("operations=%d, seconds=%.2f, throughput(ops/s)=%.1f",
+      operationCount, seconds, operationCount / seconds));
+    for (Entry<String, LatencyList> entry : new TreeMap<String, LatencyList>(statistics.latencies)
+        .entrySet()) {
+      long[] sorted = entry.getValue().sorted();
+      System.out.println(String.format(
+        "%-32s count=%d, avg(us)=%.1f, p50(us)=%d, p99(us)=%d, p999(us)=%d, max(us)=%d",
+        entry.getKey(), sorted.length, entry.getValue().average(), percentile(sorted, 0.5),
+        percentile(sorted, 0.99), percentile(sorted, 0.999), percentile(sorted, 1)));
+    }
+    for (Entry<String, Long> entry : new TreeMap<String, Long>(statistics.counters).entrySet()) {
+      System.out.println(String.format("%-32s %d", entry.getKey(), entry.getValue()));
+    }
+    for (Operation operation : new Operation[] { Operation.SINGLE_ROW_TRANSACTION,
+        Operation.MULTI_ROW_TRANSACTION }) {
+      long committed = statistics.get("committed." + operation);
+      long aborted = statistics.get("aborted." + operation);
+      if (committed + aborted > 0) {
+        System.out.println(String.format("%-32s %.4f", "abortRate." + operation, (double) aborted
+            / (committed + aborted)));
+      }
+    }
+  }
+
+  protected static long percentile(long[] sorted, double percent) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percent * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+  }
+
+  // latencies in us recorded by one thread
+  static class LatencyList {
+    private long[] values = new long[1024];
+    private int size = 0;
+
+    public void add(long value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    public void addAll(LatencyList other) {
+      for (int i = 0; i < other.size; ++i) {
+        add(other.values[i]);
+      }
+    }
+
+    public long[] sorted() {
+      long[] sorted = Arrays.copyOf(values, size);
+      Arrays.sort(sorted);
+      return sorted;
+    }
+
+    public double average() {
+      long sum = 0;
+      for (int i = 0; i < size; ++i) {
+        sum += values[i];
+      }
+      return size == 0 ? 0 : (double) sum / size;
+    }
+  }
+
+  // statistics of one client thread, merged after all the operations are done
+  static class WorkloadStatistics {
+    private final Map<String, LatencyList> latencies = new HashMap<String, LatencyList>();
+    private final Map<String, Long> counters = new HashMap<String, Long>();
+
+    public void addLatency(String name, long beginTs) {
+      LatencyList latency = latencies.get(name);
+      if (latency == null) {
+        latency = new LatencyList();
+        latencies.put(name, latency);
+      }
+      latency.add((System.nanoTime() - beginTs) / 1000);
+    }
+
+    public void increment(String name) {
+      add(name, 1);
+    }
+
+    public void add(String name, long delta) {
+      counters.put(name, get(name) + delta);
+    }
+
+    public long get(String name) {
+      Long value = counters.get(name);
+      return value == null ? 0 : value;
+    }
+
+    public void merge(WorkloadStatistics other) {
+      for (Entry<String, LatencyList> entry : other.latencies.entrySet()) {
+        LatencyList latency = latencies.get(entry.getKey());
+        if (latency == null) {
+          latency = new LatencyList();
+          latencies.put(entry.getKey(), latency);
+        }
+        latency.addAll(entry.getValue());
+      }
+      for (Entry<String, Long> entry : other.counters.entrySet()) {
+        add(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+}
@@ -530,7 +530,7 @@ public class TransactionTestBase extends TestBase {
     return tblName + SPLIT + rowKey;
   }
 
-  private Map<byte[], List<RowMutation>> groupByTableName(List<Pair<byte[], RowMutation>> rows) {
+  protected Map<byte[], List<RowMutation>> groupByTableName(List<Pair<byte[], RowMutation>> rows) {
     Map<byte[], List<RowMutation>> map = new HashMap<byte[], List<RowMutation>>();
     List<RowMutation> list = null;
     for (Pair<byte[], RowMutation> secondary : rows) {
@@ -4,9 +4,14 @@ import java.io.IOException;
 
 import junit.framework.Assert;
 
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.themis.columns.Column;
+import org.apache.hadoop.hbase.themis.columns.ColumnCoordinate;
+import org.apache.hadoop.hbase.themis.columns.ColumnUtil;
 import org.apache.hadoop.hbase.themis.lock.ThemisLock;
 import org.apache.hadoop.hbase.themis.lock.PrimaryLock;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Test;
 
 public class TestPrimaryLock extends TestThemisLock {
@@ -36,4 +41,66 @@ public class TestPrimaryLock extends TestThemisLock {
     ThemisLock actual = ThemisLock.parseFromByte(lockByte);
     Assert.assertTrue(expect.equals(actual));
   }
+  
+  @Test
+  public void testParseFromByteOfAllFormats() throws IOException {
+    checkParseFromAllSources(getPrimaryLock());
+  }
+  
+  @Test
+  public void testSetType() throws IOException {
+    checkSetType(getPrimaryLock());
+  }
+  
+  @Test
+  public void testParseSecondariesLazily() throws IOException {
+    PrimaryLock expect = getPrimaryLock();
+    byte[] lockBytes = ThemisLock.toByte(expect);
+    PrimaryLock actual = (PrimaryLock) ThemisLock.parseFromByte(lockBytes);
+    Assert.assertFalse(actual.isSecondaryColumnsParsed());
+    // serialize without parsing secondaries
+    Assert.assertTrue(Bytes.equals(lockBytes, ThemisLock.toByte(actual)));
+    Assert.assertFalse(actual.isSecondaryColumnsParsed());
+    Assert.assertEquals(expect.getSecondaryColumn(COLUMN_WITH_ANOTHER_ROW),
+      actual.getSecondaryColumn(COLUMN_WITH_ANOTHER_ROW));
+    Assert.assertTrue(actual.isSecondaryColumnsParsed());
+    Assert.assertTrue(expect.equals(actual));
+    // serialize after modified
+    actual.addSecondaryColumn(COLUMN_WITH_ZZ_ROW, Type.DeleteColumn);
+    PrimaryLock modified = (PrimaryLock) ThemisLock.parseFromByte(ThemisLock.toByte(actual));
+    Assert.assertEquals(expect.getSecondaryColumns().size() + 1,
+      modified.getSecondaryColumns().size());
+    Assert.assertEquals(Type.DeleteColumn, modified.getSecondaryColumn(COLUMN_WITH_ZZ_ROW));
+  }
+  
+  @Test
+  public void testEncodedSizeOfLargeTransaction() throws IOException {
+    PrimaryLock lock = getPrimaryLock();
+    for (byte[] tableName : new byte[][] { TABLENAME, ANOTHER_TABLENAME }) {
+      for (int i = 0; i < 200; ++i) {
+        byte[] row = Bytes.toBytes(String.format("user_%016d", i));
+        for (int j = 0; j < 5; ++j) {
+          lock.addSecondaryColumn(new ColumnCoordinate(tableName, row, FAMILY,
+              Bytes.toBytes("qualifier" + j)), j % 2 == 0 ? Type.Put : Type.DeleteColumn);
+        }
+      }
+    }
+    byte[] lockBytes = ThemisLock.toByte(lock);
+    byte[] legacyBytes = toLegacyByte(lock);
+    Assert.assertTrue(expectSmaller(lockBytes.length, legacyBytes.length));
+    Assert.assertTrue(lock.equals(ThemisLock.parseFromByte(lockBytes)));
+    Assert.assertTrue(lock.equals(ThemisLock.parseFromByte(legacyBytes)));
+    // memstore size of the lock kv
+    Column lockColumn = ColumnUtil.getLockColumn(COLUMN);
+    long heapSize = new KeyValue(ROW, lockColumn.getFamily(), lockColumn.getQualifier(),
+        PREWRITE_TS, lockBytes).heapSize();
+    long legacyHeapSize = new KeyValue(ROW, lockColumn.getFamily(), lockColumn.getQualifier(),
+        PREWRITE_TS, legacyBytes).heapSize();
+    Assert.assertTrue(expectSmaller(heapSize, legacyHeapSize));
+  }
+  
+  // the compact encoding should take less than 1/3 size of the legacy encoding
+  protected static boolean expectSmaller(long size, long legacySize) {
+    return size * 3 < legacySize;
+  }
 }
@@ -24,4 +24,14 @@ public class TestSecondaryLock extends TestThemisLock {
     ThemisLock actual = ThemisLock.parseFromByte(lockByte);
     Assert.assertTrue(expect.equals(actual));
   }
+  
+  @Test
+  public void testParseFromByteOfAllFormats() throws IOException {
+    checkParseFromAllSources(getSecondaryLock(COLUMN));
+  }
+  
+  @Test
+  public void testSetType() throws IOException {
+    checkSetType(getSecondaryLock(COLUMN));
+  }
 }
@@ -1,9 +1,14 @@
 package org.apache.hadoop.hbase.themis.lock;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import junit.framework.Assert;
 
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.Type;
 import org.apache.hadoop.hbase.themis.TestBase;
 import org.apache.hadoop.hbase.themis.lock.ThemisLock;
 import org.junit.Test;
@@ -29,4 +34,83 @@ public class TestThemisLock extends TestBase {
     writeObjectToBufferAndRead(expect, actual);
     Assert.assertTrue(expect.equals(actual));
   }
+  
+  // serialize the lock in the legacy format
+  public static byte[] toLegacyByte(ThemisLock lock) throws IOException {
+    ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+    DataOutputStream os = new DataOutputStream(byteOut);
+    os.writeBoolean(lock.isPrimary());
+    lock.write(os);
+    return byteOut.toByteArray();
+  }
+  
+  // check the fixed fields could be read from serialized lock at offset without parsing
+  public static void checkFixedFields(ThemisLock expect, byte[] data, int offset) {
+    Assert.assertEquals(expect.isPrimary(), ThemisLock.isPrimary(data, offset));
+    Assert.assertEquals(expect.getType(), ThemisLock.getType(data, offset));
+    Assert.assertEquals(expect.getTimestamp(), ThemisLock.getTimestamp(data, offset));
+  }
+  
+  public static void checkParseFromAllSources(ThemisLock expect) throws IOException {
+    for (byte[] lockBytes : new byte[][] { ThemisLock.toByte(expect), toLegacyByte(expect) }) {
+      Assert.assertTrue(expect.equals(ThemisLock.parseFromByte(lockBytes)));
+      checkFixedFields(expect, lockBytes, 0);
+      // read from the middle of a larger array
+      byte[] padded = new byte[lockBytes.length + 3];
+      System.arraycopy(lockBytes, 0, padded, 2, lockBytes.length);
+      Assert.assertTrue(expect.equals(ThemisLock.parseFromByte(padded, 2, lockBytes.length)));
+      checkFixedFields(expect, padded, 2);
+      ByteBuffer buffer = ByteBuffer.wrap(padded, 2, lockBytes.length);
+      Assert.assertEquals(expect.isPrimary(), ThemisLock.isPrimary(buffer));
+      Assert.assertEquals(expect.getType(), ThemisLock.getType(buffer));
+      Assert.assertEquals(expect.getTimestamp(), ThemisLock.getTimestamp(buffer));
+      Assert.assertTrue(expect.equals(ThemisLock.parseFromByte(buffer)));
+      ByteBuffer directBuffer = ByteBuffer.allocateDirect(lockBytes.length);
+      directBuffer.put(lockBytes).flip();
+      Assert.assertTrue(expect.equals(ThemisLock.parseFromByte(directBuffer)));
+      KeyValue lockKv = new KeyValue(ROW, FAMILY, QUALIFIER, PREWRITE_TS, lockBytes);
+      Assert.assertTrue(expect.equals(ThemisLock.parseFromKeyValue(lockKv)));
+    }
+  }
+  
+  public static void checkSetType(ThemisLock lock) throws IOException {
+    for (byte[] lockBytes : new byte[][] { ThemisLock.toByte(lock), toLegacyByte(lock) }) {
+      for (Type type : new Type[] { Type.Put, Type.DeleteColumn, Type.Minimum }) {
+        ThemisLock.setType(lockBytes, type);
+        lock.setType(type);
+        Assert.assertTrue(lock.equals(ThemisLock.parseFromByte(lockBytes)));
+      }
+    }
+  }
+  
+  @Test
+  public void testAsyncCommitLock() throws IOException {
+    for (ThemisLock lock : new ThemisLock[] { getPrimaryLock(), getSecondaryLock(COLUMN) }) {
+      Assert.assertFalse(lock.isAsyncCommit());
+      byte[] lockBytes = ThemisLock.toByte(lock);
+      Assert.assertFalse(ThemisLock.isAsyncCommit(lockBytes, 0));
+      Assert.assertEquals(0, ThemisLock.getMinCommitTs(lockBytes, 0));
+      try {
+        ThemisLock.setMinCommitTs(lockBytes, COMMIT_TS);
+        Assert.fail();
+      } catch (IllegalArgumentException e) {}
+      
+      lock.setMinCommitTs(PREWRITE_TS + 1);
+      Assert.assertTrue(lock.isAsyncCommit());
+      lockBytes = ThemisLock.toByte(lock);
+      Assert.assertTrue(ThemisLock.isAsyncCommit(lockBytes, 0));
+      Assert.assertEquals(PREWRITE_TS + 1, ThemisLock.getMinCommitTs(lockBytes, 0));
+      checkFixedFields(lock, lockBytes, 0);
+      ThemisLock actual = ThemisLock.parseFromByte(lockBytes);
+      Assert.assertTrue(lock.equals(actual));
+      Assert.assertEquals(PREWRITE_TS + 1, actual.getMinCommitTs());
+      
+      // minCommitTs and type could be rewritten in place
+      ThemisLock.setMinCommitTs(lockBytes, COMMIT_TS);
+      ThemisLock.setType(lockBytes, Type.DeleteColumn);
+      lock.setMinCommitTs(COMMIT_TS);
+      lock.setType(Type.DeleteColumn);
+      Assert.assertTrue(lock.equals(ThemisLock.parseFromByte(lockBytes)));
+    }
+  }
 }